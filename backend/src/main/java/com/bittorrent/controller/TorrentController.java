@@ -1,19 +1,37 @@
 package com.bittorrent.controller;
 
+import com.bittorrent.dto.CursorPage;
+import com.bittorrent.dto.DownloadSummary;
+import com.bittorrent.dto.TorrentSummary;
+import com.bittorrent.model.BandwidthProfile;
 import com.bittorrent.model.Torrent;
 import com.bittorrent.model.Download;
 import com.bittorrent.repository.TorrentRepository;
 import com.bittorrent.repository.DownloadRepository;
+import com.bittorrent.service.LiveStatsStore;
+import com.bittorrent.service.PayloadStreamer;
+import com.bittorrent.service.ProgressSnapshot;
+import com.bittorrent.service.ProgressStream;
+import com.bittorrent.service.StatusCounters;
 import com.bittorrent.service.TorrentService;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.function.Function;
 
 @RestController
 @RequiredArgsConstructor
@@ -22,6 +40,10 @@ public class TorrentController {
     private final TorrentService torrentService;
     private final TorrentRepository torrentRepo;
     private final DownloadRepository downloadRepo;
+    private final LiveStatsStore liveStats;
+    private final ProgressStream progressStream;
+    private final PayloadStreamer payloadStreamer;
+    private final StatusCounters statusCounters;
 
     @PostMapping("/upload")
     public ResponseEntity<?> upload(@RequestParam("file") MultipartFile file) {
@@ -34,11 +56,50 @@ public class TorrentController {
         }
     }
 
+    // Bulk import: a zip of .torrent files as the request body, streamed
+    @PostMapping(value = "/import", consumes = {"application/zip", MediaType.APPLICATION_OCTET_STREAM_VALUE})
+    public ResponseEntity<?> importZip(HttpServletRequest request) {
+        try {
+            return ResponseEntity.ok(torrentService.importZip(request.getInputStream()));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Import failed: " + e.getMessage());
+        }
+    }
+
+    // Bulk import: multipart "files" parts, each a .torrent file or a zip of them
+    @PostMapping(value = "/import", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<?> importFiles(@RequestParam("files") List<MultipartFile> files) {
+        try {
+            return ResponseEntity.ok(torrentService.importFiles(files));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Import failed: " + e.getMessage());
+        }
+    }
+
+    // Adds a torrent from a magnet link once its metadata has been fetched from peers
+    @PostMapping("/magnet")
+    public ResponseEntity<?> addMagnet(@RequestParam String uri, @RequestParam(defaultValue = "false") boolean start) {
+        try {
+            return ResponseEntity.ok(torrentService.addMagnet(uri, start));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Magnet failed: " + e.getMessage());
+        }
+    }
+
     @PostMapping("/{id}/start")
-    public ResponseEntity<?> start(@PathVariable Long id) {
+    public ResponseEntity<?> start(@PathVariable Long id, @RequestParam(defaultValue = "0") int priority) {
         try {
-            torrentService.startDownload(id);
+            torrentService.startDownload(id, priority);
             return ResponseEntity.ok("Download started for torrent ID: " + id);
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
         } catch (RuntimeException e) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND)
                     .body("Torrent not found: " + e.getMessage());
@@ -70,29 +131,239 @@ public class TorrentController {
         }
     }
 
+    @PostMapping("/{id}/recheck")
+    public ResponseEntity<?> recheck(@PathVariable Long id) {
+        try {
+            return ResponseEntity.ok(torrentService.recheck(id));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Recheck failed: " + e.getMessage());
+        }
+    }
+
+    @PostMapping("/{id}/priority")
+    public ResponseEntity<?> priority(@PathVariable Long id, @RequestParam int value) {
+        try {
+            torrentService.setPriority(id, value);
+            return ResponseEntity.ok("Priority set to " + value + " for torrent ID: " + id);
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Failed to set priority: " + e.getMessage());
+        }
+    }
+
+    @GetMapping("/{id}/picker")
+    public ResponseEntity<?> getPickerStats(@PathVariable Long id) {
+        try {
+            return ResponseEntity.ok(torrentService.getPickerStats(id));
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        }
+    }
+
+    // Speed, peer and progress series for graphs; resolution RAW, MINUTE or HOUR, else the finest covering the window
+    @GetMapping("/{id}/history")
+    public ResponseEntity<?> getHistory(@PathVariable Long id, @RequestParam(required = false) String resolution,
+            @RequestParam(defaultValue = "60") int minutes, @RequestParam(defaultValue = "300") int points) {
+        try {
+            return ResponseEntity.ok(torrentService.getHistory(id, resolution, minutes, points));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        }
+    }
+
+    @GetMapping("/{id}/files")
+    public ResponseEntity<?> getFiles(@PathVariable Long id) {
+        try {
+            return ResponseEntity.ok(torrentService.getFiles(id));
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Failed to read files: " + e.getMessage());
+        }
+    }
+
+    // File priority (SKIP, LOW, NORMAL, HIGH) for the given indexes, or all files when none are given
+    @PostMapping("/{id}/files/priority")
+    public ResponseEntity<?> setFilePriority(@PathVariable Long id, @RequestParam String value,
+            @RequestParam(required = false) List<Integer> index) {
+        try {
+            return ResponseEntity.ok(torrentService.setFilePriority(id, index, value));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Failed to set file priority: " + e.getMessage());
+        }
+    }
+
+    // One payload file, with Range support; a file still downloading is streamed as its pieces arrive
+    @GetMapping("/{id}/files/{index}")
+    public ResponseEntity<?> streamFile(@PathVariable Long id, @PathVariable int index, HttpServletRequest request) {
+        List<HttpRange> ranges;
+        try {
+            ranges = HttpRange.parseRanges(request.getHeader(HttpHeaders.RANGE));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE).body(e.getMessage());
+        }
+        try {
+            return payloadStreamer.serve(torrentService.openPayload(id), index, ranges, request);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Streaming failed: " + e.getMessage());
+        }
+    }
+
+    @GetMapping("/{id}/trackers")
+    public ResponseEntity<?> getTrackerStatus(@PathVariable Long id) {
+        try {
+            return ResponseEntity.ok(torrentService.getTrackerStatus(id));
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
+        }
+    }
+
+    // Bandwidth limits in bytes per second; 0 means unlimited
+    @PostMapping("/{id}/limits")
+    public ResponseEntity<?> setLimits(@PathVariable Long id,
+            @RequestParam(defaultValue = "0") long download,
+            @RequestParam(defaultValue = "0") long upload) {
+        try {
+            return ResponseEntity.ok(torrentService.setRateLimits(id, download, upload));
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body("Torrent not found: " + e.getMessage());
+        }
+    }
+
+    // An omitted direction keeps its current limit
+    @PostMapping("/limits")
+    public ResponseEntity<?> setGlobalLimits(@RequestParam(required = false) Long download,
+            @RequestParam(required = false) Long upload) {
+        try {
+            torrentService.setGlobalRateLimits(download, upload);
+            return ResponseEntity.ok(torrentService.getBandwidthStats());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    // Disk allocation mode (SPARSE, FULL, COMPACT) used from the next start; empty clears the override
+    @PostMapping("/{id}/allocation")
+    public ResponseEntity<?> setAllocation(@PathVariable Long id, @RequestParam(defaultValue = "") String mode) {
+        try {
+            return ResponseEntity.ok(torrentService.setAllocationMode(id, mode));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body("Torrent not found: " + e.getMessage());
+        }
+    }
+
+    @PostMapping("/allocation")
+    public ResponseEntity<?> setDefaultAllocation(@RequestParam String mode) {
+        try {
+            torrentService.setDefaultAllocationMode(mode);
+            return ResponseEntity.ok(torrentService.getAllocationStats());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @GetMapping("/limits/profiles")
+    public List<BandwidthProfile> listProfiles() {
+        return torrentService.getBandwidthProfiles();
+    }
+
+    @PostMapping("/limits/profiles")
+    public ResponseEntity<?> saveProfile(@RequestBody BandwidthProfile profile) {
+        try {
+            return ResponseEntity.ok(torrentService.saveBandwidthProfile(profile));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @DeleteMapping("/limits/profiles/{profileId}")
+    public ResponseEntity<?> deleteProfile(@PathVariable Long profileId) {
+        torrentService.deleteBandwidthProfile(profileId);
+        return ResponseEntity.noContent().build();
+    }
+
     @DeleteMapping("/{id}")
     public ResponseEntity<?> delete(@PathVariable Long id) {
         if (!torrentRepo.existsById(id)) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Torrent not found");
         }
-        // Delete associated downloads first
-        downloadRepo.findByTorrentId(id).forEach(d -> downloadRepo.deleteById(d.getId()));
-        torrentRepo.deleteById(id);
+        torrentService.deleteTorrent(id);
         return ResponseEntity.noContent().build();
     }
 
+    // Full rows, one keyset page at a time; /page is the lighter projection
     @GetMapping
-    public List<Torrent> list() {
-        return torrentRepo.findAll();
+    public List<Torrent> list(@RequestParam(defaultValue = "0") Long afterId,
+            @RequestParam(defaultValue = "500") int limit) {
+        return torrentRepo.findByIdGreaterThanOrderById(afterId, PageRequest.of(0, clampLimit(limit)));
+    }
+
+    // Keyset-paginated listings returning projections; pass nextCursor back as afterId
+    @GetMapping("/page")
+    public CursorPage<TorrentSummary> listPage(@RequestParam(defaultValue = "0") Long afterId,
+            @RequestParam(defaultValue = "50") int limit,
+            @RequestParam(required = false) String name) {
+        Pageable page = PageRequest.of(0, clampLimit(limit));
+        List<TorrentSummary> items = name == null || name.isBlank()
+                ? torrentRepo.findPage(afterId, page)
+                : torrentRepo.findPageByName(afterId, name, page);
+        return new CursorPage<>(items, nextCursor(items, page, TorrentSummary::id));
+    }
+
+    @GetMapping("/downloads")
+    public CursorPage<DownloadSummary> listDownloads(@RequestParam(defaultValue = "0") Long afterId,
+            @RequestParam(defaultValue = "50") int limit,
+            @RequestParam(required = false) String status) {
+        Pageable page = PageRequest.of(0, clampLimit(limit));
+        List<DownloadSummary> items = status == null || status.isBlank()
+                ? downloadRepo.findPage(afterId, page)
+                : downloadRepo.findPageByStatus(status.toUpperCase(), afterId, page);
+        return new CursorPage<>(withLiveStats(items), nextCursor(items, page, DownloadSummary::id));
+    }
+
+    @GetMapping("/{id}/downloads")
+    public CursorPage<DownloadSummary> listTorrentDownloads(@PathVariable Long id,
+            @RequestParam(defaultValue = "0") Long afterId,
+            @RequestParam(defaultValue = "50") int limit) {
+        Pageable page = PageRequest.of(0, clampLimit(limit));
+        List<DownloadSummary> items = downloadRepo.findPageByTorrentId(id, afterId, page);
+        return new CursorPage<>(withLiveStats(items), nextCursor(items, page, DownloadSummary::id));
     }
 
     @GetMapping("/{id}/status")
-    public ResponseEntity<?> status(@PathVariable Long id) {
+    public ResponseEntity<?> status(@PathVariable Long id, @RequestParam(defaultValue = "20") int limit) {
         try {
-            List<Download> downloads = downloadRepo.findByTorrentId(id);
+            // Newest first; older history is on /{id}/downloads
+            List<Download> downloads = downloadRepo.findByTorrentIdOrderByIdDesc(id,
+                    PageRequest.of(0, clampLimit(limit)));
             if (downloads.isEmpty()) {
                 return ResponseEntity.status(HttpStatus.NOT_FOUND).body("No downloads found for torrent ID: " + id);
             }
+            downloads.forEach(liveStats::overlay);
             return ResponseEntity.ok(downloads);
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -103,14 +374,19 @@ public class TorrentController {
     @GetMapping("/{id}/stats")
     public ResponseEntity<?> getStats(@PathVariable Long id) {
         try {
-            List<Download> downloads = downloadRepo.findByTorrentId(id);
-            if (downloads.isEmpty()) {
-                return ResponseEntity.status(HttpStatus.NOT_FOUND).body("No downloads found for torrent ID: " + id);
-            }
+            // Active downloads are served from memory without a database round trip
+            Download latestDownload = liveStats.view(id);
+            if (latestDownload == null) {
+                List<Download> downloads = downloadRepo.findByTorrentId(id);
+                if (downloads.isEmpty()) {
+                    return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                            .body("No downloads found for torrent ID: " + id);
+                }
 
-            Download latestDownload = downloads.stream()
-                    .max((d1, d2) -> d1.getLastUpdated().compareTo(d2.getLastUpdated()))
-                    .orElse(downloads.get(0));
+                latestDownload = downloads.stream()
+                        .max((d1, d2) -> d1.getLastUpdated().compareTo(d2.getLastUpdated()))
+                        .orElse(downloads.get(0));
+            }
 
             Map<String, Object> stats = new HashMap<>();
             stats.put("download", latestDownload);
@@ -123,30 +399,122 @@ public class TorrentController {
         }
     }
 
+    // Server-sent progress deltas; replaces per-torrent polling of /stats
+    @GetMapping(path = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter stream(@RequestParam(required = false) Long torrentId) {
+        return progressStream.subscribe(torrentId);
+    }
+
+    @GetMapping("/stats/bandwidth")
+    public ResponseEntity<?> getBandwidthStats() {
+        return ResponseEntity.ok(torrentService.getBandwidthStats());
+    }
+
+    @GetMapping("/stats/peers")
+    public ResponseEntity<?> getPeerStats() {
+        return ResponseEntity.ok(torrentService.getPeerStats());
+    }
+
+    @GetMapping("/stats/dht")
+    public ResponseEntity<?> getDhtStats() {
+        return ResponseEntity.ok(torrentService.getDhtStats());
+    }
+
+    @GetMapping("/stats/trackers")
+    public ResponseEntity<?> getTrackerStats() {
+        return ResponseEntity.ok(torrentService.getTrackerStats());
+    }
+
+    @GetMapping("/stats/magnet")
+    public ResponseEntity<?> getMagnetStats() {
+        return ResponseEntity.ok(torrentService.getMagnetStats());
+    }
+
+    @GetMapping("/stats/import")
+    public ResponseEntity<?> getImportStats() {
+        return ResponseEntity.ok(torrentService.getImportStats());
+    }
+
+    @GetMapping("/stats/allocation")
+    public ResponseEntity<?> getAllocationStats() {
+        return ResponseEntity.ok(torrentService.getAllocationStats());
+    }
+
+    @GetMapping("/stats/write-cache")
+    public ResponseEntity<?> getWriteCacheStats() {
+        return ResponseEntity.ok(torrentService.getWriteCacheStats());
+    }
+
+    @GetMapping("/stats/recovery")
+    public ResponseEntity<?> getRecoveryStats() {
+        return ResponseEntity.ok(torrentService.getRecoveryStats());
+    }
+
+    @GetMapping("/stats/history")
+    public ResponseEntity<?> getHistoryStats() {
+        return ResponseEntity.ok(torrentService.getHistoryStats());
+    }
+
+    @GetMapping("/stats/seeding")
+    public ResponseEntity<?> getSeedingStats() {
+        return ResponseEntity.ok(torrentService.getSeedingStats());
+    }
+
+    @GetMapping("/stats/payload")
+    public ResponseEntity<?> getPayloadStats() {
+        return ResponseEntity.ok(payloadStreamer.getStats());
+    }
+
+    @GetMapping("/stats/stream")
+    public ResponseEntity<?> getStreamStats() {
+        return ResponseEntity.ok(progressStream.getStats());
+    }
+
     @GetMapping("/stats/overview")
     public ResponseEntity<?> getOverview() {
         try {
-            List<Download> allDownloads = downloadRepo.findAll();
-
-            Map<String, Object> overview = new HashMap<>();
-            overview.put("totalDownloads", allDownloads.size());
-            overview.put("activeDownloads", allDownloads.stream()
-                    .filter(d -> "DOWNLOADING".equals(d.getStatus())).count());
-            overview.put("completedDownloads", allDownloads.stream()
-                    .filter(d -> "COMPLETED".equals(d.getStatus())).count());
-            overview.put("failedDownloads", allDownloads.stream()
-                    .filter(d -> "FAILED".equals(d.getStatus())).count());
-            overview.put("pausedDownloads", allDownloads.stream()
-                    .filter(d -> "PAUSED".equals(d.getStatus())).count());
-
-            return ResponseEntity.ok(overview);
+            return ResponseEntity.ok(statusCounters.overview());
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("Failed to fetch overview: " + e.getMessage());
         }
     }
 
-    private Map<String, String> formatStats(Download download) {
+    @GetMapping("/stats/sampler")
+    public ResponseEntity<?> getSamplerStats() {
+        return ResponseEntity.ok(torrentService.getSamplerStats());
+    }
+
+    @GetMapping("/stats/scheduler")
+    public ResponseEntity<?> getSchedulerStats() {
+        return ResponseEntity.ok(torrentService.getSchedulerStats());
+    }
+
+    @GetMapping("/stats/metadata-cache")
+    public ResponseEntity<?> getMetadataCacheStats() {
+        return ResponseEntity.ok(torrentService.getMetadataCacheStats());
+    }
+
+    private List<DownloadSummary> withLiveStats(List<DownloadSummary> items) {
+        return items.stream()
+                .map(d -> {
+                    ProgressSnapshot live = liveStats.get(d.torrentId(), d.id());
+                    return live != null ? d.withLive(live) : d;
+                })
+                .toList();
+    }
+
+    private static int clampLimit(int limit) {
+        return Math.max(1, Math.min(limit, 500));
+    }
+
+    // A short page means there is nothing after it
+    private static <T> Long nextCursor(List<T> items, Pageable page, Function<T, Long> id) {
+        return items.size() < page.getPageSize() ? null : id.apply(items.get(items.size() - 1));
+    }
+
+    // Package-private and static so the benchmarks module can call them
+    static Map<String, String> formatStats(Download download) {
         Map<String, String> formatted = new HashMap<>();
 
         // Format download speed
@@ -180,7 +548,7 @@ public class TorrentController {
         return formatted;
     }
 
-    private String formatBytes(long bytes) {
+    static String formatBytes(long bytes) {
         if (bytes < 1024)
             return bytes + " B";
         int exp = (int) (Math.log(bytes) / Math.log(1024));
@@ -188,7 +556,7 @@ public class TorrentController {
         return String.format("%.1f %sB", bytes / Math.pow(1024, exp), pre);
     }
 
-    private String formatTime(long seconds) {
+    static String formatTime(long seconds) {
         if (seconds < 60)
             return seconds + "s";
         if (seconds < 3600)
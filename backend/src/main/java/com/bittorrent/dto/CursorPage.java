@@ -0,0 +1,7 @@
+package com.bittorrent.dto;
+
+import java.util.List;
+
+// One page of a keyset-paginated listing; pass nextCursor as afterId to continue
+public record CursorPage<T>(List<T> items, Long nextCursor) {
+}
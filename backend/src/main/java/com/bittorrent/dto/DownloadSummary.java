@@ -0,0 +1,25 @@
+package com.bittorrent.dto;
+
+import com.bittorrent.service.ProgressSnapshot;
+
+import java.time.LocalDateTime;
+
+// Download row without the joined Torrent entity
+public record DownloadSummary(
+        Long id,
+        Long torrentId,
+        String status,
+        Double progress,
+        Long downloadedBytes,
+        Long totalBytes,
+        Long downloadSpeed,
+        Long uploadSpeed,
+        Integer activePeers,
+        LocalDateTime startedAt,
+        LocalDateTime lastUpdated) {
+
+    public DownloadSummary withLive(ProgressSnapshot s) {
+        return new DownloadSummary(id, torrentId, status, s.progress(), s.downloadedBytes(), totalBytes,
+                s.downloadSpeed(), s.uploadSpeed(), s.connectedPeers(), startedAt, s.lastUpdated());
+    }
+}
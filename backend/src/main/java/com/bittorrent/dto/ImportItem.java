@@ -0,0 +1,11 @@
+package com.bittorrent.dto;
+
+// Outcome of one .torrent file in a bulk import: IMPORTED, DUPLICATE, INVALID or SKIPPED
+public record ImportItem(
+        String source,
+        String status,
+        String infoHash,
+        String name,
+        Long torrentId,
+        String error) {
+}
@@ -0,0 +1,12 @@
+package com.bittorrent.dto;
+
+import java.time.LocalDateTime;
+
+// Lightweight torrent row for list views
+public record TorrentSummary(
+        Long id,
+        String infoHash,
+        String name,
+        Long length,
+        LocalDateTime createdAt) {
+}
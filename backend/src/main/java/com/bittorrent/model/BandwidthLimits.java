@@ -0,0 +1,20 @@
+package com.bittorrent.model;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+import lombok.*;
+
+// Global bandwidth limits set through the API; a single row that outlives restarts
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BandwidthLimits {
+    public static final long GLOBAL = 1L;
+
+    @Id
+    private Long id;
+    private Long maxDownloadRate; // bytes per second, 0 = unlimited
+    private Long maxUploadRate; // bytes per second, 0 = unlimited
+    private LocalDateTime updatedAt;
+}
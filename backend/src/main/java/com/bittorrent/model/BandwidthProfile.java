@@ -0,0 +1,28 @@
+package com.bittorrent.model;
+
+import jakarta.persistence.*;
+import java.time.LocalTime;
+import lombok.*;
+
+// Time-of-day override for the global bandwidth limits
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BandwidthProfile {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    private String name;
+    private LocalTime startTime; // inclusive
+    private LocalTime endTime; // exclusive; earlier than startTime wraps past midnight
+    private Long maxDownloadRate; // bytes per second, 0 = unlimited
+    private Long maxUploadRate; // bytes per second, 0 = unlimited
+
+    public boolean isActiveAt(LocalTime time) {
+        if (startTime.isBefore(endTime)) {
+            return !time.isBefore(startTime) && time.isBefore(endTime);
+        }
+        return !time.isBefore(startTime) || time.isBefore(endTime);
+    }
+}
@@ -5,6 +5,10 @@ import java.time.LocalDateTime;
 import lombok.*;
 
 @Entity
+@Table(indexes = {
+        @Index(name = "idx_download_torrent_id", columnList = "torrent_id"),
+        @Index(name = "idx_download_status_id", columnList = "status, id")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -19,7 +23,9 @@ public class Download {
     private Long downloadedBytes;
     private Long totalBytes;
     private Double progress;
-    private String status; // DOWNLOADING, COMPLETED, FAILED, PAUSED
+    private String status; // QUEUED, DOWNLOADING, COMPLETED, FAILED, PAUSED
+    private Integer priority; // higher starts first when queued
+    private String allocationMode; // how the payload files were allocated
     private Integer activePeers;
     private Integer connectedPeers;
     private Integer availablePeers;
@@ -0,0 +1,21 @@
+package com.bittorrent.model;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+import lombok.*;
+
+// What pruned download rows of a torrent added up to, so totals survive the pruning
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DownloadArchive {
+    @Id
+    private Long torrentId;
+    private Long completedDownloads;
+    private Long failedDownloads;
+    private Long downloadedBytes;
+    private Long uploadedBytes;
+    private LocalDateTime lastCompletedAt;
+    private LocalDateTime archivedAt; // last time rows were folded in
+}
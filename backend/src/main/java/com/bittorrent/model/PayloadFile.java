@@ -0,0 +1,26 @@
+package com.bittorrent.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+// One file of a torrent's payload, as listed in its metainfo, with the
+// priority the download gives it
+@Entity
+@Table(indexes = {
+        @Index(name = "idx_payload_file_torrent", columnList = "torrentId, fileIndex")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PayloadFile {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    private Long torrentId;
+    private Integer fileIndex; // position in the metainfo file list
+    @Column(length = 1024)
+    private String path; // relative to the download directory
+    private Long length;
+    private Long byteOffset; // start within the concatenated payload
+    private String priority; // SKIP, LOW, NORMAL, HIGH
+}
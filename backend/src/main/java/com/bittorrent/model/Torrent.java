@@ -5,6 +5,9 @@ import java.time.LocalDateTime;
 import lombok.*;
 
 @Entity
+@Table(indexes = {
+        @Index(name = "idx_torrent_info_hash", columnList = "infoHash")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -19,5 +22,8 @@ public class Torrent {
     private Integer pieceCount;
     private Integer pieceLength;
     private String filePath; // .torrent file storage path
+    private Long maxDownloadRate; // bytes per second, null or 0 = unlimited
+    private Long maxUploadRate; // bytes per second, null or 0 = unlimited
+    private String allocationMode; // SPARSE, FULL, COMPACT; null = global default
     private LocalDateTime createdAt;
 }
@@ -0,0 +1,7 @@
+package com.bittorrent.repository;
+
+import com.bittorrent.model.BandwidthLimits;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface BandwidthLimitsRepository extends JpaRepository<BandwidthLimits, Long> {
+}
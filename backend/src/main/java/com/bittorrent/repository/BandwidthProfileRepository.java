@@ -0,0 +1,7 @@
+package com.bittorrent.repository;
+
+import com.bittorrent.model.BandwidthProfile;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface BandwidthProfileRepository extends JpaRepository<BandwidthProfile, Long> {
+}
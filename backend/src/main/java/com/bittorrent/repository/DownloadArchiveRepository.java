@@ -0,0 +1,22 @@
+package com.bittorrent.repository;
+
+import com.bittorrent.model.DownloadArchive;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+
+public interface DownloadArchiveRepository extends JpaRepository<DownloadArchive, Long> {
+    @Query("select coalesce(sum(a.completedDownloads), 0) as completed, coalesce(sum(a.failedDownloads), 0) as failed, "
+            + "coalesce(sum(a.downloadedBytes), 0) as downloadedBytes, coalesce(sum(a.uploadedBytes), 0) as uploadedBytes "
+            + "from DownloadArchive a")
+    Totals totals();
+
+    interface Totals {
+        long getCompleted();
+
+        long getFailed();
+
+        long getDownloadedBytes();
+
+        long getUploadedBytes();
+    }
+}
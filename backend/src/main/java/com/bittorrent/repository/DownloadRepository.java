@@ -1,10 +1,56 @@
 package com.bittorrent.repository;
 
+import com.bittorrent.dto.DownloadSummary;
 import com.bittorrent.model.Download;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 
 import java.util.List;
 
 public interface DownloadRepository extends JpaRepository<Download, Long> {
     List<Download> findByTorrentId(Long torrentId);
+
+    List<Download> findByTorrentIdOrderByIdDesc(Long torrentId, Pageable pageable);
+
+    @Query("select d.status as status, count(d) as count from Download d group by d.status")
+    List<StatusCount> countByStatus();
+
+    @Query("select coalesce(sum(d.downloadedBytes), 0) from Download d")
+    long sumDownloadedBytes();
+
+    @Query("select coalesce(sum(d.uploadedBytes), 0) from Download d")
+    long sumUploadedBytes();
+
+    // Most recent completed download of each torrent; what the seeding engine serves on startup
+    @Query("select d from Download d where d.id in "
+            + "(select max(d2.id) from Download d2 where d2.status = 'COMPLETED' group by d2.torrent.id)")
+    List<Download> findLatestCompleted();
+
+    // Latest download of each torrent if a restart cut it off, with its torrent in the same query;
+    // running ones first so they get their slots back, then by queue priority
+    @Query("select d from Download d join fetch d.torrent where d.id in "
+            + "(select max(d2.id) from Download d2 group by d2.torrent.id) "
+            + "and d.status in ('DOWNLOADING', 'QUEUED') "
+            + "order by case when d.status = 'DOWNLOADING' then 0 else 1 end, coalesce(d.priority, 0) desc, d.id")
+    List<Download> findInterrupted();
+
+    String SUMMARY = "select new com.bittorrent.dto.DownloadSummary(d.id, d.torrent.id, d.status, d.progress, "
+            + "d.downloadedBytes, d.totalBytes, d.downloadSpeed, d.uploadSpeed, d.activePeers, d.startedAt, "
+            + "d.lastUpdated) from Download d ";
+
+    @Query(SUMMARY + "where d.id > :afterId order by d.id")
+    List<DownloadSummary> findPage(Long afterId, Pageable pageable);
+
+    @Query(SUMMARY + "where d.status = :status and d.id > :afterId order by d.id")
+    List<DownloadSummary> findPageByStatus(String status, Long afterId, Pageable pageable);
+
+    @Query(SUMMARY + "where d.torrent.id = :torrentId and d.id > :afterId order by d.id")
+    List<DownloadSummary> findPageByTorrentId(Long torrentId, Long afterId, Pageable pageable);
+
+    interface StatusCount {
+        String getStatus();
+
+        long getCount();
+    }
 }
@@ -0,0 +1,10 @@
+package com.bittorrent.repository;
+
+import com.bittorrent.model.PayloadFile;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.List;
+
+public interface PayloadFileRepository extends JpaRepository<PayloadFile, Long> {
+    List<PayloadFile> findByTorrentIdOrderByFileIndex(Long torrentId);
+}
@@ -1,8 +1,24 @@
 package com.bittorrent.repository;
 
+import com.bittorrent.dto.TorrentSummary;
 import com.bittorrent.model.Torrent;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+
+import java.util.List;
 
 public interface TorrentRepository extends JpaRepository<Torrent, Long> {
     Torrent findByInfoHash(String infoHash);
+
+    List<Torrent> findByIdGreaterThanOrderById(Long afterId, Pageable pageable);
+
+    @Query("select new com.bittorrent.dto.TorrentSummary(t.id, t.infoHash, t.name, t.length, t.createdAt) "
+            + "from Torrent t where t.id > :afterId order by t.id")
+    List<TorrentSummary> findPage(Long afterId, Pageable pageable);
+
+    @Query("select new com.bittorrent.dto.TorrentSummary(t.id, t.infoHash, t.name, t.length, t.createdAt) "
+            + "from Torrent t where t.id > :afterId and lower(t.name) like lower(concat('%', :name, '%')) "
+            + "order by t.id")
+    List<TorrentSummary> findPageByName(Long afterId, String name, Pageable pageable);
 }
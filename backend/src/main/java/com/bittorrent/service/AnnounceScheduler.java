@@ -0,0 +1,589 @@
+package com.bittorrent.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Announces every registered torrent from one timer instead of a thread per
+// torrent. Each torrent walks its announce list as BEP 12 describes: tiers in
+// order, trackers within a tier shuffled (UDP first), the one that answered
+// moved to the front of its tier. Health is shared: a tracker that times out is
+// backed off for every torrent at once (doubling per failure) and afterwards
+// probed by a single request, so the others fail over to the next tracker
+// without waiting on it themselves. A tracker that rejects one torrent is only
+// skipped for that torrent.
+//
+// Announces to one host go out together: when a torrent is due, others using
+// the same host that are due within the coalesce window (and past their min
+// interval) go with it, which keeps their schedules aligned and lets a batch
+// of UDP announces share one connect. At most maxInFlightPerHost requests per
+// host are outstanding; the rest wait in that host's queue.
+//
+// The next announce is the tracker's interval, or its min interval while a
+// download has fewer than wantPeers connected peers.
+@Slf4j
+class AnnounceScheduler {
+
+    // Intervals and windows in seconds
+    record Settings(long tickMillis, int defaultInterval, int minInterval, int maxInterval, int backoffBase,
+            int backoffMax, int coalesceWindow, int maxInFlightPerHost, int numWant, int wantPeers) {
+    }
+
+    // What the torrent reports to trackers, and where the peers they return go
+    // Read with the scheduler's lock held, so none of these may block
+    interface Source {
+        byte[] peerId();
+
+        int port();
+
+        long uploaded();
+
+        long downloaded();
+
+        long left();
+
+        int connectedPeers();
+
+        void peersFound(List<InetSocketAddress> peers);
+    }
+
+    private final Map<String, TrackerProtocol> protocols;
+    private final ScheduledExecutorService timer;
+    private final Settings settings;
+    private final Map<String, Tracker> trackers = new HashMap<>();
+    private final Map<String, Host> hosts = new HashMap<>();
+    private final Map<Object, Registration> registrations = new HashMap<>();
+    private ScheduledFuture<?> ticking;
+
+    private long announces;
+    private long failovers;
+    private long coalesced;
+    private long rejections;
+    private long peersFound;
+
+    private static final class Tracker {
+        final URI uri;
+        final String url;
+        final String host;
+        int users;
+        int failures;
+        long backoffUntil;
+        // After a backoff one request probes the tracker; the rest keep away until it answers
+        boolean probing;
+        String lastError;
+        long announces;
+        long errors;
+
+        Tracker(URI uri) {
+            this.uri = uri;
+            this.url = uri.toString();
+            this.host = uri.getHost().toLowerCase(Locale.ROOT);
+        }
+
+        boolean isUdp() {
+            return "udp".equals(uri.getScheme());
+        }
+    }
+
+    private static final class Host {
+        int inFlight;
+        long requests;
+        final Deque<Runnable> waiting = new ArrayDeque<>();
+    }
+
+    private static final class Registration {
+        final Object key;
+        final byte[] infoHash;
+        final List<List<Tracker>> tiers;
+        final Source source;
+        // Trackers that have seen our "started" and so must get "stopped"
+        final Set<Tracker> started = new HashSet<>();
+        // Trackers that rejected this torrent, and until when to leave them alone
+        final Map<Tracker, Long> retryAfter = new HashMap<>();
+        int rejections;
+        boolean completedPending;
+        boolean inFlight;
+        long nextAnnounce;
+        long lastAnnounce;
+        int interval;
+        int minInterval;
+        Tracker current;
+        int seeders;
+        int leechers;
+        String lastError;
+        CompletableFuture<?> last = CompletableFuture.completedFuture(null);
+
+        Registration(Object key, byte[] infoHash, List<List<Tracker>> tiers, Source source) {
+            this.key = key;
+            this.infoHash = infoHash;
+            this.tiers = tiers;
+            this.source = source;
+        }
+    }
+
+    AnnounceScheduler(Map<String, TrackerProtocol> protocols, ScheduledExecutorService timer, Settings settings) {
+        this.protocols = protocols;
+        this.timer = timer;
+        this.settings = settings;
+    }
+
+    void start() {
+        ticking = timer.scheduleWithFixedDelay(() -> {
+            try {
+                tick();
+            } catch (RuntimeException e) {
+                log.error("Announce tick failed", e);
+            }
+        }, settings.tickMillis(), settings.tickMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    // Replaces an earlier registration under the same key; trackers with a
+    // scheme we cannot speak are left out
+    synchronized void register(Object key, byte[] infoHash, List<List<URI>> announceList, Source source) {
+        if (registrations.containsKey(key)) {
+            unregister(key);
+        }
+        List<List<Tracker>> tiers = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (List<URI> tier : announceList) {
+            List<Tracker> entries = new ArrayList<>();
+            for (URI uri : tier) {
+                if (uri.getHost() == null || !protocols.containsKey(scheme(uri)) || !seen.add(uri.toString())) {
+                    continue;
+                }
+                entries.add(trackers.computeIfAbsent(uri.toString(), u -> new Tracker(uri)));
+            }
+            if (!entries.isEmpty()) {
+                Collections.shuffle(entries);
+                entries.sort(Comparator.comparing(t -> !t.isUdp()));
+                tiers.add(entries);
+            }
+        }
+        if (tiers.isEmpty()) {
+            return;
+        }
+        tiers.forEach(tier -> tier.forEach(t -> t.users++));
+        Registration registration = new Registration(key, infoHash, tiers, source);
+        registrations.put(key, registration);
+        announceNow(registration, System.currentTimeMillis());
+    }
+
+    // The download finished: tell the current tracker right away
+    synchronized void completed(Object key) {
+        Registration registration = registrations.get(key);
+        if (registration != null) {
+            registration.completedPending = true;
+            announceNow(registration, System.currentTimeMillis());
+        }
+    }
+
+    // Sends "stopped" to every tracker that saw "started", after any announce in flight
+    synchronized CompletableFuture<Void> unregister(Object key) {
+        Registration registration = registrations.remove(key);
+        if (registration == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        registration.tiers.forEach(tier -> tier.forEach(t -> t.users--));
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        registration.last.whenComplete((r, e) -> {
+            List<CompletableFuture<?>> stops = new ArrayList<>();
+            synchronized (this) {
+                for (Tracker tracker : registration.started) {
+                    stops.add(send(registration, tracker, request(registration, "stopped")));
+                }
+            }
+            CompletableFuture.allOf(stops.toArray(new CompletableFuture<?>[0])).whenComplete((v, x) -> done.complete(null));
+        });
+        return done;
+    }
+
+    // Unregisters everything; the future completes when the "stopped" announces are answered or fail
+    synchronized CompletableFuture<Void> stop() {
+        if (ticking != null) {
+            ticking.cancel(false);
+        }
+        List<CompletableFuture<Void>> stops = new ArrayList<>();
+        for (Object key : new ArrayList<>(registrations.keySet())) {
+            stops.add(unregister(key));
+        }
+        return CompletableFuture.allOf(stops.toArray(new CompletableFuture<?>[0]));
+    }
+
+    // One-off announce to each of the given trackers, for a torrent that is not
+    // registered yet (magnet links); returns the peers of all that answered
+    CompletableFuture<List<InetSocketAddress>> findPeers(byte[] infoHash, List<URI> uris, byte[] peerId, int port) {
+        List<CompletableFuture<List<InetSocketAddress>>> answers = new ArrayList<>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            for (URI uri : uris) {
+                if (uri.getHost() == null || !protocols.containsKey(scheme(uri))) {
+                    continue;
+                }
+                Tracker tracker = trackers.computeIfAbsent(uri.toString(), u -> new Tracker(uri));
+                if (!available(tracker, now)) {
+                    continue;
+                }
+                TrackerProtocol.Request request = new TrackerProtocol.Request(infoHash, peerId, port, 0, 0, 1, "",
+                        settings.numWant());
+                CompletableFuture<List<InetSocketAddress>> answer = new CompletableFuture<>();
+                enqueue(tracker, () -> sent(tracker).announce(uri, request).whenComplete((response, e) -> {
+                    synchronized (this) {
+                        release(tracker);
+                        if (e != null) {
+                            trackerFailed(tracker, cause(e), System.currentTimeMillis());
+                        } else {
+                            trackerAnswered(tracker);
+                        }
+                    }
+                    answer.complete(e != null ? List.of() : response.peers());
+                }));
+                answers.add(answer);
+            }
+        }
+        return CompletableFuture.allOf(answers.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            List<InetSocketAddress> peers = new ArrayList<>();
+            answers.forEach(answer -> peers.addAll(answer.join()));
+            return peers;
+        });
+    }
+
+    synchronized void tick() {
+        long now = System.currentTimeMillis();
+        Map<String, List<Registration>> dueByHost = new HashMap<>();
+        for (Registration registration : registrations.values()) {
+            if (registration.inFlight || registration.nextAnnounce > now) {
+                continue;
+            }
+            Tracker tracker = pick(registration, now);
+            if (tracker == null) {
+                registration.nextAnnounce = earliestRetry(registration, now);
+                continue;
+            }
+            dueByHost.computeIfAbsent(tracker.host, h -> new ArrayList<>()).add(registration);
+        }
+        if (dueByHost.isEmpty()) {
+            return;
+        }
+        // Bring forward torrents that would hit the same hosts soon anyway
+        long window = now + settings.coalesceWindow() * 1000L;
+        for (Registration registration : registrations.values()) {
+            if (registration.inFlight || registration.nextAnnounce <= now || registration.nextAnnounce > window
+                    || now - registration.lastAnnounce < effectiveMinInterval(registration) * 1000L) {
+                continue;
+            }
+            Tracker tracker = pick(registration, now);
+            if (tracker != null && dueByHost.containsKey(tracker.host)) {
+                dueByHost.get(tracker.host).add(registration);
+                coalesced++;
+            }
+        }
+        for (List<Registration> batch : dueByHost.values()) {
+            for (Registration registration : batch) {
+                announceNow(registration, now);
+            }
+        }
+    }
+
+    private void announceNow(Registration registration, long now) {
+        if (registration.inFlight) {
+            return;
+        }
+        Tracker tracker = pick(registration, now);
+        if (tracker == null) {
+            registration.nextAnnounce = earliestRetry(registration, now);
+            return;
+        }
+        String event = !registration.started.contains(tracker) ? "started"
+                : registration.completedPending ? "completed" : "";
+        registration.inFlight = true;
+        registration.last = send(registration, tracker, request(registration, event));
+    }
+
+    // Built when the event is chosen, so `left` is what it was then and not when the host queue lets it out
+    private TrackerProtocol.Request request(Registration registration, String event) {
+        Source source = registration.source;
+        return new TrackerProtocol.Request(registration.infoHash, source.peerId(), source.port(), source.uploaded(),
+                source.downloaded(), source.left(), event, "stopped".equals(event) ? 0 : settings.numWant());
+    }
+
+    // First usable tracker in announce-list order
+    private Tracker pick(Registration registration, long now) {
+        for (List<Tracker> tier : registration.tiers) {
+            for (Tracker tracker : tier) {
+                if (available(tracker, now) && registration.retryAfter.getOrDefault(tracker, 0L) <= now) {
+                    return tracker;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean available(Tracker tracker, long now) {
+        return tracker.backoffUntil <= now && !tracker.probing;
+    }
+
+    private long earliestRetry(Registration registration, long now) {
+        long earliest = Long.MAX_VALUE;
+        for (List<Tracker> tier : registration.tiers) {
+            for (Tracker tracker : tier) {
+                earliest = Math.min(earliest, Math.max(tracker.backoffUntil,
+                        registration.retryAfter.getOrDefault(tracker, 0L)));
+            }
+        }
+        return Math.max(earliest, now + settings.tickMillis());
+    }
+
+    private CompletableFuture<Void> send(Registration registration, Tracker tracker, TrackerProtocol.Request request) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        enqueue(tracker, () -> {
+            if (!"stopped".equals(request.event()) && !available(tracker, System.currentTimeMillis())) {
+                // Failed while this request sat in the host queue: fail over instead of sending
+                release(tracker);
+                registration.inFlight = false;
+                registration.nextAnnounce = System.currentTimeMillis();
+                failovers++;
+                done.complete(null);
+                return;
+            }
+            announces++;
+            sent(tracker).announce(tracker.uri, request).whenComplete((response, e) -> {
+                List<InetSocketAddress> peers = null;
+                synchronized (this) {
+                    release(tracker);
+                    peers = handle(registration, tracker, request, response, e != null ? cause(e) : null);
+                }
+                if (peers != null && !peers.isEmpty()) {
+                    try {
+                        registration.source.peersFound(peers);
+                    } catch (RuntimeException x) {
+                        log.debug("Peer hand-off failed: {}", x.getMessage());
+                    }
+                }
+                done.complete(null);
+            });
+        });
+        return done;
+    }
+
+    // Called with the lock held; returns the peers to hand to the torrent
+    private List<InetSocketAddress> handle(Registration registration, Tracker tracker,
+            TrackerProtocol.Request request, TrackerProtocol.Response response, Throwable error) {
+        long now = System.currentTimeMillis();
+        boolean stopping = "stopped".equals(request.event());
+        if (!stopping) {
+            registration.inFlight = false;
+        }
+        if (error instanceof TrackerProtocol.Rejected) {
+            trackerAnswered(tracker);
+            rejections++;
+            if (!stopping) {
+                registration.rejections++;
+                registration.retryAfter.put(tracker, now + backoff(registration.rejections));
+                registration.lastError = tracker.url + ": " + describe(error);
+                registration.nextAnnounce = now;
+                failovers++;
+            }
+            return null;
+        }
+        if (error != null) {
+            trackerFailed(tracker, error, now);
+            if (!stopping) {
+                registration.lastError = tracker.url + ": " + describe(error);
+                registration.nextAnnounce = now;
+                failovers++;
+            }
+            return null;
+        }
+        trackerAnswered(tracker);
+        if (stopping) {
+            return null;
+        }
+        // Recorded even after unregistering, so the pending "stopped" reaches this tracker too
+        registration.started.add(tracker);
+        if (registrations.get(registration.key) != registration) {
+            return null;
+        }
+        registration.retryAfter.remove(tracker);
+        registration.rejections = 0;
+        registration.lastError = null;
+        registration.current = tracker;
+        // Only "completed" itself counts; a tracker first told "started" by a finished download needs no other
+        if ("completed".equals(request.event()) || "started".equals(request.event()) && request.left() == 0) {
+            registration.completedPending = false;
+        }
+        // BEP 12: the tracker that answered moves to the front of its tier
+        for (List<Tracker> tier : registration.tiers) {
+            if (tier.remove(tracker)) {
+                tier.add(0, tracker);
+                break;
+            }
+        }
+        registration.minInterval = response.minInterval();
+        int minInterval = effectiveMinInterval(registration);
+        int interval = response.interval() > 0 ? response.interval() : settings.defaultInterval();
+        registration.interval = Math.max(Math.min(interval, settings.maxInterval()), minInterval);
+        registration.seeders = response.seeders();
+        registration.leechers = response.leechers();
+        boolean wantsPeers = registration.source.left() > 0
+                && registration.source.connectedPeers() < settings.wantPeers();
+        registration.lastAnnounce = now;
+        registration.nextAnnounce = registration.completedPending ? now
+                : now + (wantsPeers ? minInterval : registration.interval) * 1000L;
+        peersFound += response.peers().size();
+        return response.peers();
+    }
+
+    private int effectiveMinInterval(Registration registration) {
+        return Math.max(registration.minInterval, settings.minInterval());
+    }
+
+    // Counts a request going out to the tracker's host and returns its protocol
+    private TrackerProtocol sent(Tracker tracker) {
+        hosts.get(tracker.host).requests++;
+        if (tracker.failures > 0) {
+            tracker.probing = true;
+        }
+        return protocols.get(scheme(tracker.uri));
+    }
+
+    private void trackerAnswered(Tracker tracker) {
+        tracker.probing = false;
+        tracker.announces++;
+        tracker.failures = 0;
+        tracker.backoffUntil = 0;
+        tracker.lastError = null;
+    }
+
+    private void trackerFailed(Tracker tracker, Throwable error, long now) {
+        tracker.probing = false;
+        tracker.errors++;
+        tracker.failures++;
+        tracker.backoffUntil = now + backoff(tracker.failures);
+        tracker.lastError = describe(error);
+        log.debug("Tracker {} failed ({} in a row): {}", tracker.url, tracker.failures, tracker.lastError);
+    }
+
+    // backoffBase, doubling per failure up to backoffMax, in milliseconds
+    private long backoff(int failures) {
+        long seconds = (long) settings.backoffBase() << Math.min(failures - 1, 20);
+        return Math.min(seconds, settings.backoffMax()) * 1000L;
+    }
+
+    // Runs the request now if the host has room, otherwise queues it
+    private void enqueue(Tracker tracker, Runnable request) {
+        Host host = hosts.computeIfAbsent(tracker.host, h -> new Host());
+        if (host.inFlight < settings.maxInFlightPerHost()) {
+            host.inFlight++;
+            request.run();
+        } else {
+            host.waiting.add(request);
+        }
+    }
+
+    private void release(Tracker tracker) {
+        Host host = hosts.get(tracker.host);
+        Runnable next = host.waiting.poll();
+        if (next != null) {
+            next.run();
+        } else {
+            host.inFlight--;
+        }
+    }
+
+    private static Throwable cause(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    // Connection errors often carry no message
+    private static String describe(Throwable error) {
+        return error.getMessage() != null ? error.getMessage() : error.getClass().getSimpleName();
+    }
+
+    private static String scheme(URI uri) {
+        return uri.getScheme() != null ? uri.getScheme().toLowerCase(Locale.ROOT) : "";
+    }
+
+    synchronized Map<String, Object> getStats() {
+        long now = System.currentTimeMillis();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("registeredTorrents", registrations.size());
+        stats.put("announces", announces);
+        stats.put("failovers", failovers);
+        stats.put("coalesced", coalesced);
+        stats.put("rejections", rejections);
+        stats.put("peersFound", peersFound);
+        int queued = 0;
+        Map<String, Long> requestsByHost = new HashMap<>();
+        for (Map.Entry<String, Host> host : hosts.entrySet()) {
+            queued += host.getValue().waiting.size();
+            requestsByHost.put(host.getKey(), host.getValue().requests);
+        }
+        stats.put("queuedRequests", queued);
+        stats.put("requestsByHost", requestsByHost);
+        List<Map<String, Object>> list = new ArrayList<>();
+        for (Tracker tracker : trackers.values()) {
+            Map<String, Object> t = new LinkedHashMap<>();
+            t.put("url", tracker.url);
+            t.put("torrents", tracker.users);
+            t.put("announces", tracker.announces);
+            t.put("errors", tracker.errors);
+            t.put("backoffSeconds", Math.max(tracker.backoffUntil - now, 0) / 1000);
+            t.put("lastError", tracker.lastError);
+            list.add(t);
+        }
+        list.sort(Comparator.comparing(t -> (String) t.get("url")));
+        stats.put("trackers", list);
+        return stats;
+    }
+
+    // Announce state of one torrent, tier by tier
+    synchronized Map<String, Object> getStatus(Object key) {
+        Registration registration = registrations.get(key);
+        if (registration == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("current", registration.current != null ? registration.current.url : null);
+        status.put("interval", registration.interval);
+        status.put("minInterval", effectiveMinInterval(registration));
+        status.put("nextAnnounceSeconds", Math.max(registration.nextAnnounce - now, 0) / 1000);
+        status.put("seeders", registration.seeders);
+        status.put("leechers", registration.leechers);
+        status.put("lastError", registration.lastError);
+        List<List<Map<String, Object>>> tiers = new ArrayList<>();
+        for (List<Tracker> tier : registration.tiers) {
+            List<Map<String, Object>> entries = new ArrayList<>();
+            for (Tracker tracker : tier) {
+                Map<String, Object> t = new LinkedHashMap<>();
+                t.put("url", tracker.url);
+                t.put("state", tracker.backoffUntil > now ? "BACKOFF"
+                        : registration.retryAfter.getOrDefault(tracker, 0L) > now ? "REJECTED"
+                        : tracker == registration.current ? "WORKING" : "IDLE");
+                t.put("started", registration.started.contains(tracker));
+                entries.add(t);
+            }
+            tiers.add(entries);
+        }
+        status.put("tiers", tiers);
+        return status;
+    }
+}
@@ -0,0 +1,66 @@
+package com.bittorrent.service;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Fixed-size direct buffers recycled across users. Direct allocation is slow and
+// only freed by GC, so buffers that would otherwise churn with every peer
+// connection are handed back here and reused. At most maxPooled idle buffers are
+// kept; extra ones are left to the collector.
+public class BufferPool {
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final AtomicLong allocated = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    public ByteBuffer acquire() {
+        inUse.incrementAndGet();
+        ByteBuffer buffer = free.poll();
+        if (buffer != null) {
+            pooled.decrementAndGet();
+            reused.incrementAndGet();
+            return buffer;
+        }
+        allocated.incrementAndGet();
+        return ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        inUse.decrementAndGet();
+        if (buffer.capacity() == bufferSize && pooled.get() < maxPooled) {
+            buffer.clear();
+            free.add(buffer);
+            pooled.incrementAndGet();
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("bufferSize", bufferSize);
+        stats.put("inUse", inUse.get());
+        stats.put("pooled", pooled.get());
+        stats.put("allocated", allocated.get());
+        stats.put("reused", reused.get());
+        stats.put("directBytes", (long) (inUse.get() + pooled.get()) * bufferSize);
+        return stats;
+    }
+}
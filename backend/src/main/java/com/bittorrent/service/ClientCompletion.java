@@ -0,0 +1,45 @@
+package com.bittorrent.service;
+
+import com.turn.ttorrent.client.Client;
+
+import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.CountDownLatch;
+
+// Waits for a ttorrent Client to reach DONE or ERROR, or to finish checking the
+// data on disk. Client.waitForCompletion() joins the client thread inside a
+// monitor, which pins a virtual thread to its carrier; a latch does not.
+@SuppressWarnings("deprecation")
+class ClientCompletion implements Observer {
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final CountDownLatch checked = new CountDownLatch(1);
+    private volatile boolean sharing;
+
+    static ClientCompletion attach(Client client) {
+        ClientCompletion completion = new ClientCompletion();
+        client.addObserver(completion);
+        return completion;
+    }
+
+    @Override
+    public void update(Observable o, Object arg) {
+        if (arg == Client.ClientState.SHARING || arg == Client.ClientState.SEEDING) {
+            sharing = true;
+            checked.countDown();
+        }
+        if (arg == Client.ClientState.DONE || arg == Client.ClientState.ERROR) {
+            checked.countDown();
+            done.countDown();
+        }
+    }
+
+    // True once init() is done and the client shares; false if it stopped or failed first
+    boolean awaitSharing() throws InterruptedException {
+        checked.await();
+        return sharing;
+    }
+
+    void await() throws InterruptedException {
+        done.await();
+    }
+}
@@ -0,0 +1,611 @@
+package com.bittorrent.service;
+
+import com.turn.ttorrent.bcodec.BDecoder;
+import com.turn.ttorrent.bcodec.BEValue;
+import com.turn.ttorrent.bcodec.BEncoder;
+import com.turn.ttorrent.bcodec.InvalidBEncodingException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A Kademlia node speaking KRPC (BEP 5): answers ping, find_node, get_peers and
+// announce_peer, and runs iterative lookups with up to `alpha` queries in
+// flight, each abandoned after `timeoutMillis`. Knows nothing about Spring or
+// sockets; DhtService runs one over UDP and the DhtSimulation test runs many in memory.
+@Slf4j
+class DhtNode implements AutoCloseable {
+    static final int COMPACT_NODE_LENGTH = 26;
+    static final int COMPACT_PEER_LENGTH = 6;
+    private static final int MAX_LOOKUP_QUERIES = 256;
+    private static final int BOOTSTRAP_ATTEMPTS = 3;
+    private static final int MAX_PEERS_PER_TORRENT = 200;
+    private static final int MAX_TORRENTS = 10_000;
+    private static final int MAX_VALUES = 50;
+    private static final long PEER_TTL_MILLIS = 30 * 60 * 1000;
+    private static final long SECRET_ROTATE_MILLIS = 5 * 60 * 1000;
+
+    private final byte[] id;
+    private final DhtTransport transport;
+    private final RoutingTable table;
+    private final ScheduledExecutorService timer;
+    private final long timeoutMillis;
+    private final int alpha;
+    private final Random random;
+
+    private final Map<Integer, Pending> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger nextTransaction = new AtomicInteger();
+    // Peers announced to us, by hex info hash, with their expiry time
+    private final Map<String, Map<InetSocketAddress, Long>> announced = new ConcurrentHashMap<>();
+
+    private volatile byte[] secret;
+    private volatile byte[] previousSecret;
+    private volatile long secretRotated;
+
+    private final AtomicLong queriesSent = new AtomicLong();
+    private final AtomicLong responses = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong queriesReceived = new AtomicLong();
+    private final AtomicLong lookups = new AtomicLong();
+
+    DhtNode(byte[] id, DhtTransport transport, ScheduledExecutorService timer, long timeoutMillis, int alpha,
+            Random random) {
+        this.id = id;
+        this.transport = transport;
+        this.table = new RoutingTable(id);
+        this.timer = timer;
+        this.timeoutMillis = timeoutMillis;
+        this.alpha = Math.max(alpha, 1);
+        this.random = random;
+        this.secret = randomBytes(random, 16);
+        this.previousSecret = secret;
+        this.secretRotated = System.currentTimeMillis();
+        transport.setReceiver(this::receive);
+    }
+
+    private record Pending(CompletableFuture<Map<String, BEValue>> future, byte[] nodeId) {
+    }
+
+    // A node met during a lookup
+    record Contact(byte[] id, InetSocketAddress address) {
+    }
+
+    record LookupResult(List<InetSocketAddress> peers, List<Contact> closest, int queries, int responses,
+            int hops, long elapsedMillis) {
+    }
+
+    byte[] getId() {
+        return id;
+    }
+
+    RoutingTable getTable() {
+        return table;
+    }
+
+    InetSocketAddress getAddress() {
+        return transport.getLocalAddress();
+    }
+
+    // Contacts the seed nodes (ids unknown) and then looks up our own id, which
+    // fills the buckets near us, then a random id in each farther bucket with room
+    CompletableFuture<LookupResult> bootstrap(List<InetSocketAddress> seeds) {
+        List<CompletableFuture<?>> pings = new ArrayList<>();
+        for (InetSocketAddress seed : seeds) {
+            pings.add(contact(seed, BOOTSTRAP_ATTEMPTS));
+        }
+        return CompletableFuture.allOf(pings.toArray(new CompletableFuture<?>[0]))
+                .thenCompose(ignored -> lookup(id, false))
+                .thenCompose(self -> {
+                    List<CompletableFuture<?>> refreshes = new ArrayList<>();
+                    for (byte[] target : table.sparseBucketTargets(random)) {
+                        refreshes.add(lookup(target, false));
+                    }
+                    return CompletableFuture.allOf(refreshes.toArray(new CompletableFuture<?>[0]))
+                            .thenApply(ignored -> self);
+                });
+    }
+
+    // A lost packet to a seed would leave us with an empty table, so it is retried
+    private CompletableFuture<?> contact(InetSocketAddress seed, int attempts) {
+        return query(seed, null, "find_node", args("target", new BEValue(id)))
+                .handle((r, e) -> e == null || attempts <= 1)
+                .thenCompose(done -> done ? CompletableFuture.completedFuture(null) : contact(seed, attempts - 1));
+    }
+
+    CompletableFuture<Map<String, BEValue>> ping(InetSocketAddress address) {
+        return query(address, null, "ping", args());
+    }
+
+    CompletableFuture<LookupResult> findPeers(byte[] infoHash) {
+        return lookup(infoHash, true);
+    }
+
+    // get_peers lookup, then announce_peer to the closest nodes that gave us a token
+    CompletableFuture<LookupResult> announce(byte[] infoHash, int port) {
+        return new Lookup(infoHash, true, port).start();
+    }
+
+    CompletableFuture<LookupResult> lookup(byte[] target, boolean getPeers) {
+        return new Lookup(target, getPeers, 0).start();
+    }
+
+    // Token rotation, announced-peer expiry and refresh of quiet buckets
+    void maintain() {
+        long now = System.currentTimeMillis();
+        if (now - secretRotated > SECRET_ROTATE_MILLIS) {
+            previousSecret = secret;
+            secret = randomBytes(random, 16);
+            secretRotated = now;
+        }
+        announced.values().forEach(peers -> peers.values().removeIf(expiry -> expiry < now));
+        announced.values().removeIf(Map::isEmpty);
+        for (byte[] target : table.staleBucketTargets(now, random)) {
+            lookup(target, false);
+        }
+    }
+
+    // --- Outgoing queries ---
+
+    private CompletableFuture<Map<String, BEValue>> query(InetSocketAddress to, byte[] nodeId, String method,
+            Map<String, BEValue> args) {
+        int transaction = nextTransaction.getAndIncrement() & 0xFFFF;
+        CompletableFuture<Map<String, BEValue>> future = new CompletableFuture<>();
+        pending.put(transaction, new Pending(future, nodeId));
+        args.put("id", new BEValue(id));
+
+        Map<String, BEValue> message = new HashMap<>();
+        message.put("t", new BEValue(new byte[] {(byte) (transaction >> 8), (byte) transaction}));
+        message.put("y", new BEValue(bytes("q")));
+        message.put("q", new BEValue(bytes(method)));
+        message.put("a", new BEValue(args));
+        try {
+            transport.send(to, encode(message));
+            queriesSent.incrementAndGet();
+        } catch (IOException e) {
+            pending.remove(transaction);
+            future.completeExceptionally(e);
+            return future;
+        }
+        timer.schedule(() -> {
+            Pending expired = pending.remove(transaction);
+            if (expired != null) {
+                timeouts.incrementAndGet();
+                table.failed(expired.nodeId());
+                expired.future().completeExceptionally(new TimeoutException(method + " to " + to));
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        return future;
+    }
+
+    // --- Incoming packets ---
+
+    private void receive(InetSocketAddress from, byte[] packet) {
+        Map<String, BEValue> message;
+        try {
+            message = BDecoder.bdecode(ByteBuffer.wrap(packet)).getMap();
+        } catch (IOException | RuntimeException e) {
+            return;
+        }
+        try {
+            String type = message.containsKey("y") ? message.get("y").getString() : "";
+            switch (type) {
+                case "q" -> handleQuery(from, message);
+                case "r", "e" -> handleResponse(from, message, "r".equals(type));
+                default -> {
+                }
+            }
+        } catch (InvalidBEncodingException | RuntimeException e) {
+            log.debug("Malformed KRPC message from {}: {}", from, e.getMessage());
+        }
+    }
+
+    private void handleResponse(InetSocketAddress from, Map<String, BEValue> message, boolean ok)
+            throws InvalidBEncodingException {
+        byte[] t = message.get("t").getBytes();
+        if (t.length != 2) {
+            return;
+        }
+        Pending request = pending.remove(((t[0] & 0xFF) << 8) | (t[1] & 0xFF));
+        if (request == null) {
+            return;
+        }
+        responses.incrementAndGet();
+        if (!ok) {
+            request.future().complete(Map.of());
+            return;
+        }
+        Map<String, BEValue> r = message.get("r").getMap();
+        if (r.containsKey("id")) {
+            table.seen(r.get("id").getBytes(), from, System.currentTimeMillis());
+        }
+        request.future().complete(r);
+    }
+
+    private void handleQuery(InetSocketAddress from, Map<String, BEValue> message)
+            throws InvalidBEncodingException {
+        queriesReceived.incrementAndGet();
+        BEValue t = message.get("t");
+        String method = message.get("q").getString();
+        Map<String, BEValue> a = message.get("a").getMap();
+        byte[] senderId = a.get("id").getBytes();
+        table.seen(senderId, from, System.currentTimeMillis());
+
+        Map<String, BEValue> r = new HashMap<>();
+        r.put("id", new BEValue(id));
+        switch (method) {
+            case "ping" -> {
+            }
+            case "find_node" -> r.put("nodes", new BEValue(compactNodes(
+                    table.closest(a.get("target").getBytes(), RoutingTable.K))));
+            case "get_peers" -> {
+                byte[] infoHash = a.get("info_hash").getBytes();
+                r.put("token", new BEValue(token(from.getAddress(), secret)));
+                List<BEValue> values = new ArrayList<>();
+                Map<InetSocketAddress, Long> peers = announced.get(PeerWire.toHex(infoHash));
+                if (peers != null) {
+                    for (InetSocketAddress peer : peers.keySet()) {
+                        byte[] compact = compactPeer(peer);
+                        if (compact != null && values.size() < MAX_VALUES) {
+                            values.add(new BEValue(compact));
+                        }
+                    }
+                }
+                if (!values.isEmpty()) {
+                    r.put("values", new BEValue(values));
+                }
+                r.put("nodes", new BEValue(compactNodes(table.closest(infoHash, RoutingTable.K))));
+            }
+            case "announce_peer" -> {
+                byte[] token = a.get("token").getBytes();
+                if (!Arrays.equals(token, token(from.getAddress(), secret))
+                        && !Arrays.equals(token, token(from.getAddress(), previousSecret))) {
+                    reply(from, t, error(203, "Bad token"));
+                    return;
+                }
+                boolean implied = a.containsKey("implied_port") && a.get("implied_port").getInt() != 0;
+                int port = implied ? from.getPort() : a.get("port").getInt();
+                store(a.get("info_hash").getBytes(), new InetSocketAddress(from.getAddress(), port));
+            }
+            default -> {
+                reply(from, t, error(204, "Method Unknown"));
+                return;
+            }
+        }
+        Map<String, BEValue> response = new HashMap<>();
+        response.put("t", t);
+        response.put("y", new BEValue(bytes("r")));
+        response.put("r", new BEValue(r));
+        reply(from, t, response);
+    }
+
+    private Map<String, BEValue> error(int code, String text) {
+        Map<String, BEValue> response = new HashMap<>();
+        response.put("y", new BEValue(bytes("e")));
+        response.put("e", new BEValue(List.of(new BEValue(code), new BEValue(bytes(text)))));
+        return response;
+    }
+
+    private void reply(InetSocketAddress to, BEValue t, Map<String, BEValue> response) {
+        response.put("t", t);
+        try {
+            transport.send(to, encode(response));
+        } catch (IOException e) {
+            log.debug("DHT reply to {} failed: {}", to, e.getMessage());
+        }
+    }
+
+    private void store(byte[] infoHash, InetSocketAddress peer) {
+        String key = PeerWire.toHex(infoHash);
+        if (!announced.containsKey(key) && announced.size() >= MAX_TORRENTS) {
+            return;
+        }
+        Map<InetSocketAddress, Long> peers = announced.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+        if (peers.size() < MAX_PEERS_PER_TORRENT || peers.containsKey(peer)) {
+            peers.put(peer, System.currentTimeMillis() + PEER_TTL_MILLIS);
+        }
+    }
+
+    int getAnnouncedTorrents() {
+        return announced.size();
+    }
+
+    // --- Iterative lookup ---
+
+    // Queries the closest known nodes to the target, alpha at a time, moving
+    // towards closer nodes from each answer, until the K closest seen have all
+    // answered or failed
+    private final class Lookup {
+        private final byte[] target;
+        private final boolean getPeers;
+        private final int announcePort;
+        private final long startMillis = System.currentTimeMillis();
+        private final TreeSet<Candidate> candidates;
+        private final Set<InetSocketAddress> peers = new LinkedHashSet<>();
+        private final CompletableFuture<LookupResult> result = new CompletableFuture<>();
+        private int inFlight;
+        private int queries;
+        private int answered;
+
+        Lookup(byte[] target, boolean getPeers, int announcePort) {
+            this.target = target;
+            this.getPeers = getPeers;
+            this.announcePort = announcePort;
+            this.candidates = new TreeSet<>((a, b) -> {
+                int byDistance = RoutingTable.compareDistance(target, a.id, b.id);
+                return byDistance != 0 ? byDistance : Arrays.compare(a.id, b.id);
+            });
+        }
+
+        CompletableFuture<LookupResult> start() {
+            lookups.incrementAndGet();
+            synchronized (this) {
+                for (RoutingTable.Node node : table.closest(target, RoutingTable.K * 2)) {
+                    candidates.add(new Candidate(node.id, node.address, 0));
+                }
+                advance();
+            }
+            return result;
+        }
+
+        // Called with the lock held
+        private void advance() {
+            if (result.isDone()) {
+                return;
+            }
+            int considered = 0;
+            boolean pendingCloser = false;
+            for (Iterator<Candidate> it = candidates.iterator(); it.hasNext() && considered < RoutingTable.K; ) {
+                Candidate candidate = it.next();
+                if (candidate.state == State.FAILED) {
+                    continue;
+                }
+                considered++;
+                if (candidate.state == State.NEW) {
+                    if (inFlight < alpha && queries < MAX_LOOKUP_QUERIES) {
+                        send(candidate);
+                    } else {
+                        pendingCloser = true;
+                    }
+                } else if (candidate.state == State.QUERIED) {
+                    pendingCloser = true;
+                }
+            }
+            if (inFlight == 0 && (!pendingCloser || queries >= MAX_LOOKUP_QUERIES)) {
+                finish();
+            }
+        }
+
+        private void send(Candidate candidate) {
+            candidate.state = State.QUERIED;
+            inFlight++;
+            queries++;
+            Map<String, BEValue> args = getPeers ? args("info_hash", new BEValue(target))
+                    : args("target", new BEValue(target));
+            query(candidate.address, candidate.id, getPeers ? "get_peers" : "find_node", args)
+                    .whenComplete((r, e) -> {
+                        synchronized (this) {
+                            inFlight--;
+                            if (e != null || r.isEmpty()) {
+                                candidate.state = State.FAILED;
+                            } else {
+                                candidate.state = State.ANSWERED;
+                                answered++;
+                                absorb(candidate, r);
+                            }
+                            advance();
+                        }
+                    });
+        }
+
+        private void absorb(Candidate from, Map<String, BEValue> r) {
+            try {
+                if (r.containsKey("token")) {
+                    from.token = r.get("token").getBytes();
+                }
+                if (r.containsKey("values")) {
+                    for (BEValue value : r.get("values").getList()) {
+                        InetSocketAddress peer = parsePeer(value.getBytes());
+                        if (peer != null) {
+                            peers.add(peer);
+                        }
+                    }
+                }
+                if (r.containsKey("nodes")) {
+                    for (Contact contact : parseNodes(r.get("nodes").getBytes())) {
+                        if (!Arrays.equals(contact.id(), id)) {
+                            candidates.add(new Candidate(contact.id(), contact.address(), from.depth + 1));
+                        }
+                    }
+                }
+            } catch (InvalidBEncodingException e) {
+                log.debug("Malformed lookup response: {}", e.getMessage());
+            }
+        }
+
+        private void finish() {
+            if (result.isDone()) {
+                return;
+            }
+            List<Contact> closest = new ArrayList<>();
+            int hops = 0;
+            List<Candidate> announceTo = new ArrayList<>();
+            for (Candidate candidate : candidates) {
+                if (candidate.state != State.ANSWERED) {
+                    continue;
+                }
+                if (closest.size() < RoutingTable.K) {
+                    closest.add(new Contact(candidate.id, candidate.address));
+                    hops = Math.max(hops, candidate.depth + 1);
+                    if (candidate.token != null) {
+                        announceTo.add(candidate);
+                    }
+                }
+            }
+            if (announcePort > 0) {
+                for (Candidate candidate : announceTo) {
+                    Map<String, BEValue> args = args("info_hash", new BEValue(target));
+                    args.put("port", new BEValue(announcePort));
+                    args.put("token", new BEValue(candidate.token));
+                    query(candidate.address, candidate.id, "announce_peer", args).handle((r, e) -> null);
+                }
+            }
+            result.complete(new LookupResult(new ArrayList<>(peers), closest, queries, answered, hops,
+                    System.currentTimeMillis() - startMillis));
+        }
+    }
+
+    private enum State { NEW, QUERIED, ANSWERED, FAILED }
+
+    private static final class Candidate {
+        final byte[] id;
+        final InetSocketAddress address;
+        final int depth;
+        State state = State.NEW;
+        byte[] token;
+
+        Candidate(byte[] id, InetSocketAddress address, int depth) {
+            this.id = id;
+            this.address = address;
+            this.depth = depth;
+        }
+    }
+
+    // --- Encoding ---
+
+    private static Map<String, BEValue> args(Object... pairs) {
+        Map<String, BEValue> args = new HashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            args.put((String) pairs[i], (BEValue) pairs[i + 1]);
+        }
+        return args;
+    }
+
+    private static byte[] encode(Map<String, BEValue> message) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        BEncoder.bencode(message, out);
+        return out.toByteArray();
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    static byte[] randomId() {
+        return randomBytes(new SecureRandom(), RoutingTable.ID_LENGTH);
+    }
+
+    // SHA-1 of the requester's IP and a rotating secret (BEP 5 write token)
+    private static byte[] token(InetAddress address, byte[] secret) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            sha1.update(address.getAddress());
+            sha1.update(secret);
+            return Arrays.copyOf(sha1.digest(), 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Compact node info: 20-byte id, IPv4 address, port; IPv6 nodes are left out
+    static byte[] compactNodes(List<RoutingTable.Node> nodes) {
+        ByteBuffer buffer = ByteBuffer.allocate(nodes.size() * COMPACT_NODE_LENGTH);
+        for (RoutingTable.Node node : nodes) {
+            byte[] peer = compactPeer(node.address);
+            if (peer != null) {
+                buffer.put(node.id).put(peer);
+            }
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    static List<Contact> parseNodes(byte[] compact) {
+        List<Contact> contacts = new ArrayList<>();
+        for (int offset = 0; offset + COMPACT_NODE_LENGTH <= compact.length; offset += COMPACT_NODE_LENGTH) {
+            InetSocketAddress address = parsePeer(Arrays.copyOfRange(compact, offset + RoutingTable.ID_LENGTH,
+                    offset + COMPACT_NODE_LENGTH));
+            if (address != null && address.getPort() > 0) {
+                contacts.add(new Contact(Arrays.copyOfRange(compact, offset, offset + RoutingTable.ID_LENGTH),
+                        address));
+            }
+        }
+        return contacts;
+    }
+
+    static byte[] compactPeer(InetSocketAddress address) {
+        if (!(address.getAddress() instanceof Inet4Address)) {
+            return null;
+        }
+        return ByteBuffer.allocate(COMPACT_PEER_LENGTH).put(address.getAddress().getAddress())
+                .putShort((short) address.getPort()).array();
+    }
+
+    static InetSocketAddress parsePeer(byte[] compact) {
+        if (compact.length != COMPACT_PEER_LENGTH) {
+            return null;
+        }
+        try {
+            return new InetSocketAddress(InetAddress.getByAddress(Arrays.copyOf(compact, 4)),
+                    ((compact[4] & 0xFF) << 8) | (compact[5] & 0xFF));
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("nodeId", PeerWire.toHex(id));
+        stats.put("routingTableNodes", table.size());
+        stats.put("bucketsInUse", table.bucketsInUse());
+        stats.put("queriesSent", queriesSent.get());
+        stats.put("responses", responses.get());
+        stats.put("timeouts", timeouts.get());
+        stats.put("queriesReceived", queriesReceived.get());
+        stats.put("lookups", lookups.get());
+        stats.put("pendingQueries", pending.size());
+        stats.put("announcedTorrents", announced.size());
+        return stats;
+    }
+
+    long getQueriesSent() {
+        return queriesSent.get();
+    }
+
+    @Override
+    public void close() {
+        transport.close();
+        pending.values().forEach(p -> p.future().cancel(false));
+        pending.clear();
+    }
+}
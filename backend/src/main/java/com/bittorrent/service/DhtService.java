@@ -0,0 +1,251 @@
+package com.bittorrent.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+// The application's DHT node on its own UDP port. The node id and the routing
+// table are saved to a small binary cache (<nodeId, compact nodes>) on shutdown
+// and every save interval; on startup the cached nodes go straight into the
+// table, so lookups can run before bootstrapping through the public routers,
+// which is only needed when the cache is missing or has gone stale.
+@Component
+@Slf4j
+public class DhtService {
+    private static final int MAGIC = 0x42544448; // "BTDH"
+    private static final byte VERSION = 1;
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "dht-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicLong peerLookups = new AtomicLong();
+    private final AtomicLong peersFound = new AtomicLong();
+    private final AtomicLong announces = new AtomicLong();
+
+    @Value("${torrent.dht.enabled:true}")
+    private boolean enabled;
+
+    @Value("${torrent.dht.port:6891}")
+    private int port;
+
+    @Value("${torrent.dht.bootstrap:router.bittorrent.com:6881,dht.transmissionbt.com:6881,router.utorrent.com:6881}")
+    private List<String> bootstrapNodes;
+
+    @Value("${torrent.dht.node-cache:dht/nodes.dat}")
+    private String nodeCache;
+
+    @Value("${torrent.dht.query-timeout-ms:2000}")
+    private long queryTimeoutMillis;
+
+    // Queries in flight per lookup
+    @Value("${torrent.dht.alpha:3}")
+    private int alpha;
+
+    private DhtNode node;
+    private volatile boolean running;
+    private int cachedNodes;
+    private volatile long bootstrapMillis = -1;
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        byte[] id = null;
+        List<DhtNode.Contact> cached = new ArrayList<>();
+        List<Long> lastSeen = new ArrayList<>();
+        Path cache = Paths.get(nodeCache);
+        if (Files.exists(cache)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cache)))) {
+                if (in.readInt() == MAGIC && in.readByte() == VERSION) {
+                    id = new byte[RoutingTable.ID_LENGTH];
+                    in.readFully(id);
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        byte[] compact = new byte[DhtNode.COMPACT_NODE_LENGTH];
+                        in.readFully(compact);
+                        long seen = in.readLong();
+                        for (DhtNode.Contact contact : DhtNode.parseNodes(compact)) {
+                            cached.add(contact);
+                            lastSeen.add(seen);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                log.warn("Ignoring unreadable DHT node cache {}: {}", cache, e.getMessage());
+                cached.clear();
+            }
+        }
+        try {
+            node = new DhtNode(id != null ? id : DhtNode.randomId(), new UdpDhtTransport(port), timer,
+                    queryTimeoutMillis, alpha, new SecureRandom());
+        } catch (IOException e) {
+            log.error("DHT disabled: cannot bind UDP port {}", port, e);
+            enabled = false;
+            return;
+        }
+        for (int i = 0; i < cached.size(); i++) {
+            node.getTable().seen(cached.get(i).id(), cached.get(i).address(), lastSeen.get(i));
+        }
+        cachedNodes = cached.size();
+        running = true;
+        log.info("DHT node {} on UDP port {} with {} cached nodes", PeerWire.toHex(node.getId()), port,
+                cachedNodes);
+        refresh();
+    }
+
+    // Look up our own id through the cached nodes; fall back to the routers if
+    // too few of them answer
+    private void refresh() {
+        long start = System.currentTimeMillis();
+        CompletableFuture<DhtNode.LookupResult> lookup = cachedNodes > 0
+                ? node.lookup(node.getId(), false)
+                : CompletableFuture.completedFuture(null);
+        lookup.thenCompose(result -> result != null && result.closest().size() >= RoutingTable.K
+                        ? CompletableFuture.completedFuture(result)
+                        : CompletableFuture.supplyAsync(this::resolveBootstrap).thenCompose(node::bootstrap))
+                .whenComplete((result, e) -> {
+                    bootstrapMillis = System.currentTimeMillis() - start;
+                    if (e != null) {
+                        log.warn("DHT bootstrap failed: {}", e.getMessage());
+                    } else {
+                        log.info("DHT ready in {} ms with {} nodes", bootstrapMillis, node.getTable().size());
+                    }
+                });
+    }
+
+    private List<InetSocketAddress> resolveBootstrap() {
+        List<InetSocketAddress> seeds = new ArrayList<>();
+        for (String entry : bootstrapNodes) {
+            int colon = entry.lastIndexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            InetSocketAddress address = new InetSocketAddress(entry.substring(0, colon).trim(),
+                    Integer.parseInt(entry.substring(colon + 1).trim()));
+            if (!address.isUnresolved()) {
+                seeds.add(address);
+            }
+        }
+        return seeds;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public CompletableFuture<List<InetSocketAddress>> findPeers(byte[] infoHash) {
+        if (!running) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+        peerLookups.incrementAndGet();
+        return node.findPeers(infoHash).thenApply(result -> {
+            peersFound.addAndGet(result.peers().size());
+            return result.peers();
+        });
+    }
+
+    // Finds peers and tells the closest nodes that we serve the torrent on `port`
+    public CompletableFuture<List<InetSocketAddress>> announce(byte[] infoHash, int port) {
+        if (!running) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+        announces.incrementAndGet();
+        return node.announce(infoHash, port).thenApply(result -> {
+            peersFound.addAndGet(result.peers().size());
+            return result.peers();
+        });
+    }
+
+    @Scheduled(fixedDelayString = "${torrent.dht.save-interval-ms:300000}")
+    public void maintain() {
+        if (!running) {
+            return;
+        }
+        node.maintain();
+        if (node.getTable().size() == 0) {
+            refresh();
+        }
+        saveNodeCache();
+    }
+
+    private void saveNodeCache() {
+        List<RoutingTable.Node> nodes = node.getTable().closest(node.getId(), Integer.MAX_VALUE);
+        try {
+            Path target = Paths.get(nodeCache).toAbsolutePath();
+            Files.createDirectories(target.getParent());
+            Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeByte(VERSION);
+                out.write(node.getId());
+                List<byte[]> entries = new ArrayList<>();
+                List<Long> seen = new ArrayList<>();
+                for (RoutingTable.Node n : nodes) {
+                    byte[] compact = DhtNode.compactNodes(List.of(n));
+                    if (compact.length == DhtNode.COMPACT_NODE_LENGTH) {
+                        entries.add(compact);
+                        seen.add(n.lastSeen);
+                    }
+                }
+                out.writeInt(entries.size());
+                for (int i = 0; i < entries.size(); i++) {
+                    out.write(entries.get(i));
+                    out.writeLong(seen.get(i));
+                }
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.debug("Saved {} DHT nodes", nodes.size());
+        } catch (IOException e) {
+            log.warn("Could not save DHT node cache: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (running) {
+            running = false;
+            saveNodeCache();
+            node.close();
+        }
+        timer.shutdownNow();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("running", running);
+        if (running) {
+            stats.putAll(node.getStats());
+            stats.put("port", port);
+        }
+        stats.put("cachedNodesAtStartup", cachedNodes);
+        stats.put("bootstrapMillis", bootstrapMillis);
+        stats.put("peerLookups", peerLookups.get());
+        stats.put("peersFound", peersFound.get());
+        stats.put("announces", announces.get());
+        return stats;
+    }
+}
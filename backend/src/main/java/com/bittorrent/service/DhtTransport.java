@@ -0,0 +1,19 @@
+package com.bittorrent.service;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.function.BiConsumer;
+
+// Datagram transport under a DhtNode: UDP in the application, an in-memory
+// network in the DhtSimulation test
+public interface DhtTransport extends AutoCloseable {
+    void send(InetSocketAddress to, byte[] packet) throws IOException;
+
+    // Packets are delivered on the transport's own thread
+    void setReceiver(BiConsumer<InetSocketAddress, byte[]> receiver);
+
+    InetSocketAddress getLocalAddress();
+
+    @Override
+    void close();
+}
@@ -0,0 +1,116 @@
+package com.bittorrent.service;
+
+import com.turn.ttorrent.client.Client;
+import com.turn.ttorrent.client.peer.SharingPeer;
+
+import java.time.LocalDateTime;
+
+// Samples a SharedTorrent and publishes its progress to the live stats store.
+// Driven by ProgressMonitor; holds no thread of its own. Progress is a 0-1
+// fraction (of the selected files), downloaded bytes are verified pieces, and
+// speed counts only what arrived since the previous sample: the pieces found
+// on disk at startup are the baseline, not a burst.
+class DownloadProgressTracker {
+    private final Long torrentId;
+    private final LiveStatsStore liveStats;
+    private final Client client;
+    private final ResumableSharedTorrent sharedTorrent;
+    private final com.turn.ttorrent.common.Torrent torrent;
+    // Bytes uploaded by earlier sessions of this download; ttorrent counts from zero each start
+    private final long baseUploadedBytes;
+    // -1 until the torrent has checked what is already on disk
+    private long lastDownloadedBytes = -1;
+    private long lastUploadedBytes = 0;
+    private long lastSampleNanos;
+
+    DownloadProgressTracker(Long torrentId, LiveStatsStore liveStats, Client client,
+            com.turn.ttorrent.common.Torrent torrent, long baseUploadedBytes) {
+        this.torrentId = torrentId;
+        this.liveStats = liveStats;
+        this.client = client;
+        this.sharedTorrent = (ResumableSharedTorrent) client.getTorrent();
+        this.torrent = torrent;
+        this.baseUploadedBytes = baseUploadedBytes;
+        this.lastUploadedBytes = baseUploadedBytes;
+        this.lastSampleNanos = System.nanoTime();
+        if (sharedTorrent.isReady()) {
+            this.lastDownloadedBytes = sharedTorrent.getVerifiedBytes();
+        }
+    }
+
+    Long getTorrentId() {
+        return torrentId;
+    }
+
+    // Never blocks: init() holds the torrent's lock for the whole hash check
+    boolean isReady() {
+        return sharedTorrent.isReady();
+    }
+
+    boolean isComplete() {
+        return sharedTorrent.isComplete();
+    }
+
+    // Called from the monitor thread only
+    void sample() {
+        long now = System.nanoTime();
+        if (!sharedTorrent.isReady()) {
+            // Still hashing the data on disk; pieces it finds are not download progress
+            lastSampleNanos = now;
+            return;
+        }
+        double progress = sharedTorrent.getCompletion() / 100.0;
+        long downloadedBytes = sharedTorrent.getVerifiedBytes();
+        long uploadedBytes = baseUploadedBytes + sharedTorrent.getUploaded();
+        if (lastDownloadedBytes < 0) {
+            lastDownloadedBytes = downloadedBytes;
+        }
+
+        long elapsedMillis = (now - lastSampleNanos) / 1_000_000;
+
+        // Calculate speeds
+        long downloadSpeed = 0;
+        long uploadSpeed = 0;
+
+        if (elapsedMillis > 0) {
+            downloadSpeed = Math.max(downloadedBytes - lastDownloadedBytes, 0) * 1000 / elapsedMillis;
+            uploadSpeed = (uploadedBytes - lastUploadedBytes) * 1000 / elapsedMillis;
+        }
+
+        // Calculate ETA from what the selection still needs
+        long remainingBytes = sharedTorrent.getLeft();
+        long estimatedTimeRemaining = downloadSpeed > 0 ? remainingBytes / downloadSpeed : 0;
+
+        int availablePeers = 0;
+        int connectedPeers = 0;
+        for (SharingPeer peer : client.getPeers()) {
+            availablePeers++;
+            if (peer.isConnected()) {
+                connectedPeers++;
+            }
+        }
+
+        updateProgress(progress, downloadedBytes, uploadedBytes, downloadSpeed, uploadSpeed,
+                connectedPeers, availablePeers, estimatedTimeRemaining);
+
+        lastDownloadedBytes = downloadedBytes;
+        lastUploadedBytes = uploadedBytes;
+        lastSampleNanos = now;
+    }
+
+    // Final snapshot once the last piece is in; speeds and peers drop to zero
+    void complete() {
+        updateProgress(1.0, sharedTorrent.getVerifiedBytes(), baseUploadedBytes + sharedTorrent.getUploaded(),
+                0L, 0L, 0, 0, 0);
+    }
+
+    void updateProgress(double progress, long downloadedBytes, long uploadedBytes, long downloadSpeed,
+            long uploadSpeed, int connectedPeers, int availablePeers, long estimatedTimeRemaining) {
+        double uploadRatio = downloadedBytes > 0 ? (double) uploadedBytes / downloadedBytes : 0.0;
+
+        // Published in memory only; ProgressFlusher persists it on its own schedule
+        liveStats.publish(torrentId, new ProgressSnapshot(progress, downloadedBytes, downloadSpeed,
+                uploadSpeed, connectedPeers, availablePeers, estimatedTimeRemaining, uploadedBytes,
+                uploadRatio, LocalDateTime.now()));
+    }
+}
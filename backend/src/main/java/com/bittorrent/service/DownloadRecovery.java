@@ -0,0 +1,169 @@
+package com.bittorrent.service;
+
+import com.bittorrent.model.Download;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// Brings back the downloads a restart cut off. Once the app is up (the REST API
+// is already serving), one query finds them and they go back to the
+// DownloadScheduler in their old order, so only maxActive sessions start and the
+// rest queue as before. Loading each one's piece state (the fast-resume sidecar,
+// or a hash check of the payload when there is none) is the slow part, so it
+// runs ahead on up to `parallelism` threads and a session that gets a slot
+// usually finds its pieces ready.
+@Component
+@Slf4j
+public class DownloadRecovery {
+    private final TorrentMetrics metrics;
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger loaded = new AtomicInteger();
+    private final AtomicInteger hashChecked = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicLong loadMillis = new AtomicLong();
+    private volatile long apiReadyMillis = -1;
+    private volatile long startedAt;
+    private volatile long finishedAt;
+
+    @Value("${torrent.recovery.enabled:true}")
+    private boolean enabled;
+
+    @Value("${torrent.recovery.parallelism:4}")
+    private int parallelism;
+
+    // Verified pieces found on disk, and whether finding them took a hash check
+    public record PieceState(BitSet valid, boolean hashChecked) {
+    }
+
+    // What recovering a download means, supplied by TorrentService
+    public interface Target {
+        // Reads the download's piece state from disk; runs on the recovery threads
+        PieceState load(Download download) throws Exception;
+
+        // Queues the download again; its session takes the piece state from the future once it has a slot
+        void resubmit(Download download, CompletableFuture<PieceState> state);
+    }
+
+    public DownloadRecovery(TorrentMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @PostConstruct
+    public void registerGauges() {
+        metrics.gauge("torrent.recovery.pending", null, this, DownloadRecovery::pending);
+    }
+
+    public void start(Duration apiReady, Supplier<List<Download>> interrupted, Target target) {
+        apiReadyMillis = apiReady != null ? apiReady.toMillis() : -1;
+        if (!enabled) {
+            return;
+        }
+        Thread.ofVirtual().name("download-recovery").start(() -> run(interrupted, target));
+    }
+
+    private void run(Supplier<List<Download>> interrupted, Target target) {
+        startedAt = System.currentTimeMillis();
+        List<Download> downloads;
+        try {
+            downloads = interrupted.get();
+        } catch (Exception e) {
+            log.error("Could not look up interrupted downloads", e);
+            finishedAt = System.currentTimeMillis();
+            return;
+        }
+        total.set(downloads.size());
+        if (downloads.isEmpty()) {
+            finishedAt = System.currentTimeMillis();
+            return;
+        }
+        log.info("Recovering {} interrupted downloads (API ready after {} ms)", downloads.size(), apiReadyMillis);
+
+        // Virtual threads, at most `parallelism` of them loading at once
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(parallelism, 1),
+                Thread.ofVirtual().name("download-recovery-", 0).factory());
+        int progressEvery = Math.max(downloads.size() / 10, 1);
+        for (Download download : downloads) {
+            CompletableFuture<PieceState> state = new CompletableFuture<>();
+            try {
+                target.resubmit(download, state);
+            } catch (Exception e) {
+                // Started, paused or deleted through the API since the query ran
+                log.info("Not recovering download {}: {}", download.getId(), e.getMessage());
+                skipped.incrementAndGet();
+                continue;
+            }
+            pool.execute(() -> {
+                long start = System.currentTimeMillis();
+                try {
+                    PieceState result = target.load(download);
+                    if (result.hashChecked()) {
+                        hashChecked.incrementAndGet();
+                    }
+                    state.complete(result);
+                } catch (Exception e) {
+                    // The session works its piece state out itself
+                    log.warn("Could not load piece state for download {}: {}", download.getId(), e.getMessage());
+                    failed.incrementAndGet();
+                    state.complete(null);
+                    return;
+                } finally {
+                    loadMillis.addAndGet(System.currentTimeMillis() - start);
+                }
+                int done = loaded.incrementAndGet();
+                if (done % progressEvery == 0) {
+                    log.info("Recovery: piece state loaded for {}/{} downloads", done, total.get());
+                }
+            });
+        }
+        pool.shutdown();
+        try {
+            while (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.info("Recovery: {} downloads still loading", pending());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pool.shutdownNow();
+        }
+        finishedAt = System.currentTimeMillis();
+        log.info("Recovered {} downloads in {} ms ({} hash-checked, {} failed, {} skipped)", loaded.get(),
+                finishedAt - startedAt, hashChecked.get(), failed.get(), skipped.get());
+    }
+
+    private int pending() {
+        return Math.max(total.get() - loaded.get() - failed.get() - skipped.get(), 0);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("parallelism", parallelism);
+        stats.put("apiReadyMillis", apiReadyMillis);
+        stats.put("interrupted", total.get());
+        stats.put("loaded", loaded.get());
+        stats.put("hashChecked", hashChecked.get());
+        stats.put("failed", failed.get());
+        stats.put("skipped", skipped.get());
+        stats.put("pending", pending());
+        stats.put("finished", finishedAt > 0);
+        long end = finishedAt > 0 ? finishedAt : System.currentTimeMillis();
+        stats.put("elapsedMillis", startedAt > 0 ? end - startedAt : 0);
+        int attempts = loaded.get() + failed.get();
+        stats.put("avgLoadMillis", attempts > 0 ? loadMillis.get() / attempts : 0);
+        return stats;
+    }
+}
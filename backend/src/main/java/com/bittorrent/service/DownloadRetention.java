@@ -0,0 +1,118 @@
+package com.bittorrent.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Every start adds a download row, so a torrent's history grows without bound.
+// Finished rows (COMPLETED, FAILED) are pruned once they are older than
+// retentionDays or fall outside the newest keepPerTorrent rows of their torrent.
+// A torrent's latest row and its latest COMPLETED row (what the seeding engine
+// serves) always stay. Pruned rows are folded into download_archive in the same
+// statement, so byte and completion totals are unchanged.
+@Component
+@Slf4j
+public class DownloadRetention {
+    private static final String PRUNE_SQL = "WITH candidates AS ("
+            + "SELECT id FROM (SELECT id, status, coalesce(completed_at, last_updated) AS finished_at, "
+            + "row_number() OVER (PARTITION BY torrent_id ORDER BY id DESC) AS newest, "
+            + "row_number() OVER (PARTITION BY torrent_id, status ORDER BY id DESC) AS newest_of_status "
+            + "FROM download) ranked "
+            + "WHERE newest > 1 AND status IN ('COMPLETED', 'FAILED') "
+            + "AND NOT (status = 'COMPLETED' AND newest_of_status = 1) "
+            + "AND (newest > ? OR finished_at < ?) ORDER BY id LIMIT ?), "
+            + "pruned AS (DELETE FROM download WHERE id IN (SELECT id FROM candidates) "
+            + "RETURNING torrent_id, status, downloaded_bytes, uploaded_bytes, completed_at), "
+            + "archived AS (INSERT INTO download_archive (torrent_id, completed_downloads, failed_downloads, "
+            + "downloaded_bytes, uploaded_bytes, last_completed_at, archived_at) "
+            + "SELECT torrent_id, count(*) FILTER (WHERE status = 'COMPLETED'), "
+            + "count(*) FILTER (WHERE status = 'FAILED'), coalesce(sum(downloaded_bytes), 0), "
+            + "coalesce(sum(uploaded_bytes), 0), max(completed_at), ? FROM pruned GROUP BY torrent_id "
+            + "ON CONFLICT (torrent_id) DO UPDATE SET "
+            + "completed_downloads = download_archive.completed_downloads + excluded.completed_downloads, "
+            + "failed_downloads = download_archive.failed_downloads + excluded.failed_downloads, "
+            + "downloaded_bytes = download_archive.downloaded_bytes + excluded.downloaded_bytes, "
+            + "uploaded_bytes = download_archive.uploaded_bytes + excluded.uploaded_bytes, "
+            + "last_completed_at = greatest(download_archive.last_completed_at, excluded.last_completed_at), "
+            + "archived_at = excluded.archived_at) "
+            + "SELECT count(*) FROM pruned";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final StatusCounters statusCounters;
+
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong pruned = new AtomicLong();
+    private final AtomicLong pruneMillis = new AtomicLong();
+    private volatile long lastPruned = 0;
+
+    @Value("${torrent.history.prune-enabled:true}")
+    private boolean enabled;
+
+    @Value("${torrent.history.download-retention-days:30}")
+    private int retentionDays;
+
+    @Value("${torrent.history.downloads-per-torrent:5}")
+    private int keepPerTorrent;
+
+    @Value("${torrent.history.prune-batch-size:1000}")
+    private int batchSize;
+
+    public DownloadRetention(JdbcTemplate jdbcTemplate, StatusCounters statusCounters) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.statusCounters = statusCounters;
+    }
+
+    @Scheduled(initialDelayString = "${torrent.history.prune-initial-delay-ms:60000}",
+            fixedDelayString = "${torrent.history.prune-interval-ms:3600000}")
+    public void prune() {
+        if (!enabled) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        long total = 0;
+        try {
+            Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+            Timestamp cutoff = Timestamp.valueOf(LocalDateTime.now().minusDays(retentionDays));
+            // Batches so one run never holds a huge delete open
+            while (true) {
+                Long deleted = jdbcTemplate.queryForObject(PRUNE_SQL, Long.class, Math.max(keepPerTorrent, 1),
+                        cutoff, batchSize, now);
+                total += deleted != null ? deleted : 0;
+                if (deleted == null || deleted < batchSize) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            log.error("Download history pruning failed", e);
+        }
+        runs.incrementAndGet();
+        pruned.addAndGet(total);
+        lastPruned = total;
+        pruneMillis.addAndGet(System.currentTimeMillis() - start);
+        if (total > 0) {
+            log.info("Archived {} old download rows in {} ms", total, System.currentTimeMillis() - start);
+            // Status counts and totals now come partly from the archive
+            statusCounters.resync();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("retentionDays", retentionDays);
+        stats.put("downloadsPerTorrent", keepPerTorrent);
+        stats.put("runs", runs.get());
+        stats.put("prunedRows", pruned.get());
+        stats.put("lastPrunedRows", lastPruned);
+        stats.put("pruneMillis", pruneMillis.get());
+        return stats;
+    }
+}
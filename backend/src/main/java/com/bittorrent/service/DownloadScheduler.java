@@ -0,0 +1,142 @@
+package com.bittorrent.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Admission control for downloads: at most maxActive sessions run at once, the
+// rest wait in a priority queue and are promoted as slots free up. Sessions run
+// on virtual threads, so a blocked wait costs no platform thread.
+@Component
+@Slf4j
+public class DownloadScheduler {
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final PriorityQueue<Job> queue = new PriorityQueue<>(
+            Comparator.comparingInt(Job::priority).reversed().thenComparingLong(Job::sequence));
+    private final Map<Long, Job> queued = new HashMap<>();
+    private final Set<Long> active = new HashSet<>();
+    private final TorrentMetrics metrics;
+    private long sequence = 0;
+
+    private volatile int maxActive;
+
+    public DownloadScheduler(@Value("${torrent.scheduler.max-active:8}") int maxActive, TorrentMetrics metrics) {
+        this.maxActive = maxActive;
+        this.metrics = metrics;
+    }
+
+    @PostConstruct
+    public void registerGauges() {
+        metrics.gauge("torrent.scheduler.active", null, this, DownloadScheduler::activeCount);
+        metrics.gauge("torrent.scheduler.queued", null, this, DownloadScheduler::queuedCount);
+        metrics.gauge("torrent.scheduler.max.active", null, this, s -> s.maxActive);
+    }
+
+    // Returns true when the task was started right away, false when it was queued
+    public synchronized boolean submit(Long torrentId, int priority, Runnable task) {
+        if (active.contains(torrentId) || queued.containsKey(torrentId)) {
+            throw new IllegalStateException("Torrent " + torrentId + " is already scheduled");
+        }
+        Job job = new Job(torrentId, priority, sequence++, task);
+        if (active.size() < maxActive) {
+            launch(job);
+            return true;
+        }
+        queue.add(job);
+        queued.put(torrentId, job);
+        log.debug("Queued torrent {} with priority {} ({} waiting)", torrentId, priority, queue.size());
+        return false;
+    }
+
+    // Drops a torrent that has not started yet
+    public synchronized boolean cancel(Long torrentId) {
+        Job job = queued.remove(torrentId);
+        return job != null && queue.remove(job);
+    }
+
+    public synchronized boolean reprioritize(Long torrentId, int priority) {
+        Job job = queued.remove(torrentId);
+        if (job == null) {
+            return false;
+        }
+        queue.remove(job);
+        Job updated = new Job(torrentId, priority, job.sequence(), job.task());
+        queue.add(updated);
+        queued.put(torrentId, updated);
+        return true;
+    }
+
+    public synchronized void setMaxActive(int maxActive) {
+        if (maxActive < 1) {
+            throw new IllegalArgumentException("maxActive must be at least 1");
+        }
+        this.maxActive = maxActive;
+        promote();
+    }
+
+    public synchronized boolean isScheduled(Long torrentId) {
+        return active.contains(torrentId) || queued.containsKey(torrentId);
+    }
+
+    private synchronized int activeCount() {
+        return active.size();
+    }
+
+    private synchronized int queuedCount() {
+        return queue.size();
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("maxActive", maxActive);
+        stats.put("active", active.size());
+        stats.put("queued", queue.size());
+        return stats;
+    }
+
+    private void launch(Job job) {
+        active.add(job.torrentId());
+        executor.submit(() -> {
+            try {
+                job.task().run();
+            } catch (Exception e) {
+                log.error("Download task for torrent {} failed", job.torrentId(), e);
+            } finally {
+                release(job.torrentId());
+            }
+        });
+    }
+
+    private synchronized void release(Long torrentId) {
+        active.remove(torrentId);
+        promote();
+    }
+
+    private void promote() {
+        while (active.size() < maxActive && !queue.isEmpty()) {
+            Job next = queue.poll();
+            queued.remove(next.torrentId());
+            log.debug("Promoting queued torrent {}", next.torrentId());
+            launch(next);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private record Job(Long torrentId, int priority, long sequence, Runnable task) {
+    }
+}
@@ -0,0 +1,132 @@
+package com.bittorrent.service;
+
+import com.turn.ttorrent.common.Torrent.TorrentFile;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.List;
+
+// Binary sidecar per torrent (<infoHash>.resume) holding the completed-piece
+// bitfield and the size/mtime of every payload file at the time it was written.
+// On load, pieces are trusted only if every file they overlap is unchanged.
+// The payload and the new sidecar are forced to disk before the sidecar is
+// moved into place, so after a crash it never names pieces that were lost.
+@Component
+@Slf4j
+public class FastResumeStore {
+    private static final int MAGIC = 0x42545246; // "BTRF"
+    private static final byte VERSION = 1;
+
+    @Value("${torrent.resume.dir:resume}")
+    private String resumeDir;
+
+    public void save(String infoHash, int pieceCount, BitSet completed, List<TorrentFile> files,
+            File downloadDir) throws IOException {
+        Files.createDirectories(Paths.get(resumeDir));
+        Path target = sidecar(infoHash);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(pieceCount);
+            byte[] bits = completed.toByteArray();
+            out.writeInt(bits.length);
+            out.write(bits);
+            out.writeInt(files.size());
+            for (TorrentFile file : files) {
+                File onDisk = TorrentMetainfo.locate(downloadDir, file);
+                if (onDisk != null) {
+                    force(onDisk.toPath());
+                }
+                out.writeLong(onDisk != null ? onDisk.length() : -1L);
+                out.writeLong(onDisk != null ? onDisk.lastModified() : -1L);
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Pieces that can be marked complete without hashing, or null if nothing usable is stored.
+    // Works from the metainfo alone, so it can run before a session (and its open files) exists.
+    public BitSet load(TorrentMetainfo metainfo, File downloadDir) {
+        Path path = sidecar(metainfo.getHexInfoHash());
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                log.warn("Ignoring resume data with unknown format: {}", path);
+                return null;
+            }
+            int pieceCount = in.readInt();
+            byte[] bits = new byte[in.readInt()];
+            in.readFully(bits);
+            BitSet trusted = BitSet.valueOf(bits);
+
+            List<TorrentFile> files = metainfo.getFiles();
+            if (in.readInt() != files.size()) {
+                return null;
+            }
+
+            // Drop every piece that overlaps a file whose size or mtime changed
+            long pieceLength = metainfo.getPieceLength();
+            long offset = 0;
+            int changedFiles = 0;
+            for (TorrentFile file : files) {
+                long size = in.readLong();
+                long mtime = in.readLong();
+                File onDisk = TorrentMetainfo.locate(downloadDir, file);
+                boolean unchanged = onDisk != null && onDisk.length() == size && onDisk.lastModified() == mtime;
+                if (!unchanged && file.size > 0) {
+                    int first = (int) (offset / pieceLength);
+                    int last = (int) ((offset + file.size - 1) / pieceLength);
+                    trusted.clear(first, last + 1);
+                    changedFiles++;
+                }
+                offset += file.size;
+            }
+            trusted.clear(pieceCount, Math.max(pieceCount, trusted.length()));
+            log.info("Fast-resume for {}: trusting {}/{} pieces, {} changed files", metainfo.getName(),
+                    trusted.cardinality(), pieceCount, changedFiles);
+            return trusted;
+        } catch (IOException e) {
+            log.warn("Could not read resume data {}, falling back to full check", path, e);
+            return null;
+        }
+    }
+
+    public void delete(String infoHash) {
+        try {
+            Files.deleteIfExists(sidecar(infoHash));
+        } catch (IOException e) {
+            log.warn("Could not delete resume data for {}", infoHash, e);
+        }
+    }
+
+    // Dirty pages belong to the file, so syncing through a fresh descriptor covers what the
+    // session wrote; opened for write because Windows will not flush a read-only handle
+    private static void force(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    private Path sidecar(String infoHash) {
+        return Paths.get(resumeDir, infoHash + ".resume");
+    }
+}
@@ -0,0 +1,186 @@
+package com.bittorrent.service;
+
+import com.bittorrent.model.Torrent;
+import com.turn.ttorrent.client.storage.TorrentByteStorage;
+import com.turn.ttorrent.common.Torrent.TorrentFile;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// How payload files get their disk space. ttorrent sizes every new .part file
+// with setLength, which on ext4/XFS leaves a sparse file that fills in piece
+// arrival order; with many torrents growing at once that interleaves their
+// extents. The mode is chosen per torrent, falling back to the global default:
+//   SPARSE  - ttorrent's behaviour, no up-front cost
+//   FULL    - the file is zero-filled front to back before the download starts,
+//             so blocks are allocated in one sequential pass (Java has no
+//             fallocate; positional zero writes are the portable equivalent)
+//   COMPACT - sparse while downloading, then each finished file is rewritten
+//             sequentially into a fresh file that replaces it
+// benchmarks/AllocationBenchmark measures the read-back speed of each mode.
+@Component
+@Slf4j
+public class FileAllocator {
+    public static final String SPARSE = "SPARSE";
+    public static final String FULL = "FULL";
+    public static final String COMPACT = "COMPACT";
+    private static final List<String> MODES = List.of(SPARSE, FULL, COMPACT);
+
+    private static final int ZERO_CHUNK = 1 << 20;
+    private static final int COPY_CHUNK = 4 << 20;
+
+    private final AtomicLong preallocatedBytes = new AtomicLong();
+    private final AtomicLong preallocateMillis = new AtomicLong();
+    private final AtomicLong compactedBytes = new AtomicLong();
+    private final AtomicLong compactMillis = new AtomicLong();
+    private final Map<String, AtomicLong> downloadsByMode = new HashMap<>();
+
+    private volatile String defaultMode;
+
+    @Value("${torrent.download.dir:downloads}")
+    private String downloadDir;
+
+    public FileAllocator(@Value("${torrent.allocation.mode:SPARSE}") String defaultMode) {
+        this.defaultMode = normalize(defaultMode);
+        MODES.forEach(mode -> downloadsByMode.put(mode, new AtomicLong()));
+    }
+
+    public static String normalize(String mode) {
+        String upper = mode.trim().toUpperCase(Locale.ROOT);
+        if (!MODES.contains(upper)) {
+            throw new IllegalArgumentException("Unknown allocation mode: " + mode + " (expected one of " + MODES + ")");
+        }
+        return upper;
+    }
+
+    public String getDefaultMode() {
+        return defaultMode;
+    }
+
+    public void setDefaultMode(String mode) {
+        this.defaultMode = normalize(mode);
+    }
+
+    public String resolve(Torrent torrent) {
+        return torrent.getAllocationMode() != null ? torrent.getAllocationMode() : defaultMode;
+    }
+
+    // Runs before ttorrent opens the files. Only space past a file's current
+    // end is filled, so resumed data is never overwritten; files the selection
+    // skips are left to ttorrent's sparse placeholder.
+    public void prepare(TorrentMetainfo metainfo, File payloadDir, String mode, FileSelection selection)
+            throws IOException {
+        downloadsByMode.get(mode).incrementAndGet();
+        if (!FULL.equals(mode)) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        List<TorrentFile> files = metainfo.getFiles();
+        for (int i = 0; i < files.size(); i++) {
+            TorrentFile file = files.get(i);
+            if (selection != null && !selection.isFileWanted(i)) {
+                continue;
+            }
+            if (new File(payloadDir, file.file.getPath()).exists()) {
+                continue;
+            }
+            File partial = new File(payloadDir, file.file.getPath() + TorrentByteStorage.PARTIAL_FILE_NAME_SUFFIX);
+            Files.createDirectories(partial.toPath().toAbsolutePath().getParent());
+            preallocatedBytes.addAndGet(zeroFill(partial.toPath(), file.size));
+        }
+        preallocateMillis.addAndGet(System.currentTimeMillis() - start);
+    }
+
+    // Runs once the client has stopped and ttorrent has renamed the finished files
+    public void finish(TorrentMetainfo metainfo, File payloadDir, String mode) throws IOException {
+        if (!COMPACT.equals(mode)) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        for (TorrentFile file : metainfo.getFiles()) {
+            File complete = new File(payloadDir, file.file.getPath());
+            if (complete.isFile()) {
+                compactedBytes.addAndGet(compact(complete.toPath()));
+            }
+        }
+        compactMillis.addAndGet(System.currentTimeMillis() - start);
+    }
+
+    static long zeroFill(Path path, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long position = channel.size();
+            if (position >= size) {
+                return 0;
+            }
+            long filled = size - position;
+            ByteBuffer zeros = ByteBuffer.allocateDirect(ZERO_CHUNK);
+            while (position < size) {
+                zeros.clear().limit((int) Math.min(ZERO_CHUNK, size - position));
+                while (zeros.hasRemaining()) {
+                    position += channel.write(zeros, position);
+                }
+            }
+            return filled;
+        }
+    }
+
+    // Copies through a buffer on purpose: transferTo may become copy_file_range,
+    // which on reflink-capable filesystems shares the old extents instead of
+    // writing new ones
+    static long compact(Path path) throws IOException {
+        Path copy = path.resolveSibling(path.getFileName() + ".compact");
+        long size;
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(copy, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                     StandardOpenOption.WRITE)) {
+            size = in.size();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(COPY_CHUNK);
+            long position = 0;
+            while (position < size) {
+                buffer.clear();
+                int read = in.read(buffer, position);
+                if (read < 0) {
+                    break;
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer, position + buffer.position());
+                }
+                position += read;
+            }
+            out.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(copy);
+            throw e;
+        }
+        Files.move(copy, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return size;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("defaultMode", defaultMode);
+        Map<String, Long> byMode = new HashMap<>();
+        downloadsByMode.forEach((mode, count) -> byMode.put(mode, count.get()));
+        stats.put("downloadsByMode", byMode);
+        stats.put("preallocatedBytes", preallocatedBytes.get());
+        stats.put("preallocateMillis", preallocateMillis.get());
+        stats.put("compactedBytes", compactedBytes.get());
+        stats.put("compactMillis", compactMillis.get());
+        return stats;
+    }
+}
@@ -0,0 +1,144 @@
+package com.bittorrent.service;
+
+import com.turn.ttorrent.common.Torrent.TorrentFile;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+
+// Which pieces a download fetches, from per-file priorities. A piece takes the
+// highest priority of the files it overlaps, so a piece shared with a wanted
+// file is fetched even when the other file is skipped; its bytes for the
+// skipped file land in that file's sparse .part, the only blocks it gets.
+// Piece priority 0 means the piece is never requested.
+public class FileSelection {
+    public static final String SKIP = "SKIP";
+    public static final String LOW = "LOW";
+    public static final String NORMAL = "NORMAL";
+    public static final String HIGH = "HIGH";
+    // Index is the piece priority
+    private static final List<String> PRIORITIES = List.of(SKIP, LOW, NORMAL, HIGH);
+
+    private final long[] fileOffsets;
+    private final long[] fileSizes;
+    private final boolean[] fileWanted;
+    private final byte[] piecePriorities;
+    private final BitSet wanted;
+    private final int pieceLength;
+    private final long totalSize;
+    private final boolean partial;
+
+    private FileSelection(long[] fileOffsets, long[] fileSizes, boolean[] fileWanted, byte[] piecePriorities,
+            int pieceLength, long totalSize) {
+        this.fileOffsets = fileOffsets;
+        this.fileSizes = fileSizes;
+        this.fileWanted = fileWanted;
+        this.piecePriorities = piecePriorities;
+        this.pieceLength = pieceLength;
+        this.totalSize = totalSize;
+        this.wanted = new BitSet(piecePriorities.length);
+        for (int i = 0; i < piecePriorities.length; i++) {
+            if (piecePriorities[i] > 0) {
+                wanted.set(i);
+            }
+        }
+        this.partial = wanted.cardinality() < piecePriorities.length;
+    }
+
+    public static String normalize(String priority) {
+        String upper = priority.trim().toUpperCase(Locale.ROOT);
+        if (!PRIORITIES.contains(upper)) {
+            throw new IllegalArgumentException("Unknown file priority: " + priority + " (expected one of "
+                    + PRIORITIES + ")");
+        }
+        return upper;
+    }
+
+    // One priority per file, in metainfo order; null entries count as NORMAL
+    public static FileSelection of(TorrentMetainfo metainfo, List<String> filePriorities) throws IOException {
+        List<TorrentFile> files = metainfo.getFiles();
+        if (filePriorities.size() != files.size()) {
+            throw new IllegalArgumentException("Expected " + files.size() + " file priorities, got "
+                    + filePriorities.size());
+        }
+        int pieceLength = metainfo.getPieceLength();
+        byte[] piecePriorities = new byte[metainfo.getPieceCount()];
+        long[] offsets = new long[files.size()];
+        long[] sizes = new long[files.size()];
+        boolean[] fileWanted = new boolean[files.size()];
+        long offset = 0;
+        for (int f = 0; f < files.size(); f++) {
+            String priority = filePriorities.get(f) != null ? filePriorities.get(f) : NORMAL;
+            byte level = (byte) PRIORITIES.indexOf(normalize(priority));
+            offsets[f] = offset;
+            sizes[f] = files.get(f).size;
+            fileWanted[f] = level > 0;
+            if (sizes[f] > 0) {
+                int first = (int) (offset / pieceLength);
+                int last = (int) ((offset + sizes[f] - 1) / pieceLength);
+                for (int p = first; p <= last; p++) {
+                    piecePriorities[p] = (byte) Math.max(piecePriorities[p], level);
+                }
+            }
+            offset += sizes[f];
+        }
+        return new FileSelection(offsets, sizes, fileWanted, piecePriorities, pieceLength, metainfo.getSize());
+    }
+
+    // True when some pieces are not fetched; the download then ends with those files incomplete
+    public boolean isPartial() {
+        return partial;
+    }
+
+    public boolean isEmpty() {
+        return wanted.isEmpty();
+    }
+
+    public boolean isFileWanted(int file) {
+        return fileWanted[file];
+    }
+
+    public int getFileCount() {
+        return fileWanted.length;
+    }
+
+    public byte[] getPiecePriorities() {
+        return piecePriorities;
+    }
+
+    public BitSet getWanted() {
+        return (BitSet) wanted.clone();
+    }
+
+    // Every piece overlapping the file is in completed; an empty file always is
+    public boolean isFileComplete(int file, BitSet completed) {
+        if (fileSizes[file] == 0) {
+            return true;
+        }
+        int first = (int) (fileOffsets[file] / pieceLength);
+        int last = (int) ((fileOffsets[file] + fileSizes[file] - 1) / pieceLength);
+        return completed.nextClearBit(first) > last;
+    }
+
+    public long getWantedBytes() {
+        return bytes(wanted);
+    }
+
+    // Bytes of wanted pieces not in completed
+    public long getLeftBytes(BitSet completed) {
+        BitSet left = getWanted();
+        left.andNot(completed);
+        return bytes(left);
+    }
+
+    private long bytes(BitSet pieces) {
+        long bytes = (long) pieces.cardinality() * pieceLength;
+        int last = piecePriorities.length - 1;
+        if (last >= 0 && pieces.get(last)) {
+            // The last piece is usually short
+            bytes -= (long) pieceLength * (last + 1) - totalSize;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,142 @@
+package com.bittorrent.service;
+
+import com.turn.ttorrent.bcodec.BDecoder;
+import com.turn.ttorrent.bcodec.BEValue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+// HTTP(S) announces (BEP 3 with compact peers, BEP 23). All torrents share one
+// HttpClient, so announces to the same host reuse its keep-alive connections.
+class HttpTrackerProtocol implements TrackerProtocol {
+    private final HttpClient http;
+    private final Duration timeout;
+
+    private final AtomicLong announces = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    HttpTrackerProtocol(long timeoutMillis) {
+        this.timeout = Duration.ofMillis(timeoutMillis);
+        this.http = HttpClient.newBuilder()
+                .connectTimeout(timeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
+    @Override
+    public CompletableFuture<Response> announce(URI tracker, Request request) {
+        StringBuilder query = new StringBuilder()
+                .append("info_hash=").append(urlEncode(request.infoHash()))
+                .append("&peer_id=").append(urlEncode(request.peerId()))
+                .append("&port=").append(request.port())
+                .append("&uploaded=").append(request.uploaded())
+                .append("&downloaded=").append(request.downloaded())
+                .append("&left=").append(request.left())
+                .append("&compact=1&no_peer_id=1")
+                .append("&numwant=").append(request.numWant());
+        if (!request.event().isEmpty()) {
+            query.append("&event=").append(request.event());
+        }
+        String base = tracker.toString();
+        URI uri;
+        try {
+            uri = URI.create(base + (base.contains("?") ? "&" : "?") + query);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(new IOException("Bad tracker URL " + base));
+        }
+        announces.incrementAndGet();
+        HttpRequest httpRequest = HttpRequest.newBuilder(uri).timeout(timeout).GET().build();
+        return http.sendAsync(httpRequest, HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply(response -> {
+                    if (response.statusCode() != 200) {
+                        throw new CompletionException(new IOException("HTTP " + response.statusCode()));
+                    }
+                    try {
+                        return parse(response.body());
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                })
+                .whenComplete((response, e) -> {
+                    if (e != null) {
+                        failures.incrementAndGet();
+                    }
+                });
+    }
+
+    static Response parse(byte[] body) throws IOException {
+        Map<String, BEValue> response;
+        try {
+            response = BDecoder.bdecode(ByteBuffer.wrap(body)).getMap();
+        } catch (IOException | RuntimeException e) {
+            throw new IOException("Unreadable tracker response");
+        }
+        if (response.containsKey("failure reason")) {
+            throw new Rejected(response.get("failure reason").getString());
+        }
+        int interval = response.containsKey("interval") ? response.get("interval").getInt() : 0;
+        int minInterval = response.containsKey("min interval") ? response.get("min interval").getInt() : 0;
+        int seeders = response.containsKey("complete") ? response.get("complete").getInt() : 0;
+        int leechers = response.containsKey("incomplete") ? response.get("incomplete").getInt() : 0;
+        return new Response(interval, minInterval, seeders, leechers, parsePeers(response.get("peers")));
+    }
+
+    // Compact (6 bytes per peer) or the original list of dictionaries
+    static List<InetSocketAddress> parsePeers(BEValue value) throws IOException {
+        List<InetSocketAddress> peers = new ArrayList<>();
+        if (value == null) {
+            return peers;
+        }
+        if (value.getValue() instanceof byte[] compact) {
+            return UdpTrackerProtocol.parsePeers(compact, 0);
+        }
+        for (BEValue entry : value.getList()) {
+            Map<String, BEValue> peer = entry.getMap();
+            InetSocketAddress address = new InetSocketAddress(peer.get("ip").getString(), peer.get("port").getInt());
+            if (!address.isUnresolved()) {
+                peers.add(address);
+            }
+        }
+        return peers;
+    }
+
+    static String urlEncode(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 3);
+        for (byte b : bytes) {
+            char c = (char) (b & 0xFF);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == '~') {
+                sb.append(c);
+            } else {
+                sb.append(String.format("%%%02X", b & 0xFF));
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("announces", announces.get());
+        stats.put("failures", failures.get());
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        // HttpClient threads are daemons and end with the client
+    }
+}
@@ -0,0 +1,126 @@
+package com.bittorrent.service;
+
+import com.bittorrent.model.Download;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.ToDoubleFunction;
+
+// In-memory progress for active downloads. Trackers publish snapshots here and
+// ProgressFlusher writes the dirty ones back to the database in batches.
+@Component
+public class LiveStatsStore {
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+
+    public void register(Long torrentId, Download download) {
+        entries.put(torrentId, new Entry(download));
+    }
+
+    public void publish(Long torrentId, ProgressSnapshot snapshot) {
+        Entry entry = entries.get(torrentId);
+        if (entry != null) {
+            entry.snapshot.set(snapshot);
+            entry.dirty.set(true);
+        }
+    }
+
+    public ProgressSnapshot get(Long torrentId) {
+        Entry entry = entries.get(torrentId);
+        return entry != null ? entry.snapshot.get() : null;
+    }
+
+    // Live snapshot only if it belongs to the given download row
+    public ProgressSnapshot get(Long torrentId, Long downloadId) {
+        Entry entry = entries.get(torrentId);
+        return entry != null && entry.download.getId().equals(downloadId) ? entry.snapshot.get() : null;
+    }
+
+    // Removes the entry and copies its last snapshot onto the entity, so the
+    // caller's status-change save also persists the latest progress
+    public Download remove(Long torrentId) {
+        Entry entry = entries.remove(torrentId);
+        if (entry == null) {
+            return null;
+        }
+        entry.snapshot.get().applyTo(entry.download);
+        return entry.download;
+    }
+
+    // Copy of the live download without touching the database
+    public Download view(Long torrentId) {
+        Entry entry = entries.get(torrentId);
+        if (entry == null) {
+            return null;
+        }
+        Download d = entry.download;
+        Download copy = new Download();
+        copy.setId(d.getId());
+        copy.setTorrent(d.getTorrent());
+        copy.setTotalBytes(d.getTotalBytes());
+        copy.setStatus(d.getStatus());
+        copy.setStartedAt(d.getStartedAt());
+        copy.setCompletedAt(d.getCompletedAt());
+        copy.setErrorMessage(d.getErrorMessage());
+        entry.snapshot.get().applyTo(copy);
+        return copy;
+    }
+
+    // Overlays live progress onto a download loaded from the database
+    public void overlay(Download download) {
+        if (download.getTorrent() == null) {
+            return;
+        }
+        Entry entry = entries.get(download.getTorrent().getId());
+        if (entry != null && entry.download.getId().equals(download.getId())) {
+            entry.snapshot.get().applyTo(download);
+        }
+    }
+
+    // Snapshots changed since the last drain, keyed by download id
+    public List<Map.Entry<Long, ProgressSnapshot>> drainDirty() {
+        List<Map.Entry<Long, ProgressSnapshot>> dirty = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (entry.dirty.getAndSet(false)) {
+                dirty.add(Map.entry(entry.download.getId(), entry.snapshot.get()));
+            }
+        }
+        return dirty;
+    }
+
+    // Point-in-time copy of every live snapshot, keyed by torrent id
+    public Map<Long, ProgressSnapshot> snapshots() {
+        Map<Long, ProgressSnapshot> copy = new HashMap<>();
+        entries.forEach((torrentId, entry) -> copy.put(torrentId, entry.snapshot.get()));
+        return copy;
+    }
+
+    // Total of one field over every live snapshot, read by metrics gauges
+    public double sum(ToDoubleFunction<ProgressSnapshot> field) {
+        double total = 0;
+        for (Entry entry : entries.values()) {
+            total += field.applyAsDouble(entry.snapshot.get());
+        }
+        return total;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private static class Entry {
+        private final Download download;
+        private final AtomicReference<ProgressSnapshot> snapshot;
+        private final AtomicBoolean dirty = new AtomicBoolean(false);
+
+        Entry(Download download) {
+            this.download = download;
+            this.snapshot = new AtomicReference<>(ProgressSnapshot.of(download));
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.bittorrent.service;
+
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+
+// Parsed magnet URI (BEP 9): the v1 info hash from xt=urn:btih (40 hex or 32
+// base32 characters), the display name, every tr tracker and x.pe peer hints
+public record MagnetLink(byte[] infoHash, String displayName, List<String> trackers,
+        List<InetSocketAddress> peers) {
+
+    private static final String BTIH = "urn:btih:";
+    private static final String BASE32 = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567";
+
+    public static MagnetLink parse(String uri) {
+        if (uri == null || !uri.regionMatches(true, 0, "magnet:?", 0, 8)) {
+            throw new IllegalArgumentException("Not a magnet link");
+        }
+        byte[] infoHash = null;
+        String name = null;
+        List<String> trackers = new ArrayList<>();
+        List<InetSocketAddress> peers = new ArrayList<>();
+        for (String param : uri.substring(8).split("&")) {
+            int eq = param.indexOf('=');
+            if (eq <= 0) {
+                continue;
+            }
+            String key = param.substring(0, eq).toLowerCase(Locale.ROOT);
+            String value = URLDecoder.decode(param.substring(eq + 1), StandardCharsets.UTF_8);
+            // Repeated keys may carry a numeric suffix (xt.1, tr.2)
+            int dot = key.indexOf('.');
+            String base = dot > 0 && !key.startsWith("x.") ? key.substring(0, dot) : key;
+            switch (base) {
+                case "xt" -> {
+                    if (value.regionMatches(true, 0, BTIH, 0, BTIH.length())) {
+                        infoHash = decodeHash(value.substring(BTIH.length()));
+                    }
+                }
+                case "dn" -> name = value;
+                case "tr" -> {
+                    if (!trackers.contains(value)) {
+                        trackers.add(value);
+                    }
+                }
+                case "x.pe" -> {
+                    InetSocketAddress peer = parsePeer(value);
+                    if (peer != null) {
+                        peers.add(peer);
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+        if (infoHash == null) {
+            throw new IllegalArgumentException("Magnet link has no urn:btih info hash");
+        }
+        return new MagnetLink(infoHash, name, List.copyOf(trackers), List.copyOf(peers));
+    }
+
+    // Same format as ttorrent's getHexInfoHash, which the torrent table is keyed on
+    public String hexInfoHash() {
+        return com.turn.ttorrent.common.Torrent.byteArrayToHexString(infoHash);
+    }
+
+    private static byte[] decodeHash(String encoded) {
+        if (encoded.length() == 40) {
+            try {
+                return HexFormat.of().parseHex(encoded);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid hex info hash: " + encoded);
+            }
+        }
+        if (encoded.length() == 32) {
+            return decodeBase32(encoded.toUpperCase(Locale.ROOT));
+        }
+        throw new IllegalArgumentException("Info hash must be 40 hex or 32 base32 characters: " + encoded);
+    }
+
+    private static byte[] decodeBase32(String encoded) {
+        byte[] out = new byte[20];
+        int buffer = 0;
+        int bits = 0;
+        int index = 0;
+        for (char c : encoded.toCharArray()) {
+            int value = BASE32.indexOf(c);
+            if (value < 0) {
+                throw new IllegalArgumentException("Invalid base32 info hash: " + encoded);
+            }
+            buffer = (buffer << 5) | value;
+            bits += 5;
+            if (bits >= 8) {
+                out[index++] = (byte) (buffer >> (bits - 8));
+                bits -= 8;
+            }
+        }
+        return out;
+    }
+
+    // host:port or [v6]:port; anything else is ignored
+    private static InetSocketAddress parsePeer(String value) {
+        int colon = value.lastIndexOf(':');
+        if (colon <= 0) {
+            return null;
+        }
+        try {
+            String host = value.substring(0, colon).replace("[", "").replace("]", "");
+            return new InetSocketAddress(host, Integer.parseInt(value.substring(colon + 1)));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
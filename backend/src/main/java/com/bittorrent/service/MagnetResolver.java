@@ -0,0 +1,94 @@
+package com.bittorrent.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Turns a magnet link into a .torrent file. Peers come from the link's x.pe
+// hints, a DHT get_peers lookup and an announce to each tracker in tr,
+// all started together; the info dictionary is then fetched from those peers.
+@Component
+@Slf4j
+public class MagnetResolver {
+    private final DhtService dht;
+    private final TrackerService trackers;
+    private final MetadataFetcher fetcher;
+
+    private final AtomicLong resolved = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong resolveMillis = new AtomicLong();
+
+    // How long peer discovery may take before metadata is requested from what was found
+    @Value("${torrent.magnet.peer-timeout-ms:15000}")
+    private long peerTimeoutMillis;
+
+    @Value("${torrent.magnet.fetch-timeout-ms:60000}")
+    private long fetchTimeoutMillis;
+
+    public MagnetResolver(DhtService dht, TrackerService trackers, MetadataFetcher fetcher) {
+        this.dht = dht;
+        this.trackers = trackers;
+        this.fetcher = fetcher;
+    }
+
+    public byte[] resolve(MagnetLink link) throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        try {
+            List<InetSocketAddress> peers = discoverPeers(link);
+            log.info("Fetching metadata for {} from {} peers", link.hexInfoHash(), peers.size());
+            byte[] info = fetcher.fetch(link.infoHash(), peers, fetchTimeoutMillis);
+            resolved.incrementAndGet();
+            return MetadataFetcher.toTorrentFile(info, link.trackers());
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            failed.incrementAndGet();
+            throw e;
+        } finally {
+            resolveMillis.addAndGet(System.currentTimeMillis() - start);
+        }
+    }
+
+    private List<InetSocketAddress> discoverPeers(MagnetLink link) throws InterruptedException {
+        List<CompletableFuture<List<InetSocketAddress>>> sources = new ArrayList<>();
+        sources.add(dht.findPeers(link.infoHash()));
+        if (!link.trackers().isEmpty()) {
+            sources.add(trackers.findPeers(link.infoHash(), link.trackers()));
+        }
+        try {
+            CompletableFuture.allOf(sources.toArray(new CompletableFuture<?>[0]))
+                    .get(peerTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                throw (InterruptedException) e;
+            }
+            // Use whatever has arrived
+        }
+        Set<InetSocketAddress> peers = new LinkedHashSet<>(link.peers());
+        for (CompletableFuture<List<InetSocketAddress>> source : sources) {
+            if (source.isDone() && !source.isCompletedExceptionally()) {
+                peers.addAll(source.join());
+            }
+        }
+        return new ArrayList<>(peers);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>(fetcher.getStats());
+        stats.put("resolved", resolved.get());
+        stats.put("failed", failed.get());
+        long attempts = resolved.get() + failed.get();
+        stats.put("avgResolveMillis", attempts > 0 ? resolveMillis.get() / attempts : 0);
+        return stats;
+    }
+}
@@ -0,0 +1,85 @@
+package com.bittorrent.service;
+
+import com.bittorrent.model.Torrent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// LRU cache of parsed metainfo keyed by info hash, bounded by total piece-table bytes
+@Component
+@Slf4j
+public class MetadataCache {
+    private final LinkedHashMap<String, TorrentMetainfo> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxBytes;
+    private long currentBytes = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    public MetadataCache(@Value("${torrent.metadata.cache-max-bytes:33554432}") long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    // Returns the cached metainfo for the torrent, loading the .torrent file on a miss
+    public TorrentMetainfo get(Torrent torrent) throws IOException, NoSuchAlgorithmException {
+        synchronized (this) {
+            TorrentMetainfo cached = entries.get(torrent.getInfoHash());
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+            misses++;
+        }
+        // Parse outside the lock; a concurrent miss for the same hash just parses twice
+        TorrentMetainfo loaded = TorrentMetainfo.load(torrent);
+        put(loaded);
+        return loaded;
+    }
+
+    public synchronized void put(TorrentMetainfo metainfo) {
+        long weight = metainfo.getPieceTableBytes();
+        if (weight > maxBytes) {
+            log.debug("Not caching {}: piece table of {} bytes exceeds cache size", metainfo.getName(), weight);
+            return;
+        }
+        TorrentMetainfo previous = entries.put(metainfo.getHexInfoHash(), metainfo);
+        if (previous != null) {
+            currentBytes -= previous.getPieceTableBytes();
+        }
+        currentBytes += weight;
+
+        Iterator<Map.Entry<String, TorrentMetainfo>> eldest = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && eldest.hasNext()) {
+            TorrentMetainfo evicted = eldest.next().getValue();
+            eldest.remove();
+            currentBytes -= evicted.getPieceTableBytes();
+            evictions++;
+        }
+    }
+
+    public synchronized void invalidate(String infoHash) {
+        TorrentMetainfo removed = entries.remove(infoHash);
+        if (removed != null) {
+            currentBytes -= removed.getPieceTableBytes();
+        }
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("entries", entries.size());
+        stats.put("bytes", currentBytes);
+        stats.put("maxBytes", maxBytes);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("evictions", evictions);
+        return stats;
+    }
+}
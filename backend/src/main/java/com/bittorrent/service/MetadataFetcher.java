@@ -0,0 +1,268 @@
+package com.bittorrent.service;
+
+import com.turn.ttorrent.bcodec.BDecoder;
+import com.turn.ttorrent.bcodec.BEValue;
+import com.turn.ttorrent.bcodec.BEncoder;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Downloads a torrent's info dictionary from peers with the extension protocol
+// (BEP 10) and ut_metadata (BEP 9). Several peers are tried at once; each
+// connection requests every 16 KiB metadata piece up front and gives up when a
+// connect or read exceeds its timeout. The first copy whose SHA-1 matches the
+// info hash wins and the other attempts are cancelled.
+@Component
+@Slf4j
+public class MetadataFetcher {
+    static final int METADATA_PIECE = 16 * 1024;
+    private static final int UT_METADATA_ID = 1;
+    private static final int MAX_MESSAGE = 1 << 20;
+
+    private final ExecutorService pool = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "metadata-fetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final byte[] peerId = PeerWire.newPeerId();
+
+    private final AtomicLong fetches = new AtomicLong();
+    private final AtomicLong fetched = new AtomicLong();
+    private final AtomicLong peersTried = new AtomicLong();
+    private final AtomicLong peersFailed = new AtomicLong();
+
+    @Value("${torrent.magnet.connect-timeout-ms:5000}")
+    private int connectTimeoutMillis;
+
+    @Value("${torrent.magnet.request-timeout-ms:10000}")
+    private int requestTimeoutMillis;
+
+    // Peers asked at the same time
+    @Value("${torrent.magnet.parallel-peers:8}")
+    private int parallelPeers;
+
+    @Value("${torrent.magnet.max-metadata-bytes:16777216}")
+    private int maxMetadataBytes;
+
+    // The bencoded info dictionary, verified against the info hash
+    public byte[] fetch(byte[] infoHash, List<InetSocketAddress> peers, long timeoutMillis)
+            throws IOException, InterruptedException {
+        if (peers.isEmpty()) {
+            throw new IOException("No peers to fetch metadata from");
+        }
+        fetches.incrementAndGet();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        ExecutorCompletionService<byte[]> attempts = new ExecutorCompletionService<>(pool);
+        List<Future<byte[]>> running = new ArrayList<>();
+        Iterator<InetSocketAddress> next = peers.iterator();
+        String lastError = "no peer answered";
+        try {
+            while (next.hasNext() && running.size() < Math.max(parallelPeers, 1)) {
+                running.add(submit(attempts, next.next(), infoHash));
+            }
+            int outstanding = running.size();
+            while (outstanding > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                Future<byte[]> done = remaining > 0 ? attempts.poll(remaining, TimeUnit.MILLISECONDS) : null;
+                if (done == null) {
+                    throw new IOException("Metadata fetch timed out after " + timeoutMillis + " ms");
+                }
+                outstanding--;
+                try {
+                    byte[] info = done.get();
+                    fetched.incrementAndGet();
+                    return info;
+                } catch (ExecutionException e) {
+                    peersFailed.incrementAndGet();
+                    lastError = e.getCause().getMessage();
+                }
+                if (next.hasNext()) {
+                    running.add(submit(attempts, next.next(), infoHash));
+                    outstanding++;
+                }
+            }
+            throw new IOException("Metadata unavailable from " + peers.size() + " peers (" + lastError + ")");
+        } finally {
+            running.forEach(future -> future.cancel(true));
+        }
+    }
+
+    private Future<byte[]> submit(ExecutorCompletionService<byte[]> attempts, InetSocketAddress peer,
+            byte[] infoHash) {
+        peersTried.incrementAndGet();
+        return attempts.submit(() -> fetchFrom(peer, infoHash));
+    }
+
+    private byte[] fetchFrom(InetSocketAddress peer, byte[] infoHash) throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(peer, connectTimeoutMillis);
+            socket.setSoTimeout(requestTimeoutMillis);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            byte[] reserved = new byte[8];
+            reserved[PeerWire.EXTENSION_BYTE] = PeerWire.EXTENSION_BIT;
+            out.write(PeerWire.handshake(infoHash, peerId, reserved).array());
+            Map<String, BEValue> m = new HashMap<>();
+            m.put("ut_metadata", new BEValue(UT_METADATA_ID));
+            Map<String, BEValue> hello = new HashMap<>();
+            hello.put("m", new BEValue(m));
+            sendExtended(out, 0, hello, null);
+            out.flush();
+
+            byte[] handshake = new byte[PeerWire.HANDSHAKE_LENGTH];
+            in.readFully(handshake);
+            int infoHashOffset = 1 + PeerWire.PROTOCOL.length + 8;
+            if (handshake[0] != PeerWire.PROTOCOL.length
+                    || !Arrays.equals(handshake, infoHashOffset, infoHashOffset + 20, infoHash, 0, 20)) {
+                throw new IOException(peer + " answered with a different handshake");
+            }
+            if ((handshake[1 + PeerWire.PROTOCOL.length + PeerWire.EXTENSION_BYTE] & PeerWire.EXTENSION_BIT) == 0) {
+                throw new IOException(peer + " does not support the extension protocol");
+            }
+
+            byte[] metadata = null;
+            BitSet received = new BitSet();
+            int pieces = 0;
+            while (true) {
+                int length = in.readInt();
+                if (length == 0) {
+                    continue; // keep-alive
+                }
+                if (length < 0 || length > MAX_MESSAGE) {
+                    throw new IOException(peer + " sent a " + length + " byte message");
+                }
+                byte[] message = new byte[length];
+                in.readFully(message);
+                if (message[0] != PeerWire.EXTENDED || length < 2) {
+                    continue;
+                }
+                ByteArrayInputStream payload = new ByteArrayInputStream(message, 2, length - 2);
+                Map<String, BEValue> dict = new BDecoder(payload).bdecode().getMap();
+                if (message[1] == 0) {
+                    // Their extension handshake: the id they use for ut_metadata and the size
+                    BEValue theirs = dict.containsKey("m") ? dict.get("m").getMap().get("ut_metadata") : null;
+                    if (theirs == null || theirs.getInt() == 0 || !dict.containsKey("metadata_size")) {
+                        throw new IOException(peer + " does not offer ut_metadata");
+                    }
+                    int size = dict.get("metadata_size").getInt();
+                    if (size <= 0 || size > maxMetadataBytes) {
+                        throw new IOException(peer + " reports metadata of " + size + " bytes");
+                    }
+                    metadata = new byte[size];
+                    pieces = (size + METADATA_PIECE - 1) / METADATA_PIECE;
+                    for (int piece = 0; piece < pieces; piece++) {
+                        Map<String, BEValue> request = new HashMap<>();
+                        request.put("msg_type", new BEValue(0));
+                        request.put("piece", new BEValue(piece));
+                        sendExtended(out, theirs.getInt(), request, null);
+                    }
+                    out.flush();
+                } else if (message[1] == UT_METADATA_ID && metadata != null) {
+                    int type = dict.get("msg_type").getInt();
+                    int piece = dict.get("piece").getInt();
+                    if (type == 2) {
+                        throw new IOException(peer + " rejected metadata piece " + piece);
+                    }
+                    if (type != 1 || piece < 0 || piece >= pieces) {
+                        continue;
+                    }
+                    // The raw piece follows the dictionary
+                    int offset = piece * METADATA_PIECE;
+                    int expected = Math.min(METADATA_PIECE, metadata.length - offset);
+                    if (payload.available() != expected) {
+                        throw new IOException(peer + " sent " + payload.available() + " bytes for piece " + piece);
+                    }
+                    payload.readNBytes(metadata, offset, expected);
+                    received.set(piece);
+                    if (received.cardinality() == pieces) {
+                        if (!Arrays.equals(sha1(metadata), infoHash)) {
+                            throw new IOException(peer + " sent metadata that does not match the info hash");
+                        }
+                        log.debug("Fetched {} bytes of metadata from {}", metadata.length, peer);
+                        return metadata;
+                    }
+                }
+            }
+        }
+    }
+
+    // Extended message: length, id 20, extension id, bencoded dictionary, optional trailing data
+    static void sendExtended(DataOutputStream out, int extensionId, Map<String, BEValue> dict, byte[] trailer)
+            throws IOException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        BEncoder.bencode(dict, encoded);
+        int trailing = trailer != null ? trailer.length : 0;
+        out.writeInt(2 + encoded.size() + trailing);
+        out.writeByte(PeerWire.EXTENDED);
+        out.writeByte(extensionId);
+        encoded.writeTo(out);
+        if (trailer != null) {
+            out.write(trailer);
+        }
+    }
+
+    private static byte[] sha1(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // A .torrent around fetched metadata. The info dictionary is copied byte for
+    // byte (re-encoding could change the info hash); keys are written in sorted order.
+    static byte[] toTorrentFile(byte[] info, List<String> trackers) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(info.length + 256);
+        out.write('d');
+        if (!trackers.isEmpty()) {
+            BEncoder.bencode("announce", out);
+            BEncoder.bencode(trackers.get(0), out);
+            List<BEValue> tiers = new ArrayList<>();
+            for (String tracker : trackers) {
+                tiers.add(new BEValue(List.of(new BEValue(tracker))));
+            }
+            BEncoder.bencode("announce-list", out);
+            BEncoder.bencode(tiers, out);
+        }
+        BEncoder.bencode("info", out);
+        out.write(info);
+        out.write('e');
+        return out.toByteArray();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("fetches", fetches.get());
+        stats.put("fetched", fetched.get());
+        stats.put("peersTried", peersTried.get());
+        stats.put("peersFailed", peersFailed.get());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+}
@@ -0,0 +1,328 @@
+package com.bittorrent.service;
+
+import com.turn.ttorrent.common.Torrent.TorrentFile;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+// Serves payload files over HTTP with Range support. A file that is complete
+// on disk goes out zero-copy through Tomcat's sendfile when the connector
+// offers it (the kernel sends straight from the page cache), otherwise as a
+// resource that Spring cuts into the requested regions. A file still
+// downloading is streamed piece by piece through the torrent's storage, so
+// pieces still in the write-back cache come from memory. A piece that is not
+// verified yet is waited for, up to piece-timeout-ms, while the picker fetches
+// pieces in order from the reader's position. If the download finishes
+// mid-stream the rest comes from the file.
+@Component
+@Slf4j
+public class PayloadStreamer {
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+    // Waits are cut into slices so a reader notices when the download stops
+    private static final long WAIT_SLICE_MILLIS = 1000;
+    private static final int DISK_READ_BYTES = 64 * 1024;
+
+    private final AtomicLong sendfileResponses = new AtomicLong();
+    private final AtomicLong regionResponses = new AtomicLong();
+    private final AtomicLong liveStreams = new AtomicLong();
+    private final AtomicLong liveBytes = new AtomicLong();
+    private final AtomicLong pieceWaits = new AtomicLong();
+    private final AtomicLong pieceWaitMillis = new AtomicLong();
+    private final AtomicLong pieceTimeouts = new AtomicLong();
+
+    @Value("${torrent.download.dir:downloads}")
+    private String downloadDir;
+
+    @Value("${torrent.stream.piece-timeout-ms:30000}")
+    private long pieceTimeoutMillis;
+
+    @Value("${torrent.stream.sendfile:true}")
+    private boolean sendfile;
+
+    // A torrent's metainfo, and its download while one is running
+    public record Payload(TorrentMetainfo metainfo, ResumableSharedTorrent live, BooleanSupplier active) {
+    }
+
+    public ResponseEntity<?> serve(Payload payload, int index, List<HttpRange> ranges, HttpServletRequest request)
+            throws IOException, InterruptedException {
+        List<TorrentFile> files = payload.metainfo().getFiles();
+        if (index < 0 || index >= files.size()) {
+            throw new IllegalArgumentException("No file " + index + " in this torrent");
+        }
+        TorrentFile file = files.get(index);
+        long fileOffset = 0;
+        for (int i = 0; i < index; i++) {
+            fileOffset += files.get(i).size;
+        }
+        long length = file.size;
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+        headers.setContentType(MediaTypeFactory.getMediaType(file.file.getName())
+                .orElse(MediaType.APPLICATION_OCTET_STREAM));
+        String name = file.file.getName();
+        headers.setContentDisposition(StandardCharsets.US_ASCII.newEncoder().canEncode(name)
+                ? ContentDisposition.inline().filename(name).build()
+                : ContentDisposition.inline().filename(name, StandardCharsets.UTF_8).build());
+
+        long start = 0;
+        long end = length - 1;
+        boolean partial = !ranges.isEmpty();
+        if (partial) {
+            // Several ranges are coalesced into one covering them all
+            start = Long.MAX_VALUE;
+            end = -1;
+            try {
+                for (HttpRange range : ranges) {
+                    start = Math.min(start, range.getRangeStart(length));
+                    end = Math.max(end, range.getRangeEnd(length));
+                }
+                if (start >= length) {
+                    throw new IllegalArgumentException("Range starts past the end");
+                }
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                        .header(HttpHeaders.CONTENT_RANGE, "bytes */" + length)
+                        .body("Range not satisfiable for a file of " + length + " bytes");
+            }
+        }
+        long count = end - start + 1;
+        HttpStatus status = partial ? HttpStatus.PARTIAL_CONTENT : HttpStatus.OK;
+        File complete = new File(downloadDir, file.file.getPath());
+
+        if (payload.live() == null || !payload.active().getAsBoolean()) {
+            if (!complete.isFile() || complete.length() != length) {
+                throw new IllegalStateException(file.file.getPath() + " is not downloaded and not downloading");
+            }
+            return fromDisk(complete, start, count, partial, status, headers, request);
+        }
+
+        ResumableSharedTorrent st = payload.live();
+        int pieceLength = st.getPieceLength();
+        long from = fileOffset + start;
+        long to = from + count;
+        Object reader = new Object();
+        st.streamAt(reader, (int) (from / pieceLength));
+        boolean ready;
+        try {
+            ready = count == 0 || await(st, (int) (from / pieceLength), payload.active());
+        } catch (InterruptedException e) {
+            st.streamClosed(reader);
+            throw e;
+        }
+        if (!ready) {
+            st.streamClosed(reader);
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "5")
+                    .body("Piece " + from / pieceLength + " is not downloaded yet");
+        }
+        if (partial) {
+            headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+        }
+        headers.setContentLength(count);
+        liveStreams.incrementAndGet();
+        // Written on the request thread; each read blocks until its piece is verified
+        LiveStream body = new LiveStream(st, payload.active(), reader, from, to, complete, fileOffset);
+        return ResponseEntity.status(status).headers(headers).body(new InputStreamResource(body));
+    }
+
+    private ResponseEntity<?> fromDisk(File complete, long start, long count, boolean partial, HttpStatus status,
+            HttpHeaders headers, HttpServletRequest request) throws IOException {
+        if (count == 0) {
+            headers.setContentLength(0);
+            return ResponseEntity.status(status).headers(headers).build();
+        }
+        if (sendfile && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            // Tomcat writes the file itself once the handler returns without a body
+            request.setAttribute(SENDFILE_FILENAME, complete.getCanonicalPath());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, start + count);
+            if (partial) {
+                headers.set(HttpHeaders.CONTENT_RANGE,
+                        "bytes " + start + "-" + (start + count - 1) + "/" + complete.length());
+            }
+            headers.setContentLength(count);
+            sendfileResponses.incrementAndGet();
+            return ResponseEntity.status(status).headers(headers).build();
+        }
+        regionResponses.incrementAndGet();
+        // Spring answers the request's Range header itself for a resource sent with 200
+        return ResponseEntity.ok().headers(headers).body(new FileSystemResource(complete));
+    }
+
+    // The range from..to of the torrent, read piece by piece through its storage.
+    // Once the download stops the rest is read from the file instead.
+    private final class LiveStream extends InputStream {
+        private final ResumableSharedTorrent st;
+        private final BooleanSupplier active;
+        private final Object reader;
+        private final long to;
+        private final File complete;
+        private final long fileOffset;
+        private long position;
+        private ByteBuffer current = ByteBuffer.allocate(0);
+        private FileChannel disk;
+        private boolean closed;
+
+        // from and to are torrent offsets; fileOffset is where the file starts in the torrent
+        LiveStream(ResumableSharedTorrent st, BooleanSupplier active, Object reader, long from, long to,
+                File complete, long fileOffset) {
+            this.st = st;
+            this.active = active;
+            this.reader = reader;
+            this.position = from;
+            this.to = to;
+            this.complete = complete;
+            this.fileOffset = fileOffset;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!current.hasRemaining() && !fill()) {
+                return -1;
+            }
+            int n = Math.min(len, current.remaining());
+            current.get(b, off, n);
+            return n;
+        }
+
+        // Loads the next slice into current; false at the end of the range
+        private boolean fill() throws IOException {
+            while (position < to) {
+                if (disk != null || !active.getAsBoolean()) {
+                    return fillFromDisk();
+                }
+                int pieceLength = st.getPieceLength();
+                int index = (int) (position / pieceLength);
+                int offsetInPiece = (int) (position - (long) index * pieceLength);
+                int length = (int) Math.min(to - position, pieceLength - offsetInPiece);
+                st.streamAt(reader, index);
+                try {
+                    if (!await(st, index, active)) {
+                        if (!active.getAsBoolean()) {
+                            continue;
+                        }
+                        throw new IOException("Timed out waiting for piece " + index);
+                    }
+                    current = st.getPiece(index).read(offsetInPiece, length);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted waiting for piece " + index);
+                } catch (IOException | IllegalStateException e) {
+                    if (active.getAsBoolean()) {
+                        throw e instanceof IOException io ? io : new IOException(e.getMessage(), e);
+                    }
+                    // Storage closed as the download stopped; the next pass reads the file
+                    continue;
+                }
+                position += length;
+                liveBytes.addAndGet(length);
+                return true;
+            }
+            return false;
+        }
+
+        // The download stopped mid-stream; only a completed file can finish the response
+        private boolean fillFromDisk() throws IOException {
+            if (disk == null) {
+                disk = FileChannel.open(complete.toPath(), StandardOpenOption.READ);
+                if (disk.size() < to - fileOffset) {
+                    throw new IOException("Download stopped before " + complete.getName() + " was complete");
+                }
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(to - position, DISK_READ_BYTES));
+            disk.read(buffer, position - fileOffset);
+            buffer.flip();
+            if (!buffer.hasRemaining()) {
+                throw new IOException(complete.getName() + " ended early");
+            }
+            position += buffer.remaining();
+            current = buffer;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            st.streamClosed(reader);
+            if (disk != null) {
+                disk.close();
+            }
+        }
+    }
+
+    // True once the piece is verified; false on timeout or when the download stops
+    private boolean await(ResumableSharedTorrent st, int index, BooleanSupplier active) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        long deadline = start + pieceTimeoutMillis;
+        if (st.awaitPiece(index, 0)) {
+            return true;
+        }
+        pieceWaits.incrementAndGet();
+        try {
+            while (active.getAsBoolean()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    pieceTimeouts.incrementAndGet();
+                    return false;
+                }
+                if (st.awaitPiece(index, Math.min(remaining, WAIT_SLICE_MILLIS))) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            pieceWaitMillis.addAndGet(System.currentTimeMillis() - start);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("sendfileResponses", sendfileResponses.get());
+        stats.put("regionResponses", regionResponses.get());
+        stats.put("liveStreams", liveStreams.get());
+        stats.put("liveBytes", liveBytes.get());
+        stats.put("pieceWaits", pieceWaits.get());
+        stats.put("avgPieceWaitMillis", pieceWaits.get() > 0 ? pieceWaitMillis.get() / pieceWaits.get() : 0);
+        stats.put("pieceTimeouts", pieceTimeouts.get());
+        return stats;
+    }
+}
@@ -0,0 +1,668 @@
+package com.bittorrent.service;
+
+import com.turn.ttorrent.client.Client;
+import com.turn.ttorrent.client.SharedTorrent;
+import com.turn.ttorrent.client.peer.SharingPeer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Shared peer-wire layer: one listening port and a fixed set of selector threads
+// for every torrent. The remote handshake names the torrent; seeded torrents are
+// served right here, while inbound peers for an active download get our
+// handshake and are then handed to that torrent's ttorrent Client, which runs
+// its own peer exchange. Read buffers come from a shared direct-buffer pool.
+@Component
+@Slf4j
+public class PeerReactor {
+    // Peers may not ask for more than this per block (most clients use 16 KiB)
+    private static final int MAX_BLOCK_LENGTH = 128 * 1024;
+    private static final int MAX_QUEUED_REQUESTS = 256;
+    // Messages larger than a read buffer (a big bitfield) are skipped without buffering
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_MESSAGE_LENGTH = 4 * 1024 * 1024;
+    private static final long IDLE_TIMEOUT_NANOS = 120_000_000_000L;
+    private static final long SWEEP_INTERVAL_NANOS = 30_000_000_000L;
+
+    private final Map<String, SeedTorrent> seeds = new ConcurrentHashMap<>();
+    private final Map<String, Route> routes = new ConcurrentHashMap<>();
+    private final Map<Long, Route> routesById = new ConcurrentHashMap<>();
+    private final byte[] peerId = PeerWire.newPeerId();
+    private final BufferPool buffers;
+
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong handedOff = new AtomicLong();
+    private final AtomicLong uploaded = new AtomicLong();
+
+    @Value("${torrent.peer.enabled:true}")
+    private boolean enabled;
+
+    @Value("${torrent.peer.port:6890}")
+    private int port;
+
+    @Value("${torrent.peer.selector-threads:2}")
+    private int selectorThreads;
+
+    private final int maxConnections;
+
+    private ServerSocketChannel server;
+    private Loop[] loops;
+    private int nextLoop = 0;
+    private volatile boolean running;
+
+    public PeerReactor(@Value("${torrent.peer.max-connections:500}") int maxConnections) {
+        this.maxConnections = maxConnections;
+        this.buffers = new BufferPool(READ_BUFFER_SIZE, maxConnections);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            loops = new Loop[Math.max(selectorThreads, 1)];
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new Loop(i);
+            }
+            server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress(port));
+            server.configureBlocking(false);
+            server.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            log.error("Peer reactor disabled: cannot listen on port {}", port, e);
+            enabled = false;
+            return;
+        }
+        running = true;
+        for (Loop loop : loops) {
+            loop.thread.start();
+        }
+        log.info("Peer reactor listening on port {} with {} selector threads", port, loops.length);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    byte[] getPeerId() {
+        return peerId;
+    }
+
+    // Serve this torrent from the reactor itself
+    void serve(SeedTorrent seed) {
+        seed.onGrant(() -> forEachLoop(loop -> loop.resume(seed)));
+        seeds.put(seed.hexInfoHash, seed);
+    }
+
+    void unserve(SeedTorrent seed) {
+        seeds.remove(seed.hexInfoHash, seed);
+        forEachLoop(loop -> loop.dropSeed(seed));
+    }
+
+    // Hand inbound peers for this torrent to its ttorrent client
+    void route(Long torrentId, Client client) {
+        SharedTorrent torrent = client.getTorrent();
+        ByteBuffer id = client.getPeerSpec().getPeerId().duplicate();
+        byte[] clientPeerId = new byte[id.remaining()];
+        id.get(clientPeerId);
+        Route route = new Route(torrentId, client, torrent.getInfoHash(), clientPeerId);
+        routes.put(PeerWire.toHex(torrent.getInfoHash()), route);
+        routesById.put(torrentId, route);
+    }
+
+    void unroute(Long torrentId) {
+        Route route = routesById.remove(torrentId);
+        if (route != null) {
+            routes.remove(PeerWire.toHex(route.infoHash()), route);
+        }
+    }
+
+    private void forEachLoop(Consumer<Loop> action) {
+        if (!running) {
+            return;
+        }
+        for (Loop loop : loops) {
+            loop.execute(() -> action.accept(loop));
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        for (Loop loop : loops) {
+            loop.selector.wakeup();
+        }
+        for (Loop loop : loops) {
+            try {
+                loop.thread.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            loop.closeAll();
+        }
+        try {
+            server.close();
+        } catch (IOException e) {
+            log.debug("Peer reactor close failed", e);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("port", port);
+        stats.put("selectorThreads", loops != null ? loops.length : 0);
+        stats.put("jvmThreads", ManagementFactory.getThreadMXBean().getThreadCount());
+        stats.put("openConnections", openConnections.get());
+        stats.put("maxConnections", maxConnections);
+        stats.put("acceptedConnections", accepted.get());
+        stats.put("rejectedConnections", rejected.get());
+        stats.put("handedOffConnections", handedOff.get());
+        stats.put("uploadedBytes", uploaded.get());
+        stats.put("buffers", buffers.getStats());
+
+        List<Map<String, Object>> torrents = new ArrayList<>();
+        seeds.values().forEach(seed -> {
+            Map<String, Object> t = new HashMap<>();
+            t.put("torrentId", seed.torrentId);
+            t.put("role", "seeding");
+            t.put("connections", seed.connections.get());
+            // Served by the shared selector threads; no threads of its own
+            t.put("threads", 0);
+            t.put("bufferBytes", (long) seed.connections.get() * READ_BUFFER_SIZE);
+            t.put("pieceTableBytes", seed.pieceTableBytes);
+            torrents.add(t);
+        });
+        routesById.values().forEach(route -> {
+            int connected = 0;
+            for (SharingPeer peer : route.client().getPeers()) {
+                if (peer.isConnected()) {
+                    connected++;
+                }
+            }
+            SharedTorrent torrent = route.client().getTorrent();
+            Map<String, Object> t = new HashMap<>();
+            t.put("torrentId", route.torrentId());
+            t.put("role", "downloading");
+            t.put("connections", connected);
+            t.put("inboundViaReactor", route.handedOff().get());
+            // ttorrent runs a client, listener and announce thread, plus a send and a receive thread per peer
+            t.put("threads", 3 + 2 * connected);
+            // Each connected peer may hold one piece being assembled
+            t.put("pieceBufferBytes", torrent.isInitialized() ? (long) connected * pieceLength(torrent) : 0L);
+            t.put("pieceTableBytes", torrent.isInitialized() ? (long) torrent.getPieceCount() * 20 : 0L);
+            torrents.add(t);
+        });
+        stats.put("torrents", torrents);
+        return stats;
+    }
+
+    private static long pieceLength(SharedTorrent torrent) {
+        return torrent.getPieceCount() > 0 ? torrent.getPiece(0).size() : 0L;
+    }
+
+    private record Route(Long torrentId, Client client, byte[] infoHash, byte[] peerId, AtomicLong handedOff) {
+        Route(Long torrentId, Client client, byte[] infoHash, byte[] peerId) {
+            this(torrentId, client, infoHash, peerId, new AtomicLong());
+        }
+    }
+
+    // A requested block; position and remaining advance as transferTo makes progress
+    private static final class Block {
+        final int index;
+        final int begin;
+        final int length;
+        long position;
+        long remaining;
+
+        Block(int index, int begin, int length, long position) {
+            this.index = index;
+            this.begin = begin;
+            this.length = length;
+            this.position = position;
+            this.remaining = length;
+        }
+    }
+
+    private static final class Connection {
+        final SocketChannel channel;
+        final ByteBuffer header = ByteBuffer.allocate(13);
+        final ArrayDeque<Block> requests = new ArrayDeque<>();
+        ByteBuffer in;
+        ByteBuffer preamble;
+        SelectionKey key;
+        SeedTorrent seed;
+        Route route;
+        byte[] remotePeerId;
+        Block current;
+        long skip;
+        long lastActivityNanos = System.nanoTime();
+
+        Connection(SocketChannel channel, ByteBuffer in) {
+            this.channel = channel;
+            this.in = in;
+        }
+    }
+
+    // One selector thread and the connections registered with it
+    private final class Loop implements Runnable {
+        final Selector selector;
+        final Thread thread;
+        final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        final Set<Connection> connections = new HashSet<>();
+        final List<Connection> pendingHandoffs = new ArrayList<>();
+        // Seed connections out of upload budget, waiting for the rate limiter's next tick
+        final Set<Connection> parked = new HashSet<>();
+        long lastSweepNanos = System.nanoTime();
+
+        Loop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "peer-reactor-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select(1000);
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                            continue;
+                        }
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isReadable()) {
+                                read(connection);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                write(connection);
+                            }
+                        } catch (IOException e) {
+                            log.debug("Peer connection {} closed: {}", connection.channel, e.getMessage());
+                            close(connection);
+                        }
+                    }
+                    completeHandoffs();
+                    sweepIdle();
+                } catch (Exception e) {
+                    log.error("Peer reactor loop error", e);
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                log.debug("Selector close failed", e);
+            }
+        }
+
+        private void accept() throws IOException {
+            SocketChannel channel;
+            while ((channel = server.accept()) != null) {
+                if (openConnections.get() >= maxConnections) {
+                    rejected.incrementAndGet();
+                    channel.close();
+                    continue;
+                }
+                openConnections.incrementAndGet();
+                accepted.incrementAndGet();
+                Loop target = loops[nextLoop++ % loops.length];
+                SocketChannel adopted = channel;
+                if (target == this) {
+                    adopt(adopted);
+                } else {
+                    target.execute(() -> target.adopt(adopted));
+                }
+            }
+        }
+
+        private void adopt(SocketChannel channel) {
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                Connection connection = new Connection(channel, buffers.acquire());
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                connections.add(connection);
+            } catch (IOException e) {
+                openConnections.decrementAndGet();
+                log.debug("Could not register peer connection", e);
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // already failing
+                }
+            }
+        }
+
+        private void read(Connection c) throws IOException {
+            if (c.seed == null && c.route == null) {
+                readHandshake(c);
+                return;
+            }
+            if (c.route != null) {
+                return; // waiting to be handed off; the client reads from here on
+            }
+            if (c.channel.read(c.in) < 0) {
+                throw new IOException("end of stream");
+            }
+            c.lastActivityNanos = System.nanoTime();
+            c.in.flip();
+            try {
+                parseMessages(c);
+            } finally {
+                c.in.compact();
+            }
+        }
+
+        // Reads exactly the handshake so nothing that follows is consumed before a handoff
+        private void readHandshake(Connection c) throws IOException {
+            c.in.limit(PeerWire.HANDSHAKE_LENGTH);
+            if (c.channel.read(c.in) < 0) {
+                throw new IOException("end of stream");
+            }
+            c.lastActivityNanos = System.nanoTime();
+            if (c.in.hasRemaining()) {
+                return;
+            }
+            c.in.flip();
+            byte[] pstr = new byte[PeerWire.PROTOCOL.length];
+            if (c.in.get() != PeerWire.PROTOCOL.length || !Arrays.equals(read(c.in, pstr), PeerWire.PROTOCOL)) {
+                throw new IOException("not a BitTorrent handshake");
+            }
+            c.in.position(c.in.position() + 8);
+            String infoHash = PeerWire.toHex(read(c.in, new byte[20]));
+            byte[] remotePeerId = read(c.in, new byte[20]);
+            c.in.clear();
+
+            SeedTorrent seed = seeds.get(infoHash);
+            if (seed != null) {
+                c.seed = seed;
+                c.preamble = seed.preamble.duplicate();
+                seed.connections.incrementAndGet();
+                c.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            Route route = routes.get(infoHash);
+            if (route != null) {
+                c.route = route;
+                c.remotePeerId = remotePeerId;
+                c.preamble = PeerWire.handshake(route.infoHash(), route.peerId());
+                c.key.interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+            throw new IOException("unknown torrent " + infoHash);
+        }
+
+        private void parseMessages(Connection c) throws IOException {
+            ByteBuffer in = c.in;
+            while (true) {
+                if (c.skip > 0) {
+                    int n = (int) Math.min(c.skip, in.remaining());
+                    in.position(in.position() + n);
+                    c.skip -= n;
+                    if (c.skip > 0) {
+                        return;
+                    }
+                }
+                if (in.remaining() < 4) {
+                    return;
+                }
+                int length = in.getInt(in.position());
+                if (length == 0) {
+                    in.getInt(); // keep-alive
+                    continue;
+                }
+                if (length < 0 || length > MAX_MESSAGE_LENGTH) {
+                    throw new IOException("bad message length " + length);
+                }
+                if (length > in.capacity() - 4) {
+                    // Nothing a seed needs is that large; drop it as it streams in
+                    in.getInt();
+                    c.skip = length;
+                    continue;
+                }
+                if (in.remaining() < 4 + length) {
+                    return;
+                }
+                in.getInt();
+                int end = in.position() + length;
+                byte id = in.get();
+                if (id == PeerWire.REQUEST && length == 13) {
+                    queueRequest(c, in.getInt(), in.getInt(), in.getInt());
+                } else if (id == PeerWire.CANCEL && length == 13) {
+                    int index = in.getInt();
+                    int begin = in.getInt();
+                    int blockLength = in.getInt();
+                    c.requests.removeIf(r -> r.index == index && r.begin == begin && r.length == blockLength);
+                }
+                in.position(end);
+            }
+        }
+
+        private void queueRequest(Connection c, int index, int begin, int length) throws IOException {
+            SeedTorrent seed = c.seed;
+            if (index < 0 || index >= seed.pieceCount || begin < 0 || length <= 0 || length > MAX_BLOCK_LENGTH
+                    || (long) begin + length > seed.pieceSize(index)) {
+                throw new IOException("invalid request " + index + "/" + begin + "/" + length);
+            }
+            if (c.requests.size() >= MAX_QUEUED_REQUESTS) {
+                return;
+            }
+            c.requests.add(new Block(index, begin, length, (long) index * seed.pieceLength + begin));
+            if (!parked.contains(c)) {
+                c.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+
+        // Preamble, then for each request a 13-byte header followed by a zero-copy file transfer
+        private void write(Connection c) throws IOException {
+            c.lastActivityNanos = System.nanoTime();
+            if (c.preamble != null) {
+                c.channel.write(c.preamble);
+                if (c.preamble.hasRemaining()) {
+                    return;
+                }
+                c.preamble = null;
+            }
+            if (c.route != null) {
+                c.key.interestOps(0);
+                pendingHandoffs.add(c);
+                return;
+            }
+            while (true) {
+                if (c.header.position() > 0) {
+                    c.header.flip();
+                    c.channel.write(c.header);
+                    boolean drained = !c.header.hasRemaining();
+                    c.header.compact();
+                    if (!drained) {
+                        return;
+                    }
+                }
+                if (c.current != null) {
+                    long sent = c.seed.transfer(c.current.position, c.current.remaining, c.channel);
+                    c.current.position += sent;
+                    c.current.remaining -= sent;
+                    uploaded.addAndGet(sent);
+                    if (c.current.remaining > 0) {
+                        if (c.seed.isThrottled()) {
+                            park(c);
+                        }
+                        return;
+                    }
+                    c.current = null;
+                }
+                Block next = c.requests.poll();
+                if (next == null) {
+                    c.key.interestOps(SelectionKey.OP_READ);
+                    return;
+                }
+                c.header.putInt(9 + next.length).put(PeerWire.PIECE).putInt(next.index).putInt(next.begin);
+                c.current = next;
+            }
+        }
+
+        // Stops asking for OP_WRITE until the seed gets budget again; reads (cancels, new
+        // requests) still come in meanwhile
+        private void park(Connection c) {
+            if (parked.add(c)) {
+                c.seed.waiting.incrementAndGet();
+            }
+            c.key.interestOps(SelectionKey.OP_READ);
+        }
+
+        void resume(SeedTorrent seed) {
+            for (Iterator<Connection> it = parked.iterator(); it.hasNext();) {
+                Connection c = it.next();
+                if (c.seed == seed) {
+                    it.remove();
+                    seed.waiting.decrementAndGet();
+                    if (c.key.isValid()) {
+                        c.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    }
+                }
+            }
+        }
+
+        // A channel must leave the selector before it can go back to blocking mode, and the
+        // cancellation only lands on the next select, so handoffs are batched after the key loop
+        private void completeHandoffs() throws IOException {
+            if (pendingHandoffs.isEmpty()) {
+                return;
+            }
+            for (Connection c : pendingHandoffs) {
+                c.key.cancel();
+            }
+            selector.selectNow();
+            for (Connection c : pendingHandoffs) {
+                release(c);
+                try {
+                    c.channel.configureBlocking(true);
+                    Route route = c.route;
+                    byte[] remotePeerId = c.remotePeerId;
+                    Thread.ofVirtual().name("peer-handoff").start(
+                            () -> route.client().handleNewPeerConnection(c.channel, remotePeerId));
+                    route.handedOff().incrementAndGet();
+                    handedOff.incrementAndGet();
+                } catch (IOException e) {
+                    log.debug("Handoff failed for {}", c.channel, e);
+                    closeChannel(c);
+                }
+            }
+            pendingHandoffs.clear();
+        }
+
+        private void sweepIdle() {
+            long now = System.nanoTime();
+            if (now - lastSweepNanos < SWEEP_INTERVAL_NANOS) {
+                return;
+            }
+            lastSweepNanos = now;
+            for (Connection c : new ArrayList<>(connections)) {
+                if (now - c.lastActivityNanos > IDLE_TIMEOUT_NANOS) {
+                    close(c);
+                }
+            }
+        }
+
+        void dropSeed(SeedTorrent seed) {
+            for (Connection c : new ArrayList<>(connections)) {
+                if (c.seed == seed) {
+                    close(c);
+                }
+            }
+        }
+
+        void closeAll() {
+            new ArrayList<>(connections).forEach(this::close);
+        }
+
+        private void close(Connection c) {
+            if (release(c)) {
+                closeChannel(c);
+            }
+        }
+
+        // Forgets the connection without closing its socket; false if already gone
+        private boolean release(Connection c) {
+            if (!connections.remove(c)) {
+                return false;
+            }
+            openConnections.decrementAndGet();
+            if (c.seed != null) {
+                c.seed.connections.decrementAndGet();
+                if (parked.remove(c)) {
+                    c.seed.waiting.decrementAndGet();
+                }
+            }
+            buffers.release(c.in);
+            c.in = null;
+            return true;
+        }
+
+        private void closeChannel(Connection c) {
+            try {
+                c.channel.close();
+            } catch (IOException e) {
+                log.debug("Close failed", e);
+            }
+        }
+
+        private byte[] read(ByteBuffer buffer, byte[] target) {
+            buffer.get(target);
+            return target;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.bittorrent.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+
+// Peer wire protocol constants and message builders used by the reactor
+final class PeerWire {
+    static final byte[] PROTOCOL = "BitTorrent protocol".getBytes(StandardCharsets.US_ASCII);
+    static final int HANDSHAKE_LENGTH = 49 + PROTOCOL.length;
+
+    static final byte UNCHOKE = 1;
+    static final byte BITFIELD = 5;
+    static final byte REQUEST = 6;
+    static final byte PIECE = 7;
+    static final byte CANCEL = 8;
+    static final byte EXTENDED = 20;
+
+    // Reserved bit announcing the extension protocol (BEP 10)
+    static final int EXTENSION_BYTE = 5;
+    static final byte EXTENSION_BIT = 0x10;
+
+    private PeerWire() {
+    }
+
+    static ByteBuffer handshake(byte[] infoHash, byte[] peerId) {
+        return handshake(infoHash, peerId, new byte[8]);
+    }
+
+    static ByteBuffer handshake(byte[] infoHash, byte[] peerId, byte[] reserved) {
+        ByteBuffer buffer = ByteBuffer.allocate(HANDSHAKE_LENGTH);
+        buffer.put((byte) PROTOCOL.length).put(PROTOCOL).put(reserved).put(infoHash).put(peerId);
+        buffer.flip();
+        return buffer;
+    }
+
+    static byte[] newPeerId() {
+        byte[] id = new byte[20];
+        new SecureRandom().nextBytes(id);
+        byte[] prefix = "-BT0001-".getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(prefix, 0, id, 0, prefix.length);
+        return id;
+    }
+
+    // Handshake, a full bitfield and an unchoke: everything a seed sends up front.
+    // Identical for every connection to the torrent, so it is built once and duplicated.
+    static ByteBuffer preamble(byte[] infoHash, byte[] peerId, int pieceCount) {
+        int bitfieldLength = (pieceCount + 7) / 8;
+        ByteBuffer buffer = ByteBuffer.allocate(HANDSHAKE_LENGTH + 4 + 1 + bitfieldLength + 5);
+        buffer.put(handshake(infoHash, peerId));
+        buffer.putInt(1 + bitfieldLength).put(BITFIELD);
+        for (int i = 0; i < bitfieldLength; i++) {
+            int bits = Math.min(8, pieceCount - i * 8);
+            buffer.put((byte) (0xFF << (8 - bits)));
+        }
+        buffer.putInt(1).put(UNCHOKE);
+        buffer.flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    // Fixed-width hex; ttorrent's getHexInfoHash drops leading zeros
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02X", b));
+        }
+        return sb.toString();
+    }
+}
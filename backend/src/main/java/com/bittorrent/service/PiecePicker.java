@@ -0,0 +1,231 @@
+package com.bittorrent.service;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+// Rarest-first piece selection over a compact availability index: one int per
+// piece for how many connected peers have it, one byte per piece for how many
+// peers are fetching it, and a bitset of pieces we already have. Not thread
+// safe; callers hold the owning torrent's lock.
+//
+// While a file is being streamed the picker goes in order instead: the first
+// missing piece at or after the read position, rarest-first only when the peer
+// has nothing from there on.
+//
+// Pieces can carry a priority from FileSelection: higher priorities go first,
+// rarest-first within a priority, and priority 0 pieces are never picked and do
+// not count as missing.
+public class PiecePicker {
+    private final int pieceCount;
+    private final int[] availability;
+    private final byte[] inFlight;
+    private final BitSet completed;
+    private final Random random;
+    // Null means every piece at the same priority
+    private byte[] priorities;
+    private int missing;
+    // Missing pieces nobody is fetching; endgame starts when this reaches zero
+    private int unrequested;
+    private long picks = 0;
+    private long duplicatePicks = 0;
+    // Read position of the streaming reader furthest behind; -1 when nobody streams
+    private int sequentialFrom = -1;
+    private long sequentialPicks = 0;
+
+    public PiecePicker(int pieceCount, BitSet have, Random random) {
+        this.pieceCount = pieceCount;
+        this.availability = new int[pieceCount];
+        this.inFlight = new byte[pieceCount];
+        this.completed = have != null ? (BitSet) have.clone() : new BitSet(pieceCount);
+        this.random = random;
+        this.missing = pieceCount - completed.cardinality();
+        this.unrequested = missing;
+    }
+
+    public void addPeer(BitSet pieces) {
+        for (int i = pieces.nextSetBit(0); i >= 0 && i < pieceCount; i = pieces.nextSetBit(i + 1)) {
+            availability[i]++;
+        }
+    }
+
+    public void removePeer(BitSet pieces) {
+        for (int i = pieces.nextSetBit(0); i >= 0 && i < pieceCount; i = pieces.nextSetBit(i + 1)) {
+            if (availability[i] > 0) {
+                availability[i]--;
+            }
+        }
+    }
+
+    public void addHave(int index) {
+        availability[index]++;
+    }
+
+    // Recounts missing and unrequested over the pieces with a priority above 0
+    public void setPriorities(byte[] priorities) {
+        this.priorities = priorities;
+        missing = 0;
+        unrequested = 0;
+        for (int i = 0; i < pieceCount; i++) {
+            if (isWanted(i) && !completed.get(i)) {
+                missing++;
+                if (inFlight[i] == 0) {
+                    unrequested++;
+                }
+            }
+        }
+    }
+
+    public boolean isWanted(int index) {
+        return priorities == null || priorities[index] > 0;
+    }
+
+    private int priority(int index) {
+        return priorities == null ? 1 : priorities[index];
+    }
+
+    public void requested(int index) {
+        if (inFlight[index] == 0 && !completed.get(index) && isWanted(index)) {
+            unrequested--;
+        }
+        if (inFlight[index] < Byte.MAX_VALUE) {
+            inFlight[index]++;
+        }
+    }
+
+    public void released(int index) {
+        if (inFlight[index] == 0) {
+            return;
+        }
+        inFlight[index]--;
+        if (inFlight[index] == 0 && !completed.get(index) && isWanted(index)) {
+            unrequested++;
+        }
+    }
+
+    public void complete(int index) {
+        if (completed.get(index)) {
+            return;
+        }
+        completed.set(index);
+        if (!isWanted(index)) {
+            return;
+        }
+        missing--;
+        if (inFlight[index] == 0) {
+            unrequested--;
+        }
+    }
+
+    public boolean isComplete(int index) {
+        return completed.get(index);
+    }
+
+    public void setSequentialFrom(int index) {
+        this.sequentialFrom = index;
+    }
+
+    public int getSequentialFrom() {
+        return sequentialFrom;
+    }
+
+    public boolean isEndgame() {
+        return missing > 0 && unrequested == 0;
+    }
+
+    public int getMissing() {
+        return missing;
+    }
+
+    public int getAvailability(int index) {
+        return availability[index];
+    }
+
+    public int getInFlight(int index) {
+        return inFlight[index];
+    }
+
+    // Rarest piece of the highest priority the peer has that we lack and nobody
+    // is fetching, ties broken at random so peers do not all converge on the
+    // same piece; -1 if none
+    public int pick(BitSet peerPieces) {
+        if (sequentialFrom >= 0) {
+            for (int i = peerPieces.nextSetBit(sequentialFrom); i >= 0 && i < pieceCount;
+                    i = peerPieces.nextSetBit(i + 1)) {
+                if (!completed.get(i) && inFlight[i] == 0 && isWanted(i)) {
+                    picks++;
+                    sequentialPicks++;
+                    return i;
+                }
+            }
+        }
+        int best = -1;
+        int bestPriority = 0;
+        int bestAvailability = Integer.MAX_VALUE;
+        int ties = 0;
+        for (int i = peerPieces.nextSetBit(0); i >= 0 && i < pieceCount; i = peerPieces.nextSetBit(i + 1)) {
+            int p = priority(i);
+            if (completed.get(i) || inFlight[i] > 0 || p < bestPriority || p == 0) {
+                continue;
+            }
+            int a = availability[i];
+            if (p > bestPriority || a < bestAvailability) {
+                best = i;
+                bestPriority = p;
+                bestAvailability = a;
+                ties = 1;
+            } else if (a == bestAvailability && random.nextInt(++ties) == 0) {
+                best = i;
+            }
+        }
+        if (best >= 0) {
+            picks++;
+        }
+        return best;
+    }
+
+    // Endgame: a piece the peer has that is already being fetched elsewhere,
+    // preferring the fewest duplicates, then the rarest; -1 if none
+    public int pickDuplicate(BitSet peerPieces, int maxInFlight) {
+        int best = -1;
+        int bestInFlight = Integer.MAX_VALUE;
+        int bestAvailability = Integer.MAX_VALUE;
+        for (int i = peerPieces.nextSetBit(0); i >= 0 && i < pieceCount; i = peerPieces.nextSetBit(i + 1)) {
+            if (completed.get(i) || inFlight[i] >= maxInFlight || !isWanted(i)) {
+                continue;
+            }
+            if (inFlight[i] < bestInFlight || (inFlight[i] == bestInFlight && availability[i] < bestAvailability)) {
+                best = i;
+                bestInFlight = inFlight[i];
+                bestAvailability = availability[i];
+            }
+        }
+        if (best >= 0) {
+            duplicatePicks++;
+        }
+        return best;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("pieceCount", pieceCount);
+        stats.put("missingPieces", missing);
+        int skipped = 0;
+        if (priorities != null) {
+            for (byte p : priorities) {
+                if (p == 0) {
+                    skipped++;
+                }
+            }
+        }
+        stats.put("skippedPieces", skipped);
+        stats.put("unrequestedPieces", unrequested);
+        stats.put("endgame", isEndgame());
+        stats.put("picks", picks);
+        stats.put("duplicatePicks", duplicatePicks);
+        stats.put("sequentialFrom", sequentialFrom);
+        stats.put("sequentialPicks", sequentialPicks);
+        return stats;
+    }
+}
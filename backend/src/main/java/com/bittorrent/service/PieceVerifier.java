@@ -0,0 +1,196 @@
+package com.bittorrent.service;
+
+import com.turn.ttorrent.common.Torrent.TorrentFile;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+// Checks SHA-1 piece hashes of on-disk payload in parallel. Pieces are read with
+// positional FileChannel reads into per-thread direct buffers, so pieces that
+// span file boundaries in multi-file torrents are stitched without extra copies.
+@Component
+@Slf4j
+public class PieceVerifier {
+    private final ForkJoinPool pool;
+    private final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(PieceVerifier::sha1);
+    private final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<>();
+
+    private final TorrentMetrics metrics;
+
+    public PieceVerifier(@Value("${torrent.verify.parallelism:0}") int parallelism, TorrentMetrics metrics) {
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        this.metrics = metrics;
+        metrics.gauge("torrent.verifier.active.threads", null, pool, ForkJoinPool::getActiveThreadCount);
+        metrics.gauge("torrent.verifier.queued.tasks", null, pool,
+                p -> p.getQueuedTaskCount() + p.getQueuedSubmissionCount());
+    }
+
+    public Result verify(TorrentMetainfo metainfo, File downloadDir) throws IOException, InterruptedException {
+        int pieceLength = metainfo.getPieceLength();
+        int pieceCount = metainfo.getPieceCount();
+        byte[] hashes = metainfo.getPieceHashes();
+        List<TorrentFile> files = metainfo.getFiles();
+        long totalSize = metainfo.getSize();
+
+        // One read-only channel per payload file; missing files leave their pieces invalid
+        FileChannel[] channels = new FileChannel[files.size()];
+        long[] offsets = new long[files.size()];
+        long offset = 0;
+        for (int i = 0; i < files.size(); i++) {
+            offsets[i] = offset;
+            offset += files.get(i).size;
+            File onDisk = TorrentMetainfo.locate(downloadDir, files.get(i));
+            if (onDisk != null) {
+                channels[i] = FileChannel.open(onDisk.toPath(), StandardOpenOption.READ);
+            }
+        }
+
+        boolean[] valid = new boolean[pieceCount];
+        AtomicLong bytesRead = new AtomicLong();
+        long start = System.nanoTime();
+        try {
+            pool.submit(() -> IntStream.range(0, pieceCount).parallel().forEach(index -> {
+                long pieceOffset = (long) index * pieceLength;
+                int length = (int) Math.min(pieceLength, totalSize - pieceOffset);
+                long pieceStart = System.nanoTime();
+                try {
+                    ByteBuffer buffer = buffer(pieceLength);
+                    if (read(channels, offsets, files, pieceOffset, length, buffer)) {
+                        bytesRead.addAndGet(length);
+                        MessageDigest digest = digests.get();
+                        digest.update(buffer);
+                        valid[index] = Arrays.equals(digest.digest(), 0, 20,
+                                hashes, index * 20, index * 20 + 20);
+                        metrics.recordRecheckPiece(System.nanoTime() - pieceStart, valid[index]);
+                    }
+                } catch (IOException e) {
+                    log.debug("Piece {} of {} unreadable: {}", index, metainfo.getName(), e.getMessage());
+                }
+            })).get();
+        } catch (ExecutionException e) {
+            throw new IOException("Verification failed for " + metainfo.getName(), e.getCause());
+        } finally {
+            for (FileChannel channel : channels) {
+                if (channel != null) {
+                    channel.close();
+                }
+            }
+        }
+        long elapsedNanos = System.nanoTime() - start;
+
+        BitSet validPieces = new BitSet(pieceCount);
+        for (int i = 0; i < pieceCount; i++) {
+            if (valid[i]) {
+                validPieces.set(i);
+            }
+        }
+        Result result = new Result(validPieces, pieceCount, bytesRead.get(), elapsedNanos);
+        log.info("Verified {}: {}/{} pieces valid, {} MB at {} MB/s", metainfo.getName(),
+                validPieces.cardinality(), pieceCount, bytesRead.get() >> 20,
+                String.format("%.1f", result.megabytesPerSecond()));
+        return result;
+    }
+
+    // True if at least one payload file for the torrent exists on disk
+    public boolean hasPayload(TorrentMetainfo metainfo, File downloadDir) {
+        return metainfo.getFiles().stream().anyMatch(f -> TorrentMetainfo.locate(downloadDir, f) != null);
+    }
+
+    // Fills the buffer with [pieceOffset, pieceOffset + length) across file boundaries
+    private static boolean read(FileChannel[] channels, long[] offsets, List<TorrentFile> files,
+            long pieceOffset, int length, ByteBuffer buffer) throws IOException {
+        buffer.clear().limit(length);
+        int file = locateFile(offsets, pieceOffset);
+        long position = pieceOffset - offsets[file];
+        while (buffer.hasRemaining() && file < files.size()) {
+            long fileSize = files.get(file).size;
+            if (position >= fileSize) {
+                file++;
+                position = 0;
+                continue;
+            }
+            FileChannel channel = channels[file];
+            if (channel == null) {
+                return false;
+            }
+            int chunk = (int) Math.min(buffer.remaining(), fileSize - position);
+            int end = buffer.position() + chunk;
+            int savedLimit = buffer.limit();
+            buffer.limit(end);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + chunk - buffer.remaining()) < 0) {
+                    return false; // shorter than expected
+                }
+            }
+            buffer.limit(savedLimit);
+            position += chunk;
+        }
+        buffer.flip();
+        return buffer.remaining() == length;
+    }
+
+    private static int locateFile(long[] offsets, long pieceOffset) {
+        int index = Arrays.binarySearch(offsets, pieceOffset);
+        if (index < 0) {
+            index = -index - 2;
+        }
+        // Zero-length files share an offset with their successor; read() steps past them
+        return Math.max(index, 0);
+    }
+
+    private ByteBuffer buffer(int pieceLength) {
+        ByteBuffer buffer = buffers.get();
+        if (buffer == null || buffer.capacity() < pieceLength) {
+            buffer = ByteBuffer.allocateDirect(pieceLength);
+            buffers.set(buffer);
+        }
+        return buffer;
+    }
+
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    public record Result(BitSet validPieces, int pieceCount, long bytes, long elapsedNanos) {
+        public double megabytesPerSecond() {
+            return elapsedNanos > 0 ? (bytes / 1048576.0) / (elapsedNanos / 1e9) : 0.0;
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("pieces", pieceCount);
+            map.put("validPieces", validPieces.cardinality());
+            map.put("bytesChecked", bytes);
+            map.put("seconds", elapsedNanos / 1e9);
+            map.put("mbPerSecond", megabytesPerSecond());
+            return map;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.bittorrent.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Map;
+
+// Write-behind flush of live progress: one JDBC batch per interval instead of a
+// full entity save per torrent every tick
+@Component
+@Slf4j
+public class ProgressFlusher {
+    // Only rows still DOWNLOADING are touched, so a late batch can never
+    // overwrite the final values saved on a status change
+    private static final String UPDATE_SQL = "UPDATE download SET progress = ?, downloaded_bytes = ?, "
+            + "download_speed = ?, upload_speed = ?, connected_peers = ?, available_peers = ?, "
+            + "active_peers = ?, estimated_time_remaining = ?, uploaded_bytes = ?, upload_ratio = ?, "
+            + "last_updated = ? WHERE id = ? AND status = 'DOWNLOADING'";
+
+    private final LiveStatsStore liveStats;
+    private final JdbcTemplate jdbcTemplate;
+    private final TorrentMetrics metrics;
+
+    public ProgressFlusher(LiveStatsStore liveStats, JdbcTemplate jdbcTemplate, TorrentMetrics metrics) {
+        this.liveStats = liveStats;
+        this.jdbcTemplate = jdbcTemplate;
+        this.metrics = metrics;
+    }
+
+    @Scheduled(fixedDelayString = "${torrent.progress.flush-interval-ms:10000}")
+    public void flush() {
+        List<Map.Entry<Long, ProgressSnapshot>> dirty = liveStats.drainDirty();
+        if (dirty.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            jdbcTemplate.batchUpdate(UPDATE_SQL, dirty, dirty.size(), (ps, row) -> {
+                ProgressSnapshot s = row.getValue();
+                ps.setDouble(1, s.progress());
+                ps.setLong(2, s.downloadedBytes());
+                ps.setLong(3, s.downloadSpeed());
+                ps.setLong(4, s.uploadSpeed());
+                ps.setInt(5, s.connectedPeers());
+                ps.setInt(6, s.availablePeers());
+                ps.setInt(7, s.connectedPeers());
+                ps.setLong(8, s.estimatedTimeRemaining());
+                ps.setLong(9, s.uploadedBytes());
+                ps.setDouble(10, s.uploadRatio());
+                ps.setTimestamp(11, Timestamp.valueOf(s.lastUpdated()));
+                ps.setLong(12, row.getKey());
+            });
+            metrics.recordProgressFlush(System.nanoTime() - start, dirty.size());
+            log.debug("Flushed progress for {} downloads", dirty.size());
+        } catch (Exception e) {
+            log.error("Progress flush failed", e);
+        }
+    }
+}
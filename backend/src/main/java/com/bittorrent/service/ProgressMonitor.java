@@ -0,0 +1,109 @@
+package com.bittorrent.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// One sampler thread for every active download instead of a sleeping thread per torrent.
+// Each sample also goes into SpeedHistory for graphs.
+@Component
+@Slf4j
+public class ProgressMonitor {
+    private final Map<Long, DownloadProgressTracker> trackers = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "progress-sampler");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Tick timing, reported through /stats/sampler
+    private final AtomicLong tickCount = new AtomicLong();
+    private final AtomicLong lastTickNanos = new AtomicLong();
+    private final AtomicLong maxTickNanos = new AtomicLong();
+    private final AtomicLong totalTickNanos = new AtomicLong();
+
+    private final long intervalMs;
+    private final TorrentMetrics metrics;
+    private final LiveStatsStore liveStats;
+    private final SpeedHistory history;
+    // When the next tick is due; fixed delay counts from the end of the previous one
+    private volatile long dueNanos;
+
+    public ProgressMonitor(@Value("${torrent.progress.sample-interval-ms:2000}") long intervalMs,
+            TorrentMetrics metrics, LiveStatsStore liveStats, SpeedHistory history) {
+        this.intervalMs = intervalMs;
+        this.metrics = metrics;
+        this.liveStats = liveStats;
+        this.history = history;
+    }
+
+    @PostConstruct
+    public void start() {
+        dueNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(intervalMs);
+        sampler.scheduleWithFixedDelay(this::tick, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    void register(DownloadProgressTracker tracker) {
+        trackers.put(tracker.getTorrentId(), tracker);
+        metrics.registerTorrent(tracker.getTorrentId());
+    }
+
+    void deregister(Long torrentId) {
+        if (trackers.remove(torrentId) != null) {
+            metrics.deregisterTorrent(torrentId);
+        }
+    }
+
+    private void tick() {
+        long start = System.nanoTime();
+        long now = System.currentTimeMillis();
+        for (DownloadProgressTracker tracker : trackers.values()) {
+            try {
+                // A torrent still hashing at startup would hold up every other torrent's sample
+                if (!tracker.isReady()) {
+                    continue;
+                }
+                if (!tracker.isComplete()) {
+                    tracker.sample();
+                    history.record(tracker.getTorrentId(), now, liveStats.get(tracker.getTorrentId()));
+                }
+            } catch (Exception e) {
+                log.error("Progress monitoring error for torrent {}", tracker.getTorrentId(), e);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        tickCount.incrementAndGet();
+        lastTickNanos.set(elapsed);
+        totalTickNanos.addAndGet(elapsed);
+        maxTickNanos.accumulateAndGet(elapsed, Math::max);
+        metrics.recordSample(Math.max(start - dueNanos, 0), elapsed);
+        dueNanos = start + elapsed + TimeUnit.MILLISECONDS.toNanos(intervalMs);
+    }
+
+    public Map<String, Object> getStats() {
+        long ticks = tickCount.get();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("trackedTorrents", trackers.size());
+        stats.put("intervalMs", intervalMs);
+        stats.put("ticks", ticks);
+        stats.put("lastTickMicros", lastTickNanos.get() / 1000);
+        stats.put("maxTickMicros", maxTickNanos.get() / 1000);
+        stats.put("avgTickMicros", ticks > 0 ? totalTickNanos.get() / ticks / 1000 : 0);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sampler.shutdownNow();
+    }
+}
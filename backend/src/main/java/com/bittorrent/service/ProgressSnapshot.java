@@ -0,0 +1,51 @@
+package com.bittorrent.service;
+
+import com.bittorrent.model.Download;
+
+import java.time.LocalDateTime;
+
+// Immutable view of a download's live counters, swapped in atomically by the tracker
+public record ProgressSnapshot(
+        double progress,
+        long downloadedBytes,
+        long downloadSpeed,
+        long uploadSpeed,
+        int connectedPeers,
+        int availablePeers,
+        long estimatedTimeRemaining,
+        long uploadedBytes,
+        double uploadRatio,
+        LocalDateTime lastUpdated) {
+
+    public static ProgressSnapshot of(Download download) {
+        return new ProgressSnapshot(
+                valueOr(download.getProgress(), 0.0),
+                valueOr(download.getDownloadedBytes(), 0L),
+                valueOr(download.getDownloadSpeed(), 0L),
+                valueOr(download.getUploadSpeed(), 0L),
+                valueOr(download.getConnectedPeers(), 0),
+                valueOr(download.getAvailablePeers(), 0),
+                valueOr(download.getEstimatedTimeRemaining(), 0L),
+                valueOr(download.getUploadedBytes(), 0L),
+                valueOr(download.getUploadRatio(), 0.0),
+                download.getLastUpdated() != null ? download.getLastUpdated() : LocalDateTime.now());
+    }
+
+    public void applyTo(Download download) {
+        download.setProgress(progress);
+        download.setDownloadedBytes(downloadedBytes);
+        download.setDownloadSpeed(downloadSpeed);
+        download.setUploadSpeed(uploadSpeed);
+        download.setConnectedPeers(connectedPeers);
+        download.setAvailablePeers(availablePeers);
+        download.setActivePeers(connectedPeers);
+        download.setEstimatedTimeRemaining(estimatedTimeRemaining);
+        download.setUploadedBytes(uploadedBytes);
+        download.setUploadRatio(uploadRatio);
+        download.setLastUpdated(lastUpdated);
+    }
+
+    private static <T> T valueOr(T value, T fallback) {
+        return value != null ? value : fallback;
+    }
+}
@@ -0,0 +1,144 @@
+package com.bittorrent.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Pushes live progress to SSE subscribers as compact deltas. Each subscriber
+// remembers what it was last sent; while a send is still in flight, later ticks
+// are skipped for that subscriber and the next delta covers everything missed.
+@Component
+@Slf4j
+public class ProgressStream {
+    private final LiveStatsStore liveStats;
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final long timeoutMs;
+
+    public ProgressStream(LiveStatsStore liveStats, @Value("${torrent.stream.timeout-ms:1800000}") long timeoutMs) {
+        this.liveStats = liveStats;
+        this.timeoutMs = timeoutMs;
+    }
+
+    // torrentId may be null to follow every active download
+    public SseEmitter subscribe(Long torrentId) {
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        Subscriber subscriber = new Subscriber(emitter, torrentId);
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> subscribers.remove(subscriber));
+        emitter.onError(e -> subscribers.remove(subscriber));
+        subscribers.add(subscriber);
+        return emitter;
+    }
+
+    @Scheduled(fixedRateString = "${torrent.stream.interval-ms:1000}")
+    public void broadcast() {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        Map<Long, ProgressSnapshot> current = liveStats.snapshots();
+        for (Subscriber subscriber : subscribers) {
+            if (!subscriber.sending.compareAndSet(false, true)) {
+                droppedFrames.incrementAndGet(); // slow client, coalesced into its next frame
+                continue;
+            }
+            Map<String, Object> delta = subscriber.delta(current);
+            if (delta == null) {
+                subscriber.sending.set(false);
+                continue;
+            }
+            senders.execute(() -> {
+                try {
+                    subscriber.emitter.send(SseEmitter.event().name("progress").data(delta));
+                } catch (IOException | IllegalStateException e) {
+                    subscribers.remove(subscriber);
+                } finally {
+                    subscriber.sending.set(false);
+                }
+            });
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("subscribers", subscribers.size());
+        stats.put("droppedFrames", droppedFrames.get());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        subscribers.forEach(s -> s.emitter.complete());
+        senders.shutdownNow();
+    }
+
+    private static class Subscriber {
+        private final SseEmitter emitter;
+        private final Long torrentId;
+        private final AtomicBoolean sending = new AtomicBoolean(false);
+        // Only touched by the broadcast thread
+        private final Map<Long, ProgressSnapshot> lastSent = new HashMap<>();
+
+        Subscriber(SseEmitter emitter, Long torrentId) {
+            this.emitter = emitter;
+            this.torrentId = torrentId;
+        }
+
+        // Changed and removed torrents since the last frame, or null if nothing changed
+        Map<String, Object> delta(Map<Long, ProgressSnapshot> current) {
+            Map<String, Map<String, Object>> updates = new HashMap<>();
+            current.forEach((id, snapshot) -> {
+                if (torrentId != null && !torrentId.equals(id)) {
+                    return;
+                }
+                // Snapshots are immutable, so identity tells us whether anything changed
+                if (lastSent.put(id, snapshot) != snapshot) {
+                    updates.put(id.toString(), compact(snapshot));
+                }
+            });
+            List<Long> removed = new ArrayList<>();
+            lastSent.keySet().removeIf(id -> {
+                if (!current.containsKey(id)) {
+                    removed.add(id);
+                    return true;
+                }
+                return false;
+            });
+            if (updates.isEmpty() && removed.isEmpty()) {
+                return null;
+            }
+            Map<String, Object> frame = new HashMap<>();
+            frame.put("updates", updates);
+            if (!removed.isEmpty()) {
+                frame.put("removed", removed);
+            }
+            return frame;
+        }
+
+        private static Map<String, Object> compact(ProgressSnapshot s) {
+            Map<String, Object> m = new HashMap<>();
+            m.put("p", s.progress());
+            m.put("b", s.downloadedBytes());
+            m.put("d", s.downloadSpeed());
+            m.put("u", s.uploadSpeed());
+            m.put("n", s.connectedPeers());
+            m.put("e", s.estimatedTimeRemaining());
+            return m;
+        }
+    }
+}
@@ -0,0 +1,367 @@
+package com.bittorrent.service;
+
+import com.bittorrent.model.BandwidthLimits;
+import com.bittorrent.model.BandwidthProfile;
+import com.bittorrent.repository.BandwidthLimitsRepository;
+import com.bittorrent.repository.BandwidthProfileRepository;
+import com.turn.ttorrent.client.Client;
+import com.turn.ttorrent.client.SharedTorrent;
+import com.turn.ttorrent.client.peer.SharingPeer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+// Hierarchical token-bucket limiter: a global bucket per direction, then one per
+// torrent. ttorrent 1.5 can only cap each peer connection (SharedTorrent's max
+// rates, in KB/s per peer), so every tick we measure what each torrent actually
+// moved, settle the buckets, split the global allowance max-min fairly across
+// torrents and turn each torrent's share into a per-peer cap. Seeds served by the
+// PeerReactor share the same upload buckets; their share becomes a byte budget
+// for the next tick that SeedTorrent.transfer draws down. Ticks run on their
+// own thread so a slow @Scheduled job elsewhere cannot stall the buckets.
+@Component
+@Slf4j
+public class RateLimiter {
+    // Smallest cap we hand to ttorrent; a cap of 0 means unlimited there
+    private static final double MIN_RATE = 1024;
+
+    private final BandwidthProfileRepository profileRepo;
+    private final BandwidthLimitsRepository limitsRepo;
+    private final long tickMs;
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "rate-limiter");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Map<Long, Session> sessions = new ConcurrentHashMap<>();
+    private final TokenBucket globalDown;
+    private final TokenBucket globalUp;
+    private volatile long baseDownloadRate;
+    private volatile long baseUploadRate;
+    private volatile List<BandwidthProfile> profiles = List.of();
+    private volatile BandwidthProfile activeProfile;
+    private volatile double actualDownRate = 0;
+    private volatile double actualUpRate = 0;
+    private long lastTickNanos = System.nanoTime();
+
+    public RateLimiter(BandwidthProfileRepository profileRepo, BandwidthLimitsRepository limitsRepo,
+            @Value("${torrent.ratelimit.download:0}") long baseDownloadRate,
+            @Value("${torrent.ratelimit.upload:0}") long baseUploadRate,
+            @Value("${torrent.ratelimit.tick-ms:1000}") long tickMs) {
+        this.profileRepo = profileRepo;
+        this.limitsRepo = limitsRepo;
+        this.tickMs = tickMs;
+        this.baseDownloadRate = baseDownloadRate;
+        this.baseUploadRate = baseUploadRate;
+        this.globalDown = new TokenBucket(baseDownloadRate);
+        this.globalUp = new TokenBucket(baseUploadRate);
+    }
+
+    @PostConstruct
+    public void start() {
+        ticker.scheduleAtFixedRate(() -> {
+            try {
+                tick();
+            } catch (Exception e) {
+                log.error("Rate limiter tick failed", e);
+            }
+        }, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ticker.shutdownNow();
+    }
+
+    void register(Long torrentId, Client client, Long maxDownloadRate, Long maxUploadRate) {
+        sessions.put(torrentId, new ClientSession(client, orZero(maxDownloadRate), orZero(maxUploadRate)));
+    }
+
+    void deregister(Long torrentId) {
+        sessions.remove(torrentId);
+    }
+
+    // Seeds only upload, so only the upload buckets apply
+    void registerSeed(Long torrentId, SeedTorrent seed, Long maxUploadRate) {
+        sessions.put(torrentId, new SeedSession(seed, orZero(maxUploadRate)));
+    }
+
+    // Leaves a download session of the same torrent alone
+    void deregisterSeed(Long torrentId) {
+        sessions.computeIfPresent(torrentId, (id, s) -> s instanceof SeedSession ? null : s);
+    }
+
+    // Applies new per-torrent limits to a running session, if any
+    public void setTorrentLimits(Long torrentId, long maxDownloadRate, long maxUploadRate) {
+        Session session = sessions.get(torrentId);
+        if (session != null) {
+            synchronized (this) {
+                session.down.setRate(maxDownloadRate);
+                session.up.setRate(maxUploadRate);
+            }
+        }
+    }
+
+    public long getBaseDownloadRate() {
+        return baseDownloadRate;
+    }
+
+    public long getBaseUploadRate() {
+        return baseUploadRate;
+    }
+
+    public void setGlobalLimits(long maxDownloadRate, long maxUploadRate) {
+        baseDownloadRate = Math.max(maxDownloadRate, 0);
+        baseUploadRate = Math.max(maxUploadRate, 0);
+        refreshProfiles();
+    }
+
+    // Profiles and the saved global limits are re-read on change and once a minute so
+    // edits made elsewhere are picked up; saved limits override the configured ones
+    @Scheduled(fixedDelay = 60000)
+    public void refreshProfiles() {
+        try {
+            profiles = profileRepo.findAll();
+            limitsRepo.findById(BandwidthLimits.GLOBAL).ifPresent(limits -> {
+                baseDownloadRate = Math.max(orZero(limits.getMaxDownloadRate()), 0);
+                baseUploadRate = Math.max(orZero(limits.getMaxUploadRate()), 0);
+            });
+        } catch (Exception e) {
+            log.error("Could not load bandwidth profiles", e);
+        }
+    }
+
+    synchronized void tick() {
+        long now = System.nanoTime();
+        double seconds = (now - lastTickNanos) / 1e9;
+        lastTickNanos = now;
+        if (seconds <= 0) {
+            return;
+        }
+
+        // Time-of-day profile overrides the base global limits
+        LocalTime time = LocalTime.now();
+        activeProfile = profiles.stream().filter(p -> p.isActiveAt(time)).findFirst().orElse(null);
+        globalDown.setRate(activeProfile != null ? orZero(activeProfile.getMaxDownloadRate()) : baseDownloadRate);
+        globalUp.setRate(activeProfile != null ? orZero(activeProfile.getMaxUploadRate()) : baseUploadRate);
+
+        long totalDown = 0;
+        long totalUp = 0;
+        for (Session s : sessions.values()) {
+            long downloaded = s.downloaded();
+            long uploaded = s.uploaded();
+            long down = Math.max(downloaded - s.lastDownloaded, 0);
+            long up = Math.max(uploaded - s.lastUploaded, 0);
+            s.lastDownloaded = downloaded;
+            s.lastUploaded = uploaded;
+            s.down.settle(down, seconds);
+            s.up.settle(up, seconds);
+            s.actualDown = down / seconds;
+            s.actualUp = up / seconds;
+            totalDown += down;
+            totalUp += up;
+        }
+        globalDown.settle(totalDown, seconds);
+        globalUp.settle(totalUp, seconds);
+        actualDownRate = totalDown / seconds;
+        actualUpRate = totalUp / seconds;
+
+        List<Session> active = new ArrayList<>(sessions.values());
+        // Seeds would only take download allowance away from torrents that use it
+        List<Session> downloading = active.stream().filter(Session::downloads).toList();
+        allocate(downloading, globalDown.allowance(seconds), seconds, s -> s.down, s -> s.actualDown,
+                (s, cap) -> s.capDown = cap);
+        allocate(active, globalUp.allowance(seconds), seconds, s -> s.up, s -> s.actualUp,
+                (s, cap) -> s.capUp = cap);
+
+        for (Session s : active) {
+            s.apply(tickMs / 1000.0);
+        }
+    }
+
+    // Max-min fair split of the global allowance. Each torrent asks for what its
+    // own bucket allows, bounded by twice what it used last tick so idle torrents
+    // do not hold bandwidth; the remainder is shared out evenly.
+    private static void allocate(List<Session> active, double global, double seconds,
+            Function<Session, TokenBucket> bucket, Function<Session, Double> actual,
+            BiConsumer<Session, Double> assign) {
+        if (Double.isInfinite(global)) {
+            active.forEach(s -> assign.accept(s, bucket.apply(s).allowance(seconds)));
+            return;
+        }
+        List<Session> byDemand = new ArrayList<>(active);
+        Map<Session, Double> demand = new HashMap<>();
+        for (Session s : active) {
+            double limit = bucket.apply(s).allowance(seconds);
+            demand.put(s, Math.min(limit, Math.max(actual.apply(s) * 2, MIN_RATE * 16)));
+        }
+        byDemand.sort(Comparator.comparingDouble(demand::get));
+
+        double remaining = global;
+        int left = byDemand.size();
+        Map<Session, Double> caps = new HashMap<>();
+        for (Session s : byDemand) {
+            double share = Math.min(demand.get(s), remaining / left--);
+            caps.put(s, share);
+            remaining -= share;
+        }
+        // Leftover goes evenly to everyone so any torrent can ramp up next tick
+        double bonus = active.isEmpty() ? 0 : Math.max(remaining, 0) / active.size();
+        for (Session s : active) {
+            double limit = bucket.apply(s).allowance(seconds);
+            assign.accept(s, Math.min(limit, caps.get(s) + bonus));
+        }
+    }
+
+    private static double toPerPeerKb(double bytesPerSecond, int peers) {
+        if (Double.isInfinite(bytesPerSecond)) {
+            return 0; // unlimited
+        }
+        return Math.max(bytesPerSecond, MIN_RATE) / peers / 1024.0;
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("configuredDownloadRate", globalDown.getRate());
+        stats.put("configuredUploadRate", globalUp.getRate());
+        stats.put("actualDownloadRate", (long) actualDownRate);
+        stats.put("actualUploadRate", (long) actualUpRate);
+        stats.put("activeProfile", activeProfile != null ? activeProfile.getName() : null);
+
+        Map<Long, Map<String, Object>> torrents = new HashMap<>();
+        sessions.forEach((id, s) -> {
+            Map<String, Object> t = new HashMap<>();
+            t.put("role", s.downloads() ? "downloading" : "seeding");
+            t.put("configuredDownloadRate", s.down.getRate());
+            t.put("configuredUploadRate", s.up.getRate());
+            t.put("allocatedDownloadRate", Double.isInfinite(s.capDown) ? 0 : (long) s.capDown);
+            t.put("allocatedUploadRate", Double.isInfinite(s.capUp) ? 0 : (long) s.capUp);
+            t.put("actualDownloadRate", (long) s.actualDown);
+            t.put("actualUploadRate", (long) s.actualUp);
+            torrents.put(id, t);
+        });
+        stats.put("torrents", torrents);
+        return stats;
+    }
+
+    private static long orZero(Long value) {
+        return value != null ? value : 0L;
+    }
+
+    private abstract static class Session {
+        final TokenBucket down;
+        final TokenBucket up;
+        long lastDownloaded;
+        long lastUploaded;
+        double actualDown;
+        double actualUp;
+        double capDown = Double.POSITIVE_INFINITY;
+        double capUp = Double.POSITIVE_INFINITY;
+
+        Session(long maxDownloadRate, long maxUploadRate) {
+            this.down = new TokenBucket(maxDownloadRate);
+            this.up = new TokenBucket(maxUploadRate);
+        }
+
+        abstract long downloaded();
+
+        abstract long uploaded();
+
+        abstract boolean downloads();
+
+        // Hands this tick's caps to whatever moves the bytes
+        abstract void apply(double tickSeconds);
+    }
+
+    // A ttorrent client; caps become per-peer rates in KB/s
+    private static class ClientSession extends Session {
+        private final Client client;
+
+        ClientSession(Client client, long maxDownloadRate, long maxUploadRate) {
+            super(maxDownloadRate, maxUploadRate);
+            this.client = client;
+            this.lastDownloaded = client.getTorrent().getDownloaded();
+            this.lastUploaded = client.getTorrent().getUploaded();
+        }
+
+        @Override
+        long downloaded() {
+            return client.getTorrent().getDownloaded();
+        }
+
+        @Override
+        long uploaded() {
+            return client.getTorrent().getUploaded();
+        }
+
+        @Override
+        boolean downloads() {
+            return true;
+        }
+
+        @Override
+        void apply(double tickSeconds) {
+            int peers = Math.max(1, connectedPeers());
+            SharedTorrent torrent = client.getTorrent();
+            torrent.setMaxDownloadRate(toPerPeerKb(capDown, peers));
+            torrent.setMaxUploadRate(toPerPeerKb(capUp, peers));
+        }
+
+        private int connectedPeers() {
+            int connected = 0;
+            for (SharingPeer peer : client.getPeers()) {
+                if (peer.isConnected()) {
+                    connected++;
+                }
+            }
+            return connected;
+        }
+    }
+
+    // A torrent served by the PeerReactor; its upload cap becomes a byte budget for the next tick
+    private static class SeedSession extends Session {
+        private final SeedTorrent seed;
+
+        SeedSession(SeedTorrent seed, long maxUploadRate) {
+            super(0, maxUploadRate);
+            this.seed = seed;
+            this.lastUploaded = seed.uploaded.get();
+        }
+
+        @Override
+        long downloaded() {
+            return 0;
+        }
+
+        @Override
+        long uploaded() {
+            return seed.uploaded.get();
+        }
+
+        @Override
+        boolean downloads() {
+            return false;
+        }
+
+        @Override
+        void apply(double tickSeconds) {
+            seed.grant(Double.isInfinite(capUp) ? Long.MAX_VALUE : (long) (capUp * tickSeconds));
+        }
+    }
+}
@@ -0,0 +1,487 @@
+package com.bittorrent.service;
+
+import com.turn.ttorrent.client.Piece;
+import com.turn.ttorrent.client.SharedTorrent;
+import com.turn.ttorrent.client.peer.SharingPeer;
+import com.turn.ttorrent.client.storage.FileCollectionStorage;
+import com.turn.ttorrent.client.storage.FileStorage;
+import com.turn.ttorrent.client.strategy.RequestStrategy;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.URI;
+import java.security.NoSuchAlgorithmException;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.concurrent.TimeUnit;
+
+// SharedTorrent that can skip hashing pieces already known to be on disk.
+// SharedTorrent.init() asks isSeeder() once per piece, in index order, when it
+// creates each Piece, and a "seeder" piece is marked valid without being read.
+// Answering per piece from the trusted bitfield gives us fast-resume without
+// touching the library's private state.
+//
+// Piece selection also goes through our PiecePicker: the peer callbacks below
+// keep its availability index current, and it answers ttorrent's RequestStrategy.
+// ttorrent only re-requests pieces another peer holds once 95% of pieces are
+// done, so near the end one slow peer can stall the download; handlePeerReady
+// enters endgame as soon as a peer has nothing left that nobody is fetching.
+//
+// With a WriteBackCache, pieces are held in memory until their hash check and
+// handlePieceCompleted tells the storage whether to keep or drop them.
+//
+// Files streamed over HTTP register their read position here; while any stream
+// is open the picker fetches pieces in order from the one furthest behind, and
+// readers wait on this torrent's monitor for the pieces they need.
+//
+// Trackers are announced to by the shared AnnounceScheduler. The announce list
+// is hidden from ttorrent, whose Announce then starts no thread of its own (it
+// logs one warning when it cannot send "completed").
+//
+// A FileSelection sets the picker's piece priorities. When it skips files the
+// torrent counts as complete once the wanted pieces are, and finishing renames
+// only the files whose pieces are all there; the rest keep their .part.
+public class ResumableSharedTorrent extends SharedTorrent {
+    private BitSet trusted = new BitSet();
+    private boolean initializing = false;
+    // Set once init() is done; unlike ttorrent's flag it is safe to read without the lock
+    private volatile boolean ready = false;
+    // getLeft() as of the last change, -1 before init(); for readers that must not wait on the lock
+    private volatile long leftBytes = -1;
+    private int cursor = 0;
+
+    private final PickerStrategy strategy;
+    private PiecePicker picker;
+    private int endgameDuplicates = 2;
+    // What each peer was counted with in the availability index, and the piece it is fetching
+    private final Map<SharingPeer, BitSet> counted = new HashMap<>();
+    private final Map<SharingPeer, Integer> assigned = new HashMap<>();
+    // Open streams and the piece each is reading
+    private final Map<Object, Integer> streamPositions = new HashMap<>();
+    private WriteBackStorage storage;
+    private FileSelection selection;
+    private Counter verifiedCounter;
+    private Counter failedCounter;
+    private Timer hashCheckTimer;
+
+    public ResumableSharedTorrent(com.turn.ttorrent.common.Torrent torrent, File destDir)
+            throws IOException, NoSuchAlgorithmException {
+        this(torrent, destDir, new PickerStrategy());
+    }
+
+    private ResumableSharedTorrent(com.turn.ttorrent.common.Torrent torrent, File destDir, PickerStrategy strategy)
+            throws IOException, NoSuchAlgorithmException {
+        super(torrent, destDir, false, strategy);
+        this.strategy = strategy;
+    }
+
+    // The cache swaps ttorrent's storage on the built torrent, so it is installed after construction
+    public static ResumableSharedTorrent open(com.turn.ttorrent.common.Torrent torrent, File destDir,
+            WriteBackCache cache) throws IOException, NoSuchAlgorithmException {
+        ResumableSharedTorrent shared = new ResumableSharedTorrent(torrent, destDir);
+        if (cache != null) {
+            shared.storage = cache.install(shared, shared.getPieceLength());
+        }
+        return shared;
+    }
+
+    // Must be called before the client starts
+    public synchronized void trust(BitSet pieces) {
+        this.trusted = pieces != null ? pieces : new BitSet();
+    }
+
+    public synchronized void setMetrics(TorrentMetrics metrics) {
+        this.verifiedCounter = metrics.piecesVerifiedDownload();
+        this.failedCounter = metrics.piecesFailedDownload();
+        this.hashCheckTimer = metrics.hashCheck();
+    }
+
+    // Most peers allowed to fetch the same piece in endgame
+    public synchronized void setEndgameDuplicates(int endgameDuplicates) {
+        this.endgameDuplicates = Math.max(endgameDuplicates, 1);
+    }
+
+    // Can change while the client runs
+    public synchronized void setSelection(FileSelection selection) {
+        this.selection = selection;
+        if (picker != null) {
+            picker.setPriorities(selection != null ? selection.getPiecePriorities() : null);
+        }
+        if (ready) {
+            leftBytes = getLeft();
+        }
+    }
+
+    public synchronized FileSelection getSelection() {
+        return selection;
+    }
+
+    private boolean isPartial() {
+        return selection != null && selection.isPartial();
+    }
+
+    @Override
+    public List<List<URI>> getAnnounceList() {
+        return List.of();
+    }
+
+    @Override
+    public synchronized void init() throws InterruptedException, IOException {
+        initializing = true;
+        cursor = 0;
+        try {
+            super.init();
+        } finally {
+            initializing = false;
+        }
+        picker = new PiecePicker(getPieceCount(), getCompletedPieces(), new Random());
+        if (selection != null) {
+            picker.setPriorities(selection.getPiecePriorities());
+        }
+        strategy.picker = picker;
+        updateSequential();
+        leftBytes = getLeft();
+        ready = true;
+        notifyAll();
+    }
+
+    // For other threads: false while init() holds the lock to check the pieces on disk
+    public boolean isReady() {
+        return ready;
+    }
+
+    @Override
+    public boolean isSeeder() {
+        if (initializing) {
+            return trusted.get(cursor++);
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized void handleBitfieldAvailability(SharingPeer peer, BitSet availablePieces) {
+        super.handleBitfieldAvailability(peer, availablePieces);
+        if (picker != null) {
+            BitSet previous = counted.put(peer, (BitSet) availablePieces.clone());
+            if (previous != null) {
+                picker.removePeer(previous);
+            }
+            picker.addPeer(availablePieces);
+        }
+    }
+
+    @Override
+    public synchronized void handlePieceAvailability(SharingPeer peer, Piece piece) {
+        super.handlePieceAvailability(peer, piece);
+        if (picker != null) {
+            BitSet pieces = counted.computeIfAbsent(peer, p -> new BitSet());
+            if (!pieces.get(piece.getIndex())) {
+                pieces.set(piece.getIndex());
+                picker.addHave(piece.getIndex());
+            }
+        }
+    }
+
+    @Override
+    public synchronized void handlePeerReady(SharingPeer peer) {
+        if (picker == null) {
+            super.handlePeerReady(peer);
+            return;
+        }
+        BitSet wanted = peer.getAvailablePieces();
+        wanted.andNot(getCompletedPieces());
+        if (selection != null) {
+            wanted.and(selection.getWanted());
+        }
+        BitSet fresh = (BitSet) wanted.clone();
+        fresh.andNot(getRequestedPieces());
+        if (fresh.isEmpty()) {
+            if (!wanted.isEmpty()) {
+                // Endgame: everything this peer can give us is already in flight elsewhere
+                int index = picker.pickDuplicate(wanted, endgameDuplicates);
+                if (index >= 0) {
+                    peer.downloadPiece(getPiece(index));
+                    assign(peer, index);
+                }
+            }
+            // Otherwise the peer only has pieces we have or skip
+            return;
+        }
+        super.handlePeerReady(peer);
+        Piece piece = peer.getRequestedPiece();
+        if (piece != null && peer.isDownloading()) {
+            assign(peer, piece.getIndex());
+        }
+    }
+
+    // ttorrent hash-checks a piece on the peer's thread just before this
+    // callback; the check starts with the storage's whole-piece read, and the
+    // clock stops here, before waiting for the torrent's lock
+    @Override
+    public void handlePieceCompleted(SharingPeer peer, Piece piece) throws IOException {
+        long checked = System.nanoTime();
+        pieceCompleted(peer, piece, checked);
+    }
+
+    private synchronized void pieceCompleted(SharingPeer peer, Piece piece, long checked) throws IOException {
+        if (storage != null) {
+            long started = storage.hashCheckStarted(piece.getIndex());
+            if (started != 0 && hashCheckTimer != null) {
+                hashCheckTimer.record(checked - started, TimeUnit.NANOSECONDS);
+            }
+            if (piece.isValid()) {
+                storage.verified(piece.getIndex());
+            } else {
+                storage.discard(piece.getIndex());
+            }
+        }
+        super.handlePieceCompleted(peer, piece);
+        if (verifiedCounter != null) {
+            (piece.isValid() ? verifiedCounter : failedCounter).increment();
+        }
+        if (picker != null) {
+            unassign(peer);
+            if (piece.isValid()) {
+                picker.complete(piece.getIndex());
+            }
+        }
+        if (piece.isValid()) {
+            leftBytes = getLeft();
+            notifyAll();
+        }
+    }
+
+    @Override
+    public synchronized boolean isComplete() {
+        if (!isPartial()) {
+            return super.isComplete();
+        }
+        if (!isInitialized()) {
+            return false;
+        }
+        BitSet missing = selection.getWanted();
+        missing.andNot(getCompletedPieces());
+        return missing.isEmpty();
+    }
+
+    @Override
+    public synchronized long getLeft() {
+        if (!isPartial() || !isInitialized()) {
+            return super.getLeft();
+        }
+        return selection.getLeftBytes(getCompletedPieces());
+    }
+
+    // Never blocks; the whole size until init() has checked what is on disk
+    public long getLeftSnapshot() {
+        long left = leftBytes;
+        return left >= 0 ? left : getSize();
+    }
+
+    // Bytes of verified pieces, whatever the selection; ttorrent's left counts them down exactly
+    public synchronized long getVerifiedBytes() {
+        return getSize() - super.getLeft();
+    }
+
+    // Percent of the wanted pieces
+    @Override
+    public synchronized float getCompletion() {
+        if (!isPartial() || !isInitialized()) {
+            return super.getCompletion();
+        }
+        BitSet wanted = selection.getWanted();
+        int total = wanted.cardinality();
+        if (total == 0) {
+            return 100f;
+        }
+        wanted.and(getCompletedPieces());
+        return wanted.cardinality() * 100f / total;
+    }
+
+    @Override
+    public synchronized void finish() throws IOException {
+        if (!isPartial()) {
+            super.finish();
+            return;
+        }
+        if (!isComplete()) {
+            throw new IllegalStateException("Torrent download is not complete!");
+        }
+        flushCache();
+        List<FileStorage> stores = fileStores();
+        BitSet completed = getCompletedPieces();
+        for (int i = 0; i < stores.size(); i++) {
+            if (selection.isFileComplete(i, completed) && !stores.get(i).isFinished()) {
+                stores.get(i).finish();
+            }
+        }
+    }
+
+    @Override
+    public synchronized boolean isFinished() {
+        if (!isPartial()) {
+            return super.isFinished();
+        }
+        if (!isComplete()) {
+            return false;
+        }
+        List<FileStorage> stores = fileStores();
+        BitSet completed = getCompletedPieces();
+        for (int i = 0; i < stores.size(); i++) {
+            if (selection.isFileComplete(i, completed) && !stores.get(i).isFinished()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // ttorrent's per-file storages, under the write-back layer if there is one;
+    // like WriteBackCache.install this has to reach into private fields
+    @SuppressWarnings("unchecked")
+    private List<FileStorage> fileStores() {
+        try {
+            Field bucketField = SharedTorrent.class.getDeclaredField("bucket");
+            bucketField.setAccessible(true);
+            Object bucket = bucketField.get(this);
+            if (bucket instanceof WriteBackStorage writeBack) {
+                bucket = writeBack.delegate();
+            }
+            Field filesField = FileCollectionStorage.class.getDeclaredField("files");
+            filesField.setAccessible(true);
+            List<FileStorage> stores = (List<FileStorage>) filesField.get(bucket);
+            if (stores.size() != selection.getFileCount()) {
+                throw new IllegalStateException("Storage has " + stores.size() + " files, selection has "
+                        + selection.getFileCount());
+            }
+            return stores;
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalStateException("Cannot reach file storage of " + getName(), e);
+        }
+    }
+
+    @Override
+    public synchronized void handlePeerChoked(SharingPeer peer) {
+        super.handlePeerChoked(peer);
+        unassign(peer);
+    }
+
+    @Override
+    public synchronized void handlePeerDisconnected(SharingPeer peer) {
+        super.handlePeerDisconnected(peer);
+        unassign(peer);
+        BitSet pieces = counted.remove(peer);
+        if (picker != null && pieces != null) {
+            picker.removePeer(pieces);
+        }
+    }
+
+    private void assign(SharingPeer peer, int index) {
+        Integer previous = assigned.put(peer, index);
+        if (previous != null) {
+            picker.released(previous);
+        }
+        picker.requested(index);
+    }
+
+    private void unassign(SharingPeer peer) {
+        Integer previous = assigned.remove(peer);
+        if (previous != null && picker != null) {
+            picker.released(previous);
+        }
+    }
+
+    // Waits until the piece is downloaded and verified; false if it is not by the timeout
+    public boolean awaitPiece(int index, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        // init() holds the lock while it checks the pieces on disk
+        while (!isReady()) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            Thread.sleep(Math.min(remaining, 100));
+        }
+        synchronized (this) {
+            while (!getPiece(index).isValid()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    public synchronized void streamAt(Object reader, int index) {
+        streamPositions.put(reader, index);
+        updateSequential();
+    }
+
+    public synchronized void streamClosed(Object reader) {
+        streamPositions.remove(reader);
+        updateSequential();
+    }
+
+    private void updateSequential() {
+        if (picker != null) {
+            picker.setSequentialFrom(streamPositions.isEmpty() ? -1 : Collections.min(streamPositions.values()));
+        }
+    }
+
+    public synchronized Map<String, Object> getPickerStats() {
+        Map<String, Object> stats = picker != null ? picker.getStats() : new HashMap<>();
+        stats.put("countedPeers", counted.size());
+        stats.put("activeRequests", assigned.size());
+        stats.put("openStreams", streamPositions.size());
+        stats.put("endgameDuplicates", endgameDuplicates);
+        return stats;
+    }
+
+    // Verified pieces still in memory go to disk, e.g. before resume data claims them
+    public void flushCache() throws IOException {
+        if (storage != null) {
+            storage.flushVerified();
+        }
+    }
+
+    public int getPieceLength() throws IOException {
+        return decoded_info.get("piece length").getInt();
+    }
+
+    public List<TorrentFile> getFiles() {
+        return files;
+    }
+
+    // Answers ttorrent's piece choice from the picker; interesting already
+    // excludes pieces we have and pieces other peers are fetching
+    private static class PickerStrategy implements RequestStrategy {
+        private volatile PiecePicker picker;
+
+        @Override
+        public Piece choosePiece(SortedSet<Piece> rarest, BitSet interesting, Piece[] pieces) {
+            PiecePicker picker = this.picker;
+            int index = picker != null ? picker.pick(interesting) : -1;
+            if (index < 0) {
+                // Picker and ttorrent disagree on what is in flight; never return null here,
+                // and prefer a piece that is not skipped (handlePeerReady made sure there is one)
+                index = interesting.nextSetBit(0);
+                for (int i = index; picker != null && i >= 0; i = interesting.nextSetBit(i + 1)) {
+                    if (picker.isWanted(i)) {
+                        index = i;
+                        break;
+                    }
+                }
+            }
+            return pieces[index];
+        }
+    }
+}
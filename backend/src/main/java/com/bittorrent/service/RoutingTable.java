@@ -0,0 +1,192 @@
+package com.bittorrent.service;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+// Kademlia routing table: 160 k-buckets indexed by how many leading bits a
+// node id shares with ours, at most K nodes each. A full bucket keeps its
+// long-lived nodes and only makes room by evicting one that stopped answering
+// or has not been heard from in STALE_MILLIS.
+class RoutingTable {
+    static final int K = 8;
+    static final int ID_LENGTH = 20;
+    private static final int MAX_FAILURES = 2;
+    private static final long STALE_MILLIS = 15 * 60 * 1000;
+
+    private final byte[] localId;
+    private final List<List<Node>> buckets = new ArrayList<>(ID_LENGTH * 8);
+
+    RoutingTable(byte[] localId) {
+        this.localId = localId;
+        for (int i = 0; i < ID_LENGTH * 8; i++) {
+            buckets.add(new ArrayList<>(K));
+        }
+    }
+
+    static final class Node {
+        final byte[] id;
+        final InetSocketAddress address;
+        long lastSeen;
+        int failures;
+
+        Node(byte[] id, InetSocketAddress address, long lastSeen) {
+            this.id = id;
+            this.address = address;
+            this.lastSeen = lastSeen;
+        }
+    }
+
+    byte[] getLocalId() {
+        return localId;
+    }
+
+    // Called for every node we hear from; true if the node is now in the table
+    synchronized boolean seen(byte[] id, InetSocketAddress address, long now) {
+        if (id.length != ID_LENGTH || Arrays.equals(id, localId)) {
+            return false;
+        }
+        List<Node> bucket = buckets.get(bucketIndex(id));
+        for (Node node : bucket) {
+            if (Arrays.equals(node.id, id)) {
+                node.lastSeen = now;
+                node.failures = 0;
+                return true;
+            }
+        }
+        if (bucket.size() >= K) {
+            Node evict = null;
+            for (Node node : bucket) {
+                if (node.failures >= MAX_FAILURES || now - node.lastSeen > STALE_MILLIS) {
+                    if (evict == null || node.lastSeen < evict.lastSeen) {
+                        evict = node;
+                    }
+                }
+            }
+            if (evict == null) {
+                return false;
+            }
+            bucket.remove(evict);
+        }
+        bucket.add(new Node(id, address, now));
+        return true;
+    }
+
+    // A query to this node timed out; it is dropped after MAX_FAILURES in a row
+    synchronized void failed(byte[] id) {
+        if (id == null) {
+            return;
+        }
+        List<Node> bucket = buckets.get(bucketIndex(id));
+        for (Node node : bucket) {
+            if (Arrays.equals(node.id, id)) {
+                node.failures++;
+            }
+        }
+        bucket.removeIf(node -> node.failures > MAX_FAILURES);
+    }
+
+    synchronized List<Node> closest(byte[] target, int count) {
+        List<Node> all = new ArrayList<>();
+        for (List<Node> bucket : buckets) {
+            for (Node node : bucket) {
+                if (node.failures < MAX_FAILURES) {
+                    all.add(node);
+                }
+            }
+        }
+        all.sort(byDistance(target));
+        return all.size() > count ? new ArrayList<>(all.subList(0, count)) : all;
+    }
+
+    synchronized int size() {
+        int size = 0;
+        for (List<Node> bucket : buckets) {
+            size += bucket.size();
+        }
+        return size;
+    }
+
+    synchronized int bucketsInUse() {
+        int used = 0;
+        for (List<Node> bucket : buckets) {
+            if (!bucket.isEmpty()) {
+                used++;
+            }
+        }
+        return used;
+    }
+
+    // Random ids inside buckets that have not seen traffic lately, for refresh lookups
+    synchronized List<byte[]> staleBucketTargets(long now, Random random) {
+        List<byte[]> targets = new ArrayList<>();
+        for (int i = 0; i < buckets.size(); i++) {
+            List<Node> bucket = buckets.get(i);
+            if (!bucket.isEmpty() && bucket.stream().allMatch(n -> now - n.lastSeen > STALE_MILLIS)) {
+                targets.add(idInBucket(i, random));
+            }
+        }
+        return targets;
+    }
+
+    // Random ids inside the buckets, above the deepest one in use, that still have
+    // room; looked up after a bootstrap so the table is not just our neighbourhood
+    synchronized List<byte[]> sparseBucketTargets(Random random) {
+        int deepest = -1;
+        for (int i = 0; i < buckets.size(); i++) {
+            if (!buckets.get(i).isEmpty()) {
+                deepest = i;
+            }
+        }
+        List<byte[]> targets = new ArrayList<>();
+        for (int i = 0; i < deepest; i++) {
+            if (buckets.get(i).size() < K) {
+                targets.add(idInBucket(i, random));
+            }
+        }
+        return targets;
+    }
+
+    // Shared prefix length with our id, capped at 159
+    int bucketIndex(byte[] id) {
+        for (int i = 0; i < ID_LENGTH; i++) {
+            int x = (id[i] ^ localId[i]) & 0xFF;
+            if (x != 0) {
+                return i * 8 + Integer.numberOfLeadingZeros(x) - 24;
+            }
+        }
+        return ID_LENGTH * 8 - 1;
+    }
+
+    private byte[] idInBucket(int index, Random random) {
+        byte[] id = new byte[ID_LENGTH];
+        random.nextBytes(id);
+        for (int bit = 0; bit <= index && bit < ID_LENGTH * 8; bit++) {
+            int mask = 0x80 >>> (bit % 8);
+            boolean ours = (localId[bit / 8] & mask) != 0;
+            // Same bits as ours up to the index, then the first differing bit
+            boolean set = bit < index ? ours : !ours;
+            id[bit / 8] = (byte) (set ? id[bit / 8] | mask : id[bit / 8] & ~mask);
+        }
+        return id;
+    }
+
+    static Comparator<Node> byDistance(byte[] target) {
+        return (a, b) -> compareDistance(target, a.id, b.id);
+    }
+
+    // Orders a and b by XOR distance to target
+    static int compareDistance(byte[] target, byte[] a, byte[] b) {
+        for (int i = 0; i < ID_LENGTH; i++) {
+            int da = (a[i] ^ target[i]) & 0xFF;
+            int db = (b[i] ^ target[i]) & 0xFF;
+            if (da != db) {
+                return Integer.compare(da, db);
+            }
+        }
+        return 0;
+    }
+}
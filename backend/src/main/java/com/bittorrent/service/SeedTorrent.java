@@ -0,0 +1,192 @@
+package com.bittorrent.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Geometry and open file handles of one seeded torrent. Payload files are laid
+// end to end; offsets[i] is where file i starts in the torrent. Transfers draw
+// on a byte budget the RateLimiter grants each tick (unlimited until it does).
+@Slf4j
+class SeedTorrent {
+    final Long torrentId;
+    final Long downloadId;
+    final String hexInfoHash;
+    final int pieceLength;
+    final int pieceCount;
+    final long totalSize;
+    final long pieceTableBytes;
+    final ByteBuffer preamble;
+    final long baseUploaded;
+    final AtomicLong uploaded = new AtomicLong();
+    final AtomicInteger connections = new AtomicInteger();
+    final AtomicLong throttled = new AtomicLong();
+    // Connections parked by the reactor until the next grant
+    final AtomicInteger waiting = new AtomicInteger();
+
+    private final File[] files;
+    private final long[] offsets;
+    private final long[] sizes;
+    private final FileChannel[] channels;
+    private long flushedUploaded = 0;
+    private long lastFlushNanos = System.nanoTime();
+    private long lastSpeed = 0;
+    // Bytes this tick may still send; Long.MAX_VALUE when unlimited
+    private final AtomicLong budget = new AtomicLong(Long.MAX_VALUE);
+    private volatile Runnable onGrant = () -> { };
+
+    SeedTorrent(Long torrentId, Long downloadId, TorrentMetainfo metainfo, File[] files, long baseUploaded,
+            byte[] peerId) throws IOException {
+        this.torrentId = torrentId;
+        this.downloadId = downloadId;
+        this.hexInfoHash = PeerWire.toHex(metainfo.getInfoHash());
+        this.pieceLength = metainfo.getPieceLength();
+        this.pieceCount = metainfo.getPieceCount();
+        this.totalSize = metainfo.getSize();
+        this.pieceTableBytes = metainfo.getPieceTableBytes();
+        this.files = files;
+        this.offsets = new long[files.length];
+        this.sizes = new long[files.length];
+        this.channels = new FileChannel[files.length];
+        this.baseUploaded = baseUploaded;
+        long offset = 0;
+        for (int i = 0; i < files.length; i++) {
+            offsets[i] = offset;
+            sizes[i] = metainfo.getFiles().get(i).size;
+            offset += sizes[i];
+        }
+        this.preamble = PeerWire.preamble(metainfo.getInfoHash(), peerId, pieceCount);
+    }
+
+    long pieceSize(int index) {
+        return index == pieceCount - 1 ? totalSize - (long) index * pieceLength : pieceLength;
+    }
+
+    // Moves up to count bytes starting at the torrent offset position straight from
+    // the page cache to the target; stops early when the socket buffer is full or
+    // the budget for this tick runs out
+    long transfer(long position, long count, WritableByteChannel target) throws IOException {
+        long allowed = reserve(count);
+        long written = 0;
+        try {
+            while (written < allowed) {
+                long at = position + written;
+                int f = fileAt(at);
+                long inFile = at - offsets[f];
+                long chunk = Math.min(allowed - written, sizes[f] - inFile);
+                long n = channel(f).transferTo(inFile, chunk, target);
+                if (n <= 0) {
+                    break;
+                }
+                written += n;
+                if (n < chunk) {
+                    break;
+                }
+            }
+        } finally {
+            refund(allowed - written);
+        }
+        uploaded.addAndGet(written);
+        return written;
+    }
+
+    // True once this tick's budget is spent; the reactor then waits for the next grant
+    boolean isThrottled() {
+        return budget.get() <= 0;
+    }
+
+    // Sets the next tick's budget and lets waiting connections write again
+    void grant(long bytes) {
+        budget.set(Math.max(bytes, 0));
+        if (bytes > 0 && waiting.get() > 0) {
+            onGrant.run();
+        }
+    }
+
+    void onGrant(Runnable action) {
+        this.onGrant = action;
+    }
+
+    private long reserve(long wanted) {
+        while (true) {
+            long available = budget.get();
+            if (available == Long.MAX_VALUE) {
+                return wanted;
+            }
+            long n = Math.min(available, wanted);
+            if (n <= 0) {
+                throttled.incrementAndGet();
+                return 0;
+            }
+            if (budget.compareAndSet(available, available - n)) {
+                return n;
+            }
+        }
+    }
+
+    private void refund(long unused) {
+        if (unused > 0) {
+            budget.getAndUpdate(b -> b == Long.MAX_VALUE ? b : b + unused);
+        }
+    }
+
+    // Skips zero-length files, which share an offset with their successor
+    private int fileAt(long position) {
+        int i = Arrays.binarySearch(offsets, position);
+        if (i < 0) {
+            i = -i - 2;
+        }
+        while (sizes[i] == 0 || position >= offsets[i] + sizes[i]) {
+            i++;
+        }
+        return i;
+    }
+
+    // Opened on first use so idle seeds hold no descriptors. Positional
+    // transferTo is safe from several selector threads at once.
+    private synchronized FileChannel channel(int f) throws IOException {
+        if (channels[f] == null) {
+            channels[f] = FileChannel.open(files[f].toPath(), StandardOpenOption.READ);
+        }
+        return channels[f];
+    }
+
+    // Row for the upload flush, or null when nothing changed since the last one
+    synchronized Object[] flushRow(long now) {
+        long current = uploaded.get();
+        long elapsedMillis = Math.max((now - lastFlushNanos) / 1_000_000, 1);
+        long speed = (current - flushedUploaded) * 1000 / elapsedMillis;
+        if (current == flushedUploaded && lastSpeed == 0) {
+            return null;
+        }
+        flushedUploaded = current;
+        lastFlushNanos = now;
+        lastSpeed = speed;
+        long total = baseUploaded + current;
+        double ratio = totalSize > 0 ? (double) total / totalSize : 0.0;
+        return new Object[] { total, speed, ratio, Timestamp.valueOf(LocalDateTime.now()), downloadId };
+    }
+
+    synchronized void close() {
+        for (int i = 0; i < channels.length; i++) {
+            if (channels[i] != null) {
+                try {
+                    channels[i].close();
+                } catch (IOException e) {
+                    log.debug("Close failed", e);
+                }
+                channels[i] = null;
+            }
+        }
+    }
+}
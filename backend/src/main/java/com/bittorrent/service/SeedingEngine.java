@@ -0,0 +1,225 @@
+package com.bittorrent.service;
+
+import com.bittorrent.model.Download;
+import com.bittorrent.model.Torrent;
+import com.bittorrent.repository.DownloadRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Serves completed torrents to other peers. ttorrent uploads through a heap
+// buffer per block (RandomAccessFile read, then socket write), so finished
+// torrents are handed to the shared PeerReactor instead, which sends block
+// payloads from the page cache to the socket with FileChannel.transferTo.
+// This class decides what is seeded, announces it and persists upload totals.
+@Component
+@Slf4j
+public class SeedingEngine {
+    private static final String UPDATE_SQL = "UPDATE download SET uploaded_bytes = ?, upload_speed = ?, "
+            + "upload_ratio = ?, last_updated = ? WHERE id = ? AND status = 'COMPLETED'";
+
+    private final DownloadRepository downloadRepo;
+    private final MetadataCache metadataCache;
+    private final JdbcTemplate jdbcTemplate;
+    private final PeerReactor reactor;
+    private final TorrentMetrics metrics;
+    private final TrackerService trackers;
+    private final RateLimiter rateLimiter;
+    private final Map<Long, SeedTorrent> seeds = new ConcurrentHashMap<>();
+
+    @Value("${torrent.seed.enabled:true}")
+    private boolean enabled;
+
+    @Value("${torrent.download.dir:downloads}")
+    private String downloadDir;
+
+    public SeedingEngine(DownloadRepository downloadRepo, MetadataCache metadataCache, JdbcTemplate jdbcTemplate,
+            PeerReactor reactor, TorrentMetrics metrics, TrackerService trackers, RateLimiter rateLimiter) {
+        this.downloadRepo = downloadRepo;
+        this.metadataCache = metadataCache;
+        this.jdbcTemplate = jdbcTemplate;
+        this.reactor = reactor;
+        this.metrics = metrics;
+        this.trackers = trackers;
+        this.rateLimiter = rateLimiter;
+    }
+
+    private boolean isEnabled() {
+        return enabled && reactor.isRunning();
+    }
+
+    // Completed torrents from earlier runs go back into the swarm once the app is up
+    @EventListener(ApplicationReadyEvent.class)
+    public void seedCompleted() {
+        if (!isEnabled()) {
+            return;
+        }
+        Thread.ofVirtual().name("seed-loader").start(() -> {
+            for (Download download : downloadRepo.findLatestCompleted()) {
+                try {
+                    add(download.getTorrent(), download);
+                } catch (Exception e) {
+                    log.warn("Not seeding {}: {}", download.getTorrent().getName(), e.getMessage());
+                }
+            }
+        });
+    }
+
+    public void add(Torrent torrent, Download download) throws Exception {
+        if (!isEnabled() || seeds.containsKey(torrent.getId())) {
+            return;
+        }
+        TorrentMetainfo metainfo = metadataCache.get(torrent);
+        File payloadDir = new File(downloadDir);
+        List<TorrentMetainfo.TorrentFile> files = metainfo.getFiles();
+        File[] paths = new File[files.size()];
+        for (int i = 0; i < paths.length; i++) {
+            File complete = new File(payloadDir, files.get(i).file.getPath());
+            if (!complete.isFile() || complete.length() != files.get(i).size) {
+                throw new IOException("payload missing or incomplete: " + complete);
+            }
+            paths[i] = complete;
+        }
+
+        long baseUploaded = download.getUploadedBytes() != null ? download.getUploadedBytes() : 0L;
+        SeedTorrent seed = new SeedTorrent(torrent.getId(), download.getId(), metainfo, paths, baseUploaded,
+                reactor.getPeerId());
+        if (seeds.putIfAbsent(torrent.getId(), seed) != null) {
+            return;
+        }
+        // Uploads count against the torrent's and the global upload limits
+        rateLimiter.registerSeed(torrent.getId(), seed, torrent.getMaxUploadRate());
+        reactor.serve(seed);
+        trackers.register(torrent.getId(), metainfo, announceSource(seed));
+        log.info("Seeding {} ({} pieces)", metainfo.getName(), seed.pieceCount);
+    }
+
+    public void remove(Long torrentId) {
+        SeedTorrent seed = seeds.remove(torrentId);
+        if (seed == null) {
+            return;
+        }
+        trackers.unregister(torrentId);
+        rateLimiter.deregisterSeed(torrentId);
+        reactor.unserve(seed);
+        flush(List.of(seed));
+        seed.close();
+    }
+
+    public boolean isSeeding(Long torrentId) {
+        return seeds.containsKey(torrentId);
+    }
+
+    // A seed reports left=0 and its session upload; peers it is given are not
+    // dialled, they connect to us once the tracker lists us
+    private AnnounceScheduler.Source announceSource(SeedTorrent seed) {
+        byte[] peerId = reactor.getPeerId();
+        return new AnnounceScheduler.Source() {
+            @Override
+            public byte[] peerId() {
+                return peerId;
+            }
+
+            @Override
+            public int port() {
+                return reactor.getPort();
+            }
+
+            @Override
+            public long uploaded() {
+                return seed.uploaded.get();
+            }
+
+            @Override
+            public long downloaded() {
+                return 0;
+            }
+
+            @Override
+            public long left() {
+                return 0;
+            }
+
+            @Override
+            public int connectedPeers() {
+                return seed.connections.get();
+            }
+
+            @Override
+            public void peersFound(List<InetSocketAddress> peers) {
+            }
+        };
+    }
+
+    // Persists seeding upload totals; ProgressFlusher only covers rows still downloading
+    @Scheduled(fixedDelayString = "${torrent.seed.flush-interval-ms:30000}")
+    public void flushUploads() {
+        flush(seeds.values());
+    }
+
+    private void flush(Iterable<SeedTorrent> batch) {
+        long now = System.nanoTime();
+        List<Object[]> rows = new ArrayList<>();
+        for (SeedTorrent seed : batch) {
+            Object[] row = seed.flushRow(now);
+            if (row != null) {
+                rows.add(row);
+            }
+        }
+        if (rows.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            jdbcTemplate.batchUpdate(UPDATE_SQL, rows);
+            metrics.recordSeedingFlush(System.nanoTime() - start, rows.size());
+        } catch (Exception e) {
+            log.error("Seeding upload flush failed", e);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        // TrackerService sends the "stopped" announces on its own shutdown
+        flush(seeds.values());
+        seeds.values().forEach(SeedTorrent::close);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", isEnabled());
+        stats.put("port", reactor.getPort());
+        stats.put("seedingTorrents", seeds.size());
+
+        long uploaded = 0;
+        List<Map<String, Object>> torrents = new ArrayList<>();
+        for (SeedTorrent seed : seeds.values()) {
+            Map<String, Object> t = new HashMap<>();
+            t.put("torrentId", seed.torrentId);
+            t.put("connections", seed.connections.get());
+            t.put("sessionUploadedBytes", seed.uploaded.get());
+            t.put("uploadedBytes", seed.baseUploaded + seed.uploaded.get());
+            // Transfers that found the upload budget spent
+            t.put("throttledTransfers", seed.throttled.get());
+            torrents.add(t);
+            uploaded += seed.uploaded.get();
+        }
+        stats.put("uploadedBytes", uploaded);
+        stats.put("torrents", torrents);
+        return stats;
+    }
+}
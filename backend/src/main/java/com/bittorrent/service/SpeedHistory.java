@@ -0,0 +1,350 @@
+package com.bittorrent.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Speed, peer and progress history per torrent for graphs, kept in memory.
+// Every sampler tick lands in a RAW ring; the same samples are averaged into
+// 1-minute and 1-hour buckets, each level a fixed-size ring of primitive
+// arrays (20 bytes a point), so a torrent's history never grows past the
+// configured spans. Rings start small and double up to their capacity.
+@Component
+@Slf4j
+public class SpeedHistory {
+    public static final String RAW = "RAW";
+    public static final String MINUTE = "MINUTE";
+    public static final String HOUR = "HOUR";
+    private static final List<String> RESOLUTIONS = List.of(RAW, MINUTE, HOUR);
+
+    private final Map<Long, Series> series = new ConcurrentHashMap<>();
+    private final AtomicLong samples = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final int rawPoints;
+    private final int minutePoints;
+    private final int hourPoints;
+    private final int rawStepSeconds;
+
+    public SpeedHistory(@Value("${torrent.history.raw-points:900}") int rawPoints,
+            @Value("${torrent.history.minute-points:1440}") int minutePoints,
+            @Value("${torrent.history.hour-points:720}") int hourPoints,
+            @Value("${torrent.progress.sample-interval-ms:2000}") long sampleIntervalMs) {
+        this.rawPoints = Math.max(rawPoints, 1);
+        this.minutePoints = Math.max(minutePoints, 1);
+        this.hourPoints = Math.max(hourPoints, 1);
+        this.rawStepSeconds = (int) Math.max(sampleIntervalMs / 1000, 1);
+    }
+
+    public static String normalize(String resolution) {
+        String upper = resolution.trim().toUpperCase(Locale.ROOT);
+        if (!RESOLUTIONS.contains(upper)) {
+            throw new IllegalArgumentException("Unknown resolution: " + resolution + " (expected one of "
+                    + RESOLUTIONS + ")");
+        }
+        return upper;
+    }
+
+    public void record(Long torrentId, long timeMillis, ProgressSnapshot snapshot) {
+        if (snapshot == null) {
+            return;
+        }
+        Series s = series.computeIfAbsent(torrentId, id -> new Series(timeMillis / 1000));
+        s.record((int) (timeMillis / 1000 - s.base), snapshot);
+        samples.incrementAndGet();
+    }
+
+    public void remove(Long torrentId) {
+        series.remove(torrentId);
+    }
+
+    // The series from fromMillis on at the given resolution, or the finest one
+    // reaching back that far when resolution is null, averaged down to at most
+    // maxPoints points. Columns are parallel arrays; time is epoch millis.
+    public Map<String, Object> query(Long torrentId, String resolution, long fromMillis, int maxPoints) {
+        Series s = series.get(torrentId);
+        if (s == null) {
+            throw new RuntimeException("No history for torrent ID: " + torrentId);
+        }
+        String level = resolution != null ? normalize(resolution) : finest(fromMillis);
+        return s.query(level, fromMillis, Math.max(maxPoints, 1));
+    }
+
+    private String finest(long fromMillis) {
+        long ageSeconds = (System.currentTimeMillis() - fromMillis) / 1000;
+        if (ageSeconds <= (long) rawPoints * rawStepSeconds) {
+            return RAW;
+        }
+        return ageSeconds <= minutePoints * 60L ? MINUTE : HOUR;
+    }
+
+    // A series nothing has written to for longer than the hourly span has nothing left to show
+    @Scheduled(fixedDelayString = "${torrent.history.prune-interval-ms:3600000}")
+    public void expire() {
+        long cutoff = System.currentTimeMillis() / 1000 - hourPoints * 3600L;
+        int before = series.size();
+        series.values().removeIf(s -> s.lastSecond() < cutoff);
+        expired.addAndGet(before - series.size());
+    }
+
+    public Map<String, Object> getStats() {
+        long points = 0;
+        long allocated = 0;
+        for (Series s : series.values()) {
+            synchronized (s) {
+                points += s.raw.size + s.minute.size + s.hour.size;
+                allocated += s.raw.allocated() + s.minute.allocated() + s.hour.allocated();
+            }
+        }
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("series", series.size());
+        stats.put("samples", samples.get());
+        stats.put("expiredSeries", expired.get());
+        stats.put("points", points);
+        stats.put("allocatedBytes", allocated * Ring.BYTES_PER_POINT);
+        stats.put("rawStepSeconds", rawStepSeconds);
+        stats.put("rawSpanSeconds", (long) rawPoints * rawStepSeconds);
+        stats.put("minuteSpanSeconds", minutePoints * 60L);
+        stats.put("hourSpanSeconds", hourPoints * 3600L);
+        return stats;
+    }
+
+    // One torrent's three levels; times are seconds since base
+    private class Series {
+        final long base;
+        final Ring raw = new Ring(rawPoints);
+        final Ring minute = new Ring(minutePoints);
+        final Ring hour = new Ring(hourPoints);
+        final Bucket minuteBucket = new Bucket(60);
+        final Bucket hourBucket = new Bucket(3600);
+        int last;
+
+        Series(long base) {
+            this.base = base;
+        }
+
+        synchronized void record(int time, ProgressSnapshot s) {
+            int down = clamp(s.downloadSpeed());
+            int up = clamp(s.uploadSpeed());
+            float progress = (float) s.progress();
+            raw.add(time, down, up, s.connectedPeers(), progress);
+            minuteBucket.add(time, down, up, s.connectedPeers(), progress, minute);
+            hourBucket.add(time, down, up, s.connectedPeers(), progress, hour);
+            last = time;
+        }
+
+        synchronized long lastSecond() {
+            return base + last;
+        }
+
+        synchronized Map<String, Object> query(String level, long fromMillis, int maxPoints) {
+            Ring ring = switch (level) {
+                case RAW -> raw;
+                case MINUTE -> minute;
+                default -> hour;
+            };
+            Bucket open = switch (level) {
+                case RAW -> null;
+                case MINUTE -> minuteBucket;
+                default -> hourBucket;
+            };
+            int from = (int) Math.max(fromMillis / 1000 - base, Integer.MIN_VALUE);
+
+            // Points in range, oldest first, then the bucket still filling
+            int first = 0;
+            while (first < ring.size && ring.time(first) < from) {
+                first++;
+            }
+            int count = ring.size - first;
+            boolean withOpen = open != null && open.n > 0 && open.start >= from;
+            int total = count + (withOpen ? 1 : 0);
+
+            // Consecutive points are averaged in groups of `group`
+            int group = (total + maxPoints - 1) / Math.max(maxPoints, 1);
+            group = Math.max(group, 1);
+            int out = (total + group - 1) / group;
+            long[] times = new long[out];
+            long[] down = new long[out];
+            long[] up = new long[out];
+            double[] peers = new double[out];
+            double[] progress = new double[out];
+            for (int o = 0; o < out; o++) {
+                int start = o * group;
+                int end = Math.min(start + group, total);
+                long sumDown = 0;
+                long sumUp = 0;
+                double sumPeers = 0;
+                for (int k = start; k < end; k++) {
+                    if (k < count) {
+                        int i = first + k;
+                        sumDown += ring.down(i);
+                        sumUp += ring.up(i);
+                        sumPeers += ring.peers(i);
+                        progress[o] = ring.progress(i);
+                    } else {
+                        sumDown += open.sumDown / open.n;
+                        sumUp += open.sumUp / open.n;
+                        sumPeers += (double) open.sumPeers / open.n;
+                        progress[o] = open.progress;
+                    }
+                }
+                int n = end - start;
+                int startTime = start < count ? ring.time(first + start) : open.start;
+                times[o] = (base + startTime) * 1000;
+                down[o] = sumDown / n;
+                up[o] = sumUp / n;
+                peers[o] = sumPeers / n;
+            }
+
+            int step = switch (level) {
+                case RAW -> rawStepSeconds;
+                case MINUTE -> 60;
+                default -> 3600;
+            };
+            Map<String, Object> result = new HashMap<>();
+            result.put("resolution", level);
+            result.put("stepSeconds", (long) step * group);
+            result.put("points", out);
+            result.put("time", times);
+            result.put("downloadSpeed", down);
+            result.put("uploadSpeed", up);
+            result.put("peers", peers);
+            result.put("progress", progress);
+            return result;
+        }
+    }
+
+    private static int clamp(long value) {
+        return (int) Math.min(Math.max(value, 0), Integer.MAX_VALUE);
+    }
+
+    // Samples being averaged into the current bucket of a coarser level
+    private static class Bucket {
+        final int step;
+        int start;
+        int n;
+        long sumDown;
+        long sumUp;
+        long sumPeers;
+        float progress;
+
+        Bucket(int step) {
+            this.step = step;
+        }
+
+        void add(int time, int down, int up, int peers, float progress, Ring into) {
+            int bucket = Math.floorDiv(time, step) * step;
+            if (n > 0 && bucket != start) {
+                into.add(start, (int) (sumDown / n), (int) (sumUp / n), (int) Math.round((double) sumPeers / n),
+                        this.progress);
+                n = 0;
+                sumDown = 0;
+                sumUp = 0;
+                sumPeers = 0;
+            }
+            start = bucket;
+            n++;
+            sumDown += down;
+            sumUp += up;
+            sumPeers += peers;
+            this.progress = progress;
+        }
+    }
+
+    // Fixed-capacity ring of points; index 0 is the oldest
+    private static class Ring {
+        static final int BYTES_PER_POINT = 20;
+        private static final int INITIAL = 64;
+
+        final int capacity;
+        int[] time;
+        int[] down;
+        int[] up;
+        int[] peers;
+        float[] progress;
+        int head;
+        int size;
+
+        Ring(int capacity) {
+            this.capacity = capacity;
+            allocate(Math.min(INITIAL, capacity));
+        }
+
+        private void allocate(int length) {
+            int[] t = new int[length];
+            int[] d = new int[length];
+            int[] u = new int[length];
+            int[] p = new int[length];
+            float[] g = new float[length];
+            for (int i = 0; i < size; i++) {
+                int j = slot(i);
+                t[i] = time[j];
+                d[i] = down[j];
+                u[i] = up[j];
+                p[i] = peers[j];
+                g[i] = progress[j];
+            }
+            time = t;
+            down = d;
+            up = u;
+            peers = p;
+            progress = g;
+            head = 0;
+        }
+
+        void add(int t, int d, int u, int p, float g) {
+            if (size == time.length && size < capacity) {
+                allocate(Math.min(time.length * 2, capacity));
+            }
+            int j;
+            if (size < time.length) {
+                j = slot(size);
+                size++;
+            } else {
+                // Full: overwrite the oldest
+                j = head;
+                head = (head + 1) % time.length;
+            }
+            time[j] = t;
+            down[j] = d;
+            up[j] = u;
+            peers[j] = p;
+            progress[j] = g;
+        }
+
+        private int slot(int i) {
+            return (head + i) % time.length;
+        }
+
+        int time(int i) {
+            return time[slot(i)];
+        }
+
+        int down(int i) {
+            return down[slot(i)];
+        }
+
+        int up(int i) {
+            return up[slot(i)];
+        }
+
+        int peers(int i) {
+            return peers[slot(i)];
+        }
+
+        float progress(int i) {
+            return progress[slot(i)];
+        }
+
+        int allocated() {
+            return time.length;
+        }
+    }
+}
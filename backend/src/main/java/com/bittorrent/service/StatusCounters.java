@@ -0,0 +1,106 @@
+package com.bittorrent.service;
+
+import com.bittorrent.repository.DownloadArchiveRepository;
+import com.bittorrent.repository.DownloadRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Per-status download counts kept in memory and adjusted on every status change,
+// so the overview never scans the download history. A periodic grouped count
+// query reseeds them and corrects any drift. Download rows pruned by
+// DownloadRetention still count through their torrent's archive row.
+@Component
+@Slf4j
+public class StatusCounters {
+    private final DownloadRepository downloadRepo;
+    private final DownloadArchiveRepository archiveRepo;
+    private final LiveStatsStore liveStats;
+    private final Map<String, AtomicLong> counts = new ConcurrentHashMap<>();
+    private volatile long historicalDownloadedBytes = 0;
+    private volatile long historicalUploadedBytes = 0;
+    private volatile long archivedCompleted = 0;
+    private volatile long archivedFailed = 0;
+
+    public StatusCounters(DownloadRepository downloadRepo, DownloadArchiveRepository archiveRepo,
+            LiveStatsStore liveStats) {
+        this.downloadRepo = downloadRepo;
+        this.archiveRepo = archiveRepo;
+        this.liveStats = liveStats;
+    }
+
+    // from or to may be null for a created or deleted download
+    public void transition(String from, String to) {
+        if (from != null && from.equals(to)) {
+            return;
+        }
+        if (from != null) {
+            counts.computeIfAbsent(from, k -> new AtomicLong()).decrementAndGet();
+        }
+        if (to != null) {
+            counts.computeIfAbsent(to, k -> new AtomicLong()).incrementAndGet();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${torrent.overview.resync-interval-ms:300000}")
+    public void resync() {
+        try {
+            Map<String, Long> fresh = new HashMap<>();
+            downloadRepo.countByStatus().forEach(c -> fresh.put(c.getStatus(), c.getCount()));
+            counts.keySet().retainAll(fresh.keySet());
+            fresh.forEach((status, count) -> counts.computeIfAbsent(status, k -> new AtomicLong()).set(count));
+            DownloadArchiveRepository.Totals archived = archiveRepo.totals();
+            archivedCompleted = archived.getCompleted();
+            archivedFailed = archived.getFailed();
+            historicalDownloadedBytes = downloadRepo.sumDownloadedBytes() + archived.getDownloadedBytes();
+            historicalUploadedBytes = downloadRepo.sumUploadedBytes() + archived.getUploadedBytes();
+        } catch (Exception e) {
+            log.error("Status counter resync failed", e);
+        }
+    }
+
+    public long count(String status) {
+        AtomicLong count = counts.get(status);
+        return count != null ? Math.max(count.get(), 0) : 0;
+    }
+
+    public Map<String, Object> overview() {
+        long total = archivedCompleted + archivedFailed;
+        for (AtomicLong count : counts.values()) {
+            total += Math.max(count.get(), 0);
+        }
+
+        // Rates and bytes of active downloads come straight from the live snapshots
+        long downloadRate = 0;
+        long uploadRate = 0;
+        long activeDownloaded = 0;
+        long activeUploaded = 0;
+        for (ProgressSnapshot s : liveStats.snapshots().values()) {
+            downloadRate += s.downloadSpeed();
+            uploadRate += s.uploadSpeed();
+            activeDownloaded += s.downloadedBytes();
+            activeUploaded += s.uploadedBytes();
+        }
+
+        Map<String, Object> overview = new HashMap<>();
+        overview.put("totalDownloads", total);
+        overview.put("activeDownloads", count("DOWNLOADING"));
+        overview.put("completedDownloads", count("COMPLETED") + archivedCompleted);
+        overview.put("failedDownloads", count("FAILED") + archivedFailed);
+        overview.put("pausedDownloads", count("PAUSED"));
+        overview.put("queuedDownloads", count("QUEUED"));
+        overview.put("downloadRate", downloadRate);
+        overview.put("uploadRate", uploadRate);
+        overview.put("activeDownloadedBytes", activeDownloaded);
+        overview.put("activeUploadedBytes", activeUploaded);
+        // Refreshed on each resync, not per request
+        overview.put("totalDownloadedBytes", historicalDownloadedBytes);
+        overview.put("totalUploadedBytes", historicalUploadedBytes);
+        return overview;
+    }
+}
@@ -0,0 +1,44 @@
+package com.bittorrent.service;
+
+// Byte-rate token bucket settled after the fact: traffic is charged once it has
+// been measured, and a bucket in debt lowers the allowance for the next interval.
+class TokenBucket {
+    private static final double BURST_SECONDS = 2.0;
+
+    private long rate; // bytes per second, 0 = unlimited
+    private double tokens = 0;
+
+    TokenBucket(long rate) {
+        setRate(rate);
+    }
+
+    long getRate() {
+        return rate;
+    }
+
+    void setRate(long rate) {
+        this.rate = Math.max(rate, 0);
+        this.tokens = Math.min(tokens, this.rate * BURST_SECONDS);
+    }
+
+    boolean isUnlimited() {
+        return rate == 0;
+    }
+
+    void settle(long bytes, double seconds) {
+        if (isUnlimited()) {
+            tokens = 0;
+            return;
+        }
+        tokens = Math.min(tokens + rate * seconds, rate * BURST_SECONDS) - bytes;
+    }
+
+    // Bytes per second the next interval may use
+    double allowance(double seconds) {
+        if (isUnlimited()) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double available = tokens + rate * seconds;
+        return Math.max(0, Math.min(available / seconds, rate * BURST_SECONDS));
+    }
+}
@@ -0,0 +1,428 @@
+package com.bittorrent.service;
+
+import com.bittorrent.dto.ImportItem;
+import com.bittorrent.model.PayloadFile;
+import com.bittorrent.model.Torrent;
+import com.bittorrent.repository.PayloadFileRepository;
+import com.bittorrent.repository.TorrentRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+// Bulk .torrent ingestion. Zip entries are read off the request stream one at a
+// time and parsed on a thread pool while the next entry is read; at most a few
+// files per thread are held in memory. .torrent files are stored as
+// <metaDir>/<infoHash>.torrent so colliding upload names cannot overwrite each
+// other. Torrents already in the database or earlier in the same batch are
+// reported as duplicates; the database check is one IN query per batch rather
+// than a findByInfoHash round trip per file, and new rows go in as JDBC batches.
+// Each torrent's piece geometry and file list (one PayloadFile row per file,
+// NORMAL priority) are recorded with it.
+@Component
+@Slf4j
+public class TorrentImporter {
+    private static final String INSERT_SQL = "INSERT INTO torrent (info_hash, name, announce_url, length, "
+            + "piece_count, piece_length, file_path, created_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_FILE_SQL = "INSERT INTO payload_file (torrent_id, file_index, path, length, "
+            + "byte_offset, priority) VALUES (?, ?, ?, ?, ?, ?)";
+
+    private final TorrentRepository torrentRepo;
+    private final PayloadFileRepository payloadFileRepo;
+    private final JdbcTemplate jdbcTemplate;
+    private final TorrentMetrics metrics;
+    private final ExecutorService pool;
+    private final int inFlight;
+
+    private final AtomicLong imports = new AtomicLong();
+    private final AtomicLong imported = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong invalid = new AtomicLong();
+    private final AtomicLong importMillis = new AtomicLong();
+
+    @Value("${torrent.meta.dir:torrents}")
+    private String metaDir;
+
+    @Value("${torrent.import.max-file-bytes:10485760}")
+    private int maxFileBytes;
+
+    @Value("${torrent.import.batch-size:1000}")
+    private int batchSize;
+
+    public TorrentImporter(@Value("${torrent.import.parallelism:0}") int parallelism, TorrentRepository torrentRepo,
+            PayloadFileRepository payloadFileRepo, JdbcTemplate jdbcTemplate, TorrentMetrics metrics) {
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.pool = Executors.newFixedThreadPool(threads);
+        this.inFlight = threads * 4;
+        this.torrentRepo = torrentRepo;
+        this.payloadFileRepo = payloadFileRepo;
+        this.jdbcTemplate = jdbcTemplate;
+        this.metrics = metrics;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    public TorrentMetainfo parse(byte[] data) throws IOException, NoSuchAlgorithmException {
+        long start = System.nanoTime();
+        TorrentMetainfo metainfo = new TorrentMetainfo(data);
+        metrics.recordUploadParse(System.nanoTime() - start);
+        return metainfo;
+    }
+
+    // Single upload: returns the existing row when the torrent is already known
+    public synchronized Torrent importOne(TorrentMetainfo metainfo, byte[] data) throws IOException {
+        Torrent existing = torrentRepo.findByInfoHash(metainfo.getHexInfoHash());
+        if (existing != null) {
+            duplicates.incrementAndGet();
+            return existing;
+        }
+        Torrent torrent = new Torrent();
+        torrent.setInfoHash(metainfo.getHexInfoHash());
+        torrent.setName(metainfo.getName());
+        torrent.setAnnounceUrl(announceUrl(metainfo));
+        torrent.setLength(metainfo.getSize());
+        torrent.setPieceCount(metainfo.getPieceCount());
+        torrent.setPieceLength(metainfo.getPieceLength());
+        torrent.setFilePath(store(metainfo.getHexInfoHash(), data));
+        torrent.setCreatedAt(LocalDateTime.now());
+        imported.incrementAndGet();
+        Torrent saved = torrentRepo.save(torrent);
+        List<PayloadFile> files = files(metainfo);
+        files.forEach(file -> file.setTorrentId(saved.getId()));
+        payloadFileRepo.saveAll(files);
+        return saved;
+    }
+
+    // File rows for a torrent imported before they were recorded; also fills in
+    // its piece geometry, which older rows have as 0
+    public synchronized List<PayloadFile> recordFiles(Torrent torrent, TorrentMetainfo metainfo) throws IOException {
+        List<PayloadFile> existing = payloadFileRepo.findByTorrentIdOrderByFileIndex(torrent.getId());
+        if (!existing.isEmpty()) {
+            return existing;
+        }
+        jdbcTemplate.update("UPDATE torrent SET piece_count = ?, piece_length = ? WHERE id = ?",
+                metainfo.getPieceCount(), metainfo.getPieceLength(), torrent.getId());
+        List<PayloadFile> files = files(metainfo);
+        files.forEach(file -> file.setTorrentId(torrent.getId()));
+        return payloadFileRepo.saveAll(files);
+    }
+
+    // In metainfo order, without a torrent id yet
+    private static List<PayloadFile> files(TorrentMetainfo metainfo) {
+        List<PayloadFile> files = new ArrayList<>(metainfo.getFiles().size());
+        long offset = 0;
+        for (TorrentMetainfo.TorrentFile file : metainfo.getFiles()) {
+            files.add(new PayloadFile(null, null, files.size(), file.file.getPath(), file.size, offset,
+                    FileSelection.NORMAL));
+            offset += file.size;
+        }
+        return files;
+    }
+
+    // A zip archive of .torrent files, read as a stream
+    public synchronized Map<String, Object> importZip(InputStream in) throws IOException {
+        long start = System.currentTimeMillis();
+        Batch batch = new Batch();
+        try {
+            readZip("", in, batch);
+        } catch (IOException | RuntimeException e) {
+            batch.cancel();
+            throw e;
+        }
+        return finish(batch, start);
+    }
+
+    // Multipart upload; each part is a .torrent file or a zip of them
+    public synchronized Map<String, Object> importFiles(List<MultipartFile> files) throws IOException {
+        long start = System.currentTimeMillis();
+        Batch batch = new Batch();
+        try {
+            for (MultipartFile file : files) {
+                String name = file.getOriginalFilename() != null ? file.getOriginalFilename() : file.getName();
+                if (name.toLowerCase(Locale.ROOT).endsWith(".zip")) {
+                    try (InputStream in = file.getInputStream()) {
+                        readZip(name + "!/", in, batch);
+                    }
+                } else if (file.getSize() > maxFileBytes) {
+                    batch.reject(name, "INVALID", "Larger than " + maxFileBytes + " bytes");
+                } else {
+                    batch.submit(name, file.getBytes());
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            batch.cancel();
+            throw e;
+        }
+        return finish(batch, start);
+    }
+
+    private void readZip(String prefix, InputStream in, Batch batch) throws IOException {
+        ZipInputStream zip = new ZipInputStream(in);
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            if (entry.isDirectory()) {
+                continue;
+            }
+            String source = prefix + entry.getName();
+            if (!entry.getName().toLowerCase(Locale.ROOT).endsWith(".torrent")) {
+                batch.reject(source, "SKIPPED", "Not a .torrent file");
+                continue;
+            }
+            byte[] data = zip.readNBytes(maxFileBytes + 1);
+            if (data.length > maxFileBytes) {
+                batch.reject(source, "INVALID", "Larger than " + maxFileBytes + " bytes");
+            } else {
+                batch.submit(source, data);
+            }
+        }
+    }
+
+    // Runs on the pool: parse and store the file under its info hash
+    private Parsed parse(String source, byte[] data) {
+        try {
+            TorrentMetainfo metainfo = parse(data);
+            String infoHash = metainfo.getHexInfoHash();
+            return new Parsed(source, "NEW", infoHash, metainfo.getName(), announceUrl(metainfo),
+                    metainfo.getSize(), metainfo.getPieceCount(), metainfo.getPieceLength(), files(metainfo),
+                    store(infoHash, data), null);
+        } catch (Exception e) {
+            return Parsed.rejected(source, "INVALID",
+                    e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+        }
+    }
+
+    private Map<String, Object> finish(Batch batch, long start) throws IOException {
+        List<Parsed> results = batch.await();
+
+        Set<String> hashes = new HashSet<>();
+        for (Parsed parsed : results) {
+            if ("NEW".equals(parsed.status())) {
+                hashes.add(parsed.infoHash());
+            }
+        }
+        Map<String, Long> existing = lookup(new ArrayList<>(hashes));
+
+        // First occurrence of each new info hash is inserted; later ones are duplicates of it
+        Set<String> seen = new HashSet<>();
+        List<Parsed> inserts = new ArrayList<>();
+        for (Parsed parsed : results) {
+            if ("NEW".equals(parsed.status()) && !existing.containsKey(parsed.infoHash())
+                    && seen.add(parsed.infoHash())) {
+                inserts.add(parsed);
+            }
+        }
+        Map<String, Long> ids = insert(inserts);
+
+        List<ImportItem> items = new ArrayList<>(results.size());
+        Set<String> inserted = new HashSet<>();
+        Map<String, Long> counts = new HashMap<>();
+        for (Parsed parsed : results) {
+            ImportItem item;
+            if (!"NEW".equals(parsed.status())) {
+                item = new ImportItem(parsed.source(), parsed.status(), null, null, null, parsed.error());
+            } else if (existing.containsKey(parsed.infoHash())) {
+                item = new ImportItem(parsed.source(), "DUPLICATE", parsed.infoHash(), parsed.name(),
+                        existing.get(parsed.infoHash()), null);
+            } else if (inserted.add(parsed.infoHash())) {
+                item = new ImportItem(parsed.source(), "IMPORTED", parsed.infoHash(), parsed.name(),
+                        ids.get(parsed.infoHash()), null);
+            } else {
+                item = new ImportItem(parsed.source(), "DUPLICATE", parsed.infoHash(), parsed.name(),
+                        ids.get(parsed.infoHash()), "Repeated in this batch");
+            }
+            counts.merge(item.status(), 1L, Long::sum);
+            items.add(item);
+        }
+
+        long elapsed = System.currentTimeMillis() - start;
+        imports.incrementAndGet();
+        imported.addAndGet(counts.getOrDefault("IMPORTED", 0L));
+        duplicates.addAndGet(counts.getOrDefault("DUPLICATE", 0L));
+        invalid.addAndGet(counts.getOrDefault("INVALID", 0L));
+        importMillis.addAndGet(elapsed);
+        log.info("Imported {} of {} torrent files in {} ms", counts.getOrDefault("IMPORTED", 0L), items.size(),
+                elapsed);
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("total", items.size());
+        result.put("imported", counts.getOrDefault("IMPORTED", 0L));
+        result.put("duplicates", counts.getOrDefault("DUPLICATE", 0L));
+        result.put("invalid", counts.getOrDefault("INVALID", 0L));
+        result.put("skipped", counts.getOrDefault("SKIPPED", 0L));
+        result.put("elapsedMillis", elapsed);
+        result.put("items", items);
+        return result;
+    }
+
+    // Ids of the given info hashes already in the database
+    private Map<String, Long> lookup(List<String> hashes) {
+        Map<String, Long> ids = new HashMap<>();
+        for (int from = 0; from < hashes.size(); from += batchSize) {
+            List<String> chunk = hashes.subList(from, Math.min(from + batchSize, hashes.size()));
+            String placeholders = String.join(", ", Collections.nCopies(chunk.size(), "?"));
+            jdbcTemplate.query("SELECT id, info_hash FROM torrent WHERE info_hash IN (" + placeholders + ")",
+                    rs -> {
+                        ids.putIfAbsent(rs.getString("info_hash"), rs.getLong("id"));
+                    }, chunk.toArray());
+        }
+        return ids;
+    }
+
+    // Batched insert, then the same IN query to learn the generated ids; the
+    // file rows follow in batches of their own
+    private Map<String, Long> insert(List<Parsed> rows) {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        for (int from = 0; from < rows.size(); from += batchSize) {
+            List<Parsed> chunk = rows.subList(from, Math.min(from + batchSize, rows.size()));
+            jdbcTemplate.batchUpdate(INSERT_SQL, chunk, chunk.size(), (ps, row) -> {
+                ps.setString(1, row.infoHash());
+                ps.setString(2, row.name());
+                ps.setString(3, row.announceUrl());
+                ps.setLong(4, row.length());
+                ps.setInt(5, row.pieceCount());
+                ps.setInt(6, row.pieceLength());
+                ps.setString(7, row.filePath());
+                ps.setTimestamp(8, now);
+            });
+        }
+        Map<String, Long> ids = lookup(rows.stream().map(Parsed::infoHash).toList());
+
+        List<PayloadFile> files = new ArrayList<>();
+        for (Parsed row : rows) {
+            for (PayloadFile file : row.files()) {
+                file.setTorrentId(ids.get(row.infoHash()));
+                files.add(file);
+            }
+        }
+        for (int from = 0; from < files.size(); from += batchSize) {
+            List<PayloadFile> chunk = files.subList(from, Math.min(from + batchSize, files.size()));
+            jdbcTemplate.batchUpdate(INSERT_FILE_SQL, chunk, chunk.size(), (ps, file) -> {
+                ps.setLong(1, file.getTorrentId());
+                ps.setInt(2, file.getFileIndex());
+                ps.setString(3, file.getPath());
+                ps.setLong(4, file.getLength());
+                ps.setLong(5, file.getByteOffset());
+                ps.setString(6, file.getPriority());
+            });
+        }
+        return ids;
+    }
+
+    // Content-addressed: the same torrent always lands on the same file, written atomically
+    private String store(String infoHash, byte[] data) throws IOException {
+        Path dir = Files.createDirectories(Paths.get(metaDir));
+        Path target = dir.resolve(infoHash + ".torrent");
+        if (!Files.exists(target)) {
+            Path temp = Files.createTempFile(dir, infoHash, ".tmp");
+            try {
+                Files.write(temp, data);
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        return target.toString();
+    }
+
+    private static String announceUrl(TorrentMetainfo metainfo) {
+        return metainfo.getAnnounceList().isEmpty() || metainfo.getAnnounceList().get(0).isEmpty()
+                ? null : metainfo.getAnnounceList().get(0).get(0).toString();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("imports", imports.get());
+        stats.put("imported", imported.get());
+        stats.put("duplicates", duplicates.get());
+        stats.put("invalid", invalid.get());
+        stats.put("importMillis", importMillis.get());
+        return stats;
+    }
+
+    // status is NEW, INVALID or SKIPPED
+    private record Parsed(String source, String status, String infoHash, String name, String announceUrl,
+            long length, int pieceCount, int pieceLength, List<PayloadFile> files, String filePath, String error) {
+        static Parsed rejected(String source, String status, String error) {
+            return new Parsed(source, status, null, null, null, 0, 0, 0, List.of(), null, error);
+        }
+    }
+
+    // Files of one import in arrival order; the permits bound how many are parsed or waiting
+    private class Batch {
+        private final List<Future<Parsed>> futures = new ArrayList<>();
+        private final Semaphore permits = new Semaphore(inFlight);
+
+        void submit(String source, byte[] data) throws IOException {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Import interrupted");
+            }
+            futures.add(pool.submit(() -> {
+                try {
+                    return parse(source, data);
+                } finally {
+                    permits.release();
+                }
+            }));
+        }
+
+        void reject(String source, String status, String error) {
+            futures.add(CompletableFuture.completedFuture(Parsed.rejected(source, status, error)));
+        }
+
+        List<Parsed> await() throws IOException {
+            List<Parsed> results = new ArrayList<>(futures.size());
+            try {
+                for (Future<Parsed> future : futures) {
+                    results.add(future.get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancel();
+                throw new IOException("Import interrupted");
+            } catch (ExecutionException e) {
+                cancel();
+                throw new IOException("Import failed", e.getCause());
+            }
+            return results;
+        }
+
+        void cancel() {
+            futures.forEach(future -> future.cancel(true));
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.bittorrent.service;
+
+import com.bittorrent.model.Torrent;
+import com.turn.ttorrent.bcodec.BEValue;
+import com.turn.ttorrent.client.storage.TorrentByteStorage;
+import com.turn.ttorrent.bcodec.InvalidBEncodingException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+// Parsed .torrent metainfo. Extends ttorrent's Torrent to reach the info
+// dictionary, which the library keeps protected.
+public class TorrentMetainfo extends com.turn.ttorrent.common.Torrent {
+
+    public TorrentMetainfo(byte[] encoded) throws IOException, NoSuchAlgorithmException {
+        super(encoded, true);
+    }
+
+    public static TorrentMetainfo load(File file) throws IOException, NoSuchAlgorithmException {
+        return new TorrentMetainfo(Files.readAllBytes(file.toPath()));
+    }
+
+    public static TorrentMetainfo load(Torrent torrent) throws IOException, NoSuchAlgorithmException {
+        return load(new File(torrent.getFilePath()));
+    }
+
+    public int getPieceLength() throws InvalidBEncodingException {
+        return decoded_info.get("piece length").getInt();
+    }
+
+    public int getPieceCount() {
+        return getPieceTableBytes() / PIECE_HASH_SIZE;
+    }
+
+    public List<TorrentFile> getFiles() {
+        return files;
+    }
+
+    // Concatenated 20-byte SHA-1 hashes, one per piece
+    public byte[] getPieceHashes() throws InvalidBEncodingException {
+        return decoded_info.get("pieces").getBytes();
+    }
+
+    // Size of the concatenated SHA-1 piece hashes, the bulk of a large torrent
+    public int getPieceTableBytes() {
+        BEValue pieces = decoded_info.get("pieces");
+        try {
+            return pieces != null ? pieces.getBytes().length : 0;
+        } catch (InvalidBEncodingException e) {
+            return 0;
+        }
+    }
+
+    // ttorrent keeps unfinished files under a .part suffix and renames them on completion
+    public static File locate(File downloadDir, TorrentFile file) {
+        File complete = new File(downloadDir, file.file.getPath());
+        if (complete.exists()) {
+            return complete;
+        }
+        File partial = new File(downloadDir, file.file.getPath() + TorrentByteStorage.PARTIAL_FILE_NAME_SUFFIX);
+        return partial.exists() ? partial : null;
+    }
+}
@@ -0,0 +1,151 @@
+package com.bittorrent.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+// Micrometer meters for the download hot paths, exported at /actuator/prometheus.
+// Every meter is registered up front and recording only touches a pre-built
+// Timer/Counter/Summary, so hot paths never allocate or look up meters. Values
+// owned by other components (queue depths, live speeds) are gauges that read
+// their source only when scraped.
+@Component
+public class TorrentMetrics {
+    private final MeterRegistry registry;
+    private final LiveStatsStore liveStats;
+    private final Map<Long, List<Meter>> torrentMeters = new ConcurrentHashMap<>();
+
+    private final Counter piecesVerifiedDownload;
+    private final Counter piecesVerifiedRecheck;
+    private final Counter piecesFailedDownload;
+    private final Timer hashCheck;
+    private final Timer samplerLag;
+    private final Timer samplerTick;
+    private final Timer progressFlush;
+    private final DistributionSummary progressFlushBatch;
+    private final Timer seedingFlush;
+    private final DistributionSummary seedingFlushBatch;
+    private final Timer uploadParse;
+
+    public TorrentMetrics(MeterRegistry registry, LiveStatsStore liveStats) {
+        this.registry = registry;
+        this.liveStats = liveStats;
+
+        piecesVerifiedDownload = Counter.builder("torrent.pieces.verified").tag("source", "download")
+                .description("Pieces that passed their hash check").register(registry);
+        piecesVerifiedRecheck = Counter.builder("torrent.pieces.verified").tag("source", "recheck")
+                .description("Pieces that passed their hash check").register(registry);
+        piecesFailedDownload = Counter.builder("torrent.pieces.failed").tag("source", "download")
+                .description("Downloaded pieces that failed their hash check").register(registry);
+        hashCheck = Timer.builder("torrent.hash.check").description("Read and SHA-1 of one piece")
+                .publishPercentileHistogram().register(registry);
+        samplerLag = Timer.builder("torrent.sampler.lag").description("Progress sample start past its schedule")
+                .publishPercentileHistogram().register(registry);
+        samplerTick = Timer.builder("torrent.sampler.tick").description("Time to sample every active download")
+                .publishPercentileHistogram().register(registry);
+        progressFlush = Timer.builder("torrent.db.flush").tag("table", "progress")
+                .description("JDBC batch write of live progress").publishPercentileHistogram().register(registry);
+        progressFlushBatch = DistributionSummary.builder("torrent.db.flush.batch").tag("table", "progress")
+                .description("Rows per batch").register(registry);
+        seedingFlush = Timer.builder("torrent.db.flush").tag("table", "seeding")
+                .description("JDBC batch write of upload totals").publishPercentileHistogram().register(registry);
+        seedingFlushBatch = DistributionSummary.builder("torrent.db.flush.batch").tag("table", "seeding")
+                .description("Rows per batch").register(registry);
+        uploadParse = Timer.builder("torrent.upload.parse").description("Parsing an uploaded .torrent file")
+                .publishPercentileHistogram().register(registry);
+    }
+
+    @PostConstruct
+    public void registerTotals() {
+        // Totals across active downloads; Prometheus needs one tag set per name, so
+        // these do not share names with the per-torrent gauges
+        gauge("torrent.total.download.speed", "bytes.per.second", liveStats, s -> s.sum(ProgressSnapshot::downloadSpeed));
+        gauge("torrent.total.upload.speed", "bytes.per.second", liveStats, s -> s.sum(ProgressSnapshot::uploadSpeed));
+        gauge("torrent.total.peers.connected", null, liveStats, s -> s.sum(ProgressSnapshot::connectedPeers));
+        gauge("torrent.total.peers.available", null, liveStats, s -> s.sum(ProgressSnapshot::availablePeers));
+        gauge("torrent.downloads.live", null, liveStats, LiveStatsStore::size);
+    }
+
+    public <T> void gauge(String name, String unit, T source, ToDoubleFunction<T> value) {
+        Gauge.builder(name, source, value).baseUnit(unit).register(registry);
+    }
+
+    // Per-torrent gauges tagged with the torrent id, removed again when the download stops
+    void registerTorrent(Long torrentId) {
+        String id = String.valueOf(torrentId);
+        List<Meter> meters = List.of(
+                torrentGauge("torrent.download.speed", "bytes.per.second", id, torrentId, ProgressSnapshot::downloadSpeed),
+                torrentGauge("torrent.upload.speed", "bytes.per.second", id, torrentId, ProgressSnapshot::uploadSpeed),
+                torrentGauge("torrent.peers.connected", null, id, torrentId, ProgressSnapshot::connectedPeers),
+                torrentGauge("torrent.progress", null, id, torrentId, ProgressSnapshot::progress));
+        List<Meter> previous = torrentMeters.put(torrentId, meters);
+        if (previous != null) {
+            previous.forEach(registry::remove);
+        }
+    }
+
+    void deregisterTorrent(Long torrentId) {
+        List<Meter> meters = torrentMeters.remove(torrentId);
+        if (meters != null) {
+            meters.forEach(registry::remove);
+        }
+    }
+
+    private Meter torrentGauge(String name, String unit, String id, Long torrentId,
+            ToDoubleFunction<ProgressSnapshot> field) {
+        return Gauge.builder(name, liveStats, s -> {
+            ProgressSnapshot snapshot = s.get(torrentId);
+            return snapshot != null ? field.applyAsDouble(snapshot) : Double.NaN;
+        }).baseUnit(unit).tag("torrent", id).register(registry);
+    }
+
+    Counter piecesVerifiedDownload() {
+        return piecesVerifiedDownload;
+    }
+
+    Counter piecesFailedDownload() {
+        return piecesFailedDownload;
+    }
+
+    // Fed by rechecks here and by downloaded pieces in ResumableSharedTorrent
+    Timer hashCheck() {
+        return hashCheck;
+    }
+
+    void recordRecheckPiece(long nanos, boolean valid) {
+        hashCheck.record(nanos, TimeUnit.NANOSECONDS);
+        if (valid) {
+            piecesVerifiedRecheck.increment();
+        }
+    }
+
+    void recordSample(long lagNanos, long tickNanos) {
+        samplerLag.record(lagNanos, TimeUnit.NANOSECONDS);
+        samplerTick.record(tickNanos, TimeUnit.NANOSECONDS);
+    }
+
+    void recordProgressFlush(long nanos, int rows) {
+        progressFlush.record(nanos, TimeUnit.NANOSECONDS);
+        progressFlushBatch.record(rows);
+    }
+
+    void recordSeedingFlush(long nanos, int rows) {
+        seedingFlush.record(nanos, TimeUnit.NANOSECONDS);
+        seedingFlushBatch.record(rows);
+    }
+
+    void recordUploadParse(long nanos) {
+        uploadParse.record(nanos, TimeUnit.NANOSECONDS);
+    }
+}
@@ -1,80 +1,183 @@
 package com.bittorrent.service;
 
+import com.bittorrent.model.BandwidthLimits;
+import com.bittorrent.model.BandwidthProfile;
 import com.bittorrent.model.Torrent;
 import com.bittorrent.model.Download;
+import com.bittorrent.model.PayloadFile;
+import com.bittorrent.repository.BandwidthLimitsRepository;
+import com.bittorrent.repository.BandwidthProfileRepository;
+import com.bittorrent.repository.DownloadArchiveRepository;
+import com.bittorrent.repository.PayloadFileRepository;
 import com.bittorrent.repository.TorrentRepository;
 import com.bittorrent.repository.DownloadRepository;
 import com.turn.ttorrent.client.Client;
-import com.turn.ttorrent.client.SharedTorrent;
+import com.turn.ttorrent.client.peer.SharingPeer;
+import com.turn.ttorrent.common.Peer;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.*;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
-import java.time.temporal.ChronoUnit;
-import java.util.concurrent.*;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 @Slf4j
 public class TorrentService {
     private final TorrentRepository torrentRepo;
     private final DownloadRepository downloadRepo;
+    private final LiveStatsStore liveStats;
+    private final ProgressMonitor progressMonitor;
+    private final DownloadScheduler scheduler;
+    private final MetadataCache metadataCache;
+    private final FastResumeStore fastResume;
+    private final PieceVerifier verifier;
+    private final StatusCounters statusCounters;
+    private final RateLimiter rateLimiter;
+    private final BandwidthProfileRepository profileRepo;
+    private final SeedingEngine seedingEngine;
+    private final PeerReactor peerReactor;
+    private final WriteBackCache writeBackCache;
+    private final FileAllocator fileAllocator;
+    private final TorrentMetrics metrics;
+    private final TorrentImporter importer;
+    private final DhtService dhtService;
+    private final MagnetResolver magnetResolver;
+    private final TrackerService trackerService;
+    private final DownloadRecovery recovery;
+    private final PayloadFileRepository payloadFileRepo;
+    private final SpeedHistory speedHistory;
+    private final DownloadRetention retention;
+    private final DownloadArchiveRepository archiveRepo;
+    private final BandwidthLimitsRepository limitsRepo;
 
-    private final ExecutorService executor = Executors.newCachedThreadPool();
     private final Map<Long, Client> clientMap = new ConcurrentHashMap<>();
-    private final Map<Long, DownloadProgressTracker> progressTrackers = new ConcurrentHashMap<>();
+    // Set by pause or delete while runDownload is still setting up, before its client exists
+    private final Map<Long, AtomicBoolean> cancelled = new ConcurrentHashMap<>();
 
     @Value("${torrent.download.dir:downloads}")
     private String downloadDir;
 
-    @Value("${torrent.meta.dir:torrents}")
-    private String metaDir;
-
-    public TorrentService(TorrentRepository torrentRepo, DownloadRepository downloadRepo) {
+    @Value("${torrent.picker.endgame-duplicates:2}")
+    private int endgameDuplicates;
+
+    public TorrentService(TorrentRepository torrentRepo, DownloadRepository downloadRepo,
+            LiveStatsStore liveStats, ProgressMonitor progressMonitor, DownloadScheduler scheduler,
+            MetadataCache metadataCache, FastResumeStore fastResume, PieceVerifier verifier,
+            StatusCounters statusCounters, RateLimiter rateLimiter, BandwidthProfileRepository profileRepo,
+            SeedingEngine seedingEngine, PeerReactor peerReactor, WriteBackCache writeBackCache,
+            FileAllocator fileAllocator, TorrentMetrics metrics, TorrentImporter importer,
+            DhtService dhtService, MagnetResolver magnetResolver, TrackerService trackerService,
+            DownloadRecovery recovery, PayloadFileRepository payloadFileRepo, SpeedHistory speedHistory,
+            DownloadRetention retention, DownloadArchiveRepository archiveRepo,
+            BandwidthLimitsRepository limitsRepo) {
         this.torrentRepo = torrentRepo;
         this.downloadRepo = downloadRepo;
+        this.liveStats = liveStats;
+        this.progressMonitor = progressMonitor;
+        this.scheduler = scheduler;
+        this.metadataCache = metadataCache;
+        this.fastResume = fastResume;
+        this.verifier = verifier;
+        this.statusCounters = statusCounters;
+        this.rateLimiter = rateLimiter;
+        this.profileRepo = profileRepo;
+        this.seedingEngine = seedingEngine;
+        this.peerReactor = peerReactor;
+        this.writeBackCache = writeBackCache;
+        this.fileAllocator = fileAllocator;
+        this.metrics = metrics;
+        this.importer = importer;
+        this.dhtService = dhtService;
+        this.magnetResolver = magnetResolver;
+        this.trackerService = trackerService;
+        this.recovery = recovery;
+        this.payloadFileRepo = payloadFileRepo;
+        this.speedHistory = speedHistory;
+        this.retention = retention;
+        this.archiveRepo = archiveRepo;
+        this.limitsRepo = limitsRepo;
     }
 
+    // Uploading a torrent that is already known returns the existing row
     public Torrent uploadTorrent(MultipartFile file) throws IOException, NoSuchAlgorithmException {
-        Files.createDirectories(Paths.get(metaDir));
-        String fileName = file.getOriginalFilename();
-        String targetPath = metaDir + "/" + fileName;
-        file.transferTo(new File(targetPath));
-
-        // Load the .torrent using ttorrent's Torrent class
-        com.turn.ttorrent.common.Torrent tTorrent = com.turn.ttorrent.common.Torrent.load(new File(targetPath), true);
-
-        Torrent torrent = new Torrent();
-        torrent.setInfoHash(tTorrent.getHexInfoHash());
-        torrent.setName(tTorrent.getName());
-        torrent.setAnnounceUrl(tTorrent.getAnnounceList().get(0).get(0).toString());
-        torrent.setLength(tTorrent.getSize());
-        torrent.setPieceCount(0); // Default value since API method not available
-        torrent.setPieceLength(0); // Default value since API method not available
-        torrent.setFilePath(targetPath);
-        torrent.setCreatedAt(LocalDateTime.now());
+        byte[] data = file.getBytes();
 
-        return torrentRepo.save(torrent);
+        // Parse once and keep it for start/resume
+        TorrentMetainfo tTorrent = importer.parse(data);
+        metadataCache.put(tTorrent);
+        return importer.importOne(tTorrent, data);
+    }
+
+    // Resolves the metadata from peers (x.pe, DHT, trackers) and stores it like an upload
+    public Torrent addMagnet(String uri, boolean start) throws IOException, NoSuchAlgorithmException,
+            InterruptedException {
+        MagnetLink link = MagnetLink.parse(uri);
+        Torrent existing = torrentRepo.findByInfoHash(link.hexInfoHash());
+        if (existing != null) {
+            return existing;
+        }
+        byte[] data = magnetResolver.resolve(link);
+        TorrentMetainfo tTorrent = importer.parse(data);
+        metadataCache.put(tTorrent);
+        Torrent torrent = importer.importOne(tTorrent, data);
+        if (start && !scheduler.isScheduled(torrent.getId())) {
+            startDownload(torrent.getId(), 0);
+        }
+        return torrent;
+    }
+
+    public Map<String, Object> importZip(InputStream in) throws IOException {
+        return importer.importZip(in);
     }
 
-    public void startDownload(Long torrentId) {
+    public Map<String, Object> importFiles(List<MultipartFile> files) throws IOException {
+        if (files == null || files.isEmpty()) {
+            throw new IllegalArgumentException("No files in the request");
+        }
+        return importer.importFiles(files);
+    }
+
+    public Map<String, Object> getImportStats() {
+        return importer.getStats();
+    }
+
+    public void startDownload(Long torrentId, int priority) {
         Torrent torrent = torrentRepo.findById(torrentId)
                 .orElseThrow(() -> new RuntimeException("Torrent not found"));
+        if (scheduler.isScheduled(torrentId)) {
+            throw new IllegalStateException("Torrent " + torrentId + " is already downloading or queued");
+        }
+        requireSelectedFiles(torrentId);
 
         Download download = new Download();
         download.setTorrent(torrent);
         download.setStartedAt(LocalDateTime.now());
         download.setLastUpdated(LocalDateTime.now());
-        download.setStatus("DOWNLOADING");
+        changeStatus(download, "QUEUED");
+        download.setPriority(priority);
+        download.setAllocationMode(fileAllocator.resolve(torrent));
         download.setProgress(0.0);
         download.setDownloadedBytes(0L);
         download.setTotalBytes(torrent.getLength());
@@ -89,209 +192,657 @@ public class TorrentService {
 
         Download savedDownload = downloadRepo.save(download);
 
-        executor.submit(() -> {
-            try {
-                Files.createDirectories(Paths.get(downloadDir));
+        // A fresh download rewrites the payload, so stop serving the old copy
+        seedingEngine.remove(torrentId);
+        scheduler.submit(torrentId, priority, () -> runDownload(torrent, savedDownload, null));
+    }
 
-                // Load the .torrent again for download
-                com.turn.ttorrent.common.Torrent tTorrent = com.turn.ttorrent.common.Torrent
-                        .load(new File(torrent.getFilePath()), true);
-                SharedTorrent st = new SharedTorrent(tTorrent, new File(downloadDir), false);
+    public void pauseDownload(Long torrentId) {
+        scheduler.cancel(torrentId);
+        cancelSetup(torrentId);
+        stopSession(torrentId);
+
+        // Update status, carrying over the latest live progress
+        Download download = liveStats.remove(torrentId);
+        if (download == null) {
+            download = downloadRepo.findByTorrentId(torrentId).stream()
+                    .filter(d -> "DOWNLOADING".equals(d.getStatus()) || "QUEUED".equals(d.getStatus()))
+                    .findFirst()
+                    .orElse(null);
+        }
 
-                Client client = new Client(InetAddress.getLocalHost(), st);
-                clientMap.put(torrentId, client);
+        if (download != null) {
+            changeStatus(download, "PAUSED");
+            download.setLastUpdated(LocalDateTime.now());
+            downloadRepo.save(download);
+        }
+    }
+
+    public void resumeDownload(Long torrentId) {
+        Torrent torrent = torrentRepo.findById(torrentId)
+                .orElseThrow(() -> new RuntimeException("Torrent not found"));
+        if (scheduler.isScheduled(torrentId)) {
+            throw new IllegalStateException("Torrent " + torrentId + " is still shutting down, try again");
+        }
+        requireSelectedFiles(torrentId);
 
-                // Create progress tracker
-                DownloadProgressTracker tracker = new DownloadProgressTracker(savedDownload, downloadRepo, st,
-                        tTorrent);
-                progressTrackers.put(torrentId, tracker);
+        // Update status
+        Download download = downloadRepo.findByTorrentId(torrentId).stream()
+                .filter(d -> "PAUSED".equals(d.getStatus()))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("No paused download for torrent ID: " + torrentId));
 
-                // Start progress monitoring
-                tracker.startMonitoring();
+        changeStatus(download, "QUEUED");
+        download.setLastUpdated(LocalDateTime.now());
+        Download savedDownload = downloadRepo.save(download);
 
-                client.download();
-                client.waitForCompletion();
+        int priority = savedDownload.getPriority() != null ? savedDownload.getPriority() : 0;
+        scheduler.submit(torrentId, priority, () -> runDownload(torrent, savedDownload, null));
+    }
 
-                // Final update
-                tracker.updateProgress(1.0, tTorrent.getSize(), 0L, 0L, 0, 0, 0);
-                savedDownload.setStatus("COMPLETED");
-                savedDownload.setCompletedAt(LocalDateTime.now());
-                downloadRepo.save(savedDownload);
+    public void setPriority(Long torrentId, int priority) {
+        Download download = downloadRepo.findByTorrentId(torrentId).stream()
+                .filter(d -> "QUEUED".equals(d.getStatus()) || "DOWNLOADING".equals(d.getStatus())
+                        || "PAUSED".equals(d.getStatus()))
+                .findFirst()
+                .orElseThrow(() -> new RuntimeException("No download for torrent ID: " + torrentId));
+        download.setPriority(priority);
+        downloadRepo.save(download);
+        scheduler.reprioritize(torrentId, priority);
+    }
 
-                // Cleanup
-                progressTrackers.remove(torrentId);
+    private void requireSelectedFiles(Long torrentId) {
+        List<PayloadFile> files = payloadFileRepo.findByTorrentIdOrderByFileIndex(torrentId);
+        if (!files.isEmpty() && files.stream().allMatch(f -> FileSelection.SKIP.equals(f.getPriority()))) {
+            throw new IllegalStateException("Every file of torrent " + torrentId + " is set to SKIP");
+        }
+    }
 
-            } catch (Exception e) {
-                log.error("Download error", e);
-                savedDownload.setStatus("FAILED");
-                savedDownload.setErrorMessage(e.getMessage());
-                downloadRepo.save(savedDownload);
-                progressTrackers.remove(torrentId);
-            }
+    public void deleteTorrent(Long torrentId) {
+        scheduler.cancel(torrentId);
+        cancelSetup(torrentId);
+        stopSession(torrentId);
+        seedingEngine.remove(torrentId);
+        liveStats.remove(torrentId);
+
+        torrentRepo.findById(torrentId).ifPresent(t -> {
+            metadataCache.invalidate(t.getInfoHash());
+            fastResume.delete(t.getInfoHash());
+        });
+
+        // Delete associated downloads first
+        downloadRepo.findByTorrentId(torrentId).forEach(d -> {
+            downloadRepo.deleteById(d.getId());
+            statusCounters.transition(d.getStatus(), null);
         });
+        payloadFileRepo.deleteAll(payloadFileRepo.findByTorrentIdOrderByFileIndex(torrentId));
+        archiveRepo.deleteById(torrentId);
+        speedHistory.remove(torrentId);
+        torrentRepo.deleteById(torrentId);
     }
 
-    public void pauseDownload(Long torrentId) {
-        Client client = clientMap.get(torrentId);
-        if (client != null) {
-            client.stop();
+    // Re-hashes everything on disk in parallel and rewrites the resume data from the result
+    public Map<String, Object> recheck(Long torrentId) throws IOException, NoSuchAlgorithmException,
+            InterruptedException {
+        Torrent torrent = torrentRepo.findById(torrentId)
+                .orElseThrow(() -> new RuntimeException("Torrent not found"));
+        if (scheduler.isScheduled(torrentId)) {
+            throw new IllegalStateException("Pause torrent " + torrentId + " before rechecking");
         }
 
-        // Update status
-        Download download = downloadRepo.findByTorrentId(torrentId).stream()
-                .filter(d -> "DOWNLOADING".equals(d.getStatus()))
-                .findFirst()
-                .orElse(null);
+        TorrentMetainfo metainfo = metadataCache.get(torrent);
+        File payloadDir = new File(downloadDir);
+        PieceVerifier.Result result = verifier.verify(metainfo, payloadDir);
+        fastResume.save(metainfo.getHexInfoHash(), result.pieceCount(), result.validPieces(),
+                metainfo.getFiles(), payloadDir);
 
-        if (download != null) {
-            download.setStatus("PAUSED");
-            download.setLastUpdated(LocalDateTime.now());
-            downloadRepo.save(download);
+        Map<String, Object> response = result.toMap();
+        response.put("torrentId", torrentId);
+        return response;
+    }
+
+    // Limits are in bytes per second; 0 removes the limit
+    public Torrent setRateLimits(Long torrentId, long maxDownloadRate, long maxUploadRate) {
+        Torrent torrent = torrentRepo.findById(torrentId)
+                .orElseThrow(() -> new RuntimeException("Torrent not found"));
+        torrent.setMaxDownloadRate(maxDownloadRate);
+        torrent.setMaxUploadRate(maxUploadRate);
+        Torrent saved = torrentRepo.save(torrent);
+        rateLimiter.setTorrentLimits(torrentId, maxDownloadRate, maxUploadRate);
+        return saved;
+    }
+
+    // A null direction keeps its current limit; the result is saved so it survives a restart
+    public void setGlobalRateLimits(Long maxDownloadRate, Long maxUploadRate) {
+        if (maxDownloadRate == null && maxUploadRate == null) {
+            throw new IllegalArgumentException("Pass download, upload or both");
+        }
+        if ((maxDownloadRate != null && maxDownloadRate < 0) || (maxUploadRate != null && maxUploadRate < 0)) {
+            throw new IllegalArgumentException("Limits cannot be negative");
         }
+        BandwidthLimits limits = limitsRepo.findById(BandwidthLimits.GLOBAL)
+                .orElseGet(() -> new BandwidthLimits(BandwidthLimits.GLOBAL, rateLimiter.getBaseDownloadRate(),
+                        rateLimiter.getBaseUploadRate(), null));
+        if (maxDownloadRate != null) {
+            limits.setMaxDownloadRate(maxDownloadRate);
+        }
+        if (maxUploadRate != null) {
+            limits.setMaxUploadRate(maxUploadRate);
+        }
+        limits.setUpdatedAt(LocalDateTime.now());
+        BandwidthLimits saved = limitsRepo.save(limits);
+        rateLimiter.setGlobalLimits(saved.getMaxDownloadRate(), saved.getMaxUploadRate());
     }
 
-    public void resumeDownload(Long torrentId) {
+    // Applies from the next start; a blank mode falls back to the global default
+    public Torrent setAllocationMode(Long torrentId, String mode) {
         Torrent torrent = torrentRepo.findById(torrentId)
                 .orElseThrow(() -> new RuntimeException("Torrent not found"));
+        torrent.setAllocationMode(mode == null || mode.isBlank() ? null : FileAllocator.normalize(mode));
+        return torrentRepo.save(torrent);
+    }
 
-        // Update status
-        Download download = downloadRepo.findByTorrentId(torrentId).stream()
-                .filter(d -> "PAUSED".equals(d.getStatus()))
-                .findFirst()
-                .orElse(null);
+    public void setDefaultAllocationMode(String mode) {
+        fileAllocator.setDefaultMode(mode);
+    }
 
-        if (download != null) {
-            download.setStatus("DOWNLOADING");
-            download.setLastUpdated(LocalDateTime.now());
-            downloadRepo.save(download);
+    public Map<String, Object> getAllocationStats() {
+        return fileAllocator.getStats();
+    }
+
+    public List<BandwidthProfile> getBandwidthProfiles() {
+        return profileRepo.findAll();
+    }
+
+    public BandwidthProfile saveBandwidthProfile(BandwidthProfile profile) {
+        if (profile.getStartTime() == null || profile.getEndTime() == null) {
+            throw new IllegalArgumentException("startTime and endTime are required");
         }
+        BandwidthProfile saved = profileRepo.save(profile);
+        rateLimiter.refreshProfiles();
+        return saved;
+    }
+
+    public void deleteBandwidthProfile(Long profileId) {
+        profileRepo.deleteById(profileId);
+        rateLimiter.refreshProfiles();
+    }
+
+    public Map<String, Object> getBandwidthStats() {
+        return rateLimiter.getStats();
+    }
 
+    // Runs on a scheduler slot until the client finishes, is stopped or fails.
+    // recovered is piece state that startup recovery loaded ahead, null otherwise.
+    private void runDownload(Torrent torrent, Download download,
+            CompletableFuture<DownloadRecovery.PieceState> recovered) {
+        Long torrentId = torrent.getId();
+        AtomicBoolean cancel = new AtomicBoolean();
+        cancelled.put(torrentId, cancel);
         try {
-            com.turn.ttorrent.common.Torrent tTorrent = com.turn.ttorrent.common.Torrent
-                    .load(new File(torrent.getFilePath()), true);
-            SharedTorrent st = new SharedTorrent(tTorrent, new File(downloadDir), false);
+            // Promoted out of the queue, unless paused or deleted on the way
+            synchronized (cancel) {
+                if (isCancelled(torrentId, cancel)) {
+                    return;
+                }
+                changeStatus(download, "DOWNLOADING");
+                download.setLastUpdated(LocalDateTime.now());
+                downloadRepo.save(download);
+            }
+
+            Files.createDirectories(Paths.get(downloadDir));
+
+            // Parsed metainfo comes from the cache; only a miss re-reads the .torrent file
+            TorrentMetainfo tTorrent = metadataCache.get(torrent);
+            File payloadDir = new File(downloadDir);
+            String allocationMode = download.getAllocationMode() != null ? download.getAllocationMode()
+                    : fileAllocator.resolve(torrent);
+            FileSelection selection = selection(torrent, tTorrent);
+            // Before preallocating: zero-filled .part files would pass for payload and be hashed
+            DownloadRecovery.PieceState pieces = recovered != null ? recovered.join() : null;
+            if (pieces == null) {
+                pieces = loadPieceState(tTorrent, payloadDir);
+            }
+            if (isCancelled(torrentId, cancel)) {
+                return;
+            }
+            fileAllocator.prepare(tTorrent, payloadDir, allocationMode, selection);
+            if (isCancelled(torrentId, cancel)) {
+                return;
+            }
+            ResumableSharedTorrent st = ResumableSharedTorrent.open(tTorrent, payloadDir, writeBackCache);
+            st.trust(pieces.valid());
+            st.setSelection(selection);
+            st.setEndgameDuplicates(endgameDuplicates);
+            st.setMetrics(metrics);
+
             Client client = new Client(InetAddress.getLocalHost(), st);
-            clientMap.put(torrentId, client);
-
-            // Create new progress tracker
-            DownloadProgressTracker tracker = new DownloadProgressTracker(download, downloadRepo, st, tTorrent);
-            progressTrackers.put(torrentId, tracker);
-            tracker.startMonitoring();
-
-            executor.submit(() -> {
-                try {
-                    client.download();
-                    client.waitForCompletion();
-
-                    // Final update
-                    tracker.updateProgress(1.0, tTorrent.getSize(), 0L, 0L, 0, 0, 0);
-                    download.setStatus("COMPLETED");
-                    download.setCompletedAt(LocalDateTime.now());
-                    downloadRepo.save(download);
-
-                    progressTrackers.remove(torrentId);
-                } catch (Exception e) {
-                    log.error("Resume error", e);
-                    download.setStatus("FAILED");
-                    download.setErrorMessage(e.getMessage());
-                    downloadRepo.save(download);
-                    progressTrackers.remove(torrentId);
+            DownloadProgressTracker tracker;
+            ClientCompletion completion;
+            // From here on a pause or delete finds the client and stops it
+            synchronized (cancel) {
+                if (isCancelled(torrentId, cancel)) {
+                    st.close();
+                    return;
                 }
-            });
-        } catch (Exception e) {
-            log.error("Resume error", e);
-        }
-    }
-
-    // Helper class for tracking download progress
-    private static class DownloadProgressTracker {
-        private final Download download;
-        private final DownloadRepository downloadRepo;
-        private final SharedTorrent sharedTorrent;
-        private final com.turn.ttorrent.common.Torrent torrent;
-        private final AtomicLong lastDownloadedBytes = new AtomicLong(0);
-        private final AtomicLong lastUploadedBytes = new AtomicLong(0);
-        private LocalDateTime lastUpdateTime;
-        private volatile boolean running = true;
-
-        public DownloadProgressTracker(Download download, DownloadRepository downloadRepo,
-                SharedTorrent sharedTorrent, com.turn.ttorrent.common.Torrent torrent) {
-            this.download = download;
-            this.downloadRepo = downloadRepo;
-            this.sharedTorrent = sharedTorrent;
-            this.torrent = torrent;
-            this.lastUpdateTime = LocalDateTime.now();
-        }
-
-        public void startMonitoring() {
-            Thread monitorThread = new Thread(() -> {
-                while (running && !sharedTorrent.isComplete()) {
-                    try {
-                        updateProgress();
-                        Thread.sleep(2000); // Update every 2 seconds
-                    } catch (Exception e) {
-                        log.error("Progress monitoring error", e);
+                clientMap.put(torrentId, client);
+                rateLimiter.register(torrentId, client, torrent.getMaxDownloadRate(), torrent.getMaxUploadRate());
+                // Peers reaching us on the shared port are handed to this client
+                peerReactor.route(torrentId, client);
+
+                // Register with the shared sampler
+                liveStats.register(torrentId, download);
+                tracker = new DownloadProgressTracker(torrentId, liveStats, client, tTorrent,
+                        download.getUploadedBytes() != null ? download.getUploadedBytes() : 0L);
+                progressMonitor.register(tracker);
+
+                completion = ClientCompletion.attach(client);
+                client.download();
+            }
+            // init() hashes the pieces on disk holding the torrent's lock; announcing waits for it
+            if (completion.awaitSharing()) {
+                // A pause or delete in between has already unregistered, so it must not register again
+                synchronized (cancel) {
+                    if (!isCancelled(torrentId, cancel)) {
+                        trackerService.register(torrentId, tTorrent, announceSource(torrentId, client));
+                        announceToDht(torrentId, client);
                     }
                 }
-            });
-            monitorThread.setDaemon(true);
-            monitorThread.start();
+            }
+            completion.await();
+            saveResumeData(st);
+
+            // A paused or deleted torrent also returns from waitForCompletion
+            if (!st.isComplete()) {
+                return;
+            }
+
+            // Final update; with skipped files we are not a seed, so trackers get no "completed"
+            boolean partial = st.getSelection().isPartial();
+            tracker.complete();
+            if (!partial) {
+                trackerService.completed(torrentId);
+            }
+            stopSession(torrentId);
+            try {
+                fileAllocator.finish(tTorrent, payloadDir, allocationMode);
+            } catch (IOException e) {
+                log.warn("Could not compact {}: {}", torrent.getName(), e.getMessage());
+            }
+            Download completed = finishDownload(torrentId, download, "COMPLETED", null);
+            if (partial) {
+                log.info("Finished the selected files of {}; not seeding a partial payload", torrent.getName());
+                return;
+            }
+
+            // Keep sharing it from the zero-copy seeding engine
+            try {
+                seedingEngine.add(torrent, completed);
+            } catch (Exception e) {
+                log.warn("Not seeding {}: {}", torrent.getName(), e.getMessage());
+            }
+        } catch (Exception e) {
+            stopSession(torrentId);
+            if (cancel.get()) {
+                // Whoever cancelled it owns the download row now
+                log.info("Setup of torrent {} failed after it was cancelled: {}", torrentId, e.getMessage());
+                return;
+            }
+            log.error("Download error", e);
+            finishDownload(torrentId, download, "FAILED", e.getMessage());
+        } finally {
+            cancelled.remove(torrentId, cancel);
+        }
+    }
+
+    // Called before stopSession, so a runDownload still in setup either sees the flag
+    // before it registers its client or has registered it for stopSession to find
+    private void cancelSetup(Long torrentId) {
+        AtomicBoolean cancel = cancelled.remove(torrentId);
+        if (cancel != null) {
+            synchronized (cancel) {
+                cancel.set(true);
+            }
+        }
+    }
+
+    private boolean isCancelled(Long torrentId, AtomicBoolean cancel) {
+        if (cancel.get()) {
+            log.info("Setup of torrent {} cancelled by a pause or delete", torrentId);
+            return true;
+        }
+        return false;
+    }
+
+    // Pieces known good on disk: the fast-resume sidecar, else a hash check of the payload
+    private DownloadRecovery.PieceState loadPieceState(TorrentMetainfo metainfo, File payloadDir)
+            throws IOException, InterruptedException {
+        BitSet trusted = fastResume.load(metainfo, payloadDir);
+        if (trusted != null || !verifier.hasPayload(metainfo, payloadDir)) {
+            return new DownloadRecovery.PieceState(trusted, false);
+        }
+        // Data on disk but no usable resume file (first start on existing data, moved storage);
+        // saved so a restart before the first checkpoint does not hash it again
+        PieceVerifier.Result result = verifier.verify(metainfo, payloadDir);
+        fastResume.save(metainfo.getHexInfoHash(), result.pieceCount(), result.validPieces(),
+                metainfo.getFiles(), payloadDir);
+        return new DownloadRecovery.PieceState(result.validPieces(), true);
+    }
+
+    // Downloads left DOWNLOADING or QUEUED by a restart are queued again once the API is up
+    @EventListener(ApplicationReadyEvent.class)
+    public void recoverDownloads(ApplicationReadyEvent event) {
+        recovery.start(event.getTimeTaken(), downloadRepo::findInterrupted, new DownloadRecovery.Target() {
+            @Override
+            public DownloadRecovery.PieceState load(Download download) throws Exception {
+                return loadPieceState(metadataCache.get(download.getTorrent()), new File(downloadDir));
+            }
+
+            @Override
+            public void resubmit(Download download, CompletableFuture<DownloadRecovery.PieceState> state) {
+                Torrent torrent = download.getTorrent();
+                if (scheduler.isScheduled(torrent.getId())) {
+                    throw new IllegalStateException("already started again");
+                }
+                // Re-read in case it was paused or deleted since the lookup
+                Download current = downloadRepo.findById(download.getId())
+                        .filter(d -> "DOWNLOADING".equals(d.getStatus()) || "QUEUED".equals(d.getStatus()))
+                        .orElseThrow(() -> new IllegalStateException("no longer interrupted"));
+                changeStatus(current, "QUEUED");
+                current.setLastUpdated(LocalDateTime.now());
+                Download saved = downloadRepo.save(current);
+                int priority = saved.getPriority() != null ? saved.getPriority() : 0;
+                scheduler.submit(torrent.getId(), priority, () -> runDownload(torrent, saved, state));
+            }
+        });
+    }
+
+    public Map<String, Object> getRecoveryStats() {
+        return recovery.getStats();
+    }
+
+    // Speed, peers and progress over the last `minutes`, at most `points` points
+    public Map<String, Object> getHistory(Long torrentId, String resolution, int minutes, int points) {
+        if (minutes < 1 || points < 1 || points > 10_000) {
+            throw new IllegalArgumentException("minutes must be positive and points between 1 and 10000");
+        }
+        long from = System.currentTimeMillis() - minutes * 60_000L;
+        Map<String, Object> history = speedHistory.query(torrentId, resolution, from, points);
+        history.put("torrentId", torrentId);
+        return history;
+    }
+
+    public Map<String, Object> getHistoryStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("timeSeries", speedHistory.getStats());
+        stats.put("retention", retention.getStats());
+        return stats;
+    }
+
+    private void stopSession(Long torrentId) {
+        progressMonitor.deregister(torrentId);
+        rateLimiter.deregister(torrentId);
+        peerReactor.unroute(torrentId);
+        trackerService.unregister(torrentId);
+        Client client = clientMap.remove(torrentId);
+        if (client != null) {
+            client.stop();
+        }
+    }
+
+    // Peers found through the DHT join the ones from the trackers
+    private void announceToDht(Long torrentId, Client client) {
+        byte[] infoHash = client.getTorrent().getInfoHash();
+        dhtService.announce(infoHash, listenPort(client)).thenAccept(peers -> addPeers(torrentId, client, peers));
+    }
+
+    // Peers reach us on the shared reactor port when it is up
+    private int listenPort(Client client) {
+        return peerReactor.isRunning() ? peerReactor.getPort() : client.getPeerSpec().getPort();
+    }
+
+    private void addPeers(Long torrentId, Client client, List<InetSocketAddress> peers) {
+        if (!peers.isEmpty() && clientMap.get(torrentId) == client) {
+            client.handleDiscoveredPeers(peers.stream().map(Peer::new).collect(Collectors.toList()));
         }
+    }
 
-        private void updateProgress() {
-            double progress = sharedTorrent.getCompletion();
-            long downloadedBytes = (long) (progress * torrent.getSize());
-            long uploadedBytes = 0; // Simplified - ttorrent doesn't expose this easily
+    // What the trackers hear about a download; the peers they return go to the client
+    private AnnounceScheduler.Source announceSource(Long torrentId, Client client) {
+        ResumableSharedTorrent st = (ResumableSharedTorrent) client.getTorrent();
+        ByteBuffer id = client.getPeerSpec().getPeerId().duplicate();
+        byte[] peerId = new byte[id.remaining()];
+        id.get(peerId);
+        return new AnnounceScheduler.Source() {
+            @Override
+            public byte[] peerId() {
+                return peerId;
+            }
 
-            LocalDateTime now = LocalDateTime.now();
-            long timeDiffSeconds = ChronoUnit.SECONDS.between(lastUpdateTime, now);
+            @Override
+            public int port() {
+                return listenPort(client);
+            }
 
-            // Calculate speeds
-            long downloadSpeed = 0;
-            long uploadSpeed = 0;
+            @Override
+            public long uploaded() {
+                return st.getUploaded();
+            }
 
-            if (timeDiffSeconds > 0) {
-                downloadSpeed = (downloadedBytes - lastDownloadedBytes.get()) / timeDiffSeconds;
-                uploadSpeed = (uploadedBytes - lastUploadedBytes.get()) / timeDiffSeconds;
+            @Override
+            public long downloaded() {
+                return st.getDownloaded();
             }
 
-            // Calculate ETA
-            long remainingBytes = torrent.getSize() - downloadedBytes;
-            long estimatedTimeRemaining = downloadSpeed > 0 ? remainingBytes / downloadSpeed : 0;
-
-            // Update peer counts (simplified - ttorrent doesn't expose this easily)
-            int connectedPeers = 0; // Simplified
-            int availablePeers = 0; // Simplified
-
-            updateProgress(progress, downloadedBytes, downloadSpeed, uploadSpeed,
-                    connectedPeers, availablePeers, estimatedTimeRemaining);
-
-            lastDownloadedBytes.set(downloadedBytes);
-            lastUploadedBytes.set(uploadedBytes);
-            lastUpdateTime = now;
-        }
-
-        public void updateProgress(double progress, long downloadedBytes, long downloadSpeed,
-                long uploadSpeed, int connectedPeers, int availablePeers,
-                long estimatedTimeRemaining) {
-            download.setProgress(progress);
-            download.setDownloadedBytes(downloadedBytes);
-            download.setDownloadSpeed(downloadSpeed);
-            download.setUploadSpeed(uploadSpeed);
-            download.setConnectedPeers(connectedPeers);
-            download.setAvailablePeers(availablePeers);
-            download.setActivePeers(connectedPeers);
-            download.setEstimatedTimeRemaining(estimatedTimeRemaining);
-            download.setUploadedBytes(
-                    uploadSpeed > 0 ? download.getUploadedBytes() + uploadSpeed * 2 : download.getUploadedBytes());
-            download.setUploadRatio(downloadedBytes > 0 ? (double) download.getUploadedBytes() / downloadedBytes : 0.0);
-            download.setLastUpdated(LocalDateTime.now());
+            @Override
+            public long left() {
+                return st.getLeftSnapshot();
+            }
 
-            downloadRepo.save(download);
+            @Override
+            public int connectedPeers() {
+                return (int) client.getPeers().stream().filter(SharingPeer::isConnected).count();
+            }
+
+            @Override
+            public void peersFound(List<InetSocketAddress> peers) {
+                addPeers(torrentId, client, peers);
+            }
+        };
+    }
+
+    @Scheduled(fixedDelayString = "${torrent.dht.peer-refresh-ms:300000}")
+    public void refreshDhtPeers() {
+        clientMap.forEach(this::announceToDht);
+    }
+
+    // Periodic checkpoint so a crash loses at most one interval of verified pieces
+    @Scheduled(fixedDelayString = "${torrent.resume.save-interval-ms:60000}")
+    public void checkpointResumeData() {
+        clientMap.values().forEach(client -> saveResumeData((ResumableSharedTorrent) client.getTorrent()));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        clientMap.values().forEach(client -> {
+            client.stop();
+            saveResumeData((ResumableSharedTorrent) client.getTorrent());
+        });
+    }
+
+    private void saveResumeData(ResumableSharedTorrent st) {
+        // Before init() the bitfield is empty and would wipe good resume data
+        if (!st.isReady()) {
+            return;
+        }
+        try {
+            // Copied before the flush, so every piece it names is on disk once the flush
+            // returns; pieces verified in between wait for the next save
+            BitSet completed = st.getCompletedPieces();
+            st.flushCache();
+            fastResume.save(st.getHexInfoHash(), st.getPieceCount(), completed, st.getFiles(),
+                    new File(downloadDir));
+            log.debug("Saved resume data for {}", st.getName());
+        } catch (IOException e) {
+            log.warn("Could not save resume data for {}", st.getName(), e);
+        }
+    }
+
+    public Map<String, Object> getSamplerStats() {
+        return progressMonitor.getStats();
+    }
+
+    public Map<String, Object> getWriteCacheStats() {
+        return writeBackCache.getStats();
+    }
+
+    public Map<String, Object> getSchedulerStats() {
+        return scheduler.getStats();
+    }
+
+    public Map<String, Object> getMetadataCacheStats() {
+        return metadataCache.getStats();
+    }
+
+    public Map<String, Object> getSeedingStats() {
+        return seedingEngine.getStats();
+    }
+
+    // Metainfo for serving the torrent's files, with the running download if there is one
+    public PayloadStreamer.Payload openPayload(Long torrentId) throws IOException, NoSuchAlgorithmException {
+        Torrent torrent = torrentRepo.findById(torrentId)
+                .orElseThrow(() -> new RuntimeException("Torrent not found"));
+        TorrentMetainfo metainfo = metadataCache.get(torrent);
+        Client client = clientMap.get(torrentId);
+        if (client == null) {
+            return new PayloadStreamer.Payload(metainfo, null, () -> false);
+        }
+        return new PayloadStreamer.Payload(metainfo, (ResumableSharedTorrent) client.getTorrent(),
+                () -> clientMap.get(torrentId) == client);
+    }
+
+    public List<Map<String, Object>> getFiles(Long torrentId) throws IOException, NoSuchAlgorithmException {
+        Torrent torrent = torrentRepo.findById(torrentId)
+                .orElseThrow(() -> new RuntimeException("Torrent not found"));
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (PayloadFile payloadFile : payloadFiles(torrent, metadataCache.get(torrent))) {
+            Map<String, Object> file = new LinkedHashMap<>();
+            file.put("index", payloadFile.getFileIndex());
+            file.put("path", payloadFile.getPath());
+            file.put("length", payloadFile.getLength());
+            file.put("offset", payloadFile.getByteOffset());
+            file.put("priority", payloadFile.getPriority());
+            file.put("url", "/api/torrents/" + torrentId + "/files/" + payloadFile.getFileIndex());
+            result.add(file);
+        }
+        return result;
+    }
+
+    // Sets the priority of the given files, or of all of them when indexes is empty.
+    // A running download picks it up at once; otherwise it applies from the next start.
+    public List<Map<String, Object>> setFilePriority(Long torrentId, List<Integer> indexes, String priority)
+            throws IOException, NoSuchAlgorithmException {
+        Torrent torrent = torrentRepo.findById(torrentId)
+                .orElseThrow(() -> new RuntimeException("Torrent not found"));
+        String value = FileSelection.normalize(priority);
+        TorrentMetainfo metainfo = metadataCache.get(torrent);
+        List<PayloadFile> files = payloadFiles(torrent, metainfo);
+        List<PayloadFile> changed = new ArrayList<>();
+        if (indexes == null || indexes.isEmpty()) {
+            changed.addAll(files);
+        } else {
+            for (Integer index : indexes) {
+                if (index == null || index < 0 || index >= files.size()) {
+                    throw new IllegalArgumentException("No file " + index + " in torrent " + torrentId
+                            + " (it has " + files.size() + ")");
+                }
+                changed.add(files.get(index));
+            }
+        }
+
+        FileSelection selection = FileSelection.of(metainfo,
+                files.stream().map(f -> changed.contains(f) ? value : f.getPriority()).toList());
+        Client client = clientMap.get(torrentId);
+        if (selection.isEmpty() && scheduler.isScheduled(torrentId)) {
+            throw new IllegalStateException("Pause torrent " + torrentId + " before skipping every file");
+        }
+        changed.forEach(f -> f.setPriority(value));
+        payloadFileRepo.saveAll(changed);
+
+        if (client != null) {
+            ResumableSharedTorrent st = (ResumableSharedTorrent) client.getTorrent();
+            st.setSelection(selection);
+            if (st.isReady() && st.isComplete() && !st.isFinished()) {
+                // The files still wanted are all here; ttorrent only notices on a piece completing
+                st.finish();
+                client.stop();
+            }
         }
+        return getFiles(torrentId);
+    }
+
+    // Rows recorded at upload; torrents from before that get them now
+    private List<PayloadFile> payloadFiles(Torrent torrent, TorrentMetainfo metainfo) throws IOException {
+        List<PayloadFile> files = payloadFileRepo.findByTorrentIdOrderByFileIndex(torrent.getId());
+        return files.isEmpty() ? importer.recordFiles(torrent, metainfo) : files;
+    }
 
-        public void stop() {
-            running = false;
+    private FileSelection selection(Torrent torrent, TorrentMetainfo metainfo) throws IOException {
+        return FileSelection.of(metainfo, payloadFiles(torrent, metainfo).stream()
+                .map(PayloadFile::getPriority).toList());
+    }
+
+    public Map<String, Object> getPickerStats(Long torrentId) {
+        Client client = clientMap.get(torrentId);
+        if (client == null) {
+            throw new RuntimeException("No active download for torrent ID: " + torrentId);
+        }
+        return ((ResumableSharedTorrent) client.getTorrent()).getPickerStats();
+    }
+
+    public Map<String, Object> getDhtStats() {
+        return dhtService.getStats();
+    }
+
+    public Map<String, Object> getTrackerStatus(Long torrentId) {
+        torrentRepo.findById(torrentId)
+                .orElseThrow(() -> new RuntimeException("Torrent not found"));
+        Map<String, Object> status = trackerService.getStatus(torrentId);
+        if (status == null) {
+            throw new RuntimeException("Torrent " + torrentId + " is not announcing to any tracker");
+        }
+        return status;
+    }
+
+    public Map<String, Object> getTrackerStats() {
+        return trackerService.getStats();
+    }
+
+    public Map<String, Object> getMagnetStats() {
+        return magnetResolver.getStats();
+    }
+
+    public Map<String, Object> getPeerStats() {
+        return peerReactor.getStats();
+    }
+
+    private void changeStatus(Download download, String status) {
+        statusCounters.transition(download.getStatus(), status);
+        download.setStatus(status);
+    }
+
+    // Status changes bypass the write-behind buffer and are saved immediately
+    private Download finishDownload(Long torrentId, Download download, String status, String errorMessage) {
+        Download live = liveStats.remove(torrentId);
+        Download target = live != null ? live : download;
+        changeStatus(target, status);
+        if ("COMPLETED".equals(status)) {
+            target.setCompletedAt(LocalDateTime.now());
+        }
+        if (errorMessage != null) {
+            target.setErrorMessage(errorMessage);
         }
+        target.setLastUpdated(LocalDateTime.now());
+        return downloadRepo.save(target);
     }
 }
@@ -0,0 +1,38 @@
+package com.bittorrent.service;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+// One way of talking to a tracker (HTTP or UDP). A tracker that answers with a
+// failure reason completes the future with Rejected; anything else that fails
+// (timeout, refused, bad response) means the tracker itself is unusable.
+interface TrackerProtocol extends AutoCloseable {
+
+    // event is "started", "completed", "stopped" or "" for a regular announce
+    record Request(byte[] infoHash, byte[] peerId, int port, long uploaded, long downloaded, long left,
+            String event, int numWant) {
+    }
+
+    // Intervals in seconds; minInterval is 0 when the tracker sent none
+    record Response(int interval, int minInterval, int seeders, int leechers, List<InetSocketAddress> peers) {
+    }
+
+    class Rejected extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        Rejected(String reason) {
+            super(reason);
+        }
+    }
+
+    CompletableFuture<Response> announce(URI tracker, Request request);
+
+    Map<String, Object> getStats();
+
+    @Override
+    void close();
+}
@@ -0,0 +1,148 @@
+package com.bittorrent.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Tracker announces for every download and seed, through one AnnounceScheduler
+// with HTTP and UDP trackers. Torrents register when they start and unregister
+// when they stop; on shutdown every tracker gets its "stopped".
+@Component
+@Slf4j
+public class TrackerService {
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "tracker-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final byte[] peerId = PeerWire.newPeerId();
+
+    @Value("${torrent.tracker.tick-ms:1000}")
+    private long tickMillis;
+
+    // Used when a tracker sends no interval
+    @Value("${torrent.tracker.default-interval-s:1800}")
+    private int defaultInterval;
+
+    // Floor under the tracker's min interval, and the most we wait between announces
+    @Value("${torrent.tracker.min-interval-s:300}")
+    private int minInterval;
+
+    @Value("${torrent.tracker.max-interval-s:3600}")
+    private int maxInterval;
+
+    @Value("${torrent.tracker.backoff-base-s:15}")
+    private int backoffBase;
+
+    @Value("${torrent.tracker.backoff-max-s:1800}")
+    private int backoffMax;
+
+    @Value("${torrent.tracker.coalesce-window-s:120}")
+    private int coalesceWindow;
+
+    @Value("${torrent.tracker.max-in-flight-per-host:8}")
+    private int maxInFlightPerHost;
+
+    @Value("${torrent.tracker.numwant:50}")
+    private int numWant;
+
+    // Downloads with fewer connected peers announce at the min interval
+    @Value("${torrent.tracker.want-peers:20}")
+    private int wantPeers;
+
+    @Value("${torrent.tracker.http-timeout-ms:15000}")
+    private long httpTimeoutMillis;
+
+    // First UDP timeout; doubled on each retry
+    @Value("${torrent.tracker.udp-timeout-ms:3000}")
+    private long udpTimeoutMillis;
+
+    @Value("${torrent.tracker.udp-tries:3}")
+    private int udpTries;
+
+    @Value("${torrent.peer.port:6890}")
+    private int peerPort;
+
+    private final Map<String, TrackerProtocol> protocols = new HashMap<>();
+    private AnnounceScheduler scheduler;
+
+    @PostConstruct
+    public void start() {
+        HttpTrackerProtocol http = new HttpTrackerProtocol(httpTimeoutMillis);
+        protocols.put("http", http);
+        protocols.put("https", http);
+        try {
+            protocols.put("udp", new UdpTrackerProtocol(timer, udpTimeoutMillis, udpTries));
+        } catch (IOException e) {
+            log.warn("UDP trackers disabled: {}", e.getMessage());
+        }
+        scheduler = new AnnounceScheduler(protocols, timer, new AnnounceScheduler.Settings(tickMillis,
+                defaultInterval, minInterval, maxInterval, backoffBase, backoffMax, coalesceWindow,
+                maxInFlightPerHost, numWant, wantPeers));
+        scheduler.start();
+    }
+
+    public void register(Long torrentId, TorrentMetainfo metainfo, AnnounceScheduler.Source source) {
+        scheduler.register(torrentId, metainfo.getInfoHash(), metainfo.getAnnounceList(), source);
+    }
+
+    public void completed(Long torrentId) {
+        scheduler.completed(torrentId);
+    }
+
+    public void unregister(Long torrentId) {
+        scheduler.unregister(torrentId);
+    }
+
+    // Peers from a single announce to each tracker, e.g. for a magnet link
+    public CompletableFuture<List<InetSocketAddress>> findPeers(byte[] infoHash, List<String> trackers) {
+        List<URI> uris = new ArrayList<>();
+        for (String tracker : trackers) {
+            try {
+                uris.add(URI.create(tracker));
+            } catch (IllegalArgumentException e) {
+                log.debug("Skipping tracker {}: {}", tracker, e.getMessage());
+            }
+        }
+        return scheduler.findPeers(infoHash, uris, peerId, peerPort);
+    }
+
+    public Map<String, Object> getStatus(Long torrentId) {
+        return scheduler.getStatus(torrentId);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = scheduler.getStats();
+        protocols.forEach((scheme, protocol) -> stats.put(scheme, protocol.getStats()));
+        stats.remove("https");
+        return stats;
+    }
+
+    @PreDestroy
+    public void stop() {
+        try {
+            scheduler.stop().get(3, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            log.info("Shutting down before every tracker confirmed our stop");
+        } catch (Exception e) {
+            log.debug("Stop announces failed: {}", e.getMessage());
+        }
+        protocols.values().forEach(TrackerProtocol::close);
+        timer.shutdownNow();
+    }
+}
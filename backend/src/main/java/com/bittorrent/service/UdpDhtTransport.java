@@ -0,0 +1,77 @@
+package com.bittorrent.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.function.BiConsumer;
+
+// One UDP socket; a daemon thread blocks on receive and hands packets to the node
+@Slf4j
+class UdpDhtTransport implements DhtTransport {
+    private static final int MAX_PACKET = 1500;
+
+    private final DatagramChannel channel;
+    private final Thread thread;
+    private volatile BiConsumer<InetSocketAddress, byte[]> receiver = (from, packet) -> {
+    };
+
+    UdpDhtTransport(int port) throws IOException {
+        channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(port));
+        thread = new Thread(this::receive, "dht-udp");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void send(InetSocketAddress to, byte[] packet) throws IOException {
+        channel.send(ByteBuffer.wrap(packet), to);
+    }
+
+    @Override
+    public void setReceiver(BiConsumer<InetSocketAddress, byte[]> receiver) {
+        this.receiver = receiver;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        try {
+            return (InetSocketAddress) channel.getLocalAddress();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void receive() {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_PACKET);
+        while (channel.isOpen()) {
+            try {
+                buffer.clear();
+                SocketAddress from = channel.receive(buffer);
+                buffer.flip();
+                byte[] packet = new byte[buffer.remaining()];
+                buffer.get(packet);
+                receiver.accept((InetSocketAddress) from, packet);
+            } catch (IOException e) {
+                if (channel.isOpen()) {
+                    log.debug("DHT receive failed: {}", e.getMessage());
+                }
+            } catch (RuntimeException e) {
+                log.debug("Bad DHT packet: {}", e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.debug("DHT socket close failed: {}", e.getMessage());
+        }
+    }
+}
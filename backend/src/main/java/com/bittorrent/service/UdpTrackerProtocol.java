@@ -0,0 +1,291 @@
+package com.bittorrent.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+// UDP tracker protocol (BEP 15) for every torrent over one socket. A tracker's
+// connection id is shared: the first announce to a tracker connects, announces
+// arriving meanwhile wait for that same connect, and the id is reused until it
+// expires after a minute, so a batch of announces costs one round trip each
+// instead of two. Lost packets are resent with the timeout doubling each try.
+@Slf4j
+class UdpTrackerProtocol implements TrackerProtocol {
+    private static final long PROTOCOL_ID = 0x41727101980L;
+    private static final int CONNECT = 0;
+    private static final int ANNOUNCE = 1;
+    private static final int ERROR = 3;
+    private static final long CONNECTION_TTL_MILLIS = 60_000;
+    private static final int MAX_PACKET = 1500;
+    private static final int PEER_LENGTH = 6;
+
+    private final DatagramChannel channel;
+    private final ScheduledExecutorService timer;
+    private final long timeoutMillis;
+    private final int tries;
+    private final Thread thread;
+    private final Map<Integer, CompletableFuture<ByteBuffer>> pending = new ConcurrentHashMap<>();
+    private final Map<String, Connection> connections = new HashMap<>();
+    private final Map<String, InetSocketAddress> addresses = new ConcurrentHashMap<>();
+    private final AtomicInteger nextTransaction = new AtomicInteger(ThreadLocalRandom.current().nextInt());
+
+    private final AtomicLong connects = new AtomicLong();
+    private final AtomicLong connectionReuses = new AtomicLong();
+    private final AtomicLong announces = new AtomicLong();
+    private final AtomicLong retransmits = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    private static final class Connection {
+        long expiresAt;
+        CompletableFuture<Long> connecting;
+    }
+
+    UdpTrackerProtocol(ScheduledExecutorService timer, long timeoutMillis, int tries) throws IOException {
+        this.timer = timer;
+        this.timeoutMillis = timeoutMillis;
+        this.tries = Math.max(tries, 1);
+        channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(0));
+        thread = new Thread(this::receive, "tracker-udp");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public CompletableFuture<Response> announce(URI tracker, Request request) {
+        if (tracker.getHost() == null || tracker.getPort() <= 0) {
+            return CompletableFuture.failedFuture(new IOException("Bad tracker URL " + tracker));
+        }
+        String key = tracker.getHost() + ":" + tracker.getPort();
+        return connect(key, tracker).thenCompose(connection -> {
+            announces.incrementAndGet();
+            return exchange(connection.address(), transaction -> ByteBuffer.allocate(98)
+                    .putLong(connection.id())
+                    .putInt(ANNOUNCE)
+                    .putInt(transaction)
+                    .put(request.infoHash())
+                    .put(request.peerId())
+                    .putLong(request.downloaded())
+                    .putLong(request.left())
+                    .putLong(request.uploaded())
+                    .putInt(eventCode(request.event()))
+                    .putInt(0) // our address, as seen by the tracker
+                    .putInt(ThreadLocalRandom.current().nextInt())
+                    .putInt(request.numWant())
+                    .putShort((short) request.port()));
+        }).thenApply(reply -> {
+            int action = reply.getInt(0);
+            if (action == ERROR) {
+                // Also what a tracker says to an expired connection id
+                invalidate(key);
+                throw new CompletionException(new Rejected(errorMessage(reply)));
+            }
+            if (action != ANNOUNCE || reply.limit() < 20) {
+                throw new CompletionException(new IOException("Unexpected UDP tracker reply"));
+            }
+            int interval = reply.getInt(8);
+            int leechers = reply.getInt(12);
+            int seeders = reply.getInt(16);
+            byte[] body = new byte[reply.limit() - 20];
+            reply.get(20, body);
+            return new Response(interval, 0, seeders, leechers, parsePeers(body, 0));
+        });
+    }
+
+    private record Connected(InetSocketAddress address, long id) {
+    }
+
+    // A live connection id for the tracker, or the connect already under way
+    private CompletableFuture<Connected> connect(String key, URI tracker) {
+        CompletableFuture<Long> connecting;
+        synchronized (connections) {
+            Connection connection = connections.computeIfAbsent(key, k -> new Connection());
+            if (connection.connecting == null || (connection.connecting.isDone()
+                    && (connection.connecting.isCompletedExceptionally()
+                    || System.currentTimeMillis() > connection.expiresAt))) {
+                connection.connecting = startConnect(connection, tracker);
+            } else if (connection.connecting.isDone()) {
+                connectionReuses.incrementAndGet();
+            }
+            connecting = connection.connecting;
+        }
+        return connecting.thenApply(id -> new Connected(resolved(tracker), id));
+    }
+
+    private CompletableFuture<Long> startConnect(Connection connection, URI tracker) {
+        return CompletableFuture.supplyAsync(() -> resolved(tracker))
+                .thenCompose(address -> {
+                    if (address.isUnresolved()) {
+                        return CompletableFuture.failedFuture(new IOException("Unknown host " + tracker.getHost()));
+                    }
+                    connects.incrementAndGet();
+                    return exchange(address, transaction -> ByteBuffer.allocate(16)
+                            .putLong(PROTOCOL_ID)
+                            .putInt(CONNECT)
+                            .putInt(transaction));
+                })
+                .thenApply(reply -> {
+                    if (reply.getInt(0) != CONNECT || reply.limit() < 16) {
+                        throw new CompletionException(
+                                new IOException(reply.getInt(0) == ERROR ? errorMessage(reply) : "Bad connect reply"));
+                    }
+                    long id = reply.getLong(8);
+                    synchronized (connections) {
+                        connection.expiresAt = System.currentTimeMillis() + CONNECTION_TTL_MILLIS;
+                    }
+                    return id;
+                });
+    }
+
+    // DNS once per tracker host; a failed lookup is retried on the next connect
+    private InetSocketAddress resolved(URI tracker) {
+        String key = tracker.getHost() + ":" + tracker.getPort();
+        InetSocketAddress address = addresses.get(key);
+        if (address == null) {
+            address = new InetSocketAddress(tracker.getHost(), tracker.getPort());
+            if (!address.isUnresolved()) {
+                addresses.put(key, address);
+            }
+        }
+        return address;
+    }
+
+    private void invalidate(String key) {
+        synchronized (connections) {
+            connections.remove(key);
+        }
+    }
+
+    // Sends a request and waits for the reply with the same transaction id
+    private CompletableFuture<ByteBuffer> exchange(InetSocketAddress to,
+            IntFunction<ByteBuffer> packet) {
+        int transaction = nextTransaction.getAndIncrement();
+        CompletableFuture<ByteBuffer> reply = new CompletableFuture<>();
+        pending.put(transaction, reply);
+        ByteBuffer request = packet.apply(transaction);
+        request.flip();
+        send(to, request, transaction, reply, 0);
+        return reply;
+    }
+
+    private void send(InetSocketAddress to, ByteBuffer request, int transaction, CompletableFuture<ByteBuffer> reply,
+            int attempt) {
+        if (reply.isDone()) {
+            return;
+        }
+        try {
+            channel.send(request.duplicate(), to);
+        } catch (IOException e) {
+            pending.remove(transaction);
+            reply.completeExceptionally(e);
+            return;
+        }
+        timer.schedule(() -> {
+            if (reply.isDone()) {
+                return;
+            }
+            if (attempt + 1 < tries) {
+                retransmits.incrementAndGet();
+                send(to, request, transaction, reply, attempt + 1);
+            } else if (pending.remove(transaction) != null) {
+                timeouts.incrementAndGet();
+                reply.completeExceptionally(new IOException("UDP tracker " + to + " timed out"));
+            }
+        }, timeoutMillis << attempt, TimeUnit.MILLISECONDS);
+    }
+
+    private void receive() {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_PACKET);
+        while (channel.isOpen()) {
+            try {
+                buffer.clear();
+                SocketAddress from = channel.receive(buffer);
+                buffer.flip();
+                if (from == null || buffer.remaining() < 8) {
+                    continue;
+                }
+                CompletableFuture<ByteBuffer> reply = pending.remove(buffer.getInt(4));
+                if (reply != null) {
+                    byte[] copy = new byte[buffer.remaining()];
+                    buffer.get(copy);
+                    reply.complete(ByteBuffer.wrap(copy));
+                }
+            } catch (IOException e) {
+                if (channel.isOpen()) {
+                    log.debug("Tracker receive failed: {}", e.getMessage());
+                }
+            } catch (RuntimeException e) {
+                log.debug("Bad tracker packet: {}", e.getMessage());
+            }
+        }
+    }
+
+    private static int eventCode(String event) {
+        return switch (event) {
+            case "completed" -> 1;
+            case "started" -> 2;
+            case "stopped" -> 3;
+            default -> 0;
+        };
+    }
+
+    private static String errorMessage(ByteBuffer reply) {
+        byte[] message = new byte[Math.max(reply.limit() - 8, 0)];
+        reply.get(8, message);
+        return new String(message, StandardCharsets.UTF_8);
+    }
+
+    // Compact IPv4 peers starting at offset; port 0 entries are skipped
+    static List<InetSocketAddress> parsePeers(byte[] compact, int offset) {
+        List<InetSocketAddress> peers = new ArrayList<>();
+        for (int i = offset; i + PEER_LENGTH <= compact.length; i += PEER_LENGTH) {
+            InetSocketAddress peer = DhtNode.parsePeer(Arrays.copyOfRange(compact, i, i + PEER_LENGTH));
+            if (peer != null && peer.getPort() > 0) {
+                peers.add(peer);
+            }
+        }
+        return peers;
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("connects", connects.get());
+        stats.put("connectionReuses", connectionReuses.get());
+        stats.put("announces", announces.get());
+        stats.put("retransmits", retransmits.get());
+        stats.put("timeouts", timeouts.get());
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.debug("Tracker socket close failed: {}", e.getMessage());
+        }
+        pending.values().forEach(reply -> reply.completeExceptionally(new IOException("Closed")));
+        pending.clear();
+    }
+}
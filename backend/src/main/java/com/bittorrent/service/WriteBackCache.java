@@ -0,0 +1,203 @@
+package com.bittorrent.service;
+
+import com.turn.ttorrent.client.SharedTorrent;
+import com.turn.ttorrent.client.storage.TorrentByteStorage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Memory budget, buffer pools and metrics shared by every torrent's
+// WriteBackStorage. Dirty pieces live in pooled direct buffers (one pool per
+// piece length); the total is capped, and a torrent that hits the cap first
+// writes out its own verified pieces and otherwise writes straight through.
+@Component
+@Slf4j
+public class WriteBackCache {
+    private final Map<Integer, BufferPool> pools = new ConcurrentHashMap<>();
+    private final Set<WriteBackStorage> stores = ConcurrentHashMap.newKeySet();
+    private final AtomicLong reserved = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong cachedWrites = new AtomicLong();
+    private final AtomicLong cachedBytes = new AtomicLong();
+    private final AtomicLong bypassedWrites = new AtomicLong();
+    private final AtomicLong discardedPieces = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong flushedBytes = new AtomicLong();
+    private final AtomicLong largestFlush = new AtomicLong();
+
+    private final BufferPool staging;
+    private final int maxRunBytes;
+
+    @Value("${torrent.cache.max-bytes:67108864}")
+    private long maxBytes;
+
+    // Verified bytes a torrent may hold before it writes them out
+    @Value("${torrent.cache.flush-bytes:16777216}")
+    private long flushBytes;
+
+    // maxRunBytes is the largest coalesced write; longer contiguous runs are split
+    public WriteBackCache(@Value("${torrent.cache.max-run-bytes:4194304}") int maxRunBytes) {
+        this.maxRunBytes = maxRunBytes;
+        this.staging = new BufferPool(maxRunBytes, 2);
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    // Puts a write-back layer under the torrent's pieces. Must run before
+    // init(), which hands the storage to every Piece. ttorrent builds its
+    // storage in the constructor and keeps it in a private field with no way
+    // to supply another, so it is swapped here; if that fails the torrent
+    // keeps writing through ttorrent's own storage.
+    WriteBackStorage install(SharedTorrent torrent, int pieceLength) {
+        if (!isEnabled() || pieceLength <= 0) {
+            return null;
+        }
+        try {
+            Field field = SharedTorrent.class.getDeclaredField("bucket");
+            field.setAccessible(true);
+            TorrentByteStorage delegate = (TorrentByteStorage) field.get(torrent);
+            WriteBackStorage storage = new WriteBackStorage(delegate, this, pieceLength);
+            field.set(torrent, storage);
+            stores.add(storage);
+            return storage;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.warn("Write-back cache unavailable for {}: {}", torrent.getName(), e.getMessage());
+            return null;
+        }
+    }
+
+    void deregister(WriteBackStorage storage) {
+        stores.remove(storage);
+    }
+
+    boolean tryReserve(long bytes) {
+        while (true) {
+            long current = reserved.get();
+            if (current + bytes > maxBytes) {
+                return false;
+            }
+            if (reserved.compareAndSet(current, current + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    void unreserve(long bytes) {
+        reserved.addAndGet(-bytes);
+    }
+
+    ByteBuffer acquire(int pieceLength) {
+        return pools.computeIfAbsent(pieceLength,
+                length -> new BufferPool(length, (int) Math.max(maxBytes / length, 1))).acquire();
+    }
+
+    void release(int pieceLength, ByteBuffer buffer) {
+        BufferPool pool = pools.get(pieceLength);
+        if (pool != null) {
+            pool.release(buffer);
+        }
+    }
+
+    ByteBuffer acquireStaging() {
+        return staging.acquire();
+    }
+
+    void releaseStaging(ByteBuffer buffer) {
+        staging.release(buffer);
+    }
+
+    long getFlushBytes() {
+        return flushBytes;
+    }
+
+    int getMaxRunBytes() {
+        return maxRunBytes;
+    }
+
+    void recordHit() {
+        hits.incrementAndGet();
+    }
+
+    void recordMiss() {
+        misses.incrementAndGet();
+    }
+
+    void recordCachedWrite(int bytes) {
+        cachedWrites.incrementAndGet();
+        cachedBytes.addAndGet(bytes);
+    }
+
+    void recordBypass() {
+        bypassedWrites.incrementAndGet();
+    }
+
+    void recordDiscard() {
+        discardedPieces.incrementAndGet();
+    }
+
+    void recordFlush(int bytes) {
+        flushes.incrementAndGet();
+        flushedBytes.addAndGet(bytes);
+        largestFlush.accumulateAndGet(bytes, Math::max);
+    }
+
+    // Verified pieces never wait longer than one interval to reach the disk
+    @Scheduled(fixedDelayString = "${torrent.cache.flush-interval-ms:2000}")
+    public void flushVerified() {
+        for (WriteBackStorage storage : stores) {
+            try {
+                storage.flushVerified();
+            } catch (Exception e) {
+                log.error("Write-back flush failed", e);
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", isEnabled());
+        stats.put("maxBytes", maxBytes);
+        stats.put("torrents", stores.size());
+
+        long verified = 0;
+        for (WriteBackStorage storage : stores) {
+            verified += storage.getVerifiedBytes();
+        }
+        stats.put("dirtyBytes", reserved.get());
+        stats.put("verifiedDirtyBytes", verified);
+
+        long hitCount = hits.get();
+        long readCount = hitCount + misses.get();
+        stats.put("readHits", hitCount);
+        stats.put("readMisses", misses.get());
+        stats.put("hitRate", readCount > 0 ? (double) hitCount / readCount : 0.0);
+        stats.put("cachedWrites", cachedWrites.get());
+        stats.put("cachedBytes", cachedBytes.get());
+        stats.put("bypassedWrites", bypassedWrites.get());
+        stats.put("discardedPieces", discardedPieces.get());
+
+        long flushCount = flushes.get();
+        stats.put("flushes", flushCount);
+        stats.put("flushedBytes", flushedBytes.get());
+        stats.put("avgFlushBytes", flushCount > 0 ? flushedBytes.get() / flushCount : 0);
+        stats.put("largestFlushBytes", largestFlush.get());
+
+        Map<String, Object> poolStats = new HashMap<>();
+        pools.forEach((length, pool) -> poolStats.put(String.valueOf(length), pool.getStats()));
+        stats.put("pools", poolStats);
+        return stats;
+    }
+}
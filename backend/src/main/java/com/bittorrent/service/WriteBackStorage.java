@@ -0,0 +1,269 @@
+package com.bittorrent.service;
+
+import com.turn.ttorrent.client.storage.TorrentByteStorage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+// Per-torrent write-back layer between ttorrent's pieces and its file storage.
+// ttorrent hands over a whole piece per write and immediately reads it back to
+// hash it; here the piece stays in a pooled direct buffer, the hash check is
+// served from memory, and only verified pieces reach the disk, in index order,
+// with contiguous pieces coalesced into one positional write.
+class WriteBackStorage implements TorrentByteStorage {
+    private final TorrentByteStorage delegate;
+    private final WriteBackCache cache;
+    private final int pieceLength;
+    private final TreeMap<Integer, Entry> dirty = new TreeMap<>();
+    private long verifiedBytes = 0;
+
+    private static final class Entry {
+        final ByteBuffer buffer;
+        boolean verified;
+        // When the whole piece was last read back, which is how its hash check starts
+        long hashReadAt;
+
+        Entry(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    WriteBackStorage(TorrentByteStorage delegate, WriteBackCache cache, int pieceLength) {
+        this.delegate = delegate;
+        this.cache = cache;
+        this.pieceLength = pieceLength;
+    }
+
+    TorrentByteStorage delegate() {
+        return delegate;
+    }
+
+    @Override
+    public long size() {
+        return delegate.size();
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer buffer, long offset) throws IOException {
+        int length = buffer.remaining();
+        int index = (int) (offset / pieceLength);
+        Entry entry = dirty.get(index);
+        long pieceStart = (long) index * pieceLength;
+        if (entry != null && offset + length <= pieceStart + entry.buffer.limit()) {
+            ByteBuffer source = entry.buffer.duplicate();
+            source.position((int) (offset - pieceStart));
+            source.limit(source.position() + length);
+            buffer.put(source);
+            if (offset == pieceStart && length == entry.buffer.limit()) {
+                entry.hashReadAt = System.nanoTime();
+            }
+            cache.recordHit();
+            return length;
+        }
+        // Not served from memory: anything dirty under the range goes to disk first
+        flushRange(offset, length);
+        cache.recordMiss();
+        return delegate.read(buffer, offset);
+    }
+
+    @Override
+    public synchronized int write(ByteBuffer buffer, long offset) throws IOException {
+        int length = buffer.remaining();
+        if (offset % pieceLength != 0 || length > pieceLength) {
+            flushRange(offset, length);
+            cache.recordBypass();
+            return delegate.write(buffer, offset);
+        }
+        int index = (int) (offset / pieceLength);
+        Entry entry = dirty.get(index);
+        if (entry != null && entry.buffer.limit() == length) {
+            // Endgame duplicate of a piece we already hold
+            if (!entry.verified) {
+                entry.buffer.clear();
+                entry.buffer.put(buffer.duplicate()).flip();
+            }
+            return length;
+        }
+        if (entry != null) {
+            flushRange(offset, length);
+        }
+        ByteBuffer copy = reserve(length);
+        if (copy == null) {
+            cache.recordBypass();
+            return delegate.write(buffer, offset);
+        }
+        copy.put(buffer.duplicate()).flip();
+        dirty.put(index, new Entry(copy));
+        cache.recordCachedWrite(length);
+        return length;
+    }
+
+    // Room for one more piece, evicting our own verified pieces under pressure; null means write through
+    private ByteBuffer reserve(int length) throws IOException {
+        if (!cache.tryReserve(length)) {
+            flushVerified();
+            if (!cache.tryReserve(length)) {
+                return null;
+            }
+        }
+        ByteBuffer buffer = cache.acquire(pieceLength);
+        buffer.clear().limit(length);
+        return buffer;
+    }
+
+    // System.nanoTime() at the start of the piece's hash check, 0 if it was not read from memory
+    synchronized long hashCheckStarted(int index) {
+        Entry entry = dirty.get(index);
+        return entry != null ? entry.hashReadAt : 0;
+    }
+
+    // The piece passed its hash check and may be written out
+    synchronized void verified(int index) throws IOException {
+        Entry entry = dirty.get(index);
+        if (entry == null || entry.verified) {
+            return;
+        }
+        entry.verified = true;
+        verifiedBytes += entry.buffer.limit();
+        if (verifiedBytes >= cache.getFlushBytes()) {
+            flushVerified();
+        }
+    }
+
+    // The piece failed its hash check; its data must never reach the disk
+    synchronized void discard(int index) {
+        Entry entry = dirty.get(index);
+        if (entry != null && !entry.verified) {
+            dirty.remove(index);
+            release(entry);
+            cache.recordDiscard();
+        }
+    }
+
+    synchronized void flushVerified() throws IOException {
+        flush(e -> e.verified);
+    }
+
+    synchronized void flushAll() throws IOException {
+        flush(e -> true);
+    }
+
+    synchronized long getDirtyBytes() {
+        long bytes = 0;
+        for (Entry entry : dirty.values()) {
+            bytes += entry.buffer.limit();
+        }
+        return bytes;
+    }
+
+    synchronized long getVerifiedBytes() {
+        return verifiedBytes;
+    }
+
+    private void flush(Predicate<Entry> eligible) throws IOException {
+        flush(dirty, eligible);
+    }
+
+    // Writes matching pieces in index order; runs of adjacent pieces are
+    // gathered into one staging buffer and written with a single call
+    private void flush(SortedMap<Integer, Entry> pieces, Predicate<Entry> eligible) throws IOException {
+        List<Map.Entry<Integer, Entry>> run = new ArrayList<>();
+        int runBytes = 0;
+        for (Map.Entry<Integer, Entry> e : new ArrayList<>(pieces.entrySet())) {
+            if (!eligible.test(e.getValue())) {
+                continue;
+            }
+            boolean adjacent = !run.isEmpty() && run.get(run.size() - 1).getKey() == e.getKey() - 1;
+            int size = e.getValue().buffer.limit();
+            if (!run.isEmpty() && (!adjacent || runBytes + size > cache.getMaxRunBytes())) {
+                writeRun(run, runBytes);
+                run.clear();
+                runBytes = 0;
+            }
+            run.add(e);
+            runBytes += size;
+        }
+        if (!run.isEmpty()) {
+            writeRun(run, runBytes);
+        }
+    }
+
+    // Before the disk is read or written under these pieces: verified ones go
+    // out, unverified ones are dropped, since they may never reach the disk
+    // (ttorrent fetches a dropped piece again). Pieces outside the range stay.
+    private void flushRange(long offset, int length) throws IOException {
+        int first = (int) (offset / pieceLength);
+        int last = (int) ((offset + Math.max(length, 1) - 1) / pieceLength);
+        SortedMap<Integer, Entry> overlapping = dirty.subMap(first, true, last, true);
+        for (Iterator<Entry> it = overlapping.values().iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (!entry.verified) {
+                it.remove();
+                release(entry);
+                cache.recordDiscard();
+            }
+        }
+        flush(overlapping, e -> true);
+    }
+
+    private void writeRun(List<Map.Entry<Integer, Entry>> run, int runBytes) throws IOException {
+        long offset = (long) run.get(0).getKey() * pieceLength;
+        if (run.size() == 1) {
+            delegate.write(run.get(0).getValue().buffer.duplicate(), offset);
+        } else {
+            ByteBuffer staging = cache.acquireStaging();
+            try {
+                staging.clear();
+                for (Map.Entry<Integer, Entry> e : run) {
+                    staging.put(e.getValue().buffer.duplicate());
+                }
+                staging.flip();
+                delegate.write(staging, offset);
+            } finally {
+                cache.releaseStaging(staging);
+            }
+        }
+        for (Map.Entry<Integer, Entry> e : run) {
+            Entry entry = dirty.remove(e.getKey());
+            if (entry.verified) {
+                verifiedBytes -= entry.buffer.limit();
+            }
+            release(entry);
+        }
+        cache.recordFlush(runBytes);
+    }
+
+    private void release(Entry entry) {
+        cache.unreserve(entry.buffer.limit());
+        cache.release(pieceLength, entry.buffer);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            flushAll();
+        } finally {
+            cache.deregister(this);
+            delegate.close();
+        }
+    }
+
+    // Called by ttorrent once every piece is in; files are renamed after this
+    @Override
+    public synchronized void finish() throws IOException {
+        flushAll();
+        delegate.finish();
+    }
+
+    @Override
+    public boolean isFinished() {
+        return delegate.isFinished();
+    }
+}
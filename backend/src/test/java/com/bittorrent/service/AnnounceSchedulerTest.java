@@ -0,0 +1,144 @@
+package com.bittorrent.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+// The scheduler against a tracker that answers only when told to; tick() is
+// called by hand, so nothing runs on the timer
+class AnnounceSchedulerTest {
+    private static final URI TRACKER = URI.create("http://tracker.test/announce");
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final HeldProtocol protocol = new HeldProtocol();
+    // One request at a time per host, no minimum interval
+    private final AnnounceScheduler scheduler = new AnnounceScheduler(Map.of("http", protocol), timer,
+            new AnnounceScheduler.Settings(100, 60, 0, 600, 1, 8, 0, 1, 50, 20));
+
+    @AfterEach
+    void shutdown() {
+        timer.shutdownNow();
+    }
+
+    @Test
+    void completedIsSentAfterARequestQueuedBeforeTheDownloadFinished() {
+        TestSource a = new TestSource();
+        TestSource b = new TestSource();
+        scheduler.register("a", new byte[20], List.of(List.of(TRACKER)), a);
+        scheduler.register("b", new byte[20], List.of(List.of(TRACKER)), b);
+        protocol.answer(0);
+
+        // a's next regular announce waits in the host queue behind b's "started"
+        scheduler.tick();
+        a.left = 0;
+        scheduler.completed("a");
+        protocol.answer(1);
+
+        // The queued announce went out after the download finished, but it was not "completed"
+        TrackerProtocol.Request regular = protocol.requests.get(2);
+        assertEquals("", regular.event());
+        assertFalse(regular.left() == 0);
+        protocol.answer(2);
+        scheduler.tick();
+
+        TrackerProtocol.Request completed = protocol.requests.get(3);
+        assertEquals("completed", completed.event());
+        assertEquals(0, completed.left());
+    }
+
+    @Test
+    void finishedDownloadSendsNoCompletedToANewTracker() {
+        TestSource a = new TestSource();
+        a.left = 0;
+        scheduler.register("a", new byte[20], List.of(List.of(TRACKER)), a);
+        scheduler.completed("a");
+        protocol.answer(0);
+        scheduler.tick();
+
+        assertEquals("started", protocol.requests.get(0).event());
+        // A seed's "started" already tells the tracker; the next announce is a regular one
+        for (int i = 1; i < protocol.requests.size(); i++) {
+            assertEquals("", protocol.requests.get(i).event());
+        }
+    }
+
+    // Records every request and answers the i-th one on answer(i)
+    private static final class HeldProtocol implements TrackerProtocol {
+        final List<Request> requests = new ArrayList<>();
+        final List<CompletableFuture<Response>> answers = new ArrayList<>();
+
+        @Override
+        public synchronized CompletableFuture<Response> announce(URI tracker, Request request) {
+            CompletableFuture<Response> answer = new CompletableFuture<>();
+            requests.add(request);
+            answers.add(answer);
+            return answer;
+        }
+
+        void answer(int index) {
+            CompletableFuture<Response> answer;
+            synchronized (this) {
+                answer = answers.get(index);
+            }
+            answer.complete(new Response(60, 0, 1, 1, List.of()));
+        }
+
+        @Override
+        public Map<String, Object> getStats() {
+            return Map.of();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final class TestSource implements AnnounceScheduler.Source {
+        volatile long left = 1000;
+
+        @Override
+        public byte[] peerId() {
+            return new byte[20];
+        }
+
+        @Override
+        public int port() {
+            return 6881;
+        }
+
+        @Override
+        public long uploaded() {
+            return 0;
+        }
+
+        @Override
+        public long downloaded() {
+            return 1000 - left;
+        }
+
+        @Override
+        public long left() {
+            return left;
+        }
+
+        @Override
+        public int connectedPeers() {
+            return 0;
+        }
+
+        @Override
+        public void peersFound(List<InetSocketAddress> peers) {
+        }
+    }
+}
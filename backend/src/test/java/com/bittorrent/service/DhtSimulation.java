@@ -0,0 +1,221 @@
+package com.bittorrent.service;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+// Many DhtNodes on an in-memory network, for checking lookups without the
+// internet. Packets are delivered after a fixed latency and dropped at the
+// given rate; every node and timeout runs on one scheduler thread, so a
+// scenario with the same seed makes the same choices. The run:
+//   1. every node bootstraps through node 0, 32 at a time
+//   2. random nodes announce `torrents` info hashes
+//   3. `lookups` get_peers lookups from random nodes, each checked against
+//      the node that announced
+//   4. a new node joins twice: cold (bootstrap through node 0, then look up)
+//      and warm (routing table restored from the first join, as from the
+//      node cache), to show what the cache saves at startup
+class DhtSimulation {
+    private static final int BOOTSTRAP_BATCH = 32;
+    private static final int ANNOUNCE_PORT = 6881;
+
+    record Scenario(int nodes, int torrents, int lookups, double lossRate, int latencyMillis, long seed) {
+    }
+
+    record Outcome(double avgRoutingTableNodes, double lookupSuccessRate, double avgHops, int maxHops,
+            double avgQueriesPerLookup, Startup startup, long packetsSent, long packetsDropped) {
+    }
+
+    record Startup(Join cold, Join warm, int cachedNodes) {
+    }
+
+    // A new node's first lookup of the first torrent
+    record Join(long millisToFirstLookup, long queriesSent, boolean found) {
+    }
+
+    Outcome run(Scenario scenario) {
+        Random random = new Random(scenario.seed());
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "dht-simulation");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Network network = new Network(scheduler, scenario.latencyMillis(), scenario.lossRate(), random);
+        long timeoutMillis = Math.max(20L * scenario.latencyMillis(), 100);
+        List<DhtNode> nodes = new ArrayList<>();
+        try {
+            for (int i = 0; i < scenario.nodes(); i++) {
+                nodes.add(new DhtNode(randomBytes(random), network.attach(), scheduler, timeoutMillis, 3, random));
+            }
+            InetSocketAddress router = nodes.get(0).getAddress();
+            for (int from = 1; from < nodes.size(); from += BOOTSTRAP_BATCH) {
+                List<CompletableFuture<?>> joins = new ArrayList<>();
+                for (int i = from; i < Math.min(from + BOOTSTRAP_BATCH, nodes.size()); i++) {
+                    joins.add(nodes.get(i).bootstrap(List.of(router)));
+                }
+                CompletableFuture.allOf(joins.toArray(new CompletableFuture<?>[0])).join();
+            }
+
+            // Who announced each torrent
+            List<byte[]> torrents = new ArrayList<>();
+            List<InetSocketAddress> seeders = new ArrayList<>();
+            for (int t = 0; t < scenario.torrents(); t++) {
+                byte[] infoHash = randomBytes(random);
+                DhtNode seeder = nodes.get(random.nextInt(nodes.size()));
+                seeder.announce(infoHash, ANNOUNCE_PORT).join();
+                torrents.add(infoHash);
+                seeders.add(new InetSocketAddress(seeder.getAddress().getAddress(), ANNOUNCE_PORT));
+            }
+
+            int found = 0;
+            List<Integer> hops = new ArrayList<>();
+            long queries = 0;
+            for (int l = 0; l < scenario.lookups(); l++) {
+                int t = random.nextInt(torrents.size());
+                DhtNode.LookupResult result = nodes.get(random.nextInt(nodes.size())).findPeers(torrents.get(t)).join();
+                if (result.peers().contains(seeders.get(t))) {
+                    found++;
+                }
+                hops.add(result.hops());
+                queries += result.queries();
+            }
+
+            int lookups = Math.max(scenario.lookups(), 1);
+            Startup startup = startup(network, scheduler, timeoutMillis, random, router, torrents.get(0),
+                    seeders.get(0));
+            return new Outcome(nodes.stream().mapToInt(n -> n.getTable().size()).average().orElse(0),
+                    (double) found / lookups,
+                    hops.stream().mapToInt(Integer::intValue).average().orElse(0),
+                    hops.stream().mapToInt(Integer::intValue).max().orElse(0),
+                    (double) queries / lookups, startup, network.sent.get(), network.dropped.get());
+        } finally {
+            nodes.forEach(DhtNode::close);
+            scheduler.shutdownNow();
+        }
+    }
+
+    // First lookup after joining, from nothing and from a restored routing table
+    private Startup startup(Network network, ScheduledExecutorService scheduler, long timeoutMillis,
+            Random random, InetSocketAddress router, byte[] infoHash, InetSocketAddress seeder) {
+        byte[] id = randomBytes(random);
+
+        DhtNode cold = new DhtNode(id, network.attach(), scheduler, timeoutMillis, 3, random);
+        List<RoutingTable.Node> table;
+        Join coldJoin;
+        try {
+            long start = System.currentTimeMillis();
+            cold.bootstrap(List.of(router)).join();
+            DhtNode.LookupResult lookup = cold.findPeers(infoHash).join();
+            coldJoin = new Join(System.currentTimeMillis() - start, cold.getQueriesSent(),
+                    lookup.peers().contains(seeder));
+            table = cold.getTable().closest(id, Integer.MAX_VALUE);
+        } finally {
+            cold.close();
+        }
+
+        DhtNode warm = new DhtNode(id, network.attach(), scheduler, timeoutMillis, 3, random);
+        try {
+            long now = System.currentTimeMillis();
+            table.forEach(node -> warm.getTable().seen(node.id, node.address, now));
+            long start = System.currentTimeMillis();
+            DhtNode.LookupResult lookup = warm.findPeers(infoHash).join();
+            return new Startup(coldJoin, new Join(System.currentTimeMillis() - start, warm.getQueriesSent(),
+                    lookup.peers().contains(seeder)), table.size());
+        } finally {
+            warm.close();
+        }
+    }
+
+    private static byte[] randomBytes(Random random) {
+        byte[] bytes = new byte[RoutingTable.ID_LENGTH];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    // In-memory datagrams between 10.x.y.z addresses
+    private static final class Network {
+        private final ScheduledExecutorService scheduler;
+        private final int latencyMillis;
+        private final double lossRate;
+        private final Random random;
+        private final Map<InetSocketAddress, Endpoint> endpoints = new HashMap<>();
+        private final AtomicLong sent = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private int nextHost = 1;
+
+        Network(ScheduledExecutorService scheduler, int latencyMillis, double lossRate, Random random) {
+            this.scheduler = scheduler;
+            this.latencyMillis = latencyMillis;
+            this.lossRate = lossRate;
+            this.random = random;
+        }
+
+        synchronized Endpoint attach() {
+            int host = nextHost++;
+            try {
+                InetAddress address = InetAddress.getByAddress(
+                        new byte[] {10, (byte) (host >> 16), (byte) (host >> 8), (byte) host});
+                Endpoint endpoint = new Endpoint(new InetSocketAddress(address, ANNOUNCE_PORT));
+                endpoints.put(endpoint.address, endpoint);
+                return endpoint;
+            } catch (UnknownHostException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private synchronized void deliver(InetSocketAddress from, InetSocketAddress to, byte[] packet) {
+            sent.incrementAndGet();
+            Endpoint target = endpoints.get(to);
+            if (target == null || random.nextDouble() < lossRate) {
+                dropped.incrementAndGet();
+                return;
+            }
+            byte[] copy = Arrays.copyOf(packet, packet.length);
+            scheduler.schedule(() -> target.receiver.accept(from, copy), latencyMillis, TimeUnit.MILLISECONDS);
+        }
+
+        private final class Endpoint implements DhtTransport {
+            private final InetSocketAddress address;
+            private volatile BiConsumer<InetSocketAddress, byte[]> receiver = (from, packet) -> {
+            };
+
+            Endpoint(InetSocketAddress address) {
+                this.address = address;
+            }
+
+            @Override
+            public void send(InetSocketAddress to, byte[] packet) {
+                deliver(address, to, packet);
+            }
+
+            @Override
+            public void setReceiver(BiConsumer<InetSocketAddress, byte[]> receiver) {
+                this.receiver = receiver;
+            }
+
+            @Override
+            public InetSocketAddress getLocalAddress() {
+                return address;
+            }
+
+            @Override
+            public void close() {
+                synchronized (Network.this) {
+                    endpoints.remove(address);
+                }
+            }
+        }
+    }
+}
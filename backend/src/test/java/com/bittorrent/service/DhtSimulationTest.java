@@ -0,0 +1,42 @@
+package com.bittorrent.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// DhtNodes on the in-memory network; see DhtSimulation for the run
+class DhtSimulationTest {
+    private final DhtSimulation simulation = new DhtSimulation();
+
+    @Test
+    void lookupsFindTheAnnouncingNode() {
+        DhtSimulation.Outcome outcome = simulation.run(new DhtSimulation.Scenario(200, 10, 50, 0.0, 1, 1));
+
+        assertEquals(1.0, outcome.lookupSuccessRate());
+        assertEquals(0, outcome.packetsDropped());
+        assertTrue(outcome.avgRoutingTableNodes() > 8, "tables hold " + outcome.avgRoutingTableNodes() + " nodes");
+        // 200 nodes are a handful of halvings of the id space apart
+        assertTrue(outcome.maxHops() <= 8, "a lookup took " + outcome.maxHops() + " hops");
+    }
+
+    @Test
+    void lookupsSurvivePacketLoss() {
+        DhtSimulation.Outcome outcome = simulation.run(new DhtSimulation.Scenario(100, 5, 20, 0.05, 1, 2));
+
+        assertTrue(outcome.packetsDropped() > 0);
+        assertTrue(outcome.lookupSuccessRate() >= 0.9, "success rate " + outcome.lookupSuccessRate());
+    }
+
+    @Test
+    void cachedNodesSaveTheBootstrap() {
+        DhtSimulation.Startup startup = simulation.run(new DhtSimulation.Scenario(200, 1, 0, 0.0, 1, 3)).startup();
+
+        assertTrue(startup.cold().found());
+        assertTrue(startup.warm().found());
+        assertTrue(startup.cachedNodes() > 0);
+        assertTrue(startup.warm().queriesSent() < startup.cold().queriesSent(),
+                "warm start sent " + startup.warm().queriesSent() + " queries, cold "
+                        + startup.cold().queriesSent());
+    }
+}
@@ -0,0 +1,115 @@
+package com.bittorrent.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PiecePickerTest {
+
+    private static BitSet pieces(int... indexes) {
+        BitSet set = new BitSet();
+        for (int i : indexes) {
+            set.set(i);
+        }
+        return set;
+    }
+
+    // Availability: piece 0 and 1 on three peers, 2 on two, 3 on one
+    private static PiecePicker swarm() {
+        PiecePicker picker = new PiecePicker(4, new BitSet(), new Random(1));
+        picker.addPeer(pieces(0, 1, 2, 3));
+        picker.addPeer(pieces(0, 1, 2));
+        picker.addPeer(pieces(0, 1));
+        return picker;
+    }
+
+    @Test
+    void picksRarestPieceFirst() {
+        PiecePicker picker = swarm();
+        BitSet all = pieces(0, 1, 2, 3);
+
+        assertEquals(3, picker.pick(all));
+        picker.requested(3);
+        assertEquals(2, picker.pick(all));
+        picker.requested(2);
+        int next = picker.pick(all);
+        assertTrue(next == 0 || next == 1);
+    }
+
+    @Test
+    void picksOnlyWhatThePeerHas() {
+        PiecePicker picker = swarm();
+
+        assertEquals(2, picker.pick(pieces(0, 1, 2)));
+        assertEquals(-1, picker.pick(new BitSet()));
+    }
+
+    @Test
+    void skipsCompletedAndInFlightPieces() {
+        PiecePicker picker = swarm();
+        BitSet all = pieces(0, 1, 2, 3);
+        picker.complete(3);
+        picker.requested(2);
+
+        int next = picker.pick(all);
+        assertTrue(next == 0 || next == 1);
+        // In-flight pieces are still missing
+        assertEquals(3, picker.getMissing());
+    }
+
+    @Test
+    void higherPriorityWinsOverRarity() {
+        PiecePicker picker = swarm();
+        picker.setPriorities(new byte[] { 3, 1, 1, 0 });
+        BitSet all = pieces(0, 1, 2, 3);
+
+        assertEquals(0, picker.pick(all));
+        picker.requested(0);
+        assertEquals(2, picker.pick(all));
+        picker.requested(2);
+        assertEquals(1, picker.pick(all));
+        picker.requested(1);
+        // Priority 0 is never picked
+        assertEquals(-1, picker.pick(all));
+    }
+
+    @Test
+    void endgameStartsOnceEveryMissingPieceIsRequested() {
+        PiecePicker picker = swarm();
+        BitSet all = pieces(0, 1, 2, 3);
+        for (int i = 0; i < 3; i++) {
+            picker.requested(picker.pick(all));
+            assertFalse(picker.isEndgame());
+        }
+        picker.requested(picker.pick(all));
+
+        assertTrue(picker.isEndgame());
+        assertEquals(-1, picker.pick(all));
+        // Duplicates go to the rarest of the least duplicated pieces
+        assertEquals(3, picker.pickDuplicate(all, 2));
+        picker.requested(3);
+        assertEquals(2, picker.pickDuplicate(all, 2));
+    }
+
+    @Test
+    void endgameDuplicatesRespectTheLimit() {
+        PiecePicker picker = swarm();
+        BitSet all = pieces(0, 1, 2, 3);
+        for (int i = 0; i < 4; i++) {
+            picker.requested(i);
+            picker.requested(i);
+        }
+
+        assertEquals(-1, picker.pickDuplicate(all, 2));
+        for (int i = 0; i < 4; i++) {
+            picker.complete(i);
+        }
+        assertFalse(picker.isEndgame());
+        assertEquals(0, picker.getMissing());
+    }
+}
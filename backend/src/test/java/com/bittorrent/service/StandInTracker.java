@@ -0,0 +1,163 @@
+package com.bittorrent.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A tracker on loopback answering both HTTP and UDP announces, for
+// TrackerSimulation. It keeps no swarm: every announce gets a few made-up
+// peers from a fixed pool and the configured intervals. It counts the
+// announces it gets per event.
+@Slf4j
+class StandInTracker implements AutoCloseable {
+    private static final long PROTOCOL_ID = 0x41727101980L;
+    private static final int PEER_POOL = 200;
+    private static final String[] UDP_EVENTS = {"none", "completed", "started", "stopped"};
+
+    private final int interval;
+    private final int minInterval;
+    private final int peersPerAnnounce;
+    private final HttpServer http;
+    private final DatagramChannel udp;
+    private final Set<Long> connectionIds = ConcurrentHashMap.newKeySet();
+
+    private final Map<String, AtomicLong> events = new ConcurrentHashMap<>();
+
+    private StandInTracker(int interval, int minInterval, int peersPerAnnounce) throws IOException {
+        this.interval = interval;
+        this.minInterval = minInterval;
+        this.peersPerAnnounce = peersPerAnnounce;
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        http = HttpServer.create(new InetSocketAddress(loopback, 0), 0);
+        udp = DatagramChannel.open();
+        udp.bind(new InetSocketAddress(loopback, 0));
+    }
+
+    // Handlers and the receive thread see the tracker only once it is built
+    static StandInTracker start(int interval, int minInterval, int peersPerAnnounce) throws IOException {
+        StandInTracker tracker = new StandInTracker(interval, minInterval, peersPerAnnounce);
+        tracker.http.createContext("/announce", tracker::handleHttp);
+        tracker.http.start();
+        Thread thread = new Thread(tracker::receiveUdp, "stand-in-tracker");
+        thread.setDaemon(true);
+        thread.start();
+        return tracker;
+    }
+
+    URI httpUri() {
+        InetSocketAddress address = http.getAddress();
+        return URI.create("http://" + address.getAddress().getHostAddress() + ":" + address.getPort() + "/announce");
+    }
+
+    URI udpUri() throws IOException {
+        InetSocketAddress address = (InetSocketAddress) udp.getLocalAddress();
+        return URI.create("udp://" + address.getAddress().getHostAddress() + ":" + address.getPort() + "/announce");
+    }
+
+    private void handleHttp(HttpExchange exchange) throws IOException {
+        String event = "none";
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            for (String param : query.split("&")) {
+                if (param.startsWith("event=")) {
+                    event = param.substring(6);
+                }
+            }
+        }
+        count(event);
+        // Keys in sorted order, as bencoding requires
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] peers = peers();
+        body.writeBytes(("d8:completei1e10:incompletei" + PEER_POOL + "e8:intervali" + interval
+                + "e12:min intervali" + minInterval + "e5:peers" + peers.length + ":").getBytes(StandardCharsets.US_ASCII));
+        body.writeBytes(peers);
+        body.write('e');
+        exchange.sendResponseHeaders(200, body.size());
+        try (OutputStream out = exchange.getResponseBody()) {
+            body.writeTo(out);
+        }
+    }
+
+    private void receiveUdp() {
+        ByteBuffer buffer = ByteBuffer.allocate(1500);
+        while (udp.isOpen()) {
+            try {
+                buffer.clear();
+                SocketAddress from = udp.receive(buffer);
+                buffer.flip();
+                if (from == null || buffer.remaining() < 16) {
+                    continue;
+                }
+                long connectionId = buffer.getLong(0);
+                int action = buffer.getInt(8);
+                int transaction = buffer.getInt(12);
+                if (action == 0 && connectionId == PROTOCOL_ID) {
+                    long id = ThreadLocalRandom.current().nextLong();
+                    connectionIds.add(id);
+                    udp.send(ByteBuffer.allocate(16).putInt(0).putInt(transaction).putLong(id).flip(), from);
+                } else if (action == 1 && buffer.remaining() >= 98) {
+                    if (!connectionIds.contains(connectionId)) {
+                        byte[] message = "Connection ID mismatch".getBytes(StandardCharsets.US_ASCII);
+                        udp.send(ByteBuffer.allocate(8 + message.length).putInt(3).putInt(transaction)
+                                .put(message).flip(), from);
+                        continue;
+                    }
+                    int event = buffer.getInt(80);
+                    count(event >= 0 && event < UDP_EVENTS.length ? UDP_EVENTS[event] : "none");
+                    byte[] peers = peers();
+                    udp.send(ByteBuffer.allocate(20 + peers.length).putInt(1).putInt(transaction).putInt(interval)
+                            .putInt(PEER_POOL).putInt(1).put(peers).flip(), from);
+                }
+            } catch (IOException e) {
+                if (udp.isOpen()) {
+                    log.debug("Stand-in tracker receive failed: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void count(String event) {
+        events.computeIfAbsent(event, e -> new AtomicLong()).incrementAndGet();
+    }
+
+    // Compact peers 10.0.x.y:6881 drawn from the pool
+    private byte[] peers() {
+        ByteBuffer peers = ByteBuffer.allocate(peersPerAnnounce * 6);
+        for (int i = 0; i < peersPerAnnounce; i++) {
+            int n = ThreadLocalRandom.current().nextInt(PEER_POOL) + 1;
+            peers.put((byte) 10).put((byte) 0).put((byte) (n >> 8)).put((byte) n).putShort((short) 6881);
+        }
+        return peers.array();
+    }
+
+    long getEvents(String event) {
+        AtomicLong count = events.get(event);
+        return count != null ? count.get() : 0;
+    }
+
+    @Override
+    public void close() {
+        http.stop(0);
+        try {
+            udp.close();
+        } catch (IOException e) {
+            log.debug("Stand-in tracker close failed: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.bittorrent.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+// In-process swarm model for comparing piece pickers without a network. One
+// downloader talks to fake peers that each serve queued block requests at
+// their own rate after a fixed latency; time advances in ticks. Two policies
+// run on the same swarm (same seed):
+//   baseline - ttorrent 1.5: a random piece among the 42 rarest, one piece
+//              per peer, 5 blocks in flight, duplicate pieces only past 95%
+//              completion, no cancels
+//   picker   - PiecePicker rarest-first with the configured pipeline depth and
+//              block-level endgame: missing blocks are requested again from
+//              other peers and cancelled everywhere once one copy arrives
+class SwarmSimulator {
+    private static final int BASELINE_DEPTH = 5;
+    private static final int BASELINE_JITTER = 42;
+    private static final int MAX_TICKS = 10_000_000;
+
+    record Scenario(int pieces, int blocksPerPiece, int peers, double seedFraction,
+            double slowPeerFraction, int latencyTicks, int pipelineDepth, long seed) {
+    }
+
+    record Outcome(String policy, long ticks, boolean completed, long blocksReceived,
+            long duplicateBlocks, long cancels) {
+    }
+
+    Outcome baseline(Scenario scenario) {
+        return new Run(scenario, false).execute();
+    }
+
+    Outcome picker(Scenario scenario) {
+        return new Run(scenario, true).execute();
+    }
+
+    private static final class FakePeer {
+        final BitSet pieces;
+        final double blocksPerTick;
+        final ArrayDeque<Integer> queue = new ArrayDeque<>();
+        double credit = 0;
+        int outstanding = 0;
+        int currentPiece = -1;
+        int nextBlock = 0;
+
+        FakePeer(BitSet pieces, double blocksPerTick) {
+            this.pieces = pieces;
+            this.blocksPerTick = blocksPerTick;
+        }
+    }
+
+    private record Delivery(long tick, int peer, int block) {
+    }
+
+    private static final class Run {
+        final Scenario s;
+        final boolean usePicker;
+        final Random random;
+        final List<FakePeer> peers = new ArrayList<>();
+        final BitSet received = new BitSet();
+        final int[] receivedPerPiece;
+        final byte[] requestsPerBlock;
+        final BitSet completedPieces = new BitSet();
+        final BitSet requestedPieces = new BitSet();
+        final int[] availability;
+        final ArrayDeque<Delivery> inTransit = new ArrayDeque<>();
+        final PiecePicker picker;
+        long blocksReceived = 0;
+        long duplicates = 0;
+        long cancels = 0;
+
+        Run(Scenario s, boolean usePicker) {
+            this.s = s;
+            this.usePicker = usePicker;
+            this.random = new Random(s.seed());
+            this.receivedPerPiece = new int[s.pieces()];
+            this.requestsPerBlock = new byte[s.pieces() * s.blocksPerPiece()];
+            this.availability = new int[s.pieces()];
+            // Same swarm for both policies: draw it from its own generator
+            Random swarm = new Random(s.seed());
+            for (int p = 0; p < s.peers(); p++) {
+                BitSet have = new BitSet(s.pieces());
+                if (swarm.nextDouble() < s.seedFraction()) {
+                    have.set(0, s.pieces());
+                } else {
+                    double fill = 0.2 + swarm.nextDouble() * 0.7;
+                    for (int i = 0; i < s.pieces(); i++) {
+                        if (swarm.nextDouble() < fill) {
+                            have.set(i);
+                        }
+                    }
+                }
+                double rate = swarm.nextDouble() < s.slowPeerFraction()
+                        ? 0.02 + swarm.nextDouble() * 0.08
+                        : 0.5 + swarm.nextDouble() * 1.5;
+                peers.add(new FakePeer(have, rate));
+                for (int i = have.nextSetBit(0); i >= 0; i = have.nextSetBit(i + 1)) {
+                    availability[i]++;
+                }
+            }
+            this.picker = new PiecePicker(s.pieces(), new BitSet(), random);
+            peers.forEach(peer -> picker.addPeer(peer.pieces));
+        }
+
+        Outcome execute() {
+            BitSet reachable = new BitSet();
+            peers.forEach(peer -> reachable.or(peer.pieces));
+            if (reachable.cardinality() < s.pieces()) {
+                return new Outcome(policy(), 0, false, 0, 0, 0);
+            }
+            long tick = 0;
+            while (completedPieces.cardinality() < s.pieces() && tick < MAX_TICKS) {
+                deliver(tick);
+                for (int p = 0; p < peers.size(); p++) {
+                    fill(p);
+                }
+                serve(tick);
+                tick++;
+            }
+            return new Outcome(policy(), tick, completedPieces.cardinality() == s.pieces(), blocksReceived,
+                    duplicates, cancels);
+        }
+
+        private String policy() {
+            return usePicker ? "picker" : "baseline";
+        }
+
+        private void serve(long tick) {
+            for (int p = 0; p < peers.size(); p++) {
+                FakePeer peer = peers.get(p);
+                peer.credit = Math.min(peer.credit + peer.blocksPerTick, Math.max(peer.blocksPerTick, 1.0));
+                while (peer.credit >= 1.0 && !peer.queue.isEmpty()) {
+                    peer.credit -= 1.0;
+                    inTransit.add(new Delivery(tick + s.latencyTicks(), p, peer.queue.poll()));
+                }
+            }
+        }
+
+        private void deliver(long tick) {
+            while (!inTransit.isEmpty() && inTransit.peek().tick() <= tick) {
+                Delivery d = inTransit.poll();
+                FakePeer peer = peers.get(d.peer());
+                peer.outstanding--;
+                if (requestsPerBlock[d.block()] > 0) {
+                    requestsPerBlock[d.block()]--;
+                }
+                blocksReceived++;
+                if (received.get(d.block())) {
+                    duplicates++;
+                    continue;
+                }
+                received.set(d.block());
+                int piece = d.block() / s.blocksPerPiece();
+                if (usePicker && requestsPerBlock[d.block()] > 0) {
+                    cancelElsewhere(d.block());
+                }
+                if (++receivedPerPiece[piece] == s.blocksPerPiece()) {
+                    completedPieces.set(piece);
+                    picker.complete(piece);
+                }
+            }
+        }
+
+        // Endgame cancel: drop still-queued copies of the block at other peers
+        private void cancelElsewhere(int block) {
+            for (FakePeer peer : peers) {
+                Iterator<Integer> it = peer.queue.iterator();
+                while (it.hasNext()) {
+                    if (it.next() == block) {
+                        it.remove();
+                        peer.outstanding--;
+                        requestsPerBlock[block]--;
+                        cancels++;
+                    }
+                }
+            }
+        }
+
+        private void fill(int p) {
+            FakePeer peer = peers.get(p);
+            int depth = usePicker ? s.pipelineDepth() : BASELINE_DEPTH;
+            while (peer.outstanding < depth) {
+                int block = usePicker ? nextPickerBlock(peer) : nextBaselineBlock(peer);
+                if (block < 0) {
+                    return;
+                }
+                peer.queue.add(block);
+                peer.outstanding++;
+                requestsPerBlock[block]++;
+            }
+        }
+
+        // Blocks of the peer's piece in order, then a new rarest piece, then endgame duplicates
+        private int nextPickerBlock(FakePeer peer) {
+            while (true) {
+                if (peer.currentPiece >= 0) {
+                    int base = peer.currentPiece * s.blocksPerPiece();
+                    while (peer.nextBlock < s.blocksPerPiece()) {
+                        int block = base + peer.nextBlock++;
+                        if (!received.get(block) && requestsPerBlock[block] == 0) {
+                            return block;
+                        }
+                    }
+                    // Stays in flight in the picker until it completes
+                    peer.currentPiece = -1;
+                }
+                int piece = picker.pick(peer.pieces);
+                if (piece < 0) {
+                    return endgameBlock(peer);
+                }
+                picker.requested(piece);
+                peer.currentPiece = piece;
+                peer.nextBlock = 0;
+            }
+        }
+
+        private int endgameBlock(FakePeer peer) {
+            for (int piece = peer.pieces.nextSetBit(0); piece >= 0; piece = peer.pieces.nextSetBit(piece + 1)) {
+                if (completedPieces.get(piece)) {
+                    continue;
+                }
+                int base = piece * s.blocksPerPiece();
+                for (int b = 0; b < s.blocksPerPiece(); b++) {
+                    int block = base + b;
+                    if (!received.get(block) && requestsPerBlock[block] < 2 && !peer.queue.contains(block)) {
+                        return block;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        // ttorrent: a peer finishes requesting its whole piece before it is given another
+        private int nextBaselineBlock(FakePeer peer) {
+            if (peer.currentPiece >= 0 && completedPieces.get(peer.currentPiece)) {
+                requestedPieces.clear(peer.currentPiece);
+                peer.currentPiece = -1;
+            }
+            if (peer.currentPiece >= 0) {
+                if (peer.nextBlock < s.blocksPerPiece()) {
+                    return peer.currentPiece * s.blocksPerPiece() + peer.nextBlock++;
+                }
+                if (peer.outstanding > 0) {
+                    return -1;
+                }
+                // Whole piece requested and answered but still incomplete elsewhere; start over
+                requestedPieces.clear(peer.currentPiece);
+                peer.currentPiece = -1;
+            }
+            BitSet interesting = (BitSet) peer.pieces.clone();
+            interesting.andNot(completedPieces);
+            BitSet fresh = (BitSet) interesting.clone();
+            fresh.andNot(requestedPieces);
+            if (fresh.isEmpty()) {
+                if (interesting.isEmpty() || completedPieces.cardinality() < 0.95f * s.pieces()) {
+                    return -1;
+                }
+                fresh = interesting;
+            }
+            int piece = baselineChoice(fresh);
+            requestedPieces.set(piece);
+            peer.currentPiece = piece;
+            peer.nextBlock = 0;
+            return piece * s.blocksPerPiece() + peer.nextBlock++;
+        }
+
+        // Random piece among the 42 rarest interesting ones
+        private int baselineChoice(BitSet interesting) {
+            List<Integer> candidates = new ArrayList<>();
+            for (int i = interesting.nextSetBit(0); i >= 0; i = interesting.nextSetBit(i + 1)) {
+                candidates.add(i);
+            }
+            candidates.sort((a, b) -> Integer.compare(availability[a], availability[b]));
+            int n = Math.min(candidates.size(), BASELINE_JITTER);
+            return candidates.get(random.nextInt(n));
+        }
+    }
+}
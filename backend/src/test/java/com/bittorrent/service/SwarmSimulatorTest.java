@@ -0,0 +1,51 @@
+package com.bittorrent.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Both policies run on the same simulated swarm; see SwarmSimulator for the model
+class SwarmSimulatorTest {
+    private final SwarmSimulator simulator = new SwarmSimulator();
+
+    private static SwarmSimulator.Scenario scenario(double seedFraction, double slowPeerFraction, long seed) {
+        return new SwarmSimulator.Scenario(400, 16, 30, seedFraction, slowPeerFraction, 5, 10, seed);
+    }
+
+    @Test
+    void pickerFinishesFasterThanTtorrentBaseline() {
+        for (long seed = 1; seed <= 3; seed++) {
+            SwarmSimulator.Scenario s = scenario(0.1, 0.2, seed);
+            SwarmSimulator.Outcome baseline = simulator.baseline(s);
+            SwarmSimulator.Outcome picker = simulator.picker(s);
+
+            assertTrue(baseline.completed());
+            assertTrue(picker.completed());
+            assertTrue(picker.ticks() < baseline.ticks(),
+                    "picker took " + picker.ticks() + " ticks, baseline " + baseline.ticks());
+        }
+    }
+
+    @Test
+    void endgameCancelsKeepDuplicatesLow() {
+        SwarmSimulator.Scenario s = scenario(0.1, 0.4, 1);
+        SwarmSimulator.Outcome picker = simulator.picker(s);
+
+        assertTrue(picker.completed());
+        // Slow peers leave blocks hanging at the end; endgame re-requests them and cancels the rest
+        assertTrue(picker.cancels() > 0);
+        long blocks = (long) s.pieces() * s.blocksPerPiece();
+        assertTrue(picker.duplicateBlocks() < blocks / 20,
+                picker.duplicateBlocks() + " duplicate blocks out of " + blocks);
+    }
+
+    @Test
+    void incompleteSwarmNeverCompletes() {
+        // No seeds and one peer: the pieces it lacks exist nowhere
+        SwarmSimulator.Scenario s = new SwarmSimulator.Scenario(200, 4, 1, 0.0, 0.0, 1, 10, 7);
+
+        assertFalse(simulator.picker(s).completed());
+        assertFalse(simulator.baseline(s).completed());
+    }
+}
@@ -0,0 +1,193 @@
+package com.bittorrent.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// An AnnounceScheduler announcing `torrents` torrents for `seconds` seconds to
+// a StandInTracker on loopback. The announce list puts `deadTrackers` trackers
+// that never answer (UDP that times out, HTTP that refuses) in the first tier
+// and the stand-in's UDP and HTTP endpoints in the second, so the run shows:
+//   - how many requests the dead trackers cost once their failure is shared,
+//     against every torrent finding out for itself
+//   - how often UDP announces reuse a connection id instead of connecting
+//   - announces brought forward to share a batch with others on the same host
+//   - the min interval while a torrent has few peers, the interval after
+// Half the torrents complete midway; at the end all of them unregister, and
+// every tracker that heard "started" should hear "stopped".
+class TrackerSimulation {
+    private static final int PEERS_PER_ANNOUNCE = 5;
+    private static final int WANT_PEERS = 20;
+    private static final String DEAD_HOST = "127.0.0.2";
+
+    record Scenario(int torrents, int seconds, int interval, int minInterval, int deadTrackers, long seed) {
+    }
+
+    // deadTrackerRequestsUnshared is each torrent trying each dead tracker
+    // once, as independent clients would at least do
+    record Outcome(long announces, int torrentsWithPeers, long maxMillisToFirstPeers, long deadTrackerRequests,
+            long deadTrackerRequestsUnshared, long coalesced, double udpConnectsPerAnnounce, long startedEvents,
+            long completedEvents, long stoppedEvents) {
+    }
+
+    Outcome run(Scenario scenario) {
+        Random random = new Random(scenario.seed());
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "tracker-simulation");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Map<String, TrackerProtocol> protocols = new LinkedHashMap<>();
+        try (StandInTracker standIn = StandInTracker.start(scenario.interval(), scenario.minInterval(),
+                PEERS_PER_ANNOUNCE)) {
+            UdpTrackerProtocol udp = new UdpTrackerProtocol(timer, 200, 2);
+            protocols.put("udp", udp);
+            protocols.put("http", new HttpTrackerProtocol(1000));
+
+            List<URI> dead = new ArrayList<>();
+            for (int i = 0; i < scenario.deadTrackers(); i++) {
+                dead.add(URI.create((i % 2 == 0 ? "udp" : "http") + "://" + DEAD_HOST + ":" + unusedPort(i % 2 == 0)
+                        + "/announce"));
+            }
+            List<List<URI>> announceList = new ArrayList<>();
+            if (!dead.isEmpty()) {
+                announceList.add(dead);
+            }
+            announceList.add(List.of(standIn.httpUri(), standIn.udpUri()));
+
+            AnnounceScheduler scheduler = new AnnounceScheduler(protocols, timer, new AnnounceScheduler.Settings(
+                    100, scenario.interval(), scenario.minInterval(), scenario.interval() * 4, 1, 8,
+                    Math.max(scenario.interval() / 2, 1), 8, 50, WANT_PEERS));
+            scheduler.start();
+
+            long start = System.currentTimeMillis();
+            List<SimTorrent> torrents = new ArrayList<>();
+            for (int t = 0; t < scenario.torrents(); t++) {
+                byte[] infoHash = new byte[20];
+                byte[] peerId = new byte[20];
+                random.nextBytes(infoHash);
+                random.nextBytes(peerId);
+                SimTorrent torrent = new SimTorrent(peerId, start);
+                torrents.add(torrent);
+                scheduler.register(t, infoHash, announceList, torrent);
+            }
+
+            Thread.sleep(scenario.seconds() * 500L);
+            for (int t = 0; t < torrents.size(); t += 2) {
+                torrents.get(t).left = 0;
+                scheduler.completed(t);
+            }
+            Thread.sleep(scenario.seconds() * 500L);
+            Map<String, Object> schedulerStats = scheduler.getStats();
+            scheduler.stop().get(5, TimeUnit.SECONDS);
+
+            int withPeers = 0;
+            long maxFirstPeersMillis = 0;
+            for (SimTorrent torrent : torrents) {
+                if (torrent.firstPeersAt > 0) {
+                    withPeers++;
+                    maxFirstPeersMillis = Math.max(maxFirstPeersMillis, torrent.firstPeersAt - start);
+                }
+            }
+            @SuppressWarnings("unchecked")
+            Map<String, Long> requestsByHost = (Map<String, Long>) schedulerStats.get("requestsByHost");
+            Map<String, Object> udpStats = udp.getStats();
+            long udpAnnounces = (Long) udpStats.get("announces");
+            return new Outcome((Long) schedulerStats.get("announces"), withPeers, maxFirstPeersMillis,
+                    requestsByHost.getOrDefault(DEAD_HOST, 0L), (long) torrents.size() * dead.size(),
+                    (Long) schedulerStats.get("coalesced"),
+                    udpAnnounces > 0 ? (double) (Long) udpStats.get("connects") / udpAnnounces : 0.0,
+                    standIn.getEvents("started"), standIn.getEvents("completed"), standIn.getEvents("stopped"));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Simulation interrupted");
+        } catch (Exception e) {
+            throw new RuntimeException("Simulation failed: " + e.getMessage(), e);
+        } finally {
+            protocols.values().forEach(TrackerProtocol::close);
+            timer.shutdownNow();
+        }
+    }
+
+    // A port nothing listens on right now
+    private static int unusedPort(boolean udp) throws IOException {
+        InetSocketAddress any = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        if (udp) {
+            try (DatagramSocket socket = new DatagramSocket(any)) {
+                return socket.getLocalPort();
+            }
+        }
+        try (ServerSocket socket = new ServerSocket()) {
+            socket.bind(any);
+            return socket.getLocalPort();
+        }
+    }
+
+    // A download that connects to every peer it is given
+    private static final class SimTorrent implements AnnounceScheduler.Source {
+        private final byte[] peerId;
+        private final long start;
+        private final Set<InetSocketAddress> peers = new HashSet<>();
+        volatile long left = 1L << 30;
+        volatile long firstPeersAt;
+
+        SimTorrent(byte[] peerId, long start) {
+            this.peerId = peerId;
+            this.start = start;
+        }
+
+        @Override
+        public byte[] peerId() {
+            return peerId;
+        }
+
+        @Override
+        public int port() {
+            return 6881;
+        }
+
+        @Override
+        public long uploaded() {
+            return 0;
+        }
+
+        @Override
+        public long downloaded() {
+            return (1L << 30) - left;
+        }
+
+        @Override
+        public long left() {
+            return left;
+        }
+
+        @Override
+        public synchronized int connectedPeers() {
+            return peers.size();
+        }
+
+        @Override
+        public synchronized void peersFound(List<InetSocketAddress> found) {
+            if (firstPeersAt == 0) {
+                firstPeersAt = Math.max(System.currentTimeMillis(), start + 1);
+            }
+            peers.addAll(found);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.bittorrent.service;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// One run against the loopback stand-in behind two dead trackers, shared by
+// the checks since it takes wall-clock seconds; see TrackerSimulation
+class TrackerSimulationTest {
+    private static final TrackerSimulation.Scenario SCENARIO = new TrackerSimulation.Scenario(30, 6, 2, 1, 2, 1);
+    private static TrackerSimulation.Outcome outcome;
+
+    @BeforeAll
+    static void run() {
+        outcome = new TrackerSimulation().run(SCENARIO);
+    }
+
+    @Test
+    void everyTorrentFindsPeersPastTheDeadTier() {
+        assertEquals(SCENARIO.torrents(), outcome.torrentsWithPeers());
+        assertTrue(outcome.maxMillisToFirstPeers() < SCENARIO.seconds() * 1000L / 2,
+                "first peers after " + outcome.maxMillisToFirstPeers() + " ms");
+    }
+
+    @Test
+    void deadTrackerFailuresAreShared() {
+        assertTrue(outcome.deadTrackerRequests() < outcome.deadTrackerRequestsUnshared(),
+                outcome.deadTrackerRequests() + " requests to dead trackers, "
+                        + outcome.deadTrackerRequestsUnshared() + " unshared");
+    }
+
+    @Test
+    void udpConnectionIdsAreReused() {
+        assertTrue(outcome.udpConnectsPerAnnounce() < 0.5,
+                outcome.udpConnectsPerAnnounce() + " connects per announce");
+    }
+
+    @Test
+    void announcesAreCoalesced() {
+        assertTrue(outcome.coalesced() > 0);
+    }
+
+    @Test
+    void everyStartedTorrentIsStopped() {
+        assertEquals(SCENARIO.torrents(), outcome.startedEvents());
+        assertEquals(SCENARIO.torrents() / 2, outcome.completedEvents());
+        assertEquals(outcome.startedEvents(), outcome.stoppedEvents());
+    }
+}
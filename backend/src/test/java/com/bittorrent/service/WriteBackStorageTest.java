@@ -0,0 +1,121 @@
+package com.bittorrent.service;
+
+import com.turn.ttorrent.client.storage.TorrentByteStorage;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The write-back layer over an in-memory storage that records each write's offset
+class WriteBackStorageTest {
+    private static final int PIECE = 16;
+
+    private final MemoryStorage disk = new MemoryStorage(PIECE * 8);
+    private final WriteBackStorage storage = new WriteBackStorage(disk, cache(), PIECE);
+
+    private static WriteBackCache cache() {
+        WriteBackCache cache = new WriteBackCache(PIECE * 4);
+        ReflectionTestUtils.setField(cache, "maxBytes", (long) PIECE * 8);
+        ReflectionTestUtils.setField(cache, "flushBytes", (long) PIECE * 8);
+        return cache;
+    }
+
+    @Test
+    void directReadWritesOnlyTheVerifiedPiecesUnderIt() throws Exception {
+        write(0, (byte) 1);
+        write(1, (byte) 2);
+        write(2, (byte) 3);
+        write(4, (byte) 5);
+        storage.verified(1);
+        storage.verified(4);
+
+        // Runs past the end of piece 1 into piece 2, so it goes to the disk
+        storage.read(ByteBuffer.allocate(PIECE), PIECE + 1);
+
+        // Piece 1 went out; piece 2 was unverified and was dropped, piece 4 is outside the range
+        assertEquals(List.of((long) PIECE), disk.writes);
+        assertEquals(PIECE * 2L, storage.getDirtyBytes());
+        assertEquals(PIECE, storage.getVerifiedBytes());
+        byte[] unwritten = new byte[PIECE];
+        assertEquals(0, Arrays.compare(unwritten, Arrays.copyOfRange(disk.data, PIECE * 2, PIECE * 3)));
+    }
+
+    @Test
+    void unalignedWriteKeepsPiecesOutsideItsRange() throws Exception {
+        write(0, (byte) 1);
+        write(3, (byte) 4);
+        storage.verified(0);
+        storage.verified(3);
+
+        storage.write(ByteBuffer.wrap(new byte[4]), 2);
+
+        assertEquals(List.of(0L, 2L), disk.writes);
+        assertEquals(PIECE, storage.getDirtyBytes());
+    }
+
+    @Test
+    void hashCheckStartsWithTheWholePieceRead() throws Exception {
+        write(1, (byte) 2);
+        storage.read(ByteBuffer.allocate(4), PIECE);
+        assertEquals(0, storage.hashCheckStarted(1));
+
+        long before = System.nanoTime();
+        storage.read(ByteBuffer.allocate(PIECE), PIECE);
+        assertTrue(storage.hashCheckStarted(1) - before >= 0);
+        assertEquals(0, storage.hashCheckStarted(2));
+    }
+
+    private void write(int index, byte value) throws Exception {
+        byte[] piece = new byte[PIECE];
+        Arrays.fill(piece, value);
+        storage.write(ByteBuffer.wrap(piece), (long) index * PIECE);
+    }
+
+    private static final class MemoryStorage implements TorrentByteStorage {
+        final byte[] data;
+        final List<Long> writes = new ArrayList<>();
+
+        MemoryStorage(int size) {
+            data = new byte[size];
+        }
+
+        @Override
+        public int read(ByteBuffer buffer, long offset) {
+            int length = buffer.remaining();
+            buffer.put(data, (int) offset, length);
+            return length;
+        }
+
+        @Override
+        public int write(ByteBuffer buffer, long offset) {
+            int length = buffer.remaining();
+            buffer.get(data, (int) offset, length);
+            writes.add(offset);
+            return length;
+        }
+
+        @Override
+        public long size() {
+            return data.length;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void finish() {
+        }
+
+        @Override
+        public boolean isFinished() {
+            return false;
+        }
+    }
+}
@@ -23,4 +23,48 @@ if [ ! -z "$TORRENT_ID" ]; then
     curl -s "$BASE_URL/$TORRENT_ID/status" | jq '.'
 fi
 
+# 5. Bulk import: zip up local .torrent files and post them (known ones come back as DUPLICATE)
+TORRENT_DIR="${TORRENT_DIR:-torrents}"
+if ls "$TORRENT_DIR"/*.torrent >/dev/null 2>&1; then
+    echo -e "\n5. Bulk import of $TORRENT_DIR:"
+    (cd "$TORRENT_DIR" && zip -q - *.torrent) | curl -s -X POST -H "Content-Type: application/zip" \
+        --data-binary @- "$BASE_URL/import" | jq '{total, imported, duplicates, invalid, elapsedMillis}'
+fi
+
+# 6. Payload files of the first torrent, and the first kilobyte of its first file
+if [ ! -z "$TORRENT_ID" ]; then
+    echo -e "\n6. Payload files of torrent ID $TORRENT_ID:"
+    curl -s "$BASE_URL/$TORRENT_ID/files" | jq '.'
+    curl -s -o /dev/null -H "Range: bytes=0-1023" -w "first file: HTTP %{http_code}, %{size_download} bytes\n" \
+        "$BASE_URL/$TORRENT_ID/files/0"
+fi
+
+# 7. Startup recovery of downloads the last restart interrupted
+echo -e "\n7. Startup recovery:"
+curl -s "$BASE_URL/stats/recovery" | jq '.'
+
+# 8. Skip the first file of the first torrent, then put every file's priority back as it was
+if [ ! -z "$TORRENT_ID" ]; then
+    echo -e "\n8. File priorities of torrent ID $TORRENT_ID:"
+    # One "value=...&index=...&index=..." query per priority the files had before
+    RESTORE=$(curl -s "$BASE_URL/$TORRENT_ID/files" | jq -r 'group_by(.priority // "NORMAL")[]
+        | "value=\(.[0].priority // "NORMAL")" + (map("&index=\(.index)") | join(""))' 2>/dev/null)
+    if [ -z "$RESTORE" ]; then
+        echo "Could not read the current file priorities; leaving them alone"
+    else
+        curl -s -X POST "$BASE_URL/$TORRENT_ID/files/priority?value=SKIP&index=0" | jq 'map({index, path, priority})'
+        for QUERY in $RESTORE; do
+            curl -s -o /dev/null -X POST "$BASE_URL/$TORRENT_ID/files/priority?$QUERY"
+        done
+        curl -s "$BASE_URL/$TORRENT_ID/files" | jq 'map({index, path, priority})'
+    fi
+fi
+
+# 9. Speed history of the first torrent (404 until it has run), and history/retention stats
+if [ ! -z "$TORRENT_ID" ]; then
+    echo -e "\n9. Speed history of torrent ID $TORRENT_ID:"
+    curl -s "$BASE_URL/$TORRENT_ID/history?minutes=60&points=30" | jq '{resolution, stepSeconds, points, downloadSpeed}'
+fi
+curl -s "$BASE_URL/stats/history" | jq '.'
+
 echo -e "\n=== Test Complete ===" 
\ No newline at end of file
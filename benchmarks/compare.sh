@@ -0,0 +1,36 @@
+#!/bin/bash
+
+# Compares a JMH JSON result against a baseline and fails on regressions.
+# Usage: ./compare.sh baseline.json [result.json] [threshold-percent]
+BASELINE="$1"
+RESULT="${2:-$(dirname "$0")/target/jmh-result.json}"
+THRESHOLD="${3:-10}"
+
+if [ -z "$BASELINE" ] || [ ! -f "$BASELINE" ] || [ ! -f "$RESULT" ]; then
+    echo "Usage: $0 baseline.json [result.json] [threshold-percent]" >&2
+    exit 2
+fi
+
+# One line per benchmark and parameter set present in both files. Time modes
+# regress when the score grows, throughput when it shrinks.
+REPORT=$(jq -r -n --slurpfile base "$BASELINE" --slurpfile run "$RESULT" --argjson threshold "$THRESHOLD" '
+    def key: .benchmark + ((.params // {}) | to_entries | sort_by(.key) | map(" " + .key + "=" + .value) | join(""));
+    ($base[0] | map({key: key, value: .primaryMetric.score}) | from_entries) as $before
+    | $run[0][]
+    | key as $k
+    | select($before[$k] != null and $before[$k] > 0)
+    | ((.primaryMetric.score / $before[$k] - 1) * 100) as $change
+    | (if .mode == "thrpt" then -$change else $change end) as $worse
+    | [(if $worse > $threshold then "REGRESSION" else "ok" end), $k,
+       ($before[$k] | tostring), (.primaryMetric.score | tostring), .primaryMetric.scoreUnit,
+       (($change * 10 | round) / 10 | tostring) + "%"]
+    | @tsv')
+
+echo "$REPORT"
+REGRESSIONS=$(echo "$REPORT" | grep -c "^REGRESSION")
+
+if [ "$REGRESSIONS" -gt 0 ]; then
+    echo -e "\n$REGRESSIONS benchmark(s) regressed by more than $THRESHOLD%"
+    exit 1
+fi
+echo -e "\nNo regressions above $THRESHOLD%"
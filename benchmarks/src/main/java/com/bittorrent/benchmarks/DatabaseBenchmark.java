@@ -0,0 +1,141 @@
+package com.bittorrent.benchmarks;
+
+import com.bittorrent.model.Download;
+import com.bittorrent.service.LiveStatsStore;
+import com.bittorrent.service.ProgressFlusher;
+import com.bittorrent.service.ProgressSnapshot;
+import com.bittorrent.service.StatusCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Database-backed paths, with the application booted on in-memory H2 and the
+// download table filled with `rows` rows of mixed status:
+//   overview - GET /stats/overview, served from the in-memory counters
+//   resync   - the grouped count and byte sums that reseed those counters
+//   flush    - one ProgressFlusher JDBC batch for `active` live downloads
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class DatabaseBenchmark {
+    private static final String[] STATUSES = {"COMPLETED", "COMPLETED", "COMPLETED", "FAILED", "PAUSED", "QUEUED"};
+    private static final int INSERT_BATCH = 10_000;
+
+    @Param({"10000", "100000", "1000000"})
+    public int rows;
+
+    @Param({"100"})
+    public int active;
+
+    private Path dir;
+    private ConfigurableApplicationContext context;
+    private StatusCounters counters;
+    private ProgressFlusher flusher;
+    private LiveStatsStore liveStats;
+    private List<Long> activeTorrents;
+    private long tick;
+
+    @Setup
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("db-bench");
+        context = Fixtures.boot(dir);
+        JdbcTemplate jdbc = context.getBean(JdbcTemplate.class);
+        counters = context.getBean(StatusCounters.class);
+        flusher = context.getBean(ProgressFlusher.class);
+        liveStats = context.getBean(LiveStatsStore.class);
+
+        // One torrent per active download, plus one that owns the history
+        List<Object[]> torrents = new ArrayList<>();
+        for (int i = 0; i <= active; i++) {
+            torrents.add(new Object[] {"bench-" + i, "bench-" + i, 1L << 30});
+        }
+        jdbc.batchUpdate("INSERT INTO torrent (info_hash, name, length) VALUES (?, ?, ?)", torrents);
+        List<Long> torrentIds = jdbc.queryForList("SELECT id FROM torrent ORDER BY id", Long.class);
+
+        String insert = "INSERT INTO download (torrent_id, status, progress, downloaded_bytes, uploaded_bytes, "
+                + "total_bytes, last_updated) VALUES (?, ?, ?, ?, ?, ?, ?)";
+        Random random = new Random(1);
+        LocalDateTime now = LocalDateTime.now();
+        List<Object[]> batch = new ArrayList<>(INSERT_BATCH);
+        for (int i = 0; i < rows; i++) {
+            String status = STATUSES[random.nextInt(STATUSES.length)];
+            long downloaded = random.nextInt(1 << 30);
+            batch.add(new Object[] {torrentIds.get(0), status, 1.0, downloaded, downloaded / 2, 1L << 30, now});
+            if (batch.size() == INSERT_BATCH) {
+                jdbc.batchUpdate(insert, batch);
+                batch.clear();
+            }
+        }
+        for (int i = 1; i <= active; i++) {
+            batch.add(new Object[] {torrentIds.get(i), "DOWNLOADING", 0.0, 0L, 0L, 1L << 30, now});
+        }
+        jdbc.batchUpdate(insert, batch);
+
+        // Live entries for the active rows, as runDownload registers them
+        activeTorrents = torrentIds.subList(1, torrentIds.size());
+        for (Map<String, Object> row : jdbc.queryForList(
+                "SELECT id, torrent_id FROM download WHERE status = 'DOWNLOADING'")) {
+            Download download = new Download();
+            download.setId(((Number) row.get("id")).longValue());
+            liveStats.register(((Number) row.get("torrent_id")).longValue(), download);
+        }
+        counters.resync();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        context.close();
+        Fixtures.deleteRecursively(dir);
+    }
+
+    // Every active download reports once per flush interval
+    @Setup(Level.Invocation)
+    public void publish() {
+        tick++;
+        for (Long torrentId : activeTorrents) {
+            liveStats.publish(torrentId, new ProgressSnapshot(0.5, tick * 16384, 3_145_728L, 524_288L, 12, 40,
+                    5_432L, tick * 4096, 0.25, LocalDateTime.now()));
+        }
+    }
+
+    @Benchmark
+    public Map<String, Object> overview() {
+        return counters.overview();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void resync() {
+        counters.resync();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void flush() {
+        flusher.flush();
+    }
+}
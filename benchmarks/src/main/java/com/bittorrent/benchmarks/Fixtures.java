@@ -0,0 +1,116 @@
+package com.bittorrent.benchmarks;
+
+import com.bittorrent.BitTorrentApplication;
+import com.turn.ttorrent.bcodec.BEValue;
+import com.turn.ttorrent.bcodec.BEncoder;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+// Synthetic inputs shared by the suites: bencoded .torrent files, payloads
+// with matching piece hashes, and the application booted against H2
+public final class Fixtures {
+    public static final String ANNOUNCE = "http://localhost:6969/announce";
+
+    private Fixtures() {
+    }
+
+    // Single-file .torrent whose piece table is the given hashes
+    public static byte[] metainfo(String name, long length, int pieceLength, byte[] hashes) throws IOException {
+        Map<String, BEValue> info = new HashMap<>();
+        info.put("name", new BEValue(name));
+        info.put("length", new BEValue(length));
+        info.put("piece length", new BEValue(pieceLength));
+        info.put("pieces", new BEValue(hashes));
+
+        Map<String, BEValue> root = new HashMap<>();
+        root.put("announce", new BEValue(ANNOUNCE));
+        root.put("announce-list", new BEValue(List.of(new BEValue(List.of(new BEValue(ANNOUNCE))))));
+        root.put("created by", new BEValue("bittorrent-benchmarks"));
+        root.put("info", new BEValue(info));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BEncoder.bencode(root, out);
+        return out.toByteArray();
+    }
+
+    // Piece table of random bytes; fine wherever the hashes are never checked
+    public static byte[] randomHashes(int pieces, long seed) {
+        byte[] hashes = new byte[pieces * 20];
+        new Random(seed).nextBytes(hashes);
+        return hashes;
+    }
+
+    // Writes size random bytes to file and returns their SHA-1 piece table
+    public static byte[] payload(Path file, long size, int pieceLength, long seed)
+            throws IOException, NoSuchAlgorithmException {
+        Files.createDirectories(file.getParent());
+        int pieces = (int) ((size + pieceLength - 1) / pieceLength);
+        byte[] hashes = new byte[pieces * 20];
+        byte[] piece = new byte[pieceLength];
+        Random random = new Random(seed);
+        MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (int i = 0; i < pieces; i++) {
+                int length = (int) Math.min(pieceLength, size - (long) i * pieceLength);
+                random.nextBytes(piece);
+                sha1.update(piece, 0, length);
+                System.arraycopy(sha1.digest(), 0, hashes, i * 20, 20);
+                ByteBuffer buffer = ByteBuffer.wrap(piece, 0, length);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        }
+        return hashes;
+    }
+
+    // The full application on an in-memory H2 database, without the web
+    // server, peer port or seeding
+    public static ConfigurableApplicationContext boot(Path workDir) {
+        // Command-line arguments so they win over the backend's application.properties
+        return new SpringApplicationBuilder(BitTorrentApplication.class)
+                .web(WebApplicationType.NONE)
+                .run(
+                        "--spring.datasource.url=jdbc:h2:mem:bench;DB_CLOSE_DELAY=-1;MODE=PostgreSQL",
+                        "--spring.datasource.username=sa",
+                        "--spring.datasource.password=",
+                        "--spring.jpa.hibernate.ddl-auto=create-drop",
+                        "--spring.jpa.show-sql=false",
+                        "--logging.level.com.bittorrent=WARN",
+                        "--torrent.peer.enabled=false",
+                        "--torrent.seed.enabled=false",
+                        "--torrent.download.dir=" + workDir.resolve("downloads"),
+                        "--torrent.meta.dir=" + workDir.resolve("torrents"),
+                        // Scheduled flushes and resyncs stay out of the measurements
+                        "--torrent.progress.flush-interval-ms=86400000",
+                        "--torrent.overview.resync-interval-ms=86400000",
+                        "--torrent.seed.flush-interval-ms=86400000");
+    }
+
+    public static void deleteRecursively(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
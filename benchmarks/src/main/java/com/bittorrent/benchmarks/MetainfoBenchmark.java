@@ -0,0 +1,63 @@
+package com.bittorrent.benchmarks;
+
+import com.bittorrent.service.TorrentMetainfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// The uploadTorrent path: bdecode the .torrent, SHA-1 the info dictionary for
+// the info hash, and hex-encode it. The piece table dominates the file size.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetainfoBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int pieces;
+
+    private byte[] encoded;
+    private Path dir;
+    private File file;
+
+    @Setup
+    public void setup() throws Exception {
+        int pieceLength = 256 * 1024;
+        encoded = Fixtures.metainfo("bench.bin", (long) pieces * pieceLength, pieceLength,
+                Fixtures.randomHashes(pieces, 1));
+        dir = Files.createTempDirectory("metainfo-bench");
+        file = dir.resolve("bench.torrent").toFile();
+        Files.write(file.toPath(), encoded);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Fixtures.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public String parse() throws Exception {
+        return new TorrentMetainfo(encoded).getHexInfoHash();
+    }
+
+    // As uploadTorrent does it, reading the stored file back
+    @Benchmark
+    public String load() throws Exception {
+        return TorrentMetainfo.load(file).getHexInfoHash();
+    }
+}
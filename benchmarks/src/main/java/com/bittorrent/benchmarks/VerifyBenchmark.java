@@ -0,0 +1,79 @@
+package com.bittorrent.benchmarks;
+
+import com.bittorrent.service.LiveStatsStore;
+import com.bittorrent.service.PieceVerifier;
+import com.bittorrent.service.TorrentMetainfo;
+import com.bittorrent.service.TorrentMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// SHA-1 piece verification over a 64 MiB payload: the full PieceVerifier
+// recheck (positional reads plus parallel hashing), and a single-threaded
+// digest of one in-memory piece as the ceiling. MB/s = 64 / score for verify.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VerifyBenchmark {
+    private static final long PAYLOAD_BYTES = 64L << 20;
+
+    @Param({"262144", "1048576", "4194304"})
+    public int pieceLength;
+
+    @Param({"1", "0"})
+    public int parallelism;
+
+    private Path dir;
+    private TorrentMetainfo metainfo;
+    private PieceVerifier verifier;
+    private byte[] piece;
+    private MessageDigest sha1;
+
+    @Setup
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("verify-bench");
+        byte[] hashes = Fixtures.payload(dir.resolve("bench.bin"), PAYLOAD_BYTES, pieceLength, 1);
+        metainfo = new TorrentMetainfo(Fixtures.metainfo("bench.bin", PAYLOAD_BYTES, pieceLength, hashes));
+        verifier = new PieceVerifier(parallelism, new TorrentMetrics(new SimpleMeterRegistry(), new LiveStatsStore()));
+        piece = new byte[pieceLength];
+        new Random(2).nextBytes(piece);
+        sha1 = MessageDigest.getInstance("SHA-1");
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        verifier.shutdown();
+        Fixtures.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public int verify() throws Exception {
+        return verifier.verify(metainfo, dir.toFile()).validPieces().cardinality();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public byte[] digestPiece() {
+        return sha1.digest(piece);
+    }
+}
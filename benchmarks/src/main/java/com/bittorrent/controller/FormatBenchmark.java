@@ -0,0 +1,54 @@
+package com.bittorrent.controller;
+
+import com.bittorrent.model.Download;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Per-request formatting in GET /{id}/stats. Lives in the controller package
+// to reach the package-private helpers.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatBenchmark {
+    private static final long[] SIZES = {512L, 48_000L, 7_340_032L, 3_221_225_472L, 5_497_558_138_880L};
+
+    private Download download;
+
+    @Setup
+    public void setup() {
+        download = new Download();
+        download.setDownloadSpeed(3_145_728L);
+        download.setUploadSpeed(524_288L);
+        download.setProgress(0.4217);
+        download.setDownloadedBytes(1_811_939_328L);
+        download.setTotalBytes(4_294_967_296L);
+        download.setEstimatedTimeRemaining(5_432L);
+    }
+
+    @Benchmark
+    public Map<String, String> formatStats() {
+        return TorrentController.formatStats(download);
+    }
+
+    @Benchmark
+    public void formatBytes(Blackhole bh) {
+        for (long size : SIZES) {
+            bh.consume(TorrentController.formatBytes(size));
+        }
+    }
+}
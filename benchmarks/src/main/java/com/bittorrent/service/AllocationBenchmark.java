@@ -0,0 +1,133 @@
+package com.bittorrent.service;
+
+import com.bittorrent.benchmarks.Fixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Sequential read-back of a 256 MiB payload laid out under each FileAllocator
+// mode: setup writes the pieces in random order the way a download would (with
+// the mode's preallocation or compaction around it), then the benchmark reads
+// the file front to back. With cache=COLD the page cache is dropped before
+// every read (Linux, needs root) so it does not hide the on-disk layout, and
+// the run fails where that is not allowed; cache=WARM reads from memory, says
+// little about the modes, and is labelled so in the results. MB/s = 256 / score. In the service package because the allocation steps are
+// package-private.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AllocationBenchmark {
+    private static final long PAYLOAD_BYTES = 256L << 20;
+    private static final int READ_CHUNK = 4 << 20;
+    private static final Path DROP_CACHES = Path.of("/proc/sys/vm/drop_caches");
+
+    @Param({FileAllocator.SPARSE, FileAllocator.FULL, FileAllocator.COMPACT})
+    public String mode;
+
+    @Param({"262144"})
+    public int pieceLength;
+
+    @Param({"COLD"})
+    public String cache;
+
+    private Path dir;
+    private Path file;
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setup() throws Exception {
+        if ("COLD".equals(cache) && !Files.isWritable(DROP_CACHES)) {
+            throw new IllegalStateException("Cannot drop the page cache here; run as root on Linux,"
+                    + " or pass -p cache=WARM for warm-cache reads");
+        }
+        dir = Files.createTempDirectory("allocation-bench");
+        file = dir.resolve("payload.bin");
+        if (FileAllocator.FULL.equals(mode)) {
+            FileAllocator.zeroFill(file, PAYLOAD_BYTES);
+        } else {
+            // What ttorrent's FileStorage does
+            try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+                raf.setLength(PAYLOAD_BYTES);
+            }
+        }
+        writeShuffled();
+        if (FileAllocator.COMPACT.equals(mode)) {
+            FileAllocator.compact(file);
+        }
+        buffer = ByteBuffer.allocateDirect(READ_CHUNK);
+    }
+
+    @Setup(Level.Invocation)
+    public void dropCache() throws IOException {
+        if ("COLD".equals(cache)) {
+            Files.writeString(DROP_CACHES, "1");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Fixtures.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public long sequentialRead() throws IOException {
+        long total = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            int read;
+            while ((read = channel.read(buffer.clear(), total)) > 0) {
+                total += read;
+            }
+        }
+        return total;
+    }
+
+    private void writeShuffled() throws IOException {
+        int pieces = (int) ((PAYLOAD_BYTES + pieceLength - 1) / pieceLength);
+        List<Integer> order = new ArrayList<>(pieces);
+        for (int i = 0; i < pieces; i++) {
+            order.add(i);
+        }
+        Random random = new Random(1);
+        Collections.shuffle(order, random);
+        byte[] noise = new byte[pieceLength];
+        random.nextBytes(noise);
+        ByteBuffer piece = ByteBuffer.allocateDirect(pieceLength).put(noise).flip();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            for (int index : order) {
+                long offset = (long) index * pieceLength;
+                ByteBuffer data = piece.duplicate();
+                data.limit((int) Math.min(pieceLength, PAYLOAD_BYTES - offset));
+                while (data.hasRemaining()) {
+                    channel.write(data, offset + data.position());
+                }
+            }
+            channel.force(true);
+        }
+    }
+}
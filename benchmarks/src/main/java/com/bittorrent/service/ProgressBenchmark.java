@@ -0,0 +1,80 @@
+package com.bittorrent.service;
+
+import com.bittorrent.benchmarks.Fixtures;
+import com.bittorrent.model.Download;
+import com.turn.ttorrent.client.Client;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+// One progress tick of DownloadProgressTracker: sample() reads ttorrent's
+// counters and does the speed/ETA math, updateProgress() builds the snapshot
+// and publishes it to LiveStatsStore. In the service package because the
+// tracker is package-private.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProgressBenchmark {
+    private static final int PIECES = 64;
+    private static final int PIECE_LENGTH = 256 * 1024;
+
+    private Path dir;
+    private ResumableSharedTorrent torrent;
+    private Client client;
+    private DownloadProgressTracker tracker;
+    private long tick;
+
+    @Setup
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("progress-bench");
+        long size = (long) PIECES * PIECE_LENGTH;
+        TorrentMetainfo metainfo = new TorrentMetainfo(
+                Fixtures.metainfo("bench.bin", size, PIECE_LENGTH, Fixtures.randomHashes(PIECES, 1)));
+        torrent = new ResumableSharedTorrent(metainfo, dir.toFile());
+        BitSet half = new BitSet();
+        half.set(0, PIECES / 2);
+        torrent.trust(half);
+        torrent.init();
+        client = new Client(InetAddress.getLoopbackAddress(), torrent);
+
+        LiveStatsStore liveStats = new LiveStatsStore();
+        Download download = new Download();
+        download.setId(1L);
+        liveStats.register(1L, download);
+        tracker = new DownloadProgressTracker(1L, liveStats, client, metainfo, 0L);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        torrent.close();
+        Fixtures.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public void sample() {
+        tracker.sample();
+    }
+
+    @Benchmark
+    public void updateProgress() {
+        long t = ++tick;
+        tracker.updateProgress(0.5, t * 16384, t * 4096, 3_145_728L, 524_288L, 12, 40, 5_432L);
+    }
+}